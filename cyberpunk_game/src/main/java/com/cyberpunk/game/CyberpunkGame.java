@@ -1,11 +1,22 @@
 package com.cyberpunk.game;
 
+import com.cyberpunk.game.city.CityGenerator;
+import com.cyberpunk.game.gameplay.CombatSystem;
+import org.joml.Vector3f;
 import org.lwjgl.Version;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.*;
 import org.lwjgl.system.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import static org.lwjgl.glfw.Callbacks.*;
 import static org.lwjgl.glfw.GLFW.*;
@@ -32,12 +43,25 @@ public class CyberpunkGame {
     // Game states
     private boolean running = false;
     
+    // Seed the city and its building interiors are generated from; fixed so
+    // saved interior changes apply to the same city on the next run
+    private static final long WORLD_SEED = 2077L;
+    
+    // Shots fired with the left mouse button: muzzle height above the
+    // player's feet and distance to where they land
+    private static final float MUZZLE_HEIGHT = 1.5f;
+    private static final float SHOT_RANGE = 30.0f;
+    
+    // File the player's changes to building interiors are kept in between runs
+    private static final String INTERIOR_SAVE_FILE = "saves/interiors.dat";
+    
     // Input handler
     private InputHandler inputHandler;
     
     // Game components
     private Renderer renderer;
     private GameWorld gameWorld;
+    private CombatSystem combatSystem;
     private UIManager uiManager;
     
     /**
@@ -124,8 +148,21 @@ public class CyberpunkGame {
         
         // Initialize game components
         renderer = new Renderer();
+        try (MemoryStack stack = stackPush()) {
+            IntBuffer pWidth = stack.mallocInt(1);
+            IntBuffer pHeight = stack.mallocInt(1);
+            glfwGetFramebufferSize(window, pWidth, pHeight);
+            renderer.setViewport(pWidth.get(0), pHeight.get(0));
+        }
+        glfwSetFramebufferSizeCallback(window, (win, newWidth, newHeight) -> renderer.setViewport(newWidth, newHeight));
+        CityGenerator cityGenerator = new CityGenerator(WORLD_SEED);
+        cityGenerator.generateBuildings();
+        renderer.setCity(cityGenerator);
         gameWorld = new GameWorld();
+        combatSystem = new CombatSystem();
+        renderer.setCombatSystem(combatSystem);
         uiManager = new UIManager(width, height);
+        loadInteriorChanges();
         
         // Set the running flag
         running = true;
@@ -173,9 +210,28 @@ public class CyberpunkGame {
      */
     private void update(double delta) {
         gameWorld.update(delta);
+        if (inputHandler.isMouseButtonPressed(GLFW_MOUSE_BUTTON_LEFT)) {
+            fireShot();
+        }
+        combatSystem.update((float) delta);
         uiManager.update(delta);
     }
     
+    /**
+     * Fire a shot straight ahead of the player.
+     */
+    private void fireShot() {
+        Player player = gameWorld.getPlayer();
+        float rotationY = player.getRotationY();
+        Vector3f start = new Vector3f(player.getX(), player.getY() + MUZZLE_HEIGHT, player.getZ());
+        Vector3f end = new Vector3f(
+            start.x + (float) Math.sin(rotationY) * SHOT_RANGE,
+            start.y,
+            start.z + (float) Math.cos(rotationY) * SHOT_RANGE
+        );
+        combatSystem.addShot(start, end);
+    }
+    
     /**
      * Render the game.
      */
@@ -190,10 +246,48 @@ public class CyberpunkGame {
         renderer.renderUI(uiManager);
     }
     
+    /**
+     * Load the player's changes to building interiors from the last run, if
+     * there are any.
+     */
+    private void loadInteriorChanges() {
+        Path file = Paths.get(INTERIOR_SAVE_FILE);
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            renderer.loadInteriorDeltas(in);
+        } catch (IOException e) {
+            System.err.println("Failed to load interior changes from " + file + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Save the player's changes to building interiors for the next run.
+     */
+    private void saveInteriorChanges() {
+        Path file = Paths.get(INTERIOR_SAVE_FILE);
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                renderer.saveInteriorDeltas(out);
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to save interior changes to " + file + ": " + e.getMessage());
+        }
+    }
+    
     /**
      * Clean up resources.
      */
     private void cleanup() {
+        // Keep the player's changes, then release GPU resources while the
+        // context is still current
+        if (renderer != null) {
+            saveInteriorChanges();
+            renderer.cleanup();
+        }
+        
         // Free the window callbacks and destroy the window
         glfwFreeCallbacks(window);
         glfwDestroyWindow(window);
@@ -1,7 +1,10 @@
 package com.cyberpunk.game;
 
+import com.cyberpunk.game.render.CrowdAppearance;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 /**
  * Represents the game world including the city, buildings, NPCs, and player.
@@ -119,6 +122,7 @@ public class GameWorld {
         // In the future, this will load NPC data from files
         
         // Create a few sample NPCs
+        Random random = new Random();
         for (int i = 0; i < 30; i++) {
             float x = (float) (Math.random() * worldSize - worldSize/2);
             float z = (float) (Math.random() * worldSize - worldSize/2);
@@ -127,6 +131,9 @@ public class GameWorld {
             npc.setPosition(x, 0, z);
             npc.setType(NPC.Type.values()[(int) (Math.random() * NPC.Type.values().length)]);
             
+            // Random appearance; cybernetics are more common for gang members
+            npc.getAppearance().randomize(random, npc.getType() == NPC.Type.GANG_MEMBER ? 1.0f : 0.3f);
+            
             npcs.add(npc);
         }
     }
@@ -266,6 +273,10 @@ class Player extends Entity {
     public Inventory getInventory() {
         return inventory;
     }
+    
+    public float getRotationY() {
+        return rotationY;
+    }
 }
 
 /**
@@ -368,8 +379,10 @@ class NPC extends Entity {
     
     private Type type;
     private float speed = 1.0f;
+    private float rotationY = 0.0f;
     private Building targetBuilding;
     private boolean insideBuilding = false;
+    private final CrowdAppearance appearance = new CrowdAppearance();
     
     public void setType(Type type) {
         this.type = type;
@@ -379,6 +392,14 @@ class NPC extends Entity {
         return type;
     }
     
+    public float getRotationY() {
+        return rotationY;
+    }
+    
+    public CrowdAppearance getAppearance() {
+        return appearance;
+    }
+    
     public void setTargetBuilding(Building building) {
         this.targetBuilding = building;
     }
@@ -386,10 +407,13 @@ class NPC extends Entity {
     @Override
     public void update(double delta) {
         // NPC AI logic will go here
-        // For now, just random movement
+        // For now, just random movement, facing the way it steps
         if (Math.random() < 0.01) {
-            x += (Math.random() - 0.5) * speed;
-            z += (Math.random() - 0.5) * speed;
+            float dx = (float) ((Math.random() - 0.5) * speed);
+            float dz = (float) ((Math.random() - 0.5) * speed);
+            x += dx;
+            z += dz;
+            rotationY = (float) Math.atan2(dx, dz);
         }
     }
 }
@@ -2,11 +2,97 @@ package com.cyberpunk.game;
 
 import static org.lwjgl.opengl.GL11.*;
 
+import com.cyberpunk.game.city.BuildingData;
+import com.cyberpunk.game.city.BuildingInstanceRenderer;
+import com.cyberpunk.game.city.BuildingInterior;
+import com.cyberpunk.game.city.BuildingInteriorGenerator;
+import com.cyberpunk.game.city.BuildingInteriorRenderer;
+import com.cyberpunk.game.city.CityGenerator;
+import com.cyberpunk.game.city.CityRenderer;
+import com.cyberpunk.game.city.InteriorCache;
+import com.cyberpunk.game.city.InteriorDeltaStore;
+import com.cyberpunk.game.city.InteriorPrefetcher;
+import com.cyberpunk.game.city.InteriorVisibility;
+import com.cyberpunk.game.gameplay.CombatEffectRenderer;
+import com.cyberpunk.game.gameplay.CombatSystem;
+import com.cyberpunk.game.render.Camera;
+import com.cyberpunk.game.render.ClusteredLights;
+import com.cyberpunk.game.render.CrowdRenderer;
+import com.cyberpunk.game.render.DistanceFog;
+import com.cyberpunk.game.render.DynamicResolution;
+import com.cyberpunk.game.render.ParticleSystem;
+import com.cyberpunk.game.render.RenderQueue;
+import com.cyberpunk.game.render.RenderStats;
+import com.cyberpunk.game.render.ShadowCascades;
+import com.cyberpunk.game.render.TextureLoader;
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.joml.Vector3f;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Handles rendering for the game.
  */
 public class Renderer {
     
+    // Height of the camera above the player's feet
+    private static final float EYE_HEIGHT = 1.7f;
+    
+    // Direction of the light casting shadows: low moonlight over the skyline
+    private static final float LIGHT_X = -0.4f;
+    private static final float LIGHT_Y = -1.0f;
+    private static final float LIGHT_Z = -0.3f;
+    
+    // Camera following the player
+    private final Camera camera;
+    
+    // Draws of the frame, sorted by state before submission
+    private final RenderQueue renderQueue;
+    
+    // GPU buffers and the city's static geometry
+    private final PerformanceOptimizer performanceOptimizer;
+    private final CityRenderer cityRenderer;
+    private final BuildingInstanceRenderer buildingRenderer;
+    private CityGenerator city;
+    private List<BuildingData> buildings;
+    
+    // Textures, loaded in the background at the quality settings
+    private final TextureLoader textureLoader;
+    
+    // Interiors, generated ahead of the player and drawn for the building
+    // the player is inside
+    private final BuildingInteriorRenderer interiorRenderer;
+    private InteriorDeltaStore interiorDeltas;
+    private InteriorCache interiorCache;
+    private InteriorPrefetcher interiorPrefetcher;
+    private BuildingData enteredBuilding;
+    private BuildingInterior enteredInterior;
+    private final Vector3f playerPosition;
+    
+    // NPCs, drawn instanced from their appearance
+    private final CrowdRenderer crowdRenderer;
+    
+    // Shadows, with the buildings cached between frames
+    private final ShadowCascades shadows;
+    
+    // Neon sign and muzzle flash lights, binned per view cluster
+    private final ClusteredLights lights;
+    
+    // Scene resolution that follows the GPU time
+    private final DynamicResolution dynamicResolution;
+    
+    // Per-frame combat effects, streamed to the GPU
+    private final CombatEffectRenderer combatEffectRenderer;
+    private CombatSystem combatSystem;
+    
+    // Sparks and rain, simulated on the GPU
+    private final ParticleSystem particleSystem;
+    private final List<Vector3f> newImpacts;
+    
     /**
      * Constructor.
      */
@@ -15,6 +101,33 @@ public class Renderer {
         glEnable(GL_DEPTH_TEST);
         glEnable(GL_CULL_FACE);
         glCullFace(GL_BACK);
+        
+        camera = new Camera();
+        renderQueue = new RenderQueue();
+        
+        // Build static geometry once a city is set
+        performanceOptimizer = new PerformanceOptimizer();
+        textureLoader = new TextureLoader(performanceOptimizer);
+        shadows = new ShadowCascades(performanceOptimizer);
+        shadows.setLightDirection(LIGHT_X, LIGHT_Y, LIGHT_Z);
+        cityRenderer = new CityRenderer(performanceOptimizer, textureLoader);
+        buildingRenderer = cityRenderer.getBuildingRenderer();
+        buildings = new ArrayList<>(); // Until a city is set with setCity
+        buildingRenderer.setBuildings(buildings);
+        cityRenderer.setShadows(shadows);
+        lights = new ClusteredLights();
+        cityRenderer.setLights(lights);
+        shadows.invalidate();
+        crowdRenderer = new CrowdRenderer(performanceOptimizer);
+        crowdRenderer.setShadows(shadows);
+        crowdRenderer.setLights(lights);
+        combatEffectRenderer = new CombatEffectRenderer();
+        particleSystem = new ParticleSystem(performanceOptimizer);
+        newImpacts = new ArrayList<>();
+        dynamicResolution = new DynamicResolution(performanceOptimizer);
+        interiorRenderer = new BuildingInteriorRenderer(textureLoader);
+        playerPosition = new Vector3f();
+        createInteriorCache(0);
     }
     
     /**
@@ -25,167 +138,354 @@ public class Renderer {
     public void renderWorld(GameWorld gameWorld) {
         if (gameWorld == null) return;
         
-        // Set up 3D rendering
-        glMatrixMode(GL_PROJECTION);
-        glLoadIdentity();
+        // Render from the player's point of view
+        Player player = gameWorld.getPlayer();
+        renderScene(player.getX(), player.getY() + EYE_HEIGHT, player.getZ(), player.getRotationY(), 0.0f, gameWorld);
+    }
+    
+    /**
+     * Render the city from a given point of view, without game world
+     * entities but with the crowd added to getCrowdRenderer(), e.g. for
+     * benchmarks.
+     * 
+     * @param x Camera X position
+     * @param y Camera Y position
+     * @param z Camera Z position
+     * @param rotationY Heading around the Y axis in radians
+     * @param pitch Rotation above the horizon in radians
+     */
+    public void renderView(float x, float y, float z, float rotationY, float pitch) {
+        renderScene(x, y, z, rotationY, pitch, null);
+    }
+    
+    /**
+     * Render the scene from a point of view.
+     * 
+     * @param x Camera X position
+     * @param y Camera Y position
+     * @param z Camera Z position
+     * @param rotationY Heading around the Y axis in radians
+     * @param pitch Rotation above the horizon in radians
+     * @param gameWorld The game world whose entities are drawn, or null for none
+     */
+    private void renderScene(float x, float y, float z, float rotationY, float pitch, GameWorld gameWorld) {
+        RenderStats.beginFrame();
         
-        // Set perspective projection
-        float aspectRatio = 1280.0f / 720.0f;
-        float fov = 70.0f;
-        float nearPlane = 0.1f;
-        float farPlane = 1000.0f;
+        // Place the camera out to the render distance of the quality settings
+        float renderDistance = performanceOptimizer.getActualRenderDistance();
+        camera.setPosition(x, y, z);
+        camera.setRotation(rotationY, pitch);
+        camera.setFarPlane(renderDistance);
         
-        // Calculate perspective projection
-        float yScale = (float) (1.0 / Math.tan(Math.toRadians(fov / 2)));
-        float xScale = yScale / aspectRatio;
-        float frustumLength = farPlane - nearPlane;
+        // Add the NPCs to the crowd first, since it casts shadows
+        if (gameWorld != null) {
+            renderNPCs(gameWorld);
+        }
         
-        // Set up projection matrix
-        glFrustum(-nearPlane * xScale, nearPlane * xScale, 
-                 -nearPlane * yScale, nearPlane * yScale, 
-                 nearPlane, farPlane);
+        // Redraw the buildings into shadow cascades the camera has left and
+        // draw the crowd over them every frame; vehicles will join the crowd
+        // once they cast shadows. Done before the offscreen pass, which only
+        // holds the scene.
+        RenderQueue.DrawCommand crowdCasters = shadows.isEnabled() && crowdRenderer.prepareShadowCasters(camera)
+            ? crowdRenderer::renderShadowCasters : null;
+        shadows.update(camera, buildingRenderer::renderShadowCasters, crowdCasters);
         
-        // Set up modelview matrix
-        glMatrixMode(GL_MODELVIEW);
-        glLoadIdentity();
+        // Draw the scene offscreen at the scale the GPU time allows
+        dynamicResolution.begin(camera);
+        camera.apply();
         
-        // Render city
-        renderCity(gameWorld);
+        // Fade geometry out before the far plane cuts it off
+        DistanceFog.apply(renderDistance);
         
-        // Render buildings
-        renderBuildings(gameWorld);
+        // Throw sparks from new bullet impacts and shorting shop signs, and
+        // advance the particles
+        if (combatSystem != null) {
+            combatSystem.takeNewImpacts(newImpacts);
+            for (Vector3f impact : newImpacts) {
+                particleSystem.emitImpact(impact);
+            }
+            newImpacts.clear();
+        }
+        buildingRenderer.emitSignSparks(particleSystem, camera);
+        particleSystem.update(camera);
         
-        // Render vehicles
-        renderVehicles(gameWorld);
+        // Enter or leave buildings, and generate the interiors ahead of the
+        // player in the background
+        if (gameWorld != null) {
+            updateInteriors(gameWorld.getPlayer());
+        }
         
-        // Render NPCs
-        renderNPCs(gameWorld);
+        // Bin the shop sign and combat lights in view into clusters
+        lights.clear();
+        buildingRenderer.submitLights(lights, camera);
+        if (combatSystem != null) {
+            combatEffectRenderer.submitLights(combatSystem, lights);
+        }
+        lights.update(camera);
+        
+        renderQueue.begin(camera);
         
-        // Render player
-        renderPlayer(gameWorld);
+        // Render the ground, the roads, the buildings and the vehicles inside
+        // the view frustum and render distance, the buildings at their level
+        // of detail
+        if (city != null) {
+            cityRenderer.renderCity(city, camera, renderQueue);
+        }
+        
+        // Render the rooms visible inside the building the player is in
+        if (enteredInterior != null) {
+            BuildingData building = enteredBuilding;
+            InteriorVisibility visibility = interiorCache.getVisibility(building);
+            renderQueue.submit(RenderQueue.PASS_OPAQUE, null, 0, 0.0f, () -> renderInterior(building, visibility, x, y, z));
+        }
+        
+        if (gameWorld != null) {
+            // Render vehicles
+            renderVehicles(gameWorld);
+            
+            // Render player
+            renderPlayer(gameWorld);
+        }
+        
+        // Render the crowd in view with one instanced draw per body mesh;
+        // binds its own shader
+        if (crowdRenderer.getCount() > 0) {
+            renderQueue.submit(RenderQueue.PASS_OPAQUE, null, 0, 0.0f, () -> crowdRenderer.render(camera));
+        }
+        
+        // Render tracers, impacts and damage numbers over the scene
+        if (combatSystem != null) {
+            renderQueue.submit(RenderQueue.PASS_TRANSPARENT, combatEffectRenderer.getShader(), 0, 0.0f,
+                () -> combatEffectRenderer.render(combatSystem, camera));
+        }
+        renderQueue.submit(RenderQueue.PASS_TRANSPARENT, particleSystem.getShader(), 0, 0.0f,
+            () -> particleSystem.render(camera));
+        
+        renderQueue.execute();
+        
+        // Upscale into the window, where the UI is drawn at full resolution
+        dynamicResolution.end(camera);
+        
+        RenderStats.endFrame();
     }
     
     /**
-     * Render the city.
+     * Resize the viewport.
      * 
-     * @param gameWorld The game world containing the city
+     * @param width Framebuffer width in pixels
+     * @param height Framebuffer height in pixels
      */
-    private void renderCity(GameWorld gameWorld) {
-        // Placeholder for city rendering
-        // This will be expanded in future implementations
-        
-        // For now, just render a simple ground plane
-        glBegin(GL_QUADS);
-        glColor3f(0.2f, 0.2f, 0.2f); // Dark gray for road
-        
-        float size = 100.0f;
-        glVertex3f(-size, 0.0f, -size);
-        glVertex3f(-size, 0.0f, size);
-        glVertex3f(size, 0.0f, size);
-        glVertex3f(size, 0.0f, -size);
-        
-        glEnd();
+    public void setViewport(int width, int height) {
+        glViewport(0, 0, width, height);
+        camera.setViewport(width, height);
+        dynamicResolution.setViewport(width, height);
     }
     
     /**
-     * Render buildings.
+     * Replace the city drawn with a generated one, whose interiors are
+     * derived from its world seed. Must be called on the render thread.
      * 
-     * @param gameWorld The game world containing buildings
+     * @param city The city generator, with its buildings generated
      */
-    private void renderBuildings(GameWorld gameWorld) {
-        // Placeholder for building rendering
-        // This will be expanded in future implementations
+    public void setCity(CityGenerator city) {
+        exitBuilding();
+        this.city = city;
+        buildings = city.getBuildings();
+        cityRenderer.setCity(city);
+        shadows.invalidate();
+        long worldSeed = city.getSeed();
+        if (worldSeed != interiorCache.getGenerator().getWorldSeed()) {
+            interiorPrefetcher.cleanup();
+            createInteriorCache(worldSeed);
+        }
+    }
+    
+    /**
+     * Create the interior cache, its prefetcher and an empty delta store for
+     * a world seed.
+     * 
+     * @param worldSeed World seed
+     */
+    private void createInteriorCache(long worldSeed) {
+        interiorDeltas = new InteriorDeltaStore(worldSeed);
+        interiorCache = new InteriorCache(new BuildingInteriorGenerator(worldSeed));
+        interiorCache.setDeltaStore(interiorDeltas);
+        interiorPrefetcher = new InteriorPrefetcher(interiorCache);
+    }
+    
+    /**
+     * Enter the building the player is standing in, leave the one the player
+     * walked out of, and prefetch the interiors the player is approaching.
+     * 
+     * @param player The player
+     */
+    private void updateInteriors(Player player) {
+        playerPosition.set(player.getX(), player.getY(), player.getZ());
+        interiorPrefetcher.update(playerPosition, player.getRotationY(), buildings);
         
-        // For now, just render a simple building
-        renderSimpleBuilding(0, 0, 0);
-        renderSimpleBuilding(20, 0, 20);
-        renderSimpleBuilding(-20, 0, -20);
-        renderSimpleBuilding(20, 0, -20);
-        renderSimpleBuilding(-20, 0, 20);
+        BuildingData building = findBuildingAt(player.getX(), player.getY(), player.getZ());
+        if (building == enteredBuilding) {
+            return;
+        }
+        
+        exitBuilding();
+        if (building != null) {
+            enteredBuilding = building;
+            enteredInterior = interiorPrefetcher.enterBuilding(building);
+        }
+    }
+    
+    /**
+     * Leave the building the player is in, if any, so its interior can be
+     * evicted.
+     */
+    private void exitBuilding() {
+        if (enteredBuilding != null) {
+            interiorPrefetcher.exitBuilding(enteredBuilding);
+            enteredBuilding = null;
+            enteredInterior = null;
+        }
     }
     
     /**
-     * Render a simple building.
+     * Find the building whose footprint contains a position.
      * 
      * @param x X position
      * @param y Y position
      * @param z Z position
+     * @return The building, or null if the position is outside
      */
-    private void renderSimpleBuilding(float x, float y, float z) {
-        glPushMatrix();
-        glTranslatef(x, y, z);
-        
-        // Building dimensions
-        float width = 10.0f;
-        float height = 30.0f;
-        float depth = 10.0f;
-        
-        // Building color
-        glColor3f(0.4f, 0.4f, 0.5f);
-        
-        // Front face
-        glBegin(GL_QUADS);
-        glVertex3f(-width/2, 0, -depth/2);
-        glVertex3f(width/2, 0, -depth/2);
-        glVertex3f(width/2, height, -depth/2);
-        glVertex3f(-width/2, height, -depth/2);
-        glEnd();
-        
-        // Back face
-        glBegin(GL_QUADS);
-        glVertex3f(-width/2, 0, depth/2);
-        glVertex3f(width/2, 0, depth/2);
-        glVertex3f(width/2, height, depth/2);
-        glVertex3f(-width/2, height, depth/2);
-        glEnd();
-        
-        // Left face
-        glBegin(GL_QUADS);
-        glVertex3f(-width/2, 0, -depth/2);
-        glVertex3f(-width/2, 0, depth/2);
-        glVertex3f(-width/2, height, depth/2);
-        glVertex3f(-width/2, height, -depth/2);
-        glEnd();
-        
-        // Right face
-        glBegin(GL_QUADS);
-        glVertex3f(width/2, 0, -depth/2);
-        glVertex3f(width/2, 0, depth/2);
-        glVertex3f(width/2, height, depth/2);
-        glVertex3f(width/2, height, -depth/2);
-        glEnd();
-        
-        // Top face
-        glBegin(GL_QUADS);
-        glVertex3f(-width/2, height, -depth/2);
-        glVertex3f(width/2, height, -depth/2);
-        glVertex3f(width/2, height, depth/2);
-        glVertex3f(-width/2, height, depth/2);
-        glEnd();
-        
-        // Windows
-        glColor3f(0.7f, 0.8f, 1.0f);
-        
-        // Front windows
-        for (int floor = 1; floor < 10; floor++) {
-            for (int window = 0; window < 3; window++) {
-                float windowWidth = 2.0f;
-                float windowHeight = 2.0f;
-                float windowX = -width/2 + 2.0f + window * 3.0f;
-                float windowY = floor * 3.0f;
-                
-                glBegin(GL_QUADS);
-                glVertex3f(windowX, windowY, -depth/2 - 0.1f);
-                glVertex3f(windowX + windowWidth, windowY, -depth/2 - 0.1f);
-                glVertex3f(windowX + windowWidth, windowY + windowHeight, -depth/2 - 0.1f);
-                glVertex3f(windowX, windowY + windowHeight, -depth/2 - 0.1f);
-                glEnd();
+    private BuildingData findBuildingAt(float x, float y, float z) {
+        for (BuildingData building : buildings) {
+            if (Math.abs(x - building.getX()) < building.getWidth() / 2
+                && Math.abs(z - building.getZ()) < building.getDepth() / 2
+                && y >= building.getY() && y < building.getY() + building.getHeight()) {
+                return building;
             }
         }
-        
+        return null;
+    }
+    
+    /**
+     * Render the rooms of an interior visible from the camera.
+     * 
+     * @param building The building the interior belongs to
+     * @param visibility The interior's room graph, from the interior cache
+     * @param x Camera X position
+     * @param y Camera Y position
+     * @param z Camera Z position
+     */
+    private void renderInterior(BuildingData building, InteriorVisibility visibility, float x, float y, float z) {
+        glPushMatrix();
+        glTranslatef(building.getX(), building.getY(), building.getZ());
+        interiorRenderer.renderInterior(visibility, x - building.getX(), y - building.getY(), z - building.getZ(), camera);
         glPopMatrix();
     }
     
+    /**
+     * Set the combat system whose effects are drawn with the world.
+     * 
+     * @param combatSystem The combat system, or null to draw none
+     */
+    public void setCombatSystem(CombatSystem combatSystem) {
+        this.combatSystem = combatSystem;
+    }
+    
+    /**
+     * Get the store of player changes to interiors of the current world
+     * seed, e.g. to record furniture the player destroyed or looted. Moved
+     * furniture is recorded through InteriorCache.recordMoved, which also
+     * redraws it in its new place.
+     * 
+     * @return The interior delta store
+     */
+    public InteriorDeltaStore getInteriorDeltas() {
+        return interiorDeltas;
+    }
+    
+    /**
+     * Write the player's changes to interiors, e.g. to a save file.
+     * 
+     * @param out Output stream
+     * @throws IOException If an I/O error occurs
+     */
+    public void saveInteriorDeltas(DataOutputStream out) throws IOException {
+        interiorDeltas.write(out);
+    }
+    
+    /**
+     * Replace the player's changes to interiors with those from a save and
+     * drop cached interiors, so they are regenerated with the loaded changes.
+     * Refused while the player is inside a building, whose interior cannot
+     * be regenerated under them.
+     * 
+     * @param in Input stream
+     * @throws IOException If the save cannot be read or is for another world seed
+     * @throws IllegalStateException If the player is inside a building
+     */
+    public void loadInteriorDeltas(DataInputStream in) throws IOException {
+        if (enteredInterior != null) {
+            throw new IllegalStateException("Cannot load interior changes while inside a building");
+        }
+        interiorDeltas.read(in);
+        interiorCache.clear();
+    }
+    
+    /**
+     * Get the interior cache, e.g. for its statistics or to record moved
+     * furniture.
+     * 
+     * @return The interior cache
+     */
+    public InteriorCache getInteriorCache() {
+        return interiorCache;
+    }
+    
+    /**
+     * Get the particle system, e.g. to set the rain or emit sparks.
+     * 
+     * @return The particle system
+     */
+    public ParticleSystem getParticleSystem() {
+        return particleSystem;
+    }
+    
+    /**
+     * Get the crowd renderer, e.g. to draw a crowd without a game world.
+     * 
+     * @return The crowd renderer
+     */
+    public CrowdRenderer getCrowdRenderer() {
+        return crowdRenderer;
+    }
+    
+    /**
+     * Check if the buildings are culled and submitted by the GPU.
+     * 
+     * @return true if the GPU-driven path is in use
+     */
+    public boolean isGpuCulling() {
+        return buildingRenderer.isGpuCulling();
+    }
+    
+    /**
+     * Get the performance optimizer holding the quality settings.
+     * 
+     * @return The performance optimizer
+     */
+    public PerformanceOptimizer getPerformanceOptimizer() {
+        return performanceOptimizer;
+    }
+    
+    /**
+     * Get the camera.
+     * 
+     * @return The camera
+     */
+    public Camera getCamera() {
+        return camera;
+    }
+    
     /**
      * Render vehicles.
      * 
@@ -197,13 +497,15 @@ public class Renderer {
     }
     
     /**
-     * Render NPCs.
+     * Add the NPCs to the crowd drawn this frame.
      * 
      * @param gameWorld The game world containing NPCs
      */
     private void renderNPCs(GameWorld gameWorld) {
-        // Placeholder for NPC rendering
-        // This will be expanded in future implementations
+        crowdRenderer.clear();
+        for (NPC npc : gameWorld.getNpcs()) {
+            crowdRenderer.add(npc.getX(), npc.getY(), npc.getZ(), npc.getRotationY(), npc.getAppearance());
+        }
     }
     
     /**
@@ -232,13 +534,33 @@ public class Renderer {
         glMatrixMode(GL_MODELVIEW);
         glLoadIdentity();
         
-        // Disable depth testing for UI
+        // Disable depth testing and fog for UI
         glDisable(GL_DEPTH_TEST);
+        DistanceFog.disable();
         
-        // Render UI elements
-        uiManager.render();
+        // Render UI elements in the order they are submitted
+        renderQueue.begin(null);
+        uiManager.submit(renderQueue);
+        renderQueue.execute();
         
         // Re-enable depth testing
         glEnable(GL_DEPTH_TEST);
     }
+    
+    /**
+     * Clean up GPU resources.
+     */
+    public void cleanup() {
+        cityRenderer.cleanup();
+        crowdRenderer.cleanup();
+        interiorPrefetcher.cleanup();
+        interiorRenderer.cleanup();
+        textureLoader.cleanup();
+        combatEffectRenderer.cleanup();
+        particleSystem.cleanup();
+        shadows.cleanup();
+        lights.cleanup();
+        dynamicResolution.cleanup();
+        performanceOptimizer.cleanup();
+    }
 }
@@ -2,6 +2,8 @@ package com.cyberpunk.game;
 
 import static org.lwjgl.opengl.GL11.*;
 
+import com.cyberpunk.game.render.RenderQueue;
+
 /**
  * Manages all UI elements in the game.
  */
@@ -104,6 +106,35 @@ public class UIManager {
         tutorialTips.render();
     }
     
+    /**
+     * Submit the UI to a render queue, one packet per component, drawn in
+     * the same order as render().
+     * 
+     * @param queue Render queue to submit to
+     */
+    public void submit(RenderQueue queue) {
+        if (!mapExpanded) {
+            queue.submit(RenderQueue.PASS_UI, null, 0, 0.0f, miniMap::render);
+        } else {
+            queue.submit(RenderQueue.PASS_UI, null, 0, 0.0f,
+                () -> miniMap.renderExpanded(width / 2 - 300, height / 2 - 300, 600, 600));
+        }
+        
+        if (phoneOpen) {
+            queue.submit(RenderQueue.PASS_UI, null, 0, 0.0f, phone::render);
+        }
+        
+        if (inventoryOpen) {
+            queue.submit(RenderQueue.PASS_UI, null, 0, 0.0f, () -> inventory.render());
+        }
+        
+        if (pauseMenuOpen) {
+            queue.submit(RenderQueue.PASS_UI, null, 0, 0.0f, pauseMenu::render);
+        }
+        
+        queue.submit(RenderQueue.PASS_UI, null, 0, 0.0f, tutorialTips::render);
+    }
+    
     /**
      * Toggle the expanded map.
      */
@@ -0,0 +1,567 @@
+package com.cyberpunk.game.city;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL30.GL_R32F;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glUniform1ui;
+import static org.lwjgl.opengl.GL30.glVertexAttribIPointer;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
+import static org.lwjgl.opengl.GL42.*;
+import static org.lwjgl.opengl.GL43.*;
+
+import com.cyberpunk.game.render.Camera;
+import com.cyberpunk.game.render.ClusteredLights;
+import com.cyberpunk.game.render.RenderStats;
+import com.cyberpunk.game.render.ShaderProgram;
+import com.cyberpunk.game.render.ShadowCascades;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * GPU-driven culling and submission of building instances.
+ *
+ * All shell and detail instances live in a shader storage buffer. Each frame
+ * a compute pass tests every building against the view frustum and a
+ * hierarchical depth buffer (Hi-Z) built from the previous frame's depth,
+ * appends the visible instances to an index buffer and counts them into two
+ * indirect draw commands, shells and near-building details, which are then
+ * drawn with one glMultiDrawElementsIndirect call. The CPU does no per-
+ * building work.
+ *
+ * Requires OpenGL 4.3 (compute shaders, shader storage buffers and
+ * multi-draw indirect); BuildingInstanceRenderer falls back to CPU culling
+ * when isSupported() is false. Only core 4.3 features are used, so the path
+ * also runs on Mesa's llvmpipe software driver.
+ */
+class BuildingGpuCuller {
+
+    // Compute work group size
+    private static final int GROUP_SIZE = 64;
+
+    // Indirect command layout: count, instanceCount, firstIndex, baseVertex, baseInstance
+    private static final int COMMAND_INTS = 5;
+    private static final int COMMAND_COUNT = 2;
+
+    // Vertex attribute location of the visible instance index
+    private static final int ATTRIBUTE_INSTANCE_INDEX = 2;
+
+    // Storage buffer bindings
+    private static final int BINDING_INSTANCES = 0;
+    private static final int BINDING_DETAILS = 1;
+    private static final int BINDING_VISIBLE = 2;
+    private static final int BINDING_COMMANDS = 3;
+
+    private static final String CULL_SHADER = """
+        #version 430 core
+
+        layout(local_size_x = 64) in;
+
+        const uint INSTANCE_FLOATS = 13u;
+
+        layout(std430, binding = 0) readonly buffer Instances { float instances[]; };
+        layout(std430, binding = 1) readonly buffer Details { uvec2 details[]; };
+        layout(std430, binding = 2) writeonly buffer Visible { uint visible[]; };
+        layout(std430, binding = 3) buffer Commands { uint commands[]; };
+
+        uniform uint buildingCount;
+        uniform vec4 frustumPlanes[6];
+        uniform vec3 eye;
+        uniform float detailDistance;
+
+        uniform bool hizEnabled;
+        uniform mat4 hizViewProjection;
+        uniform vec2 hizSize;
+        uniform int hizMaxLevel;
+        uniform sampler2D hiz;
+
+        bool insideFrustum(vec3 lo, vec3 hi) {
+            for (int i = 0; i < 6; i++) {
+                // Corner furthest along the inward plane normal
+                vec3 corner = mix(lo, hi, greaterThan(frustumPlanes[i].xyz, vec3(0.0)));
+                if (dot(frustumPlanes[i].xyz, corner) + frustumPlanes[i].w < 0.0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        bool occluded(vec3 lo, vec3 hi) {
+            if (!hizEnabled) {
+                return false;
+            }
+
+            // Screen rectangle and nearest depth in the Hi-Z's frame
+            vec3 ndcMin = vec3(1.0);
+            vec3 ndcMax = vec3(-1.0);
+            for (int i = 0; i < 8; i++) {
+                vec3 corner = vec3((i & 1) != 0 ? hi.x : lo.x, (i & 2) != 0 ? hi.y : lo.y, (i & 4) != 0 ? hi.z : lo.z);
+                vec4 clip = hizViewProjection * vec4(corner, 1.0);
+                if (clip.w <= 0.0) {
+                    return false;
+                }
+                vec3 ndc = clip.xyz / clip.w;
+                ndcMin = min(ndcMin, ndc);
+                ndcMax = max(ndcMax, ndc);
+            }
+            ivec2 size = ivec2(hizSize);
+            ivec2 pixelMin = clamp(ivec2((ndcMin.xy * 0.5 + 0.5) * hizSize), ivec2(0), size - 1);
+            ivec2 pixelMax = clamp(ivec2((ndcMax.xy * 0.5 + 0.5) * hizSize), ivec2(0), size - 1);
+            float nearest = ndcMin.z * 0.5 + 0.5;
+
+            // Level where the pixel rectangle spans at most 2x2 texels. Mips
+            // are max(1, size >> level) with odd edges folded into the last
+            // texel, so a pixel's texel is its position shifted by the level,
+            // clamped to the mip; normalized coordinates would drift off the
+            // reduced blocks on viewports that are not a power of two
+            ivec2 extent = pixelMax - pixelMin + 1;
+            int level = min(int(ceil(log2(float(max(extent.x, extent.y))))), hizMaxLevel);
+            while (level < hizMaxLevel && any(greaterThan((pixelMax >> level) - (pixelMin >> level), ivec2(1)))) {
+                level++;
+            }
+            ivec2 last = textureSize(hiz, level) - 1;
+            ivec2 texelMin = min(pixelMin >> level, last);
+            ivec2 texelMax = min(pixelMax >> level, last);
+            float farthest = max(
+                max(texelFetch(hiz, texelMin, level).r, texelFetch(hiz, ivec2(texelMax.x, texelMin.y), level).r),
+                max(texelFetch(hiz, ivec2(texelMin.x, texelMax.y), level).r, texelFetch(hiz, texelMax, level).r));
+            return nearest > farthest;
+        }
+
+        void main() {
+            uint building = gl_GlobalInvocationID.x;
+            if (building >= buildingCount) {
+                return;
+            }
+
+            uint offset = building * INSTANCE_FLOATS;
+            vec3 position = vec3(instances[offset], instances[offset + 1u], instances[offset + 2u]);
+            vec3 size = vec3(instances[offset + 3u], instances[offset + 4u], instances[offset + 5u]);
+            vec3 lo = position - vec3(size.x * 0.5, 0.0, size.z * 0.5);
+            vec3 hi = position + vec3(size.x * 0.5, size.y, size.z * 0.5);
+            if (!insideFrustum(lo, hi) || occluded(lo, hi)) {
+                return;
+            }
+
+            // Shell into the first command, details of near buildings into the second
+            visible[atomicAdd(commands[1], 1u)] = building;
+            if (distance(eye.xz, position.xz) < detailDistance) {
+                uvec2 range = details[building];
+                uint first = atomicAdd(commands[6], range.y);
+                for (uint i = 0u; i < range.y; i++) {
+                    visible[buildingCount + first + i] = range.x + i;
+                }
+            }
+        }
+        """;
+
+    private static final String DEPTH_COPY_SHADER = """
+        #version 430 core
+
+        layout(local_size_x = 8, local_size_y = 8) in;
+
+        layout(r32f, binding = 0) writeonly uniform image2D target;
+        uniform sampler2D depth;
+
+        void main() {
+            ivec2 texel = ivec2(gl_GlobalInvocationID.xy);
+            if (all(lessThan(texel, imageSize(target)))) {
+                imageStore(target, texel, vec4(texelFetch(depth, texel, 0).r));
+            }
+        }
+        """;
+
+    private static final String REDUCE_SHADER = """
+        #version 430 core
+
+        layout(local_size_x = 8, local_size_y = 8) in;
+
+        layout(r32f, binding = 0) readonly uniform image2D source;
+        layout(r32f, binding = 1) writeonly uniform image2D target;
+
+        void main() {
+            ivec2 texel = ivec2(gl_GlobalInvocationID.xy);
+            ivec2 targetSize = imageSize(target);
+            if (any(greaterThanEqual(texel, targetSize))) {
+                return;
+            }
+
+            // Farthest of the 2x2 source texels, plus the odd row or column
+            // at the edge of an odd-sized source so nothing is skipped
+            ivec2 sourceSize = imageSize(source);
+            ivec2 last = min(texel * 2 + 1 + ivec2(equal(texel, targetSize - 1)) * (sourceSize & 1), sourceSize - 1);
+            float farthest = 0.0;
+            for (int y = texel.y * 2; y <= last.y; y++) {
+                for (int x = texel.x * 2; x <= last.x; x++) {
+                    farthest = max(farthest, imageLoad(source, ivec2(x, y)).r);
+                }
+            }
+            imageStore(target, texel, vec4(farthest));
+        }
+        """;
+
+    private static final String VERTEX_SHADER = """
+        #version 430 compatibility
+
+        layout(location = 0) in vec3 position;
+        layout(location = 1) in vec3 normal;
+        layout(location = 2) in uint instance;
+
+        const uint INSTANCE_FLOATS = 13u;
+
+        layout(std430, binding = 0) readonly buffer Instances { float instances[]; };
+
+        """ + BuildingInstanceRenderer.VERTEX_TRANSFORM + """
+
+        void main() {
+            uint o = instance * INSTANCE_FLOATS;
+            transform(position, normal,
+                vec3(instances[o], instances[o + 1u], instances[o + 2u]),
+                vec3(instances[o + 3u], instances[o + 4u], instances[o + 5u]),
+                vec3(instances[o + 6u], instances[o + 7u], instances[o + 8u]),
+                vec4(instances[o + 9u], instances[o + 10u], instances[o + 11u], instances[o + 12u]));
+        }
+        """;
+
+    // Programs
+    private ShaderProgram cullShader;
+    private ShaderProgram depthCopyShader;
+    private ShaderProgram reduceShader;
+    private ShaderProgram drawShader;
+
+    // Buffers
+    private int instanceBuffer;
+    private int detailBuffer;
+    private int visibleBuffer;
+    private int commandBuffer;
+    private int buildingCount;
+
+    // Hi-Z pyramid built from the last frame's depth
+    private int depthTexture;
+    private int hizTexture;
+    private int hizWidth;
+    private int hizHeight;
+    private int hizLevels;
+    private boolean hizValid;
+    private final Matrix4f hizViewProjection;
+
+    // Per-frame scratch
+    private final Vector4f plane;
+
+    /**
+     * Constructor.
+     */
+    BuildingGpuCuller() {
+        hizViewProjection = new Matrix4f();
+        plane = new Vector4f();
+    }
+
+    /**
+     * Whether the current context supports GPU culling.
+     *
+     * @return true if OpenGL 4.3 is available
+     */
+    static boolean isSupported() {
+        GLCapabilities capabilities = GL.getCapabilities();
+        return capabilities.OpenGL43;
+    }
+
+    /**
+     * Upload the instances and hook the visible instance list into a vertex
+     * array. Must be called on the render thread.
+     *
+     * @param instanceData Shell instances, one per building
+     * @param detailData Detail instances of all buildings
+     * @param detailFirst First detail instance of each building, plus the total
+     * @param boxVao Vertex array with the unit box mesh, which gets the instance index attribute
+     * @param boxIndexCount Index count of the unit box mesh
+     */
+    void setBuildings(float[] instanceData, float[] detailData, int[] detailFirst, int boxVao, int boxIndexCount) {
+        if (cullShader == null) {
+            cullShader = new ShaderProgram(CULL_SHADER);
+            depthCopyShader = new ShaderProgram(DEPTH_COPY_SHADER);
+            reduceShader = new ShaderProgram(REDUCE_SHADER);
+            drawShader = new ShaderProgram(VERTEX_SHADER, BuildingInstanceRenderer.FRAGMENT_SHADER);
+            ShadowCascades.attach(drawShader);
+            ClusteredLights.attach(drawShader);
+        }
+        deleteBuffers();
+
+        buildingCount = detailFirst.length - 1;
+        int detailCount = detailFirst[buildingCount];
+
+        // Shells followed by details, so one index addresses either
+        FloatBuffer instances = MemoryUtil.memAllocFloat(instanceData.length + detailData.length);
+        IntBuffer details = MemoryUtil.memAllocInt(buildingCount * 2);
+        IntBuffer commands = MemoryUtil.memAllocInt(COMMAND_INTS * COMMAND_COUNT);
+        try {
+            instances.put(instanceData).put(detailData).flip();
+            for (int i = 0; i < buildingCount; i++) {
+                details.put(buildingCount + detailFirst[i]).put(detailFirst[i + 1] - detailFirst[i]);
+            }
+            details.flip();
+            commands.put(getCommands(boxIndexCount)).flip();
+
+            instanceBuffer = createStorageBuffer(BINDING_INSTANCES);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, instances, GL_STATIC_DRAW);
+            detailBuffer = createStorageBuffer(BINDING_DETAILS);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, details, GL_STATIC_DRAW);
+            commandBuffer = createStorageBuffer(BINDING_COMMANDS);
+            glBufferData(GL_SHADER_STORAGE_BUFFER, commands, GL_DYNAMIC_DRAW);
+        } finally {
+            MemoryUtil.memFree(instances);
+            MemoryUtil.memFree(details);
+            MemoryUtil.memFree(commands);
+        }
+
+        // Visible instance indices: shells from 0, details from buildingCount
+        visibleBuffer = createStorageBuffer(BINDING_VISIBLE);
+        glBufferData(GL_SHADER_STORAGE_BUFFER, (long) Math.max(1, buildingCount + detailCount) * Integer.BYTES, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+
+        glBindVertexArray(boxVao);
+        glBindBuffer(GL_ARRAY_BUFFER, visibleBuffer);
+        glEnableVertexAttribArray(ATTRIBUTE_INSTANCE_INDEX);
+        glVertexAttribIPointer(ATTRIBUTE_INSTANCE_INDEX, 1, GL_UNSIGNED_INT, 0, 0);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_INDEX, 1);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Get the initial draw commands, with no instances.
+     *
+     * @param boxIndexCount Index count of the unit box mesh
+     * @return Shell and detail commands
+     */
+    private int[] getCommands(int boxIndexCount) {
+        return new int[] {
+            boxIndexCount, 0, 0, 0, 0,
+            boxIndexCount, 0, 0, 0, buildingCount
+        };
+    }
+
+    /**
+     * Create a shader storage buffer and bind it to its binding point. Leaves
+     * it bound for the data upload.
+     *
+     * @param binding Binding point
+     * @return Buffer ID
+     */
+    private static int createStorageBuffer(int binding) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_SHADER_STORAGE_BUFFER, buffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, binding, buffer);
+        return buffer;
+    }
+
+    /**
+     * Cull the buildings on the GPU and draw the visible ones.
+     *
+     * @param camera Camera the frame is rendered from
+     * @param vao Vertex array set up by setBuildings
+     * @param boxIndexCount Index count of the unit box mesh
+     * @param detailDistance Distance within which building details are drawn
+     * @param receiveShadows Whether to apply the shadow cascades
+     * @param receiveLights Whether to apply the clustered lights
+     */
+    void render(Camera camera, int vao, int boxIndexCount, float detailDistance,
+                boolean receiveShadows, boolean receiveLights) {
+        if (buildingCount == 0) {
+            return;
+        }
+
+        // Reset the instance counts of both commands
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, commandBuffer);
+            glBufferSubData(GL_SHADER_STORAGE_BUFFER, 0, stack.ints(getCommands(boxIndexCount)));
+            glBindBuffer(GL_SHADER_STORAGE_BUFFER, 0);
+        }
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, BINDING_INSTANCES, instanceBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, BINDING_DETAILS, detailBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, BINDING_VISIBLE, visibleBuffer);
+        glBindBufferBase(GL_SHADER_STORAGE_BUFFER, BINDING_COMMANDS, commandBuffer);
+
+        // Cull pass
+        Matrix4f viewProjection = camera.getViewProjectionMatrix();
+        Vector3f eye = camera.getPosition();
+        cullShader.bind();
+        glUniform1ui(cullShader.getUniformLocation("buildingCount"), buildingCount);
+        for (int i = 0; i < 6; i++) {
+            viewProjection.frustumPlane(i, plane);
+            cullShader.setUniform("frustumPlanes[" + i + "]", plane.x, plane.y, plane.z, plane.w);
+        }
+        cullShader.setUniform("eye", eye.x, eye.y, eye.z);
+        cullShader.setUniform("detailDistance", detailDistance);
+        cullShader.setUniform("hizEnabled", hizValid ? 1 : 0);
+        if (hizValid) {
+            cullShader.setUniform("hizViewProjection", hizViewProjection);
+            cullShader.setUniform("hizSize", hizWidth, hizHeight);
+            cullShader.setUniform("hizMaxLevel", hizLevels - 1);
+            cullShader.setUniform("hiz", 0);
+            glActiveTexture(GL_TEXTURE0);
+            glBindTexture(GL_TEXTURE_2D, hizTexture);
+        }
+        glDispatchCompute((buildingCount + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+        cullShader.unbind();
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        // The draw reads the commands and the visible list the pass wrote
+        glMemoryBarrier(GL_COMMAND_BARRIER_BIT | GL_VERTEX_ATTRIB_ARRAY_BARRIER_BIT | GL_SHADER_STORAGE_BARRIER_BIT);
+
+        drawShader.bind();
+        drawShader.setUniform("receiveShadows", receiveShadows ? 1 : 0);
+        drawShader.setUniform("receiveLights", receiveLights ? 1 : 0);
+        glBindVertexArray(vao);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandBuffer);
+        glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, COMMAND_COUNT, 0);
+        glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+        glBindVertexArray(0);
+        drawShader.unbind();
+
+        // Triangle counts stay on the GPU; reading them back would stall
+        RenderStats.addDrawCall(0);
+
+        updateHiZ(viewProjection);
+    }
+
+    /**
+     * Build the Hi-Z pyramid from the depth buffer drawn so far, for the next
+     * frame's occlusion tests.
+     *
+     * @param viewProjection View-projection matrix the depth was drawn with
+     */
+    private void updateHiZ(Matrix4f viewProjection) {
+        int width;
+        int height;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            IntBuffer viewport = stack.mallocInt(4);
+            glGetIntegerv(GL_VIEWPORT, viewport);
+            width = viewport.get(2);
+            height = viewport.get(3);
+        }
+        if (width <= 0 || height <= 0) {
+            hizValid = false;
+            return;
+        }
+        if (width != hizWidth || height != hizHeight) {
+            createHiZTextures(width, height);
+        }
+
+        // Copy the depth buffer, then reduce it level by level to the
+        // farthest depth of each 2x2 block
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, depthTexture);
+        glCopyTexSubImage2D(GL_TEXTURE_2D, 0, 0, 0, 0, 0, width, height);
+
+        depthCopyShader.bind();
+        depthCopyShader.setUniform("depth", 0);
+        glBindImageTexture(0, hizTexture, 0, false, 0, GL_WRITE_ONLY, GL_R32F);
+        glDispatchCompute((width + 7) / 8, (height + 7) / 8, 1);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        reduceShader.bind();
+        for (int level = 1; level < hizLevels; level++) {
+            glMemoryBarrier(GL_SHADER_IMAGE_ACCESS_BARRIER_BIT);
+            int levelWidth = Math.max(1, width >> level);
+            int levelHeight = Math.max(1, height >> level);
+            glBindImageTexture(0, hizTexture, level - 1, false, 0, GL_READ_ONLY, GL_R32F);
+            glBindImageTexture(1, hizTexture, level, false, 0, GL_WRITE_ONLY, GL_R32F);
+            glDispatchCompute((levelWidth + 7) / 8, (levelHeight + 7) / 8, 1);
+        }
+        reduceShader.unbind();
+        glMemoryBarrier(GL_TEXTURE_FETCH_BARRIER_BIT);
+
+        hizViewProjection.set(viewProjection);
+        hizValid = true;
+    }
+
+    /**
+     * Create the depth copy and Hi-Z textures for a viewport size.
+     *
+     * @param width Viewport width
+     * @param height Viewport height
+     */
+    private void createHiZTextures(int width, int height) {
+        deleteHiZTextures();
+        hizWidth = width;
+        hizHeight = height;
+        hizLevels = 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+
+        depthTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, depthTexture);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_DEPTH_COMPONENT, width, height, 0, GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+
+        hizTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, hizTexture);
+        glTexStorage2D(GL_TEXTURE_2D, hizLevels, GL_R32F, width, height);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST_MIPMAP_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, hizLevels - 1);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Delete the Hi-Z textures.
+     */
+    private void deleteHiZTextures() {
+        if (depthTexture != 0) {
+            glDeleteTextures(depthTexture);
+            glDeleteTextures(hizTexture);
+            depthTexture = 0;
+            hizTexture = 0;
+        }
+        hizWidth = 0;
+        hizHeight = 0;
+        hizValid = false;
+    }
+
+    /**
+     * Delete the instance buffers.
+     */
+    private void deleteBuffers() {
+        if (instanceBuffer != 0) {
+            glDeleteBuffers(instanceBuffer);
+            glDeleteBuffers(detailBuffer);
+            glDeleteBuffers(visibleBuffer);
+            glDeleteBuffers(commandBuffer);
+            instanceBuffer = 0;
+        }
+        buildingCount = 0;
+    }
+
+    /**
+     * Delete all GPU objects.
+     */
+    void cleanup() {
+        deleteBuffers();
+        deleteHiZTextures();
+        if (cullShader != null) {
+            cullShader.cleanup();
+            depthCopyShader.cleanup();
+            reduceShader.cleanup();
+            drawShader.cleanup();
+            cullShader = null;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.cyberpunk.game.city;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.glDrawElementsInstanced;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+
+import com.cyberpunk.game.render.RenderStats;
+import com.cyberpunk.game.render.ShaderProgram;
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.List;
+
+/**
+ * Camera-facing billboards for distant buildings.
+ *
+ * A facade section of every building type is rendered once into a texture
+ * atlas with the building shader. Far buildings are then drawn as
+ * billboards that turn around the vertical axis to face the camera and
+ * repeat their type's atlas tile over their width and height, which costs
+ * two triangles per building.
+ */
+public class BuildingImpostors {
+
+    // Atlas layout: one tile per building type
+    private static final int TILE_PIXELS = 128;
+    private static final int ATLAS_COLUMNS = 4;
+    private static final int ATLAS_ROWS = (BuildingData.Type.values().length + ATLAS_COLUMNS - 1) / ATLAS_COLUMNS;
+    private static final int ATLAS_MAX_LEVEL = 4;
+
+    // Size of the facade section captured in a tile, in metres
+    static final float TILE_METRES = 16.0f;
+
+    // Instance layout: position (3) + width and height (2) + tile origin (2)
+    private static final int INSTANCE_FLOATS = 7;
+
+    // Vertex attribute locations
+    private static final int ATTRIBUTE_CORNER = 0;
+    private static final int ATTRIBUTE_INSTANCE_POSITION = 1;
+    private static final int ATTRIBUTE_INSTANCE_SIZE = 2;
+    private static final int ATTRIBUTE_INSTANCE_TILE = 3;
+
+    private static final String VERTEX_SHADER = """
+        #version 330 compatibility
+
+        layout(location = 0) in vec2 corner;
+        layout(location = 1) in vec3 instancePosition;
+        layout(location = 2) in vec2 instanceSize;
+        layout(location = 3) in vec2 instanceTile;
+
+        out vec2 facadeCoord;
+        out float fogDepth;
+        flat out vec2 tileOrigin;
+
+        void main() {
+            // Camera right vector in world space, flattened so the
+            // billboard stays upright
+            vec3 right = vec3(gl_ModelViewMatrix[0][0], 0.0, gl_ModelViewMatrix[2][0]);
+            right = length(right) > 0.0001 ? normalize(right) : vec3(1.0, 0.0, 0.0);
+
+            vec4 worldPosition = vec4(instancePosition
+                + right * corner.x * instanceSize.x
+                + vec3(0.0, corner.y * instanceSize.y, 0.0), 1.0);
+            gl_Position = gl_ModelViewProjectionMatrix * worldPosition;
+            fogDepth = -(gl_ModelViewMatrix * worldPosition).z;
+
+            facadeCoord = vec2(corner.x + 0.5, corner.y) * instanceSize / %TILE_METRES%;
+            tileOrigin = instanceTile;
+        }
+        """.replace("%TILE_METRES%", Float.toString(TILE_METRES));
+
+    private static final String FRAGMENT_SHADER = """
+        #version 330 compatibility
+
+        uniform sampler2D atlas;
+        uniform vec2 tileSize;
+
+        in vec2 facadeCoord;
+        in float fogDepth;
+        flat in vec2 tileOrigin;
+
+        out vec4 outColor;
+
+        void main() {
+            // Repeat the tile; gradients of the unwrapped coordinate keep
+            // mipmap selection stable across tile seams
+            vec2 scaled = facadeCoord * tileSize;
+            vec2 uv = tileOrigin + fract(facadeCoord) * tileSize;
+            vec3 color = textureGrad(atlas, uv, dFdx(scaled), dFdy(scaled)).rgb;
+
+            // Linear distance fog from the fixed-function fog state
+            float fog = clamp((gl_Fog.end - fogDepth) * gl_Fog.scale, 0.0, 1.0);
+            outColor = vec4(mix(gl_Fog.color.rgb, color, fog), 1.0);
+        }
+        """;
+
+    // GPU objects
+    private final PerformanceOptimizer performanceOptimizer;
+    private ShaderProgram shader;
+    private int vao;
+    private int instanceVbo;
+    private int atlasTexture;
+    private int framebuffer;
+    private int depthBuffer;
+    private int previousFramebuffer;
+    private boolean captured;
+    private boolean failed;
+
+    // Instance data per building, and the visible instances
+    private float[] instanceData;
+    private FloatBuffer uploadBuffer;
+    private int instanceCount;
+
+    /**
+     * Constructor.
+     *
+     * @param performanceOptimizer Performance optimizer that owns the buffers
+     */
+    public BuildingImpostors(PerformanceOptimizer performanceOptimizer) {
+        this.performanceOptimizer = performanceOptimizer;
+        instanceData = new float[0];
+    }
+
+    /**
+     * Create the billboard instances of the buildings. Must be called on the
+     * render thread.
+     *
+     * @param buildings The buildings
+     */
+    public void setBuildings(List<BuildingData> buildings) {
+        instanceData = new float[buildings.size() * INSTANCE_FLOATS];
+        for (int i = 0; i < buildings.size(); i++) {
+            BuildingData building = buildings.get(i);
+            int tile = building.getType().ordinal();
+            int offset = i * INSTANCE_FLOATS;
+            instanceData[offset] = building.getX();
+            instanceData[offset + 1] = building.getY();
+            instanceData[offset + 2] = building.getZ();
+            instanceData[offset + 3] = Math.max(building.getWidth(), building.getDepth());
+            instanceData[offset + 4] = building.getHeight();
+            instanceData[offset + 5] = (float) (tile % ATLAS_COLUMNS) / ATLAS_COLUMNS;
+            instanceData[offset + 6] = (float) (tile / ATLAS_COLUMNS) / ATLAS_ROWS;
+        }
+
+        if (uploadBuffer != null) {
+            MemoryUtil.memFree(uploadBuffer);
+        }
+        uploadBuffer = MemoryUtil.memAllocFloat(Math.max(1, instanceData.length));
+
+        if (vao == 0) {
+            createQuad();
+        }
+
+        // Room for every building in the instance buffer
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVbo);
+        glBufferData(GL_ARRAY_BUFFER, (long) Math.max(1, instanceData.length) * Float.BYTES, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        instanceCount = 0;
+    }
+
+    /**
+     * Create the billboard quad and its vertex array.
+     */
+    private void createQuad() {
+        vao = performanceOptimizer.createVAO();
+
+        FloatBuffer corners = MemoryUtil.memAllocFloat(8);
+        IntBuffer indices = MemoryUtil.memAllocInt(6);
+        FloatBuffer instances = MemoryUtil.memAllocFloat(INSTANCE_FLOATS);
+        try {
+            // Bottom centre at the building position, counter-clockwise towards the camera
+            corners.put(-0.5f).put(0.0f).put(0.5f).put(0.0f).put(0.5f).put(1.0f).put(-0.5f).put(1.0f).flip();
+            indices.put(0).put(1).put(2).put(0).put(2).put(3).flip();
+
+            performanceOptimizer.createVBO(corners, GL_STATIC_DRAW);
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_CORNER, 2, 2 * Float.BYTES, 0);
+            performanceOptimizer.createIBO(indices);
+
+            instanceVbo = performanceOptimizer.createVBO(instances, GL_DYNAMIC_DRAW);
+            int stride = INSTANCE_FLOATS * Float.BYTES;
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_INSTANCE_POSITION, 3, stride, 0);
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_INSTANCE_SIZE, 2, stride, 3 * Float.BYTES);
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_INSTANCE_TILE, 2, stride, 5 * Float.BYTES);
+            glVertexAttribDivisor(ATTRIBUTE_INSTANCE_POSITION, 1);
+            glVertexAttribDivisor(ATTRIBUTE_INSTANCE_SIZE, 1);
+            glVertexAttribDivisor(ATTRIBUTE_INSTANCE_TILE, 1);
+        } finally {
+            MemoryUtil.memFree(corners);
+            MemoryUtil.memFree(indices);
+            MemoryUtil.memFree(instances);
+        }
+
+        performanceOptimizer.unbindVAO();
+    }
+
+    /**
+     * Whether the atlas still has to be captured.
+     *
+     * @return true if beginCapture should be called before drawing
+     */
+    public boolean needsCapture() {
+        return !captured && !failed;
+    }
+
+    /**
+     * Whether impostors can be drawn. If the atlas framebuffer is not
+     * supported, far buildings fall back to plain boxes.
+     *
+     * @return true if the atlas was captured
+     */
+    public boolean isAvailable() {
+        return captured;
+    }
+
+    /**
+     * Bind the atlas as the render target and save the state the capture
+     * changes. Tiles are then drawn with setCaptureTile and the capture
+     * finished with endCapture.
+     *
+     * @return false if the atlas framebuffer could not be created
+     */
+    public boolean beginCapture() {
+        previousFramebuffer = glGetInteger(GL_FRAMEBUFFER_BINDING);
+
+        if (framebuffer == 0) {
+            int width = TILE_PIXELS * ATLAS_COLUMNS;
+            int height = TILE_PIXELS * ATLAS_ROWS;
+
+            atlasTexture = glGenTextures();
+            glBindTexture(GL_TEXTURE_2D, atlasTexture);
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, ATLAS_MAX_LEVEL);
+            glBindTexture(GL_TEXTURE_2D, 0);
+
+            depthBuffer = glGenRenderbuffers();
+            glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+            glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+            glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+            framebuffer = glGenFramebuffers();
+            glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+            glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, atlasTexture, 0);
+            glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+
+            if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+                System.err.println("Building impostor atlas framebuffer is incomplete; drawing far buildings as boxes");
+                glBindFramebuffer(GL_FRAMEBUFFER, previousFramebuffer);
+                failed = true;
+                return false;
+            }
+        } else {
+            glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        }
+
+        glPushAttrib(GL_VIEWPORT_BIT | GL_ENABLE_BIT | GL_FOG_BIT | GL_COLOR_BUFFER_BIT | GL_SCISSOR_BIT);
+        glDisable(GL_FOG);
+        glEnable(GL_SCISSOR_TEST);
+        glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
+
+        glMatrixMode(GL_PROJECTION);
+        glPushMatrix();
+        glMatrixMode(GL_MODELVIEW);
+        glPushMatrix();
+        return true;
+    }
+
+    /**
+     * Clear a tile and set up an orthographic view of a facade section for
+     * it. The section spans TILE_METRES on each side, centred on centreX and
+     * rising from the ground, seen from the -Z side.
+     *
+     * @param type Building type of the tile
+     * @param centreX X position of the section's centre
+     */
+    public void setCaptureTile(BuildingData.Type type, float centreX) {
+        int tile = type.ordinal();
+        int x = (tile % ATLAS_COLUMNS) * TILE_PIXELS;
+        int y = (tile / ATLAS_COLUMNS) * TILE_PIXELS;
+        glViewport(x, y, TILE_PIXELS, TILE_PIXELS);
+        glScissor(x, y, TILE_PIXELS, TILE_PIXELS);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+
+        // Look along +Z at the front face; the facade appears mirrored,
+        // which is invisible on a window grid
+        float half = TILE_METRES / 2;
+        glMatrixMode(GL_PROJECTION);
+        glLoadIdentity();
+        glOrtho(-half, half, 0, TILE_METRES, -1000, 1000);
+        glMatrixMode(GL_MODELVIEW);
+        glLoadIdentity();
+        glRotatef(180.0f, 0.0f, 1.0f, 0.0f);
+        glTranslatef(-centreX, 0.0f, 0.0f);
+    }
+
+    /**
+     * Restore the state saved by beginCapture and build the atlas mipmaps.
+     */
+    public void endCapture() {
+        glMatrixMode(GL_PROJECTION);
+        glPopMatrix();
+        glMatrixMode(GL_MODELVIEW);
+        glPopMatrix();
+        glPopAttrib();
+
+        glBindFramebuffer(GL_FRAMEBUFFER, previousFramebuffer);
+
+        glBindTexture(GL_TEXTURE_2D, atlasTexture);
+        glGenerateMipmap(GL_TEXTURE_2D);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        if (shader == null) {
+            try {
+                shader = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+            } catch (IllegalStateException e) {
+                e.printStackTrace();
+                failed = true;
+                return;
+            }
+            shader.bind();
+            shader.setUniform("atlas", 0);
+            shader.setUniform("tileSize", 1.0f / ATLAS_COLUMNS, 1.0f / ATLAS_ROWS);
+            shader.unbind();
+        }
+        captured = true;
+    }
+
+    /**
+     * Upload the billboards of the given buildings.
+     *
+     * @param buildings Building indices
+     * @param count Number of entries in buildings
+     */
+    public void setVisible(int[] buildings, int count) {
+        uploadBuffer.clear();
+        for (int i = 0; i < count; i++) {
+            uploadBuffer.put(instanceData, buildings[i] * INSTANCE_FLOATS, INSTANCE_FLOATS);
+        }
+        uploadBuffer.flip();
+
+        if (count > 0) {
+            glBindBuffer(GL_ARRAY_BUFFER, instanceVbo);
+            glBufferSubData(GL_ARRAY_BUFFER, 0, uploadBuffer);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+        instanceCount = count;
+    }
+
+    /**
+     * Draw the visible billboards with one instanced draw call.
+     */
+    public void render() {
+        if (!captured || instanceCount == 0) {
+            return;
+        }
+
+        shader.bind();
+        glActiveTexture(GL_TEXTURE0);
+        glBindTexture(GL_TEXTURE_2D, atlasTexture);
+        glBindVertexArray(vao);
+        glDrawElementsInstanced(GL_TRIANGLES, 6, GL_UNSIGNED_INT, 0, instanceCount);
+        glBindVertexArray(0);
+        glBindTexture(GL_TEXTURE_2D, 0);
+        shader.unbind();
+
+        RenderStats.addDrawCall(2L * instanceCount);
+    }
+
+    /**
+     * Get the number of billboards drawn.
+     *
+     * @return Billboard count
+     */
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * Delete the shader, atlas and framebuffer. Vertex buffers are deleted by
+     * the performance optimizer.
+     */
+    public void cleanup() {
+        if (shader != null) {
+            shader.cleanup();
+            shader = null;
+        }
+        if (framebuffer != 0) {
+            glDeleteFramebuffers(framebuffer);
+            glDeleteRenderbuffers(depthBuffer);
+            glDeleteTextures(atlasTexture);
+            framebuffer = 0;
+        }
+        if (uploadBuffer != null) {
+            MemoryUtil.memFree(uploadBuffer);
+            uploadBuffer = null;
+        }
+        captured = false;
+    }
+}
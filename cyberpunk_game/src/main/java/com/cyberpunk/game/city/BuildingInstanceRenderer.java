@@ -0,0 +1,1125 @@
+package com.cyberpunk.game.city;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL31.glDrawElementsInstanced;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+
+import com.cyberpunk.game.render.BoundingVolumeHierarchy;
+import com.cyberpunk.game.render.Camera;
+import com.cyberpunk.game.render.ClusteredLights;
+import com.cyberpunk.game.render.OcclusionBuffer;
+import com.cyberpunk.game.render.ParticleSystem;
+import com.cyberpunk.game.render.RenderStats;
+import com.cyberpunk.game.render.ShaderProgram;
+import com.cyberpunk.game.render.ShadowCascades;
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.joml.FrustumIntersection;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Draws building shells with hardware instancing.
+ *
+ * All buildings share one unit box mesh. Each building is an instance with
+ * its position, size, type colour and window parameters, so the whole
+ * skyline is a single glDrawElementsInstanced call regardless of the number
+ * of buildings. Facade windows are generated in the fragment shader from the
+ * floor count, window spacing and a per-building seed, so they cost no
+ * geometry or CPU time.
+ *
+ * When drawn with a camera, buildings are culled through a bounding volume
+ * hierarchy and given a level of detail by distance: full detail adds shop
+ * signs and rooftop units as extra box instances, the box level is the
+ * windowed shell alone, and far buildings become BuildingImpostors
+ * billboards. Buildings that pass the frustum test are then tested against
+ * an OcclusionBuffer holding the largest nearby buildings, so the blocks
+ * hidden behind them are not submitted. Instances are only re-uploaded when
+ * the visible set or a level changes.
+ *
+ * Cities with many buildings are culled and submitted by a BuildingGpuCuller
+ * instead where OpenGL 4.3 is available. That path draws far buildings as
+ * boxes rather than impostors.
+ *
+ * Buildings receive the shadows of a ShadowCascades when one is set, and
+ * renderShadowCasters() draws every shell into its cached cascades. They are
+ * likewise lit by a ClusteredLights, to which submitLights() adds a light in
+ * front of each visible shop sign.
+ */
+public class BuildingInstanceRenderer {
+
+    // Instance layout: position (3) + size (3) + color (3) + window params (4)
+    static final int INSTANCE_FLOATS = 13;
+
+    // Vertex layout: position (3) + normal (3)
+    private static final int VERTEX_FLOATS = 6;
+
+    // Vertex attribute locations
+    private static final int ATTRIBUTE_POSITION = 0;
+    private static final int ATTRIBUTE_NORMAL = 1;
+    private static final int ATTRIBUTE_INSTANCE_POSITION = 2;
+    private static final int ATTRIBUTE_INSTANCE_SIZE = 3;
+    private static final int ATTRIBUTE_INSTANCE_COLOR = 4;
+    private static final int ATTRIBUTE_INSTANCE_WINDOWS = 5;
+
+    // Window grid
+    static final float WINDOW_SPACING = 4.0f;
+
+    // Window spacing that leaves detail boxes without windows
+    private static final float NO_WINDOWS = 1.0e6f;
+
+    // Floor height of the facade sections captured for impostors
+    private static final float CAPTURE_FLOOR_HEIGHT = 4.0f;
+
+    // Levels of detail
+    static final int LOD_FULL = 0;
+    static final int LOD_BOX = 1;
+    static final int LOD_IMPOSTOR = 2;
+
+    // Distances at which buildings drop a level at model detail 1.0, and the
+    // share of those distances a building must pass before it switches
+    private static final float BOX_DISTANCE = 80.0f;
+    private static final float IMPOSTOR_DISTANCE = 250.0f;
+    private static final float LOD_HYSTERESIS = 0.1f;
+
+    // Occluders per frame, and the smallest size over squared distance of
+    // a building worth rasterizing as one
+    private static final int MAX_OCCLUDERS = 24;
+    private static final float MIN_OCCLUDER_SCORE = 0.05f;
+
+    // Building count from which culling moves to the GPU when supported,
+    // unless forced by the performance optimizer
+    private static final int GPU_CULLING_MIN_BUILDINGS = 5000;
+
+    // Vertex transform shared with the GPU-culled path: places a unit box
+    // vertex for its instance and fills the inputs of the fragment shader
+    static final String VERTEX_TRANSFORM = """
+        out vec3 fragColor;
+        out float fogDepth;
+        out vec3 shadowPosition;
+        out vec2 facadePosition;
+        flat out vec4 windowParams;
+        flat out vec3 faceParams;
+
+        void transform(vec3 position, vec3 normal, vec3 instancePosition, vec3 instanceSize,
+                vec3 instanceColor, vec4 instanceWindows) {
+            vec3 localPosition = position * instanceSize;
+            vec4 worldPosition = vec4(instancePosition + localPosition, 1.0);
+            gl_Position = gl_ModelViewProjectionMatrix * worldPosition;
+            fogDepth = -(gl_ModelViewMatrix * worldPosition).z;
+            shadowPosition = worldPosition.xyz;
+            fragColor = instanceColor;
+            windowParams = instanceWindows;
+
+            // Position on the facade in metres from its bottom-left corner,
+            // and the facade's width, height and index; roofs get no windows
+            if (abs(normal.z) > 0.5) {
+                facadePosition = vec2(localPosition.x + instanceSize.x * 0.5, localPosition.y);
+                faceParams = vec3(instanceSize.x, instanceSize.y, normal.z > 0.0 ? 1.0 : 0.0);
+            } else if (abs(normal.x) > 0.5) {
+                facadePosition = vec2(localPosition.z + instanceSize.z * 0.5, localPosition.y);
+                faceParams = vec3(instanceSize.z, instanceSize.y, normal.x > 0.0 ? 3.0 : 2.0);
+            } else {
+                facadePosition = vec2(0.0);
+                faceParams = vec3(0.0);
+            }
+        }
+        """;
+
+    private static final String VERTEX_SHADER = """
+        #version 330 compatibility
+
+        layout(location = 0) in vec3 position;
+        layout(location = 1) in vec3 normal;
+        layout(location = 2) in vec3 instancePosition;
+        layout(location = 3) in vec3 instanceSize;
+        layout(location = 4) in vec3 instanceColor;
+        layout(location = 5) in vec4 instanceWindows;
+
+        """ + VERTEX_TRANSFORM + """
+
+        void main() {
+            transform(position, normal, instancePosition, instanceSize, instanceColor, instanceWindows);
+        }
+        """;
+
+    static final String FRAGMENT_SHADER = """
+        #version 330 compatibility
+
+        const float WINDOW_SIZE = 2.0;
+
+        in vec3 fragColor;
+        in float fogDepth;
+        in vec3 shadowPosition;
+        in vec2 facadePosition;
+        flat in vec4 windowParams; // floors, spacing, seed, lit fraction
+        flat in vec3 faceParams; // width, height, face index
+
+        uniform bool receiveShadows;
+        uniform bool receiveLights;
+
+        out vec4 outColor;
+
+        """ + ShadowCascades.SHADOW_FUNCTIONS + ClusteredLights.LIGHT_FUNCTIONS + """
+
+        float hash(vec3 p) {
+            return fract(sin(dot(p, vec3(12.9898, 78.233, 37.719))) * 43758.5453);
+        }
+
+        void main() {
+            vec3 color = fragColor;
+            vec3 normal = getSurfaceNormal(shadowPosition);
+            bool emissive = false;
+
+            if (faceParams.x > 0.0) {
+                float floors = windowParams.x;
+                float spacing = windowParams.y;
+
+                // Window row: starts halfway up each floor
+                float floorHeight = faceParams.y / floors;
+                float floorIndex = floor(facadePosition.y / floorHeight);
+                float inFloor = facadePosition.y - floorIndex * floorHeight - floorHeight * 0.5;
+                float windowHeight = min(WINDOW_SIZE, floorHeight * 0.5);
+
+                // Window column: starts halfway into each spacing cell
+                float column = floor(facadePosition.x / spacing);
+                float inColumn = facadePosition.x - column * spacing - spacing * 0.5;
+                float columns = floor(faceParams.x / spacing);
+
+                if (column < columns && inColumn >= 0.0 && inColumn < WINDOW_SIZE
+                        && inFloor >= 0.0 && inFloor < windowHeight) {
+                    vec3 cell = vec3(windowParams.z + faceParams.z * 1024.0, floorIndex, column);
+                    if (hash(cell) < windowParams.w) {
+                        // Lit: warm or cool light of varying brightness
+                        vec3 light = mix(vec3(1.0, 0.85, 0.55), vec3(0.7, 0.8, 1.0), hash(cell + 0.37));
+                        color = light * (0.7 + 0.3 * hash(cell + 0.71));
+                        emissive = true;
+                    } else {
+                        color = vec3(0.05, 0.06, 0.08);
+                    }
+                }
+            }
+
+            // Lit windows glow through shadow and are not lit further
+            if (!emissive) {
+                vec3 albedo = color;
+                if (receiveShadows) {
+                    color *= getShadow(shadowPosition, fogDepth);
+                }
+                if (receiveLights) {
+                    color += albedo * getClusteredLight(shadowPosition, normal, fogDepth);
+                }
+            }
+
+            // Linear distance fog from the fixed-function fog state
+            float fog = clamp((gl_Fog.end - fogDepth) * gl_Fog.scale, 0.0, 1.0);
+            outColor = vec4(mix(gl_Fog.color.rgb, color, fog), 1.0);
+        }
+        """;
+
+    // Unit box faces: X and Z from -0.5 to 0.5, Y from 0 to 1 (buildings
+    // stand on their position); corners counter-clockwise from outside, no bottom
+    private static final float[][] BOX_FACES = {
+        {0, 0, -1, -0.5f, 0, -0.5f, -0.5f, 1, -0.5f, 0.5f, 1, -0.5f, 0.5f, 0, -0.5f}, // Front
+        {0, 0, 1, -0.5f, 0, 0.5f, 0.5f, 0, 0.5f, 0.5f, 1, 0.5f, -0.5f, 1, 0.5f}, // Back
+        {-1, 0, 0, -0.5f, 0, -0.5f, -0.5f, 0, 0.5f, -0.5f, 1, 0.5f, -0.5f, 1, -0.5f}, // Left
+        {1, 0, 0, 0.5f, 0, -0.5f, 0.5f, 1, -0.5f, 0.5f, 1, 0.5f, 0.5f, 0, 0.5f}, // Right
+        {0, 1, 0, -0.5f, 1, -0.5f, -0.5f, 1, 0.5f, 0.5f, 1, 0.5f, 0.5f, 1, -0.5f} // Top
+    };
+
+    // GPU objects
+    private final PerformanceOptimizer performanceOptimizer;
+    private final BuildingImpostors impostors;
+    private ShaderProgram shader;
+    private int vao;
+    private int instanceVbo;
+    private int captureVao;
+    private int shadowVao;
+    private int shadowInstanceVbo;
+    private int instanceCount;
+    private int drawCount;
+
+    // Instance data: one shell per building, and the details drawn up close
+    private float[] instanceData;
+    private float[] detailData;
+    private int[] detailFirst;
+
+    // Sign lights: position (3) + color (3) per shop sign
+    private static final int SIGN_LIGHT_FLOATS = 6;
+    private static final float SIGN_LIGHT_RADIUS = 14.0f;
+    private static final float SIGN_LIGHT_DISTANCE = 200.0f;
+
+    // Chance per frame that a shop sign in view shorts out and throws sparks
+    private static final float SIGN_SPARK_CHANCE = 0.02f;
+    private final Random random = new Random();
+
+    // Culling and levels of detail
+    private final OcclusionBuffer occlusionBuffer;
+    private final int[] occluderItems;
+    private final float[] occluderScores;
+    private BoundingVolumeHierarchy hierarchy;
+    private float[] bounds;
+
+    // Shadows and lights received, if any
+    private ShadowCascades shadows;
+    private ClusteredLights lights;
+    private float[] signLights;
+    private int signLightCount;
+
+    // GPU-driven path
+    private BuildingGpuCuller gpuCuller;
+    private int gpuVao;
+    private byte[] levels;
+    private int[] visibleItems;
+    private int[] impostorItems;
+    private int[] visibleKeys;
+    private int[] uploadedKeys;
+    private int uploadedCount;
+    private FloatBuffer uploadBuffer;
+
+    /**
+     * Constructor.
+     *
+     * @param performanceOptimizer Performance optimizer that owns the buffers and model quality
+     */
+    public BuildingInstanceRenderer(PerformanceOptimizer performanceOptimizer) {
+        this.performanceOptimizer = performanceOptimizer;
+        impostors = new BuildingImpostors(performanceOptimizer);
+        occlusionBuffer = new OcclusionBuffer();
+        occluderItems = new int[MAX_OCCLUDERS];
+        occluderScores = new float[MAX_OCCLUDERS];
+    }
+
+    /**
+     * Upload the buildings as instances. Must be called on the render thread.
+     *
+     * @param buildings The buildings
+     */
+    public void setBuildings(List<BuildingData> buildings) {
+        if (shader == null) {
+            shader = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+            ShadowCascades.attach(shader);
+            ClusteredLights.attach(shader);
+        }
+        instanceCount = buildings.size();
+
+        // One shell instance per building, and its details, kept on the CPU
+        // for culled uploads
+        instanceData = new float[instanceCount * INSTANCE_FLOATS];
+        detailFirst = new int[instanceCount + 1];
+        float[] instance = new float[INSTANCE_FLOATS];
+        List<float[]> details = new ArrayList<>();
+        for (int i = 0; i < instanceCount; i++) {
+            BuildingData building = buildings.get(i);
+            getInstance(building, instance);
+            System.arraycopy(instance, 0, instanceData, i * INSTANCE_FLOATS, INSTANCE_FLOATS);
+
+            detailFirst[i] = details.size();
+            addDetails(building, details);
+        }
+        detailFirst[instanceCount] = details.size();
+        detailData = new float[details.size() * INSTANCE_FLOATS];
+        for (int i = 0; i < details.size(); i++) {
+            System.arraycopy(details.get(i), 0, detailData, i * INSTANCE_FLOATS, INSTANCE_FLOATS);
+        }
+
+        // Instance buffer with room for every shell and detail
+        int capacity = Math.max(1, (instanceCount + details.size()) * INSTANCE_FLOATS);
+        if (uploadBuffer != null) {
+            MemoryUtil.memFree(uploadBuffer);
+        }
+        uploadBuffer = MemoryUtil.memAllocFloat(capacity);
+
+        // Vertex arrays are created once; later cities resize their
+        // instance buffers instead
+        if (vao == 0) {
+            vao = createBox();
+            instanceVbo = performanceOptimizer.createVBO(uploadBuffer, GL_DYNAMIC_DRAW);
+            setInstanceAttributes();
+            performanceOptimizer.unbindVAO();
+        } else {
+            glBindBuffer(GL_ARRAY_BUFFER, instanceVbo);
+            glBufferData(GL_ARRAY_BUFFER, (long) capacity * Float.BYTES, GL_DYNAMIC_DRAW);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+
+        if (captureVao == 0) {
+            captureVao = createCaptureBoxes();
+        }
+        if (shadowVao != 0) {
+            glBindBuffer(GL_ARRAY_BUFFER, shadowInstanceVbo);
+            glBufferData(GL_ARRAY_BUFFER, instanceData, GL_STATIC_DRAW);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+        impostors.setBuildings(buildings);
+
+        // Culling hierarchy over the building bounds
+        bounds = new float[instanceCount * 6];
+        for (int i = 0; i < instanceCount; i++) {
+            getBounds(buildings.get(i), bounds, i * 6);
+        }
+        hierarchy = new BoundingVolumeHierarchy(bounds, instanceCount);
+        levels = new byte[instanceCount];
+        setSignLights(buildings);
+        visibleItems = new int[instanceCount];
+        impostorItems = new int[instanceCount];
+        visibleKeys = new int[instanceCount];
+        uploadedKeys = new int[instanceCount];
+
+        // Nothing uploaded yet
+        uploadedCount = -1;
+        drawCount = 0;
+
+        // Large cities are culled and submitted by the GPU where supported
+        boolean largeCity = instanceCount >= GPU_CULLING_MIN_BUILDINGS || performanceOptimizer.isForceGpuCulling();
+        if (largeCity && performanceOptimizer.isEnableGpuCulling()
+                && BuildingGpuCuller.isSupported()) {
+            if (gpuCuller == null) {
+                gpuCuller = new BuildingGpuCuller();
+            }
+            if (gpuVao == 0) {
+                gpuVao = createBox();
+                performanceOptimizer.unbindVAO();
+            }
+            gpuCuller.setBuildings(instanceData, detailData, detailFirst, gpuVao, BOX_FACES.length * 6);
+        } else if (gpuCuller != null) {
+            gpuCuller.cleanup();
+            gpuCuller = null;
+        }
+    }
+
+    /**
+     * Create a vertex array with the unit box. Leaves the vertex array bound
+     * so the instance attributes can be added.
+     *
+     * @return Vertex array ID
+     */
+    private int createBox() {
+        int boxVao = performanceOptimizer.createVAO();
+
+        FloatBuffer vertices = MemoryUtil.memAllocFloat(BOX_FACES.length * 4 * VERTEX_FLOATS);
+        IntBuffer indices = MemoryUtil.memAllocInt(BOX_FACES.length * 6);
+        try {
+            // Unit box with a normal per face
+            for (int face = 0; face < BOX_FACES.length; face++) {
+                float[] corners = BOX_FACES[face];
+                for (int corner = 0; corner < 4; corner++) {
+                    vertices.put(corners, 3 + corner * 3, 3);
+                    vertices.put(corners, 0, 3);
+                }
+
+                int first = face * 4;
+                indices.put(first).put(first + 1).put(first + 2);
+                indices.put(first).put(first + 2).put(first + 3);
+            }
+            vertices.flip();
+            indices.flip();
+
+            performanceOptimizer.createVBO(vertices, GL_STATIC_DRAW);
+            int vertexStride = VERTEX_FLOATS * Float.BYTES;
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_POSITION, 3, vertexStride, 0);
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_NORMAL, 3, vertexStride, 3 * Float.BYTES);
+
+            performanceOptimizer.createIBO(indices);
+        } finally {
+            MemoryUtil.memFree(vertices);
+            MemoryUtil.memFree(indices);
+        }
+
+        return boxVao;
+    }
+
+    /**
+     * Point the instance attributes at the bound instance buffer.
+     */
+    private void setInstanceAttributes() {
+        int stride = INSTANCE_FLOATS * Float.BYTES;
+        performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_INSTANCE_POSITION, 3, stride, 0);
+        performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_INSTANCE_SIZE, 3, stride, 3 * Float.BYTES);
+        performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_INSTANCE_COLOR, 3, stride, 6 * Float.BYTES);
+        performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_INSTANCE_WINDOWS, 4, stride, 9 * Float.BYTES);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_POSITION, 1);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_SIZE, 1);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_COLOR, 1);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_WINDOWS, 1);
+    }
+
+    /**
+     * Create the boxes captured into the impostor atlas: one facade section
+     * per building type, side by side along X.
+     *
+     * @return Vertex array ID
+     */
+    private int createCaptureBoxes() {
+        BuildingData.Type[] types = BuildingData.Type.values();
+        float size = BuildingImpostors.TILE_METRES;
+        float[] color = new float[3];
+
+        int captureBoxVao = createBox();
+        FloatBuffer instances = MemoryUtil.memAllocFloat(types.length * INSTANCE_FLOATS);
+        try {
+            for (BuildingData.Type type : types) {
+                getBuildingColor(type, color);
+                instances.put(getCaptureX(type)).put(0.0f).put(0.0f);
+                instances.put(size).put(size).put(size);
+                instances.put(color);
+                instances.put(size / CAPTURE_FLOOR_HEIGHT).put(WINDOW_SPACING).put(type.ordinal() * 977);
+                instances.put(getLitWindowFraction(type));
+            }
+            instances.flip();
+
+            performanceOptimizer.createVBO(instances, GL_STATIC_DRAW);
+            setInstanceAttributes();
+        } finally {
+            MemoryUtil.memFree(instances);
+        }
+
+        performanceOptimizer.unbindVAO();
+        return captureBoxVao;
+    }
+
+    /**
+     * Get the X position of a building type's capture box.
+     *
+     * @param type Building type
+     * @return X position
+     */
+    private static float getCaptureX(BuildingData.Type type) {
+        return type.ordinal() * BuildingImpostors.TILE_METRES * 2;
+    }
+
+    /**
+     * Render the facade sections of all building types into the impostor atlas.
+     */
+    private void captureImpostors() {
+        if (!impostors.beginCapture()) {
+            return;
+        }
+
+        BuildingData.Type[] types = BuildingData.Type.values();
+        shader.bind();
+        shader.setUniform("receiveShadows", 0);
+        shader.setUniform("receiveLights", 0);
+        glBindVertexArray(captureVao);
+        for (BuildingData.Type type : types) {
+            impostors.setCaptureTile(type, getCaptureX(type));
+            glDrawElementsInstanced(GL_TRIANGLES, BOX_FACES.length * 6, GL_UNSIGNED_INT, 0, types.length);
+        }
+        glBindVertexArray(0);
+        shader.unbind();
+
+        impostors.endCapture();
+    }
+
+    /**
+     * Add the details of a building drawn at full detail: its shop sign and
+     * a rooftop unit.
+     *
+     * @param building The building
+     * @param details Output list of instances
+     */
+    static void addDetails(BuildingData building, List<float[]> details) {
+        float[] color = new float[3];
+
+        if (building.hasShop()) {
+            // Sign above the entrance on the front facade
+            getShopSignColor(building.getShopType(), color);
+            float signDepth = 1.0f;
+            details.add(new float[] {
+                building.getX(), building.getY() + 5.0f, building.getZ() - building.getDepth() / 2 - signDepth / 2,
+                building.getWidth() * 0.8f, 3.0f, signDepth,
+                color[0], color[1], color[2],
+                1, NO_WINDOWS, 0, 0
+            });
+        }
+
+        // Rooftop unit, placed from the building seed
+        int seed = (BuildingInteriorGenerator.getBuildingId(building) * 0x9E3779B9) >>> 16;
+        float offsetX = ((seed & 0xFF) / 255.0f - 0.5f) * building.getWidth() * 0.4f;
+        float offsetZ = ((seed >> 8) / 255.0f - 0.5f) * building.getDepth() * 0.4f;
+        getBuildingColor(building.getType(), color);
+        details.add(new float[] {
+            building.getX() + offsetX, building.getY() + building.getHeight(), building.getZ() + offsetZ,
+            building.getWidth() * 0.3f, 2.5f, building.getDepth() * 0.3f,
+            color[0] * 0.6f, color[1] * 0.6f, color[2] * 0.6f,
+            1, NO_WINDOWS, 0, 0
+        });
+    }
+
+    /**
+     * Write the bounding box of a building.
+     *
+     * @param building The building
+     * @param bounds Output array
+     * @param offset Offset of minX, minY, minZ, maxX, maxY, maxZ in the array
+     */
+    static void getBounds(BuildingData building, float[] bounds, int offset) {
+        bounds[offset] = building.getX() - building.getWidth() / 2;
+        bounds[offset + 1] = building.getY();
+        bounds[offset + 2] = building.getZ() - building.getDepth() / 2;
+        bounds[offset + 3] = building.getX() + building.getWidth() / 2;
+        bounds[offset + 4] = building.getY() + building.getHeight();
+        bounds[offset + 5] = building.getZ() + building.getDepth() / 2;
+    }
+
+    /**
+     * Write the instance data of a building.
+     *
+     * @param building The building
+     * @param instance Output array of INSTANCE_FLOATS values
+     */
+    static void getInstance(BuildingData building, float[] instance) {
+        instance[0] = building.getX();
+        instance[1] = building.getY();
+        instance[2] = building.getZ();
+        instance[3] = building.getWidth();
+        instance[4] = building.getHeight();
+        instance[5] = building.getDepth();
+
+        float[] color = new float[3];
+        getBuildingColor(building.getType(), color);
+        instance[6] = color[0];
+        instance[7] = color[1];
+        instance[8] = color[2];
+
+        // Floors, window spacing, a per-building seed and the share of lit windows
+        instance[9] = Math.max(1, building.getNumFloors());
+        instance[10] = WINDOW_SPACING;
+        instance[11] = (BuildingInteriorGenerator.getBuildingId(building) * 0x9E3779B9) >>> 16; // Exact as a float
+        instance[12] = getLitWindowFraction(building.getType());
+    }
+
+    /**
+     * Get the share of windows lit at night for a building type.
+     *
+     * @param type Building type
+     * @return Lit fraction (0.0 to 1.0)
+     */
+    static float getLitWindowFraction(BuildingData.Type type) {
+        switch (type) {
+            case ENTERTAINMENT:
+                return 0.7f;
+            case TECH:
+                return 0.6f;
+            case SKYSCRAPER:
+            case MARKET:
+                return 0.5f;
+            case APARTMENT:
+                return 0.4f;
+            case SLUM:
+                return 0.25f;
+            case GANG_HIDEOUT:
+                return 0.15f;
+            case WAREHOUSE:
+                return 0.1f;
+            default:
+                return 0.3f;
+        }
+    }
+
+    /**
+     * Draw all buildings at full detail.
+     */
+    public void render() {
+        render(null);
+    }
+
+    /**
+     * Draw the buildings inside the camera's view frustum. Near buildings get
+     * their details, mid-range buildings only the windowed shell and far
+     * buildings an impostor billboard; the distances scale with the model
+     * quality.
+     *
+     * @param camera The camera, or null to draw every building at full detail
+     */
+    public void render(Camera camera) {
+        if (instanceCount == 0) {
+            return;
+        }
+
+        if (camera != null && gpuCuller != null) {
+            float detailDistance = getLevelDistance(LOD_FULL, performanceOptimizer.getModelDetailMultiplier());
+            gpuCuller.render(camera, gpuVao, BOX_FACES.length * 6, detailDistance,
+                isReceivingShadows(), lights != null);
+            return;
+        }
+
+        if (impostors.needsCapture()) {
+            captureImpostors();
+        }
+
+        int visibleCount;
+        if (camera != null) {
+            visibleCount = hierarchy.query(camera.getFrustum(), visibleItems);
+        } else {
+            for (int i = 0; i < instanceCount; i++) {
+                visibleItems[i] = i;
+            }
+            visibleCount = instanceCount;
+        }
+        if (camera != null) {
+            visibleCount = cullOccluded(camera, visibleCount);
+        }
+        RenderStats.addCullResult(visibleCount, instanceCount - visibleCount);
+
+        // Level of each visible building. The hierarchy reports items in tree
+        // order, so an unchanged result compares equal element by element.
+        float detail = performanceOptimizer.getModelDetailMultiplier();
+        int lowestLevel = impostors.isAvailable() ? LOD_IMPOSTOR : LOD_BOX;
+        for (int i = 0; i < visibleCount; i++) {
+            int building = visibleItems[i];
+            int level = camera != null ? selectLevel(building, camera.getPosition(), detail, lowestLevel) : LOD_FULL;
+            levels[building] = (byte) level;
+            visibleKeys[i] = building << 2 | level;
+        }
+
+        if (visibleCount != uploadedCount
+                || !Arrays.equals(visibleKeys, 0, visibleCount, uploadedKeys, 0, visibleCount)) {
+            uploadInstances(visibleCount);
+        }
+
+        if (drawCount > 0) {
+            shader.bind();
+            shader.setUniform("receiveShadows", isReceivingShadows() ? 1 : 0);
+            shader.setUniform("receiveLights", lights != null ? 1 : 0);
+            glBindVertexArray(vao);
+            glDrawElementsInstanced(GL_TRIANGLES, BOX_FACES.length * 6, GL_UNSIGNED_INT, 0, drawCount);
+            glBindVertexArray(0);
+            shader.unbind();
+
+            RenderStats.addDrawCall((long) BOX_FACES.length * 2 * drawCount);
+        }
+
+        impostors.render();
+    }
+
+    /**
+     * Draw the shell of every building, unculled, for shadow maps. Called by
+     * ShadowCascades with the light's matrices loaded.
+     */
+    public void renderShadowCasters() {
+        if (instanceCount == 0) {
+            return;
+        }
+
+        if (shadowVao == 0) {
+            shadowVao = createShadowBoxes();
+        }
+        shader.bind();
+        shader.setUniform("receiveShadows", 0);
+        shader.setUniform("receiveLights", 0);
+        glBindVertexArray(shadowVao);
+        glDrawElementsInstanced(GL_TRIANGLES, BOX_FACES.length * 6, GL_UNSIGNED_INT, 0, instanceCount);
+        glBindVertexArray(0);
+        shader.unbind();
+
+        RenderStats.addDrawCall((long) BOX_FACES.length * 2 * instanceCount);
+    }
+
+    /**
+     * Create a vertex array with every building shell as an instance.
+     *
+     * @return Vertex array ID
+     */
+    private int createShadowBoxes() {
+        int shadowBoxVao = createBox();
+        FloatBuffer instances = MemoryUtil.memAllocFloat(instanceData.length);
+        try {
+            instances.put(instanceData).flip();
+            shadowInstanceVbo = performanceOptimizer.createVBO(instances, GL_STATIC_DRAW);
+            setInstanceAttributes();
+        } finally {
+            MemoryUtil.memFree(instances);
+        }
+
+        performanceOptimizer.unbindVAO();
+        return shadowBoxVao;
+    }
+
+    /**
+     * Set the shadow maps the buildings receive.
+     *
+     * @param shadows Shadow cascades, or null for none
+     */
+    public void setShadows(ShadowCascades shadows) {
+        this.shadows = shadows;
+    }
+
+    /**
+     * Set the clustered lights the buildings receive.
+     *
+     * @param lights Clustered lights, or null for none
+     */
+    public void setLights(ClusteredLights lights) {
+        this.lights = lights;
+    }
+
+    /**
+     * Place a light in front of each shop sign, in the sign's colour.
+     *
+     * @param buildings The buildings
+     */
+    private void setSignLights(List<BuildingData> buildings) {
+        float[] color = new float[3];
+        signLights = new float[instanceCount * SIGN_LIGHT_FLOATS];
+        signLightCount = 0;
+        for (BuildingData building : buildings) {
+            if (!building.hasShop()) {
+                continue;
+            }
+            getShopSignColor(building.getShopType(), color);
+            int o = signLightCount * SIGN_LIGHT_FLOATS;
+            signLights[o] = building.getX();
+            signLights[o + 1] = building.getY() + 6.5f;
+            signLights[o + 2] = building.getZ() - building.getDepth() / 2 - 3.0f;
+            signLights[o + 3] = color[0];
+            signLights[o + 4] = color[1];
+            signLights[o + 5] = color[2];
+            signLightCount++;
+        }
+    }
+
+    /**
+     * Add the lights of the shop signs near the camera and in view.
+     *
+     * @param lights Clustered lights of the frame
+     * @param camera Camera the frame is rendered from
+     */
+    public void submitLights(ClusteredLights lights, Camera camera) {
+        FrustumIntersection frustum = camera.getFrustum();
+        Vector3f eye = camera.getPosition();
+        float maxDistanceSquared = SIGN_LIGHT_DISTANCE * SIGN_LIGHT_DISTANCE;
+        for (int i = 0; i < signLightCount; i++) {
+            int o = i * SIGN_LIGHT_FLOATS;
+            float x = signLights[o];
+            float y = signLights[o + 1];
+            float z = signLights[o + 2];
+            if (eye.distanceSquared(x, y, z) > maxDistanceSquared
+                    || !frustum.testSphere(x, y, z, SIGN_LIGHT_RADIUS)) {
+                continue;
+            }
+            lights.addLight(x, y, z, SIGN_LIGHT_RADIUS, signLights[o + 3], signLights[o + 4], signLights[o + 5]);
+        }
+    }
+
+    /**
+     * Now and then let one of the shop signs near the camera and in view
+     * short out, throwing neon sparks.
+     *
+     * @param particles Particle system to emit the sparks into
+     * @param camera Camera the frame is rendered from
+     */
+    public void emitSignSparks(ParticleSystem particles, Camera camera) {
+        if (signLightCount == 0 || random.nextFloat() >= SIGN_SPARK_CHANCE) {
+            return;
+        }
+
+        // Pick one of the signs in view, each with the same chance
+        FrustumIntersection frustum = camera.getFrustum();
+        Vector3f eye = camera.getPosition();
+        float maxDistanceSquared = SIGN_LIGHT_DISTANCE * SIGN_LIGHT_DISTANCE;
+        int chosen = -1;
+        int inView = 0;
+        for (int i = 0; i < signLightCount; i++) {
+            int o = i * SIGN_LIGHT_FLOATS;
+            if (eye.distanceSquared(signLights[o], signLights[o + 1], signLights[o + 2]) > maxDistanceSquared
+                    || !frustum.testSphere(signLights[o], signLights[o + 1], signLights[o + 2], SIGN_LIGHT_RADIUS)) {
+                continue;
+            }
+            inView++;
+            if (random.nextInt(inView) == 0) {
+                chosen = o;
+            }
+        }
+
+        if (chosen >= 0) {
+            particles.emitNeonSparks(signLights[chosen], signLights[chosen + 1], signLights[chosen + 2]);
+        }
+    }
+
+    /**
+     * Whether shadows are applied when drawing.
+     *
+     * @return true if shadow cascades are set and enabled
+     */
+    private boolean isReceivingShadows() {
+        return shadows != null && shadows.isEnabled();
+    }
+
+    /**
+     * Remove visible buildings that are hidden behind the largest nearby
+     * ones. The remaining buildings keep their order.
+     *
+     * @param camera Camera the frame is rendered from
+     * @param visibleCount Number of buildings that passed the frustum test
+     * @return Number of buildings left in visibleItems
+     */
+    private int cullOccluded(Camera camera, int visibleCount) {
+        occlusionBuffer.begin(camera);
+        Vector3f eye = camera.getPosition();
+
+        // Occluders: the buildings with the largest size over squared
+        // distance, kept sorted by score
+        int occluderCount = 0;
+        for (int i = 0; i < visibleCount; i++) {
+            int building = visibleItems[i];
+            int offset = building * 6;
+            float dx = Math.max(0.0f, Math.max(bounds[offset] - eye.x, eye.x - bounds[offset + 3]));
+            float dz = Math.max(0.0f, Math.max(bounds[offset + 2] - eye.z, eye.z - bounds[offset + 5]));
+            float distanceSquared = Math.max(1.0f, dx * dx + dz * dz);
+            float width = Math.max(bounds[offset + 3] - bounds[offset], bounds[offset + 5] - bounds[offset + 2]);
+            float score = width * (bounds[offset + 4] - bounds[offset + 1]) / distanceSquared;
+            if (score < MIN_OCCLUDER_SCORE
+                    || (occluderCount == MAX_OCCLUDERS && score <= occluderScores[MAX_OCCLUDERS - 1])) {
+                continue;
+            }
+
+            int slot = Math.min(occluderCount, MAX_OCCLUDERS - 1);
+            while (slot > 0 && occluderScores[slot - 1] < score) {
+                occluderScores[slot] = occluderScores[slot - 1];
+                occluderItems[slot] = occluderItems[slot - 1];
+                slot--;
+            }
+            occluderScores[slot] = score;
+            occluderItems[slot] = building;
+            occluderCount = Math.min(occluderCount + 1, MAX_OCCLUDERS);
+        }
+
+        int kept = visibleCount;
+        if (occluderCount > 0) {
+            for (int i = 0; i < occluderCount; i++) {
+                occlusionBuffer.addOccluder(bounds, occluderItems[i] * 6);
+            }
+            occlusionBuffer.rasterize();
+
+            kept = 0;
+            for (int i = 0; i < visibleCount; i++) {
+                int building = visibleItems[i];
+                if (!occlusionBuffer.isOccluded(bounds, building * 6)) {
+                    visibleItems[kept++] = building;
+                }
+            }
+        }
+        occlusionBuffer.end();
+        return kept;
+    }
+
+    /**
+     * Select the level of detail of a building from its distance. A building
+     * only changes level once it is past the switching distance by the
+     * hysteresis band, so it does not flicker when the camera hovers there.
+     *
+     * @param building Building index
+     * @param eye Camera position
+     * @param detail Model detail multiplier
+     * @param lowestLevel Lowest level available
+     * @return Level of detail
+     */
+    private int selectLevel(int building, Vector3f eye, float detail, int lowestLevel) {
+        int offset = building * INSTANCE_FLOATS;
+        float dx = instanceData[offset] - eye.x;
+        float dz = instanceData[offset + 2] - eye.z;
+        float distance = (float) Math.sqrt(dx * dx + dz * dz);
+
+        int level = Math.min(levels[building], lowestLevel);
+        while (level < lowestLevel && distance > getLevelDistance(level, detail) * (1 + LOD_HYSTERESIS)) {
+            level++;
+        }
+        while (level > LOD_FULL && distance < getLevelDistance(level - 1, detail) * (1 - LOD_HYSTERESIS)) {
+            level--;
+        }
+        return level;
+    }
+
+    /**
+     * Get the distance beyond which a building drops below a level.
+     *
+     * @param level Level of detail
+     * @param detail Model detail multiplier
+     * @return Switching distance
+     */
+    static float getLevelDistance(int level, float detail) {
+        return (level == LOD_FULL ? BOX_DISTANCE : IMPOSTOR_DISTANCE) * detail;
+    }
+
+    /**
+     * Upload the shells of the visible buildings that are not impostors,
+     * followed by the details of the full-detail ones, and hand the rest to
+     * the impostors.
+     *
+     * @param visibleCount Number of entries in visibleItems
+     */
+    private void uploadInstances(int visibleCount) {
+        uploadBuffer.clear();
+        int impostorCount = 0;
+        for (int i = 0; i < visibleCount; i++) {
+            int building = visibleItems[i];
+            if (levels[building] == LOD_IMPOSTOR) {
+                impostorItems[impostorCount++] = building;
+            } else {
+                uploadBuffer.put(instanceData, building * INSTANCE_FLOATS, INSTANCE_FLOATS);
+            }
+        }
+        for (int i = 0; i < visibleCount; i++) {
+            int building = visibleItems[i];
+            if (levels[building] == LOD_FULL) {
+                int first = detailFirst[building];
+                uploadBuffer.put(detailData, first * INSTANCE_FLOATS, (detailFirst[building + 1] - first) * INSTANCE_FLOATS);
+            }
+        }
+        uploadBuffer.flip();
+        drawCount = uploadBuffer.limit() / INSTANCE_FLOATS;
+
+        if (drawCount > 0) {
+            glBindBuffer(GL_ARRAY_BUFFER, instanceVbo);
+            glBufferSubData(GL_ARRAY_BUFFER, 0, uploadBuffer);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+        impostors.setVisible(impostorItems, impostorCount);
+
+        System.arraycopy(visibleKeys, 0, uploadedKeys, 0, visibleCount);
+        uploadedCount = visibleCount;
+    }
+
+    /**
+     * Get the color for a building based on its type.
+     *
+     * @param type Building type
+     * @param color Output RGB colour
+     */
+    static void getBuildingColor(BuildingData.Type type, float[] color) {
+        switch (type) {
+            case SKYSCRAPER:
+                setColor(color, 0.2f, 0.3f, 0.4f); // Blue-gray
+                break;
+            case APARTMENT:
+                setColor(color, 0.5f, 0.5f, 0.5f); // Gray
+                break;
+            case WAREHOUSE:
+                setColor(color, 0.4f, 0.3f, 0.2f); // Brown
+                break;
+            case ENTERTAINMENT:
+                setColor(color, 0.5f, 0.2f, 0.5f); // Purple
+                break;
+            case SLUM:
+                setColor(color, 0.3f, 0.3f, 0.2f); // Dark yellow-gray
+                break;
+            case TECH:
+                setColor(color, 0.2f, 0.4f, 0.5f); // Teal
+                break;
+            case MARKET:
+                setColor(color, 0.5f, 0.4f, 0.3f); // Tan
+                break;
+            case GANG_HIDEOUT:
+                setColor(color, 0.5f, 0.2f, 0.2f); // Dark red
+                break;
+            default:
+                setColor(color, 0.5f, 0.5f, 0.5f); // Default gray
+        }
+    }
+
+    /**
+     * Get the color of a shop sign based on shop type.
+     *
+     * @param type Shop type
+     * @param color Output RGB colour
+     */
+    static void getShopSignColor(ShopData.Type type, float[] color) {
+        switch (type) {
+            case WEAPONS:
+                setColor(color, 1.0f, 0.0f, 0.0f); // Red
+                break;
+            case TECH:
+                setColor(color, 0.0f, 1.0f, 1.0f); // Cyan
+                break;
+            case CLOTHING:
+                setColor(color, 1.0f, 0.5f, 0.0f); // Orange
+                break;
+            case FOOD:
+                setColor(color, 0.0f, 1.0f, 0.0f); // Green
+                break;
+            case MEDICAL:
+                setColor(color, 1.0f, 1.0f, 1.0f); // White
+                break;
+            case BLACK_MARKET:
+                setColor(color, 0.5f, 0.0f, 0.5f); // Purple
+                break;
+            case ENTERTAINMENT:
+                setColor(color, 1.0f, 0.0f, 1.0f); // Magenta
+                break;
+            case CONVENIENCE:
+                setColor(color, 1.0f, 1.0f, 0.0f); // Yellow
+                break;
+            case CORPORATE:
+                setColor(color, 0.0f, 0.0f, 1.0f); // Blue
+                break;
+            case INDUSTRIAL:
+                setColor(color, 0.5f, 0.5f, 0.5f); // Gray
+                break;
+            default:
+                setColor(color, 1.0f, 1.0f, 1.0f); // Default white
+        }
+    }
+
+    private static void setColor(float[] color, float r, float g, float b) {
+        color[0] = r;
+        color[1] = g;
+        color[2] = b;
+    }
+
+    /**
+     * Check if the buildings are culled and submitted by the GPU.
+     *
+     * @return true if the GPU-driven path is in use
+     */
+    public boolean isGpuCulling() {
+        return gpuCuller != null;
+    }
+
+    /**
+     * Get the number of building instances.
+     *
+     * @return Instance count
+     */
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * Get the number of impostor billboards drawn in the last frame.
+     *
+     * @return Impostor count
+     */
+    public int getImpostorCount() {
+        return impostors.getInstanceCount();
+    }
+
+    /**
+     * Delete the shaders, the impostor atlas and the upload buffer. Vertex
+     * buffers are deleted by the performance optimizer.
+     */
+    public void cleanup() {
+        if (shader != null) {
+            shader.cleanup();
+            shader = null;
+        }
+        impostors.cleanup();
+        occlusionBuffer.cleanup();
+        if (gpuCuller != null) {
+            gpuCuller.cleanup();
+            gpuCuller = null;
+        }
+        if (uploadBuffer != null) {
+            MemoryUtil.memFree(uploadBuffer);
+            uploadBuffer = null;
+        }
+    }
+}
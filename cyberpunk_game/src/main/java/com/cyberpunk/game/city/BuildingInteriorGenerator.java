@@ -11,7 +11,10 @@ import java.util.Random;
  */
 public class BuildingInteriorGenerator {
     
-    // Random generator
+    // World seed all interiors are derived from
+    private final long worldSeed;
+    
+    // Random generator, re-seeded for every floor
     private final Random random = new Random();
     
     // Furniture types by room type
@@ -19,8 +22,11 @@ public class BuildingInteriorGenerator {
     
     /**
      * Constructor.
+     * 
+     * @param worldSeed World seed, normally CityGenerator.getSeed()
      */
-    public BuildingInteriorGenerator() {
+    public BuildingInteriorGenerator(long worldSeed) {
+        this.worldSeed = worldSeed;
         initializeFurnitureTypes();
     }
     
@@ -136,8 +142,54 @@ public class BuildingInteriorGenerator {
         furnitureByRoom.put(RoomType.WAREHOUSE, warehouseFurniture);
     }
     
+    /**
+     * Get a stable id for a building from its ground position.
+     * CityGenerator places at most one building per cell of its grid, so
+     * the id is unique among generated buildings as long as positions stay
+     * within +/-32 km; buildings placed by hand must not share a position.
+     * 
+     * @param building The building
+     * @return The building id
+     */
+    public static int getBuildingId(BuildingData building) {
+        int x = Math.round(building.getX()) & 0xFFFF;
+        int z = Math.round(building.getZ()) & 0xFFFF;
+        return (x << 16) | z;
+    }
+    
+    /**
+     * Get the world seed.
+     * 
+     * @return The world seed
+     */
+    public long getWorldSeed() {
+        return worldSeed;
+    }
+    
+    /**
+     * Get the random seed for one floor of a building.
+     * 
+     * @param worldSeed World seed
+     * @param buildingId Building id
+     * @param floor Floor number
+     * @return The floor seed
+     */
+    public static long getFloorSeed(long worldSeed, int buildingId, int floor) {
+        // SplitMix64 finalizer over the combined inputs
+        long z = worldSeed + 0x9E3779B97F4A7C15L * (((long) buildingId << 16) ^ floor);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+    
     /**
      * Generate a building interior.
+     * Callers should go through InteriorCache so interiors are only built
+     * on first entry and shared afterwards.
+     * 
+     * The result is a pure function of the world seed, the building and the
+     * floor, so an interior looks the same every time it is regenerated and
+     * saves only need to store what the player changed (see InteriorDeltaStore).
      * 
      * @param building The building to generate an interior for
      * @return The generated building interior
@@ -148,30 +200,40 @@ public class BuildingInteriorGenerator {
         // Set building reference
         interior.setBuilding(building);
         
-        // Determine number of rooms based on building size
-        int numFloors = building.getNumFloors();
-        float floorArea = building.getWidth() * building.getDepth();
-        
         // Generate rooms for each floor
-        for (int floor = 0; floor < numFloors; floor++) {
-            // Number of rooms on this floor
-            int numRooms = (int) (floorArea / 100) + random.nextInt(3);
-            numRooms = Math.max(1, Math.min(numRooms, 8)); // Between 1 and 8 rooms
-            
-            // Generate rooms
-            List<Room> rooms = generateRooms(building, floor, numRooms);
-            interior.addRooms(rooms);
-            
-            // Generate furniture for each room
-            for (Room room : rooms) {
-                List<Furniture> furniture = generateFurniture(room);
-                interior.addFurniture(furniture);
-            }
+        for (int floor = 0; floor < building.getNumFloors(); floor++) {
+            generateFloor(interior, building, floor);
         }
         
         return interior;
     }
     
+    /**
+     * Generate the rooms and furniture of one floor.
+     * 
+     * @param interior The interior to add the floor to
+     * @param building The building
+     * @param floor The floor number
+     */
+    private void generateFloor(BuildingInterior interior, BuildingData building, int floor) {
+        random.setSeed(getFloorSeed(worldSeed, getBuildingId(building), floor));
+        
+        // Number of rooms on this floor based on building size
+        float floorArea = building.getWidth() * building.getDepth();
+        int numRooms = (int) (floorArea / 100) + random.nextInt(3);
+        numRooms = Math.max(1, Math.min(numRooms, 8)); // Between 1 and 8 rooms
+        
+        // Generate rooms
+        List<Room> rooms = generateRooms(building, floor, numRooms);
+        interior.addRooms(rooms);
+        
+        // Generate furniture for each room
+        for (Room room : rooms) {
+            List<Furniture> furniture = generateFurniture(room);
+            interior.addFurniture(furniture);
+        }
+    }
+    
     /**
      * Generate rooms for a floor.
      * 
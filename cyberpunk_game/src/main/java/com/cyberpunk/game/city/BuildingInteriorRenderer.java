@@ -1,57 +1,109 @@
 package com.cyberpunk.game.city;
 
 import static org.lwjgl.opengl.GL11.*;
+
+import com.cyberpunk.game.render.Camera;
+import com.cyberpunk.game.render.RenderQueue;
+import com.cyberpunk.game.render.Texture;
+import com.cyberpunk.game.render.TextureLoader;
+import com.cyberpunk.game.render.TextureStreamer;
+
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.WeakHashMap;
 
 /**
  * Handles rendering of building interiors.
  */
 public class BuildingInteriorRenderer {
     
-    // Texture IDs
-    private Map<String, Integer> textures;
+    // Floor, wall and ceiling textures, loaded in the background if they
+    // are shipped; the loader is only cleaned up here if it was created here
+    private final TextureLoader textureLoader;
+    private final boolean ownsTextureLoader;
+    private Map<String, Texture> textures;
+    
+    // Size in world units one repeat of a surface texture covers
+    private static final float TEXTURE_TILE_SIZE = 2.0f;
     
     // Random generator for variation
     private final Random random = new Random();
     
+    // Room and portal graphs of interiors rendered without one from the
+    // interior cache
+    private Map<BuildingInterior, InteriorVisibility> visibility;
+    
+    // Instanced furniture
+    private final FurnitureBatch furnitureBatch = new FurnitureBatch();
+    
+    // Queue for draws when rendering on its own
+    private final RenderQueue renderQueue = new RenderQueue();
+    
+    // Culling statistics for the last frame
+    private int visibleRoomCount;
+    private int totalRoomCount;
+    
     /**
      * Constructor.
      */
     public BuildingInteriorRenderer() {
+        this(new TextureLoader(), true);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param textureLoader Texture loader, which may be shared with other renderers and is cleaned up by the caller
+     */
+    public BuildingInteriorRenderer(TextureLoader textureLoader) {
+        this(textureLoader, false);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param textureLoader Texture loader
+     * @param ownsTextureLoader Whether cleanup also cleans up the texture loader
+     */
+    private BuildingInteriorRenderer(TextureLoader textureLoader, boolean ownsTextureLoader) {
+        this.textureLoader = textureLoader;
+        this.ownsTextureLoader = ownsTextureLoader;
         textures = new HashMap<>();
+        visibility = new WeakHashMap<>();
         loadTextures();
     }
     
     /**
-     * Load textures for interior rendering.
+     * Start loading the surface textures for interior rendering. Furniture
+     * is drawn in flat colours.
      */
     private void loadTextures() {
-        // This is a placeholder for texture loading
-        // In a real implementation, this would load actual texture files
-        
-        // Simulate texture IDs
-        textures.put("floor_wood", 101);
-        textures.put("floor_tile", 102);
-        textures.put("floor_carpet", 103);
-        textures.put("floor_concrete", 104);
-        
-        textures.put("wall_plaster", 105);
-        textures.put("wall_concrete", 106);
-        textures.put("wall_panel", 107);
-        textures.put("wall_metal", 108);
-        
-        textures.put("ceiling_panel", 109);
-        textures.put("ceiling_concrete", 110);
-        
-        // Furniture textures
-        textures.put("furniture_wood", 111);
-        textures.put("furniture_metal", 112);
-        textures.put("furniture_plastic", 113);
-        textures.put("furniture_fabric", 114);
-        textures.put("furniture_glass", 115);
-        textures.put("furniture_screen", 116);
+        loadTexture("floor_wood");
+        loadTexture("floor_tile");
+        loadTexture("floor_carpet");
+        loadTexture("floor_concrete");
+        
+        loadTexture("wall_plaster");
+        loadTexture("wall_concrete");
+        loadTexture("wall_panel");
+        loadTexture("wall_metal");
+        
+        loadTexture("ceiling_panel");
+        loadTexture("ceiling_concrete");
+    }
+    
+    /**
+     * Start loading an interior texture. Textures that are not shipped are
+     * skipped and their surfaces drawn untextured.
+     * 
+     * @param name Texture name, also the file name under textures/interior
+     */
+    private void loadTexture(String name) {
+        String path = "textures/interior/" + name + ".png";
+        if (TextureLoader.exists(path)) {
+            textures.put(name, textureLoader.load(name, path));
+        }
     }
     
     /**
@@ -60,61 +112,331 @@ public class BuildingInteriorRenderer {
      * @param interior The building interior to render
      */
     public void renderInterior(BuildingInterior interior) {
-        // Render rooms
-        for (Room room : interior.getRooms()) {
-            renderRoom(room);
-        }
+        InteriorVisibility interiorVisibility = getVisibility(interior);
+        interiorVisibility.showAll();
         
-        // Render furniture
-        for (Furniture furniture : interior.getFurniture()) {
-            renderFurniture(furniture);
-        }
+        renderVisible(interiorVisibility, null, 0, 0, 0);
     }
     
     /**
-     * Render a room.
+     * Render the parts of a building interior visible from the viewer.
+     * Only the viewer's floor is considered, and only rooms seen from the
+     * viewer's room through doorways are drawn with their furniture.
      * 
-     * @param room The room to render
+     * @param interior The building interior to render
+     * @param viewerX Viewer X position relative to the building
+     * @param viewerY Viewer Y position relative to the building
+     * @param viewerZ Viewer Z position relative to the building
+     * @param camera Camera the frame is rendered from, to stream surface
+     *               textures at their size on screen, or null
      */
-    private void renderRoom(Room room) {
-        glPushMatrix();
-        
-        // Translate to room position
-        glTranslatef(room.getX(), room.getY(), room.getZ());
-        
-        // Room dimensions
-        float width = room.getWidth();
-        float height = room.getHeight();
-        float depth = room.getDepth();
-        
-        // Render floor
-        glColor3f(0.5f, 0.5f, 0.5f); // Gray
-        renderFloor(width, depth, room.getType());
-        
-        // Render ceiling
-        glColor3f(0.7f, 0.7f, 0.7f); // Light gray
-        renderCeiling(width, height, depth, room.getType());
+    public void renderInterior(BuildingInterior interior, float viewerX, float viewerY, float viewerZ, Camera camera) {
+        renderInterior(getVisibility(interior), viewerX, viewerY, viewerZ, camera);
+    }
+    
+    /**
+     * Render the parts of a building interior visible from the viewer, using
+     * a room graph built ahead, e.g. by InteriorCache when the interior was
+     * generated.
+     * 
+     * @param interiorVisibility The interior's room graph
+     * @param viewerX Viewer X position relative to the building
+     * @param viewerY Viewer Y position relative to the building
+     * @param viewerZ Viewer Z position relative to the building
+     * @param camera Camera the frame is rendered from, to stream surface
+     *               textures at their size on screen, or null
+     */
+    public void renderInterior(InteriorVisibility interiorVisibility, float viewerX, float viewerY, float viewerZ,
+                               Camera camera) {
+        interiorVisibility.update(viewerX, viewerY, viewerZ);
         
-        // Render walls
-        glColor3f(0.6f, 0.6f, 0.6f); // Medium gray
-        renderWalls(width, height, depth, room.getType());
+        renderVisible(interiorVisibility, camera, viewerX, viewerY, viewerZ);
+    }
+    
+    /**
+     * Submit the parts of a building interior visible from the viewer to a
+     * render queue.
+     * 
+     * @param interior The building interior to render
+     * @param viewerX Viewer X position relative to the building
+     * @param viewerY Viewer Y position relative to the building
+     * @param viewerZ Viewer Z position relative to the building
+     * @param camera Camera the frame is rendered from, to stream surface
+     *               textures at their size on screen, or null
+     * @param queue Render queue to submit to
+     */
+    public void renderInterior(BuildingInterior interior, float viewerX, float viewerY, float viewerZ,
+                               Camera camera, RenderQueue queue) {
+        renderInterior(getVisibility(interior), viewerX, viewerY, viewerZ, camera, queue);
+    }
+    
+    /**
+     * Submit the parts of a building interior visible from the viewer to a
+     * render queue, using a room graph built ahead, e.g. by InteriorCache
+     * when the interior was generated.
+     * 
+     * @param interiorVisibility The interior's room graph
+     * @param viewerX Viewer X position relative to the building
+     * @param viewerY Viewer Y position relative to the building
+     * @param viewerZ Viewer Z position relative to the building
+     * @param camera Camera the frame is rendered from, to stream surface
+     *               textures at their size on screen, or null
+     * @param queue Render queue to submit to
+     */
+    public void renderInterior(InteriorVisibility interiorVisibility, float viewerX, float viewerY, float viewerZ,
+                               Camera camera, RenderQueue queue) {
+        interiorVisibility.update(viewerX, viewerY, viewerZ);
         
-        // Render doorways
-        renderDoorways(width, height, depth);
+        submitVisible(interiorVisibility, queue, camera, viewerX, viewerY, viewerZ);
+    }
+    
+    /**
+     * Get the room graph of an interior, rebuilding it if the furniture changed.
+     * 
+     * @param interior The building interior
+     * @return The interior's room graph
+     */
+    private InteriorVisibility getVisibility(BuildingInterior interior) {
+        InteriorVisibility interiorVisibility = visibility.get(interior);
+        if (interiorVisibility == null || interiorVisibility.isStale(interior)) {
+            interiorVisibility = new InteriorVisibility(interior);
+            visibility.put(interior, interiorVisibility);
+        }
+        return interiorVisibility;
+    }
+    
+    /**
+     * Render the rooms and furniture marked visible in a room graph.
+     * 
+     * @param interiorVisibility The interior's room graph
+     * @param camera Camera the frame is rendered from, or null
+     * @param viewerX Viewer X position relative to the building
+     * @param viewerY Viewer Y position relative to the building
+     * @param viewerZ Viewer Z position relative to the building
+     */
+    private void renderVisible(InteriorVisibility interiorVisibility, Camera camera,
+                               float viewerX, float viewerY, float viewerZ) {
+        renderQueue.begin(null);
+        submitVisible(interiorVisibility, renderQueue, camera, viewerX, viewerY, viewerZ);
+        renderQueue.execute();
+    }
+    
+    /**
+     * Submit the rooms and furniture marked visible in a room graph to a
+     * render queue.
+     * 
+     * @param interiorVisibility The interior's room graph
+     * @param queue Render queue to submit to
+     * @param camera Camera the frame is rendered from, or null
+     * @param viewerX Viewer X position relative to the building
+     * @param viewerY Viewer Y position relative to the building
+     * @param viewerZ Viewer Z position relative to the building
+     */
+    private void submitVisible(InteriorVisibility interiorVisibility, RenderQueue queue, Camera camera,
+                               float viewerX, float viewerY, float viewerZ) {
+        // Report the surface textures in view to the streamer, then upload
+        // textures that finished decoding and the levels it chose
+        if (camera != null) {
+            requestTextures(interiorVisibility, camera, viewerX, viewerY, viewerZ);
+        }
+        textureLoader.update();
+        
+        // Visible rooms, one packet per surface texture so the queue groups
+        // rooms sharing a texture
+        for (Room room : interiorVisibility.getVisibleRooms()) {
+            RoomType type = room.getType();
+            Texture floor = textures.get(getFloorTextureName(type));
+            Texture ceiling = textures.get(getCeilingTextureName(type));
+            Texture walls = textures.get(getWallTextureName(type));
+            queue.submit(RenderQueue.PASS_OPAQUE, null, getTextureId(floor), 0.0f, () -> renderFloor(room, floor));
+            queue.submit(RenderQueue.PASS_OPAQUE, null, getTextureId(ceiling), 0.0f, () -> renderCeiling(room, ceiling));
+            queue.submit(RenderQueue.PASS_OPAQUE, null, getTextureId(walls), 0.0f, () -> renderWalls(room, walls));
+            queue.submit(RenderQueue.PASS_OPAQUE, null, 0, 0.0f, () -> renderDoorways(room));
+        }
         
-        glPopMatrix();
+        // Furniture in visible rooms, one instanced draw per shape; binds its own shader
+        queue.submit(RenderQueue.PASS_OPAQUE, null, 0, 0.0f, () -> {
+            if (!furnitureBatch.render(interiorVisibility)) {
+                // Shaders unavailable, fall back to immediate mode
+                for (Furniture furniture : interiorVisibility.getVisibleFurniture()) {
+                    renderFurniture(furniture);
+                }
+            }
+        });
+        
+        visibleRoomCount = interiorVisibility.getVisibleRooms().size();
+        totalRoomCount = interiorVisibility.getRoomCount();
     }
     
     /**
-     * Render the floor of a room.
+     * Report the size on screen of the surface textures of the visible rooms
+     * to the texture streamer, measured at the point of each room nearest
+     * the viewer.
+     * 
+     * @param interiorVisibility The interior's room graph
+     * @param camera Camera the frame is rendered from
+     * @param viewerX Viewer X position relative to the building
+     * @param viewerY Viewer Y position relative to the building
+     * @param viewerZ Viewer Z position relative to the building
+     */
+    private void requestTextures(InteriorVisibility interiorVisibility, Camera camera,
+                                 float viewerX, float viewerY, float viewerZ) {
+        TextureStreamer streamer = textureLoader.getStreamer();
+        for (Room room : interiorVisibility.getVisibleRooms()) {
+            float dx = Math.max(0.0f, Math.max(room.getX() - viewerX, viewerX - room.getX() - room.getWidth()));
+            float dy = Math.max(0.0f, Math.max(room.getY() - viewerY, viewerY - room.getY() - room.getHeight()));
+            float dz = Math.max(0.0f, Math.max(room.getZ() - viewerZ, viewerZ - room.getZ() - room.getDepth()));
+            float screenSize = camera.getScreenSize(TEXTURE_TILE_SIZE, (float) Math.sqrt(dx * dx + dy * dy + dz * dz));
+            
+            RoomType type = room.getType();
+            requestTexture(streamer, textures.get(getFloorTextureName(type)), screenSize);
+            requestTexture(streamer, textures.get(getCeilingTextureName(type)), screenSize);
+            requestTexture(streamer, textures.get(getWallTextureName(type)), screenSize);
+        }
+    }
+    
+    /**
+     * Report the size on screen of a surface texture to the texture streamer.
+     * 
+     * @param streamer Texture streamer
+     * @param texture Surface texture, or null if it is not shipped
+     * @param screenSize Size of one repeat of the texture on screen in pixels
+     */
+    private static void requestTexture(TextureStreamer streamer, Texture texture, float screenSize) {
+        if (texture != null) {
+            streamer.request(texture, screenSize);
+        }
+    }
+    
+    /**
+     * Get the furniture batch used for instanced furniture.
      * 
-     * @param width Room width
-     * @param depth Room depth
+     * @return The furniture batch
+     */
+    public FurnitureBatch getFurnitureBatch() {
+        return furnitureBatch;
+    }
+    
+    /**
+     * Clean up GPU resources.
+     */
+    public void cleanup() {
+        furnitureBatch.cleanup();
+        if (ownsTextureLoader) {
+            textureLoader.cleanup();
+        }
+    }
+    
+    /**
+     * Drop the cached room graph of an interior, e.g. after furniture moved
+     * between rooms.
+     * 
+     * @param interior The building interior
+     */
+    public void invalidateInterior(BuildingInterior interior) {
+        visibility.remove(interior);
+    }
+    
+    /**
+     * Get the number of rooms drawn in the last culled render.
+     * 
+     * @return Visible room count
+     */
+    public int getVisibleRoomCount() {
+        return visibleRoomCount;
+    }
+    
+    /**
+     * Get the number of rooms in the interior of the last culled render.
+     * 
+     * @return Total room count
+     */
+    public int getTotalRoomCount() {
+        return totalRoomCount;
+    }
+    
+    /**
+     * Get the floor texture of a room type.
+     *
      * @param type Room type
+     * @return Texture name
      */
-    private void renderFloor(float width, float depth, RoomType type) {
-        // Set floor color based on room type
+    private static String getFloorTextureName(RoomType type) {
+        switch (type) {
+            case LIVING_ROOM:
+            case BEDROOM:
+            case BAR:
+                return "floor_wood";
+            case KITCHEN:
+            case BATHROOM:
+            case LOBBY:
+                return "floor_tile";
+            case OFFICE:
+            case SHOP:
+                return "floor_carpet";
+            default:
+                return "floor_concrete";
+        }
+    }
+    
+    /**
+     * Get the wall texture of a room type.
+     *
+     * @param type Room type
+     * @return Texture name
+     */
+    private static String getWallTextureName(RoomType type) {
         switch (type) {
+            case OFFICE:
+            case SHOP:
+            case BAR:
+                return "wall_panel";
+            case LAB:
+                return "wall_metal";
+            case WAREHOUSE:
+                return "wall_concrete";
+            default:
+                return "wall_plaster";
+        }
+    }
+    
+    /**
+     * Get the ceiling texture of a room type.
+     *
+     * @param type Room type
+     * @return Texture name
+     */
+    private static String getCeilingTextureName(RoomType type) {
+        switch (type) {
+            case BAR:
+            case LAB:
+            case WAREHOUSE:
+                return "ceiling_concrete";
+            default:
+                return "ceiling_panel";
+        }
+    }
+    
+    /**
+     * Get the GL texture a surface texture is drawn from, for a render queue
+     * packet.
+     *
+     * @param texture Surface texture, or null if it is not shipped
+     * @return Texture ID, or 0 for none
+     */
+    private static int getTextureId(Texture texture) {
+        return texture != null ? texture.getId() : 0;
+    }
+    
+    /**
+     * Render the floor of a room.
+     *
+     * @param room The room
+     * @param texture Floor texture, or null to draw it untextured
+     */
+    private void renderFloor(Room room, Texture texture) {
+        // Set floor color based on room type
+        switch (room.getType()) {
             case LIVING_ROOM:
             case BEDROOM:
                 glColor3f(0.6f, 0.4f, 0.2f); // Wood brown
@@ -142,25 +464,21 @@ public class BuildingInteriorRenderer {
         }
         
         // Render floor
-        glBegin(GL_QUADS);
-        glVertex3f(0, 0, 0);
-        glVertex3f(width, 0, 0);
-        glVertex3f(width, 0, depth);
-        glVertex3f(0, 0, depth);
-        glEnd();
+        glPushMatrix();
+        glTranslatef(room.getX(), room.getY(), room.getZ());
+        renderSurface(texture, 0, 0, 0, room.getWidth(), 0, 0, 0, 0, room.getDepth());
+        glPopMatrix();
     }
     
     /**
      * Render the ceiling of a room.
-     * 
-     * @param width Room width
-     * @param height Room height
-     * @param depth Room depth
-     * @param type Room type
+     *
+     * @param room The room
+     * @param texture Ceiling texture, or null to draw it untextured
      */
-    private void renderCeiling(float width, float height, float depth, RoomType type) {
+    private void renderCeiling(Room room, Texture texture) {
         // Set ceiling color based on room type
-        switch (type) {
+        switch (room.getType()) {
             case LIVING_ROOM:
             case BEDROOM:
             case KITCHEN:
@@ -182,25 +500,21 @@ public class BuildingInteriorRenderer {
         }
         
         // Render ceiling
-        glBegin(GL_QUADS);
-        glVertex3f(0, height, 0);
-        glVertex3f(width, height, 0);
-        glVertex3f(width, height, depth);
-        glVertex3f(0, height, depth);
-        glEnd();
+        glPushMatrix();
+        glTranslatef(room.getX(), room.getY(), room.getZ());
+        renderSurface(texture, 0, room.getHeight(), 0, room.getWidth(), 0, 0, 0, 0, room.getDepth());
+        glPopMatrix();
     }
     
     /**
      * Render the walls of a room.
-     * 
-     * @param width Room width
-     * @param height Room height
-     * @param depth Room depth
-     * @param type Room type
+     *
+     * @param room The room
+     * @param texture Wall texture, or null to draw them untextured
      */
-    private void renderWalls(float width, float height, float depth, RoomType type) {
+    private void renderWalls(Room room, Texture texture) {
         // Set wall color based on room type
-        switch (type) {
+        switch (room.getType()) {
             case LIVING_ROOM:
             case BEDROOM:
                 glColor3f(0.8f, 0.8f, 0.7f); // Cream
@@ -230,51 +544,108 @@ public class BuildingInteriorRenderer {
         }
         
         // Render walls (excluding doorways, which are handled separately)
+        float width = room.getWidth();
+        float height = room.getHeight();
+        float depth = room.getDepth();
+        glPushMatrix();
+        glTranslatef(room.getX(), room.getY(), room.getZ());
         
         // Front wall
-        glBegin(GL_QUADS);
-        glVertex3f(0, 0, 0);
-        glVertex3f(width, 0, 0);
-        glVertex3f(width, height, 0);
-        glVertex3f(0, height, 0);
-        glEnd();
+        renderSurface(texture, 0, 0, 0, width, 0, 0, 0, height, 0);
         
         // Back wall
-        glBegin(GL_QUADS);
-        glVertex3f(0, 0, depth);
-        glVertex3f(width, 0, depth);
-        glVertex3f(width, height, depth);
-        glVertex3f(0, height, depth);
-        glEnd();
+        renderSurface(texture, 0, 0, depth, width, 0, 0, 0, height, 0);
         
         // Left wall
-        glBegin(GL_QUADS);
-        glVertex3f(0, 0, 0);
-        glVertex3f(0, 0, depth);
-        glVertex3f(0, height, depth);
-        glVertex3f(0, height, 0);
-        glEnd();
+        renderSurface(texture, 0, 0, 0, 0, 0, depth, 0, height, 0);
         
         // Right wall
+        renderSurface(texture, width, 0, 0, 0, 0, depth, 0, height, 0);
+        
+        glPopMatrix();
+    }
+    
+    /**
+     * Render a rectangle of a room. Its texture repeats every
+     * TEXTURE_TILE_SIZE units; textures in an atlas cannot wrap, so every
+     * repeat is its own quad.
+     *
+     * @param texture Surface texture, or null to draw it untextured
+     * @param x Corner X
+     * @param y Corner Y
+     * @param z Corner Z
+     * @param ux First edge X
+     * @param uy First edge Y
+     * @param uz First edge Z
+     * @param vx Second edge X
+     * @param vy Second edge Y
+     * @param vz Second edge Z
+     */
+    private void renderSurface(Texture texture, float x, float y, float z,
+                               float ux, float uy, float uz, float vx, float vy, float vz) {
+        float uLength = (float) Math.sqrt(ux * ux + uy * uy + uz * uz);
+        float vLength = (float) Math.sqrt(vx * vx + vy * vy + vz * vz);
+        if (texture == null || uLength <= 0.0f || vLength <= 0.0f) {
+            glBegin(GL_QUADS);
+            glVertex3f(x, y, z);
+            glVertex3f(x + ux, y + uy, z + uz);
+            glVertex3f(x + ux + vx, y + uy + vy, z + uz + vz);
+            glVertex3f(x + vx, y + vy, z + vz);
+            glEnd();
+            return;
+        }
+        
+        int uTiles = (int) Math.ceil(uLength / TEXTURE_TILE_SIZE);
+        int vTiles = (int) Math.ceil(vLength / TEXTURE_TILE_SIZE);
+        glEnable(GL_TEXTURE_2D);
         glBegin(GL_QUADS);
-        glVertex3f(width, 0, 0);
-        glVertex3f(width, 0, depth);
-        glVertex3f(width, height, depth);
-        glVertex3f(width, height, 0);
+        for (int i = 0; i < uTiles; i++) {
+            // Fractions of the edge the tile spans; the last tile is cut short
+            float s0 = i * TEXTURE_TILE_SIZE / uLength;
+            float s1 = Math.min(1.0f, (i + 1) * TEXTURE_TILE_SIZE / uLength);
+            float u = (s1 - s0) * uLength / TEXTURE_TILE_SIZE;
+            for (int j = 0; j < vTiles; j++) {
+                float t0 = j * TEXTURE_TILE_SIZE / vLength;
+                float t1 = Math.min(1.0f, (j + 1) * TEXTURE_TILE_SIZE / vLength);
+                float v = (t1 - t0) * vLength / TEXTURE_TILE_SIZE;
+                surfaceVertex(texture, 0, 0, x + ux * s0 + vx * t0, y + uy * s0 + vy * t0, z + uz * s0 + vz * t0);
+                surfaceVertex(texture, u, 0, x + ux * s1 + vx * t0, y + uy * s1 + vy * t0, z + uz * s1 + vz * t0);
+                surfaceVertex(texture, u, v, x + ux * s1 + vx * t1, y + uy * s1 + vy * t1, z + uz * s1 + vz * t1);
+                surfaceVertex(texture, 0, v, x + ux * s0 + vx * t1, y + uy * s0 + vy * t1, z + uz * s0 + vz * t1);
+            }
+        }
         glEnd();
+        glDisable(GL_TEXTURE_2D);
+    }
+    
+    /**
+     * Emit a vertex of a textured surface.
+     *
+     * @param texture Surface texture
+     * @param u Horizontal texture coordinate within the texture (0.0 to 1.0)
+     * @param v Vertical texture coordinate within the texture (0.0 to 1.0)
+     * @param x X position
+     * @param y Y position
+     * @param z Z position
+     */
+    private static void surfaceVertex(Texture texture, float u, float v, float x, float y, float z) {
+        glTexCoord2f(texture.mapU(u), texture.mapV(v));
+        glVertex3f(x, y, z);
     }
     
     /**
      * Render doorways for a room.
-     * 
-     * @param width Room width
-     * @param height Room height
-     * @param depth Room depth
+     *
+     * @param room The room
      */
-    private void renderDoorways(float width, float height, float depth) {
+    private void renderDoorways(Room room) {
+        // Room dimensions
+        float width = room.getWidth();
+        float depth = room.getDepth();
+        
         // Door dimensions
-        float doorWidth = 1.0f;
-        float doorHeight = 2.0f;
+        float doorWidth = InteriorVisibility.DOOR_WIDTH;
+        float doorHeight = InteriorVisibility.DOOR_HEIGHT;
         
         // Door positions (centered on walls)
         float frontDoorX = width / 2 - doorWidth / 2;
@@ -282,6 +653,9 @@ public class BuildingInteriorRenderer {
         float leftDoorZ = depth / 2 - doorWidth / 2;
         float rightDoorZ = depth / 2 - doorWidth / 2;
         
+        glPushMatrix();
+        glTranslatef(room.getX(), room.getY(), room.getZ());
+        
         // Render doorways
         glColor3f(0.1f, 0.1f, 0.1f); // Dark gray
         
@@ -316,6 +690,8 @@ public class BuildingInteriorRenderer {
         glVertex3f(width, doorHeight, rightDoorZ + doorWidth);
         glVertex3f(width, doorHeight, rightDoorZ);
         glEnd();
+        
+        glPopMatrix();
     }
     
     /**
@@ -330,7 +706,7 @@ public class BuildingInteriorRenderer {
         glTranslatef(furniture.getX(), furniture.getY(), furniture.getZ());
         
         // Set furniture color based on type
-        setFurnitureColor(furniture.getType());
+        setFurnitureColor(furniture);
         
         // Furniture dimensions
         float width = furniture.getWidth();
@@ -371,89 +747,14 @@ public class BuildingInteriorRenderer {
     }
     
     /**
-     * Set the color for a piece of furniture based on its type.
+     * Set the color for a piece of furniture.
      * 
-     * @param type Furniture type
+     * @param furniture The furniture
      */
-    private void setFurnitureColor(FurnitureType type) {
-        switch (type) {
-            case SOFA:
-            case BED:
-                // Random fabric color
-                float r = 0.2f + random.nextFloat() * 0.6f;
-                float g = 0.2f + random.nextFloat() * 0.6f;
-                float b = 0.2f + random.nextFloat() * 0.6f;
-                glColor3f(r, g, b);
-                break;
-            case COFFEE_TABLE:
-            case TABLE:
-            case DESK:
-            case BOOKSHELF:
-            case SHELF:
-            case DRESSER:
-            case NIGHTSTAND:
-            case WARDROBE:
-            case CABINET:
-                glColor3f(0.6f, 0.4f, 0.2f); // Wood brown
-                break;
-            case TV:
-            case COMPUTER:
-            case HOLOGRAM_PROJECTOR:
-            case HOLOGRAM_DISPLAY:
-                glColor3f(0.1f, 0.1f, 0.1f); // Black
-                break;
-            case CHAIR:
-            case BARSTOOL:
-                glColor3f(0.3f, 0.3f, 0.3f); // Dark gray
-                break;
-            case COUNTER:
-            case BAR_COUNTER:
-            case LAB_BENCH:
-                glColor3f(0.8f, 0.8f, 0.8f); // White
-                break;
-            case STOVE:
-            case REFRIGERATOR:
-            case SINK:
-            case SHOWER:
-            case BATHTUB:
-            case TOILET:
-                glColor3f(0.9f, 0.9f, 0.9f); // White
-                break;
-            case PLANT:
-                glColor3f(0.0f, 0.5f, 0.0f); // Green
-                break;
-            case LAMP:
-            case NEON_SIGN:
-                glColor3f(0.9f, 0.9f, 0.0f); // Yellow
-                break;
-            case MIRROR:
-                glColor3f(0.8f, 0.8f, 1.0f); // Light blue
-                break;
-            case FILING_CABINET:
-            case SERVER_RACK:
-            case LAB_EQUIPMENT:
-                glColor3f(0.7f, 0.7f, 0.7f); // Light gray
-                break;
-            case DISPLAY_CASE:
-                glColor3f(0.9f, 0.9f, 0.9f); // White
-                break;
-            case CASH_REGISTER:
-            case VENDING_MACHINE:
-            case JUKEBOX:
-                glColor3f(0.5f, 0.5f, 0.5f); // Gray
-                break;
-            case CRATE:
-                glColor3f(0.5f, 0.4f, 0.3f); // Brown
-                break;
-            case FORKLIFT:
-                glColor3f(1.0f, 0.8f, 0.0f); // Yellow
-                break;
-            case FOOD_SYNTHESIZER:
-                glColor3f(0.7f, 0.7f, 0.7f); // Light gray
-                break;
-            default:
-                glColor3f(0.5f, 0.5f, 0.5f); // Default gray
-        }
+    private void setFurnitureColor(Furniture furniture) {
+        float[] color = new float[3];
+        FurnitureBatch.getFurnitureColor(furniture, color);
+        glColor3f(color[0], color[1], color[2]);
     }
     
     /**
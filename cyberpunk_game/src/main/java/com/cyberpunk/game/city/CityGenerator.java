@@ -1,8 +1,10 @@
 package com.cyberpunk.game.city;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
+import java.util.Set;
 
 /**
  * Manages the city layout and generation.
@@ -13,25 +15,45 @@ public class CityGenerator {
     private final int citySize = 1000; // Size of the city in meters
     private final int blockSize = 50; // Size of a city block in meters
     private final int numBlocks; // Number of blocks in each direction
+    private final int gridSize = 10; // Buildings are snapped to this grid
+    private final int placementAttempts = 10; // Tries to find a free grid cell
     
     // City components
     private List<District> districts;
     private List<Road> roads;
+    private RoadNetwork roadNetwork;
+    private List<BuildingData> buildings;
     
-    // Random generator
-    private final Random random = new Random();
+    // World seed and random generator
+    private final long seed;
+    private final Random random;
     
     /**
      * Constructor.
      */
     public CityGenerator() {
+        this(new Random().nextLong());
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param seed World seed; the same seed always produces the same city
+     */
+    public CityGenerator(long seed) {
+        this.seed = seed;
+        random = new Random(seed);
         numBlocks = citySize / blockSize;
         districts = new ArrayList<>();
         roads = new ArrayList<>();
+        buildings = new ArrayList<>(); // Until generateBuildings is called
         
         // Initialize districts and roads
         initializeDistricts();
         initializeRoads();
+        
+        // Derive the road graph once for pathfinding, traffic and the map
+        roadNetwork = RoadNetwork.fromRoads(roads);
     }
     
     /**
@@ -103,6 +125,42 @@ public class CityGenerator {
         }
     }
     
+    /**
+     * Get the world seed.
+     * 
+     * @return The world seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+    
+    /**
+     * Get the road network derived from the city roads.
+     * 
+     * @return The road network
+     */
+    public RoadNetwork getRoadNetwork() {
+        return roadNetwork;
+    }
+    
+    /**
+     * Get the city roads.
+     * 
+     * @return List of roads
+     */
+    public List<Road> getRoads() {
+        return roads;
+    }
+    
+    /**
+     * Get the buildings from the last call to generateBuildings.
+     * 
+     * @return List of buildings, empty until they are generated
+     */
+    public List<BuildingData> getBuildings() {
+        return buildings;
+    }
+    
     /**
      * Generate buildings for the city.
      * 
@@ -111,6 +169,10 @@ public class CityGenerator {
     public List<BuildingData> generateBuildings() {
         List<BuildingData> buildings = new ArrayList<>();
         
+        // Grid cells taken, so no two buildings share a position; the
+        // position is what identifies a building's interior
+        Set<Long> occupiedCells = new HashSet<>();
+        
         // Generate buildings for each district
         for (District district : districts) {
             int numBuildingsInDistrict = random.nextInt(20) + 30; // 30-50 buildings per district
@@ -118,13 +180,22 @@ public class CityGenerator {
             for (int i = 0; i < numBuildingsInDistrict; i++) {
                 BuildingData building = new BuildingData();
                 
-                // Set building position within district bounds
-                float x = random.nextFloat() * (district.getMaxX() - district.getMinX()) + district.getMinX();
-                float z = random.nextFloat() * (district.getMaxZ() - district.getMinZ()) + district.getMinZ();
-                
-                // Snap to grid for better city layout
-                x = Math.round(x / 10) * 10;
-                z = Math.round(z / 10) * 10;
+                // Set building position within district bounds, snapped to
+                // a free cell of the grid for better city layout
+                float x = 0;
+                float z = 0;
+                boolean placed = false;
+                for (int attempt = 0; attempt < placementAttempts && !placed; attempt++) {
+                    x = random.nextFloat() * (district.getMaxX() - district.getMinX()) + district.getMinX();
+                    z = random.nextFloat() * (district.getMaxZ() - district.getMinZ()) + district.getMinZ();
+                    x = Math.round(x / gridSize) * gridSize;
+                    z = Math.round(z / gridSize) * gridSize;
+                    placed = occupiedCells.add(((long) Math.round(x) << 32) | (Math.round(z) & 0xFFFFFFFFL));
+                }
+                if (!placed) {
+                    // District too crowded for another building
+                    continue;
+                }
                 
                 building.setPosition(x, 0, z);
                 
@@ -136,6 +207,7 @@ public class CityGenerator {
             }
         }
         
+        this.buildings = buildings;
         return buildings;
     }
     
@@ -348,7 +420,7 @@ public class CityGenerator {
             VehicleData vehicle = new VehicleData();
             
             // Select a random road
-            Road road = roads.get(random.nextInt(roads.length()));
+            Road road = roads.get(random.nextInt(roads.size()));
             
             // Position vehicle on the road
             float roadProgress = random.nextFloat();
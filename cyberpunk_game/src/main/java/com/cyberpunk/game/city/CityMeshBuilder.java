@@ -0,0 +1,68 @@
+package com.cyberpunk.game.city;
+
+import com.cyberpunk.game.render.MeshBuilder;
+
+/**
+ * Builds the static city geometry (ground, roads) into mesh builders once,
+ * so it can be drawn from GPU buffers every frame.
+ */
+public final class CityMeshBuilder {
+
+    // Heights above the ground to avoid z-fighting
+    private static final float ROAD_HEIGHT = 0.01f;
+    private static final float MARKING_HEIGHT = 0.02f;
+
+    private CityMeshBuilder() {
+    }
+
+    /**
+     * Add the ground plane.
+     *
+     * @param builder Mesh builder for surfaces
+     * @param size Half the side length of the plane
+     */
+    public static void addGround(MeshBuilder builder, float size) {
+        builder.setColor(0.2f, 0.2f, 0.2f);
+        builder.addQuad(new float[] {
+            -size, 0.0f, -size,
+            -size, 0.0f, size,
+            size, 0.0f, size,
+            size, 0.0f, -size
+        }, 0, 1, 0);
+    }
+
+    /**
+     * Add a road surface and its centre line.
+     *
+     * @param surfaces Mesh builder for surfaces
+     * @param markings Line mesh builder for road markings
+     * @param road The road
+     */
+    public static void addRoad(MeshBuilder surfaces, MeshBuilder markings, Road road) {
+        float length = road.length();
+        if (length <= 0) {
+            return;
+        }
+
+        // Normalized direction and perpendicular
+        float dirX = (road.getEndX() - road.getStartX()) / length;
+        float dirZ = (road.getEndZ() - road.getStartZ()) / length;
+        float perpX = -dirZ;
+        float perpZ = dirX;
+
+        float halfWidth = road.getWidth() / 2;
+
+        surfaces.setColor(0.15f, 0.15f, 0.15f);
+        surfaces.addQuad(new float[] {
+            road.getStartX() + perpX * halfWidth, ROAD_HEIGHT, road.getStartZ() + perpZ * halfWidth,
+            road.getStartX() - perpX * halfWidth, ROAD_HEIGHT, road.getStartZ() - perpZ * halfWidth,
+            road.getEndX() - perpX * halfWidth, ROAD_HEIGHT, road.getEndZ() - perpZ * halfWidth,
+            road.getEndX() + perpX * halfWidth, ROAD_HEIGHT, road.getEndZ() + perpZ * halfWidth
+        }, 0, 1, 0);
+
+        // Yellow centre line
+        markings.setColor(1.0f, 1.0f, 0.0f);
+        markings.addLine(road.getStartX(), MARKING_HEIGHT, road.getStartZ(),
+            road.getEndX(), MARKING_HEIGHT, road.getEndZ());
+    }
+}
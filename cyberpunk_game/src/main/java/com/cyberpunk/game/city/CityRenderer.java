@@ -1,7 +1,26 @@
 package com.cyberpunk.game.city;
 
 import static org.lwjgl.opengl.GL11.*;
+
+import com.cyberpunk.game.render.Camera;
+import com.cyberpunk.game.render.ClusteredLights;
+import com.cyberpunk.game.render.Mesh;
+import com.cyberpunk.game.render.MeshBuilder;
+import com.cyberpunk.game.render.MeshGrid;
+import com.cyberpunk.game.render.Model;
+import com.cyberpunk.game.render.ModelLoader;
+import com.cyberpunk.game.render.RenderQueue;
+import com.cyberpunk.game.render.RenderStats;
+import com.cyberpunk.game.render.ShaderProgram;
+import com.cyberpunk.game.render.ShadowCascades;
+import com.cyberpunk.game.render.Texture;
+import com.cyberpunk.game.render.TextureLoader;
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.joml.FrustumIntersection;
+
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 
@@ -10,48 +29,152 @@ import java.util.Random;
  */
 public class CityRenderer {
     
-    // Texture IDs
-    private Map<String, Integer> textures;
+    // Textures, loaded in the background
+    private final TextureLoader textureLoader;
+    private Map<String, Texture> textures;
+    
+    // Vehicle models, imported or read from the model cache in the
+    // background; vehicles are built from boxes until theirs is loaded
+    private final ModelLoader modelLoader;
+    private final Map<VehicleData.Type, Model> vehicleModels;
     
     // Random generator for variation
     private final Random random = new Random();
     
+    // Ground size (half the side length) when drawn without a camera
+    private static final float GROUND_SIZE = 1000.0f;
+    
+    // Side length of the cells static geometry is split into for culling
+    private static final float CELL_SIZE = 200.0f;
+    
+    // Bounding sphere radius around a vehicle's centre, large enough for a truck
+    private static final float VEHICLE_RADIUS = 4.5f;
+    
+    // Static city geometry
+    private final PerformanceOptimizer performanceOptimizer;
+    private ShaderProgram shader;
+    private Mesh groundMesh;
+    private MeshGrid roadGrid;
+    private MeshGrid roadMarkingGrid;
+    private final BuildingInstanceRenderer buildingInstances;
+    private CityGenerator meshSource;
+    
+    // Shadows and lights the city receives, if set
+    private ShadowCascades shadows;
+    private ClusteredLights lights;
+    
+    // Whether the optimizer and texture loader were created here rather than
+    // passed in, so cleanup only deletes what this renderer owns
+    private final boolean ownsPerformanceOptimizer;
+    private final boolean ownsTextureLoader;
+    
+    // Queue for draws when rendering on its own
+    private final RenderQueue renderQueue;
+    
+    // Vehicles in the city
+    private List<VehicleData> vehicles;
+    
     /**
      * Constructor.
      */
     public CityRenderer() {
+        this(new PerformanceOptimizer(), null, true);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param performanceOptimizer Performance optimizer that owns the city's GPU buffers, cleaned up by the caller
+     */
+    public CityRenderer(PerformanceOptimizer performanceOptimizer) {
+        this(performanceOptimizer, null, false);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param performanceOptimizer Performance optimizer that owns the city's GPU buffers, cleaned up by the caller
+     * @param textureLoader Texture loader, which may be shared with other renderers and is cleaned up by the caller
+     */
+    public CityRenderer(PerformanceOptimizer performanceOptimizer, TextureLoader textureLoader) {
+        this(performanceOptimizer, textureLoader, false);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param performanceOptimizer Performance optimizer that owns the city's GPU buffers
+     * @param textureLoader Texture loader, or null to create one
+     * @param ownsPerformanceOptimizer Whether cleanup also cleans up the performance optimizer
+     */
+    private CityRenderer(PerformanceOptimizer performanceOptimizer, TextureLoader textureLoader, boolean ownsPerformanceOptimizer) {
+        this.performanceOptimizer = performanceOptimizer;
+        this.ownsPerformanceOptimizer = ownsPerformanceOptimizer;
+        ownsTextureLoader = textureLoader == null;
+        this.textureLoader = ownsTextureLoader ? new TextureLoader(performanceOptimizer) : textureLoader;
+        buildingInstances = new BuildingInstanceRenderer(performanceOptimizer);
+        renderQueue = new RenderQueue();
         textures = new HashMap<>();
         loadTextures();
+        modelLoader = new ModelLoader(performanceOptimizer);
+        vehicleModels = new EnumMap<>(VehicleData.Type.class);
+        loadModels();
     }
     
     /**
-     * Load textures for city rendering.
+     * Start loading the textures for city rendering.
      */
     private void loadTextures() {
-        // This is a placeholder for texture loading
-        // In a real implementation, this would load actual texture files
-        
-        // Simulate texture IDs
-        textures.put("building_corporate", 1);
-        textures.put("building_apartment", 2);
-        textures.put("building_warehouse", 3);
-        textures.put("building_entertainment", 4);
-        textures.put("building_slum", 5);
-        textures.put("building_tech", 6);
-        textures.put("building_market", 7);
-        textures.put("building_gang", 8);
-        
-        textures.put("road", 9);
-        textures.put("sidewalk", 10);
-        
-        textures.put("vehicle_car", 11);
-        textures.put("vehicle_motorcycle", 12);
-        textures.put("vehicle_truck", 13);
-        textures.put("vehicle_flying", 14);
-        textures.put("vehicle_police", 15);
-        textures.put("vehicle_luxury", 16);
-        
-        textures.put("shop_sign", 17);
+        loadTexture("building_corporate");
+        loadTexture("building_apartment");
+        loadTexture("building_warehouse");
+        loadTexture("building_entertainment");
+        loadTexture("building_slum");
+        loadTexture("building_tech");
+        loadTexture("building_market");
+        loadTexture("building_gang");
+        
+        loadTexture("road");
+        loadTexture("sidewalk");
+        
+        loadTexture("vehicle_car");
+        loadTexture("vehicle_motorcycle");
+        loadTexture("vehicle_truck");
+        loadTexture("vehicle_flying");
+        loadTexture("vehicle_police");
+        loadTexture("vehicle_luxury");
+        
+        loadTexture("shop_sign");
+    }
+    
+    /**
+     * Start loading the vehicle models, one per vehicle type.
+     */
+    private void loadModels() {
+        for (VehicleData.Type type : VehicleData.Type.values()) {
+            String name = "vehicle_" + type.name().toLowerCase();
+            vehicleModels.put(type, modelLoader.load(name, "models/vehicles/" + name + ".glb"));
+        }
+    }
+    
+    /**
+     * Start loading a city texture.
+     * 
+     * @param name Texture name, also the file name under textures/city
+     */
+    private void loadTexture(String name) {
+        textures.put(name, textureLoader.load(name, "textures/city/" + name + ".png"));
+    }
+    
+    /**
+     * Build the static geometry of a city now rather than when it is first
+     * rendered, e.g. so shadows drawn before the city is can include its
+     * buildings. Must be called on the render thread.
+     * 
+     * @param cityGenerator The city generator containing city data, with its buildings generated
+     */
+    public void setCity(CityGenerator cityGenerator) {
+        buildMeshes(cityGenerator);
     }
     
     /**
@@ -60,320 +183,190 @@ public class CityRenderer {
      * @param cityGenerator The city generator containing city data
      */
     public void renderCity(CityGenerator cityGenerator) {
-        // Render ground plane
-        renderGround();
-        
-        // Render roads
-        for (Road road : cityGenerator.getRoads()) {
-            renderRoad(road);
-        }
-        
-        // Render buildings
-        for (BuildingData building : cityGenerator.generateBuildings()) {
-            renderBuilding(building);
+        renderCity(cityGenerator, null);
+    }
+    
+    /**
+     * Render the parts of the city inside the camera's view frustum. The
+     * camera's far plane is the render distance: geometry beyond it is culled
+     * and the ground only extends that far.
+     * 
+     * @param cityGenerator The city generator containing city data
+     * @param camera The camera, or null to render everything
+     */
+    public void renderCity(CityGenerator cityGenerator, Camera camera) {
+        renderQueue.begin(camera);
+        renderCity(cityGenerator, camera, renderQueue);
+        renderQueue.execute();
+    }
+    
+    /**
+     * Submit the parts of the city inside the camera's view frustum to a
+     * render queue. The queue must have been started with the same camera.
+     * 
+     * @param cityGenerator The city generator containing city data
+     * @param camera The camera, or null to render everything
+     * @param queue Render queue to submit to
+     */
+    public void renderCity(CityGenerator cityGenerator, Camera camera, RenderQueue queue) {
+        // Build static geometry once
+        if (cityGenerator != meshSource) {
+            buildMeshes(cityGenerator);
         }
         
-        // Render vehicles
-        for (VehicleData vehicle : cityGenerator.generateVehicles()) {
-            renderVehicle(vehicle);
+        // Upload textures that finished decoding and models that finished
+        // loading
+        textureLoader.update();
+        modelLoader.update();
+        
+        // Uniforms are program state, so set once for all the packets below
+        shader.bind();
+        shader.setUniform("receiveShadows", shadows != null && shadows.isEnabled() ? 1 : 0);
+        shader.setUniform("receiveLights", lights != null ? 1 : 0);
+        shader.unbind();
+        
+        FrustumIntersection frustum = camera != null ? camera.getFrustum() : null;
+        
+        // Ground under the camera, drawn after everything standing on it
+        queue.submit(RenderQueue.PASS_OPAQUE, shader, 0, queue.getFarDepth(), () -> drawGround(camera));
+        
+        // Visible roads
+        roadGrid.submit(queue, shader, frustum);
+        roadMarkingGrid.submit(queue, shader, frustum);
+        
+        // Visible buildings at their level of detail; binds its own shaders
+        queue.submit(RenderQueue.PASS_OPAQUE, null, 0, 0.0f, () -> buildingInstances.render(camera));
+        
+        // Visible vehicles
+        int visibleVehicles = 0;
+        for (VehicleData vehicle : vehicles) {
+            if (frustum == null || frustum.testSphere(vehicle.getX(), vehicle.getY() + 1.5f, vehicle.getZ(), VEHICLE_RADIUS)) {
+                float depth = queue.getDepth(vehicle.getX(), vehicle.getY(), vehicle.getZ());
+                Model model = vehicleModels.get(vehicle.getType());
+                if (model.isLoaded()) {
+                    queue.submit(RenderQueue.PASS_OPAQUE, shader, 0, depth, () -> renderVehicleModel(vehicle, model));
+                } else {
+                    queue.submit(RenderQueue.PASS_OPAQUE, null, 0, depth, () -> renderVehicle(vehicle));
+                }
+                visibleVehicles++;
+            }
         }
+        RenderStats.addCullResult(visibleVehicles, vehicles.size() - visibleVehicles);
     }
     
     /**
-     * Render the ground plane.
+     * Draw the ground under the camera, out to the render distance. The mesh
+     * shader must be bound.
+     * 
+     * @param camera The camera, or null for a fixed size around the origin
      */
-    private void renderGround() {
+    private void drawGround(Camera camera) {
         glPushMatrix();
-        
-        // Ground color
-        glColor3f(0.2f, 0.2f, 0.2f);
-        
-        // Ground size
-        float size = 1000.0f;
-        
-        // Render ground plane
-        glBegin(GL_QUADS);
-        glVertex3f(-size, 0.0f, -size);
-        glVertex3f(-size, 0.0f, size);
-        glVertex3f(size, 0.0f, size);
-        glVertex3f(size, 0.0f, -size);
-        glEnd();
-        
+        if (camera != null) {
+            glTranslatef(camera.getPosition().x, 0.0f, camera.getPosition().z);
+            glScalef(camera.getFarPlane(), 1.0f, camera.getFarPlane());
+        } else {
+            glScalef(GROUND_SIZE, 1.0f, GROUND_SIZE);
+        }
+        groundMesh.draw();
         glPopMatrix();
     }
     
     /**
-     * Render a road.
+     * Build the static city meshes.
      * 
-     * @param road The road to render
+     * @param cityGenerator The city generator containing city data
      */
-    private void renderRoad(Road road) {
-        glPushMatrix();
-        
-        // Road color
-        glColor3f(0.15f, 0.15f, 0.15f);
-        
-        // Calculate road vertices
-        float dx = road.getEndX() - road.getStartX();
-        float dz = road.getEndZ() - road.getStartZ();
-        float length = road.length();
-        
-        // Normalize direction vector
-        float dirX = dx / length;
-        float dirZ = dz / length;
-        
-        // Calculate perpendicular vector
-        float perpX = -dirZ;
-        float perpZ = dirX;
-        
-        // Calculate road corners
-        float halfWidth = road.getWidth() / 2;
-        
-        float x1 = road.getStartX() + perpX * halfWidth;
-        float z1 = road.getStartZ() + perpZ * halfWidth;
-        
-        float x2 = road.getStartX() - perpX * halfWidth;
-        float z2 = road.getStartZ() - perpZ * halfWidth;
-        
-        float x3 = road.getEndX() - perpX * halfWidth;
-        float z3 = road.getEndZ() - perpZ * halfWidth;
-        
-        float x4 = road.getEndX() + perpX * halfWidth;
-        float z4 = road.getEndZ() + perpZ * halfWidth;
+    private void buildMeshes(CityGenerator cityGenerator) {
+        if (shader == null) {
+            shader = new ShaderProgram(Mesh.VERTEX_SHADER, Mesh.LIT_FRAGMENT_SHADER);
+            ShadowCascades.attach(shader);
+            ClusteredLights.attach(shader);
+        }
         
-        // Render road
-        glBegin(GL_QUADS);
-        glVertex3f(x1, 0.01f, z1); // Slightly above ground to avoid z-fighting
-        glVertex3f(x2, 0.01f, z2);
-        glVertex3f(x3, 0.01f, z3);
-        glVertex3f(x4, 0.01f, z4);
-        glEnd();
+        // Unit ground plane, scaled to the render distance when drawn
+        MeshBuilder ground = new MeshBuilder();
+        CityMeshBuilder.addGround(ground, 1.0f);
+        groundMesh = ground.build(performanceOptimizer);
         
-        // Render road markings
-        glColor3f(1.0f, 1.0f, 0.0f); // Yellow markings
+        // Roads, split into cells by their midpoint
+        roadGrid = new MeshGrid(CELL_SIZE, GL_TRIANGLES);
+        roadMarkingGrid = new MeshGrid(CELL_SIZE, GL_LINES);
+        for (Road road : cityGenerator.getRoads()) {
+            float midX = (road.getStartX() + road.getEndX()) / 2;
+            float midZ = (road.getStartZ() + road.getEndZ()) / 2;
+            CityMeshBuilder.addRoad(roadGrid.getBuilder(midX, midZ), roadMarkingGrid.getBuilder(midX, midZ), road);
+        }
+        roadGrid.build(performanceOptimizer);
+        roadMarkingGrid.build(performanceOptimizer);
         
-        // Center line
-        glBegin(GL_LINES);
-        glVertex3f(road.getStartX(), 0.02f, road.getStartZ());
-        glVertex3f(road.getEndX(), 0.02f, road.getEndZ());
-        glEnd();
+        // Buildings, their signs and impostors as instances
+        buildingInstances.setBuildings(cityGenerator.getBuildings());
         
-        glPopMatrix();
+        vehicles = cityGenerator.generateVehicles();
+        meshSource = cityGenerator;
     }
     
     /**
-     * Render a building.
+     * Set the shadow maps the city receives.
      * 
-     * @param building The building to render
+     * @param shadows Shadow cascades, or null for none
      */
-    private void renderBuilding(BuildingData building) {
-        glPushMatrix();
-        
-        // Translate to building position
-        glTranslatef(building.getX(), building.getY(), building.getZ());
-        
-        // Set building color based on type
-        setBuildingColor(building.getType());
-        
-        // Building dimensions
-        float width = building.getWidth();
-        float height = building.getHeight();
-        float depth = building.getDepth();
-        
-        // Render building
-        renderBox(-width/2, 0, -depth/2, width, height, depth);
-        
-        // Render windows
-        renderBuildingWindows(building);
-        
-        // Render shop sign if building has a shop
-        if (building.hasShop()) {
-            renderShopSign(building);
-        }
-        
-        glPopMatrix();
+    public void setShadows(ShadowCascades shadows) {
+        this.shadows = shadows;
+        buildingInstances.setShadows(shadows);
     }
     
     /**
-     * Set the color for a building based on its type.
+     * Set the clustered lights the city receives.
      * 
-     * @param type Building type
+     * @param lights Clustered lights, or null for none
      */
-    private void setBuildingColor(BuildingData.Type type) {
-        switch (type) {
-            case SKYSCRAPER:
-                glColor3f(0.2f, 0.3f, 0.4f); // Blue-gray
-                break;
-            case APARTMENT:
-                glColor3f(0.5f, 0.5f, 0.5f); // Gray
-                break;
-            case WAREHOUSE:
-                glColor3f(0.4f, 0.3f, 0.2f); // Brown
-                break;
-            case ENTERTAINMENT:
-                glColor3f(0.5f, 0.2f, 0.5f); // Purple
-                break;
-            case SLUM:
-                glColor3f(0.3f, 0.3f, 0.2f); // Dark yellow-gray
-                break;
-            case TECH:
-                glColor3f(0.2f, 0.4f, 0.5f); // Teal
-                break;
-            case MARKET:
-                glColor3f(0.5f, 0.4f, 0.3f); // Tan
-                break;
-            case GANG_HIDEOUT:
-                glColor3f(0.5f, 0.2f, 0.2f); // Dark red
-                break;
-            default:
-                glColor3f(0.5f, 0.5f, 0.5f); // Default gray
-        }
+    public void setLights(ClusteredLights lights) {
+        this.lights = lights;
+        buildingInstances.setLights(lights);
     }
     
     /**
-     * Render windows for a building.
+     * Get the renderer of the city's buildings, e.g. to draw them into
+     * shadow maps or place their sign lights. It is cleaned up with this
+     * renderer.
      * 
-     * @param building The building to render windows for
+     * @return Building renderer
      */
-    private void renderBuildingWindows(BuildingData building) {
-        // Window color
-        glColor3f(0.7f, 0.8f, 1.0f); // Light blue
-        
-        // Building dimensions
-        float width = building.getWidth();
-        float height = building.getHeight();
-        float depth = building.getDepth();
-        
-        // Window dimensions
-        float windowWidth = 2.0f;
-        float windowHeight = 2.0f;
-        float windowSpacing = 4.0f;
-        
-        // Number of windows per floor
-        int windowsPerFloorWidth = (int) (width / windowSpacing);
-        int windowsPerFloorDepth = (int) (depth / windowSpacing);
-        
-        // Number of floors
-        int numFloors = building.getNumFloors();
-        float floorHeight = height / numFloors;
-        
-        // Render windows on front face
-        for (int floor = 0; floor < numFloors; floor++) {
-            for (int i = 0; i < windowsPerFloorWidth; i++) {
-                float x = -width/2 + i * windowSpacing + windowSpacing/2;
-                float y = floor * floorHeight + floorHeight/2;
-                
-                // Front face
-                glBegin(GL_QUADS);
-                glVertex3f(x, y, -depth/2 - 0.1f);
-                glVertex3f(x + windowWidth, y, -depth/2 - 0.1f);
-                glVertex3f(x + windowWidth, y + windowHeight, -depth/2 - 0.1f);
-                glVertex3f(x, y + windowHeight, -depth/2 - 0.1f);
-                glEnd();
-                
-                // Back face
-                glBegin(GL_QUADS);
-                glVertex3f(x, y, depth/2 + 0.1f);
-                glVertex3f(x + windowWidth, y, depth/2 + 0.1f);
-                glVertex3f(x + windowWidth, y + windowHeight, depth/2 + 0.1f);
-                glVertex3f(x, y + windowHeight, depth/2 + 0.1f);
-                glEnd();
-            }
-            
-            // Render windows on side faces
-            for (int i = 0; i < windowsPerFloorDepth; i++) {
-                float z = -depth/2 + i * windowSpacing + windowSpacing/2;
-                float y = floor * floorHeight + floorHeight/2;
-                
-                // Left face
-                glBegin(GL_QUADS);
-                glVertex3f(-width/2 - 0.1f, y, z);
-                glVertex3f(-width/2 - 0.1f, y, z + windowWidth);
-                glVertex3f(-width/2 - 0.1f, y + windowHeight, z + windowWidth);
-                glVertex3f(-width/2 - 0.1f, y + windowHeight, z);
-                glEnd();
-                
-                // Right face
-                glBegin(GL_QUADS);
-                glVertex3f(width/2 + 0.1f, y, z);
-                glVertex3f(width/2 + 0.1f, y, z + windowWidth);
-                glVertex3f(width/2 + 0.1f, y + windowHeight, z + windowWidth);
-                glVertex3f(width/2 + 0.1f, y + windowHeight, z);
-                glEnd();
-            }
-        }
+    public BuildingInstanceRenderer getBuildingRenderer() {
+        return buildingInstances;
     }
     
     /**
-     * Render a shop sign for a building.
-     * 
-     * @param building The building to render a shop sign for
+     * Clean up GPU resources. A performance optimizer or texture loader
+     * passed to the constructor is left to its owner.
      */
-    private void renderShopSign(BuildingData building) {
-        // Shop sign color based on shop type
-        setShopSignColor(building.getShopType());
-        
-        // Building dimensions
-        float width = building.getWidth();
-        float depth = building.getDepth();
-        
-        // Sign dimensions
-        float signWidth = width * 0.8f;
-        float signHeight = 3.0f;
-        float signDepth = 1.0f;
-        
-        // Sign position (above entrance)
-        float signX = 0;
-        float signY = 5.0f;
-        float signZ = -depth/2 - signDepth/2;
-        
-        // Render sign
-        glPushMatrix();
-        glTranslatef(signX, signY, signZ);
-        renderBox(-signWidth/2, 0, -signDepth/2, signWidth, signHeight, signDepth);
-        glPopMatrix();
+    public void cleanup() {
+        if (shader != null) {
+            shader.cleanup();
+        }
+        buildingInstances.cleanup();
+        modelLoader.cleanup();
+        if (ownsTextureLoader) {
+            textureLoader.cleanup();
+        }
+        if (ownsPerformanceOptimizer) {
+            performanceOptimizer.cleanup();
+        }
     }
     
     /**
-     * Set the color for a shop sign based on shop type.
+     * Render a vehicle with its loaded model. The mesh shader must be bound.
      * 
-     * @param type Shop type
+     * @param vehicle The vehicle to render
+     * @param model The vehicle type's model
      */
-    private void setShopSignColor(ShopData.Type type) {
-        switch (type) {
-            case WEAPONS:
-                glColor3f(1.0f, 0.0f, 0.0f); // Red
-                break;
-            case TECH:
-                glColor3f(0.0f, 1.0f, 1.0f); // Cyan
-                break;
-            case CLOTHING:
-                glColor3f(1.0f, 0.5f, 0.0f); // Orange
-                break;
-            case FOOD:
-                glColor3f(0.0f, 1.0f, 0.0f); // Green
-                break;
-            case MEDICAL:
-                glColor3f(1.0f, 1.0f, 1.0f); // White
-                break;
-            case BLACK_MARKET:
-                glColor3f(0.5f, 0.0f, 0.5f); // Purple
-                break;
-            case ENTERTAINMENT:
-                glColor3f(1.0f, 0.0f, 1.0f); // Magenta
-                break;
-            case CONVENIENCE:
-                glColor3f(1.0f, 1.0f, 0.0f); // Yellow
-                break;
-            case CORPORATE:
-                glColor3f(0.0f, 0.0f, 1.0f); // Blue
-                break;
-            case INDUSTRIAL:
-                glColor3f(0.5f, 0.5f, 0.5f); // Gray
-                break;
-            default:
-                glColor3f(1.0f, 1.0f, 1.0f); // Default white
-        }
+    private void renderVehicleModel(VehicleData vehicle, Model model) {
+        glPushMatrix();
+        glTranslatef(vehicle.getX(), vehicle.getY(), vehicle.getZ());
+        model.draw();
+        glPopMatrix();
     }
     
     /**
@@ -0,0 +1,635 @@
+package com.cyberpunk.game.city;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+import static org.lwjgl.opengl.GL33.*;
+
+import com.cyberpunk.game.render.ShaderProgram;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Draws interior furniture with instancing.
+ *
+ * Every furniture type is drawn with one of a few unit-sized shapes (sofa,
+ * bed, table, ...), all stored in one static vertex buffer. Each piece of
+ * furniture is an instance with a position, size and colour. Instance data is
+ * built with the room graph when the interior is generated (see
+ * InteriorVisibility), grouped by room and shape; when the visible rooms
+ * change their instances are gathered into one instance buffer grouped by
+ * shape, so a furnished floor costs at most one draw call per shape.
+ */
+public class FurnitureBatch {
+
+    // Shapes
+    static final int SHAPE_BOX = 0;
+    static final int SHAPE_SOFA = 1;
+    static final int SHAPE_BED = 2;
+    static final int SHAPE_TABLE = 3;
+    static final int SHAPE_CHAIR = 4;
+    static final int SHAPE_SHELF = 5;
+    static final int SHAPE_SCREEN = 6;
+    static final int SHAPE_COUNT = 7;
+
+    // Vertex layout: position (3) + color (3) + instance tint (1)
+    private static final int VERTEX_FLOATS = 7;
+
+    // Instance layout: position (3) + size (3) + color (3)
+    static final int INSTANCE_FLOATS = 9;
+
+    // Vertex attribute locations
+    private static final int ATTRIBUTE_POSITION = 0;
+    private static final int ATTRIBUTE_COLOR = 1;
+    private static final int ATTRIBUTE_INSTANCE_POSITION = 2;
+    private static final int ATTRIBUTE_INSTANCE_SIZE = 3;
+    private static final int ATTRIBUTE_INSTANCE_COLOR = 4;
+
+    private static final String VERTEX_SHADER = """
+        #version 330 compatibility
+
+        layout(location = 0) in vec3 position;
+        layout(location = 1) in vec4 color;
+        layout(location = 2) in vec3 instancePosition;
+        layout(location = 3) in vec3 instanceSize;
+        layout(location = 4) in vec3 instanceColor;
+
+        out vec3 fragColor;
+        out float fogDepth;
+
+        void main() {
+            vec3 worldPosition = instancePosition + position * instanceSize;
+            gl_Position = gl_ModelViewProjectionMatrix * vec4(worldPosition, 1.0);
+            fogDepth = -(gl_ModelViewMatrix * vec4(worldPosition, 1.0)).z;
+
+            // Parts with a fixed colour (mattress, pillow) ignore the instance colour
+            fragColor = mix(color.rgb, instanceColor, color.a);
+        }
+        """;
+
+    private static final String FRAGMENT_SHADER = """
+        #version 330 compatibility
+
+        in vec3 fragColor;
+        in float fogDepth;
+
+        out vec4 outColor;
+
+        void main() {
+            // Linear distance fog from the fixed-function fog state
+            float fog = clamp((gl_Fog.end - fogDepth) * gl_Fog.scale, 0.0, 1.0);
+            outColor = vec4(mix(gl_Fog.color.rgb, fragColor, fog), 1.0);
+        }
+        """;
+
+    // Colours of fixed parts
+    private static final float[] WHITE = {1.0f, 1.0f, 1.0f};
+    private static final float[] WOOD = {0.6f, 0.4f, 0.2f};
+
+    // Shader and buffers
+    private ShaderProgram shader;
+    private int vao;
+    private int vertexVbo;
+    private int indexIbo;
+    private int instanceVbo;
+    private int instanceCapacity;
+    private boolean initialized;
+    private boolean failed;
+
+    // Index ranges of each shape in the shared index buffer
+    private final int[] shapeFirstIndex = new int[SHAPE_COUNT];
+    private final int[] shapeIndexCount = new int[SHAPE_COUNT];
+
+    // Instances currently in the instance buffer
+    private FurnitureInstances uploadedInstances;
+    private boolean[] uploadedRooms;
+    private final int[] drawFirst = new int[SHAPE_COUNT];
+    private final int[] drawCount = new int[SHAPE_COUNT];
+    private float[] gatherBuffer = new float[0];
+
+    // Statistics for the last render
+    private int drawCallCount;
+    private int instanceCount;
+
+    /**
+     * Create the shader and shape buffers. Called on the first render.
+     *
+     * @return true if instanced rendering is available
+     */
+    private boolean init() {
+        if (initialized || failed) {
+            return initialized;
+        }
+
+        try {
+            shader = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        } catch (IllegalStateException e) {
+            e.printStackTrace();
+            failed = true;
+            return false;
+        }
+
+        // Build all shapes into one vertex and index buffer
+        ShapeBuilder builder = new ShapeBuilder();
+        for (int shape = 0; shape < SHAPE_COUNT; shape++) {
+            shapeFirstIndex[shape] = builder.indexCount;
+            buildShape(builder, shape);
+            shapeIndexCount[shape] = builder.indexCount - shapeFirstIndex[shape];
+        }
+
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+
+        FloatBuffer vertices = MemoryUtil.memAllocFloat(builder.vertexCount * VERTEX_FLOATS);
+        IntBuffer indices = MemoryUtil.memAllocInt(builder.indexCount);
+        try {
+            vertices.put(builder.vertices, 0, builder.vertexCount * VERTEX_FLOATS).flip();
+            indices.put(builder.indices, 0, builder.indexCount).flip();
+
+            vertexVbo = glGenBuffers();
+            glBindBuffer(GL_ARRAY_BUFFER, vertexVbo);
+            glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+
+            indexIbo = glGenBuffers();
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, indexIbo);
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+        } finally {
+            MemoryUtil.memFree(vertices);
+            MemoryUtil.memFree(indices);
+        }
+
+        int stride = VERTEX_FLOATS * Float.BYTES;
+        glVertexAttribPointer(ATTRIBUTE_POSITION, 3, GL_FLOAT, false, stride, 0);
+        glEnableVertexAttribArray(ATTRIBUTE_POSITION);
+        glVertexAttribPointer(ATTRIBUTE_COLOR, 4, GL_FLOAT, false, stride, 3 * Float.BYTES);
+        glEnableVertexAttribArray(ATTRIBUTE_COLOR);
+
+        // Instance attributes advance once per instance; pointers are set per draw
+        instanceVbo = glGenBuffers();
+        glEnableVertexAttribArray(ATTRIBUTE_INSTANCE_POSITION);
+        glEnableVertexAttribArray(ATTRIBUTE_INSTANCE_SIZE);
+        glEnableVertexAttribArray(ATTRIBUTE_INSTANCE_COLOR);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_POSITION, 1);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_SIZE, 1);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_COLOR, 1);
+
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        initialized = true;
+        return true;
+    }
+
+    /**
+     * Render the furniture in the rooms marked visible by the last visibility update.
+     *
+     * @param visibility Room graph of the interior
+     * @return false if instanced rendering is unavailable and nothing was drawn
+     */
+    public boolean render(InteriorVisibility visibility) {
+        drawCallCount = 0;
+        instanceCount = 0;
+
+        if (!init()) {
+            return false;
+        }
+
+        FurnitureInstances roomInstances = visibility.getFurnitureInstances();
+        if (roomInstances != uploadedInstances || visibilityChanged(visibility)) {
+            upload(roomInstances, visibility);
+        }
+
+        shader.bind();
+        glBindVertexArray(vao);
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVbo);
+
+        int stride = INSTANCE_FLOATS * Float.BYTES;
+        for (int shape = 0; shape < SHAPE_COUNT; shape++) {
+            if (drawCount[shape] == 0) {
+                continue;
+            }
+
+            // Point the instance attributes at this shape's instances
+            long offset = (long) drawFirst[shape] * stride;
+            glVertexAttribPointer(ATTRIBUTE_INSTANCE_POSITION, 3, GL_FLOAT, false, stride, offset);
+            glVertexAttribPointer(ATTRIBUTE_INSTANCE_SIZE, 3, GL_FLOAT, false, stride, offset + 3 * Float.BYTES);
+            glVertexAttribPointer(ATTRIBUTE_INSTANCE_COLOR, 3, GL_FLOAT, false, stride, offset + 6 * Float.BYTES);
+
+            glDrawElementsInstanced(GL_TRIANGLES, shapeIndexCount[shape], GL_UNSIGNED_INT,
+                (long) shapeFirstIndex[shape] * Integer.BYTES, drawCount[shape]);
+
+            drawCallCount++;
+            instanceCount += drawCount[shape];
+        }
+
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glBindVertexArray(0);
+        shader.unbind();
+
+        return true;
+    }
+
+    /**
+     * Check whether the set of visible rooms differs from the uploaded one.
+     */
+    private boolean visibilityChanged(InteriorVisibility visibility) {
+        for (int room = 0; room < uploadedRooms.length; room++) {
+            if (uploadedRooms[room] != visibility.isRoomVisible(room)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gather the instances of visible rooms, grouped by shape, into the instance buffer.
+     */
+    private void upload(FurnitureInstances roomInstances, InteriorVisibility visibility) {
+        int numRooms = visibility.getRoomCount();
+        if (uploadedRooms == null || uploadedRooms.length != numRooms) {
+            uploadedRooms = new boolean[numRooms];
+        }
+        for (int room = 0; room < numRooms; room++) {
+            uploadedRooms[room] = visibility.isRoomVisible(room);
+        }
+
+        if (gatherBuffer.length < roomInstances.data.length) {
+            gatherBuffer = new float[roomInstances.data.length];
+        }
+
+        int count = 0;
+        for (int shape = 0; shape < SHAPE_COUNT; shape++) {
+            drawFirst[shape] = count;
+            for (int room = 0; room < numRooms; room++) {
+                if (!uploadedRooms[room]) {
+                    continue;
+                }
+
+                int first = roomInstances.offsets[room * SHAPE_COUNT + shape];
+                int last = roomInstances.offsets[room * SHAPE_COUNT + shape + 1];
+                System.arraycopy(roomInstances.data, first * INSTANCE_FLOATS,
+                    gatherBuffer, count * INSTANCE_FLOATS, (last - first) * INSTANCE_FLOATS);
+                count += last - first;
+            }
+            drawCount[shape] = count - drawFirst[shape];
+        }
+
+        FloatBuffer buffer = MemoryUtil.memAllocFloat(Math.max(1, count * INSTANCE_FLOATS));
+        try {
+            buffer.put(gatherBuffer, 0, count * INSTANCE_FLOATS).flip();
+
+            glBindBuffer(GL_ARRAY_BUFFER, instanceVbo);
+            if (count > instanceCapacity) {
+                instanceCapacity = count;
+                glBufferData(GL_ARRAY_BUFFER, buffer, GL_DYNAMIC_DRAW);
+            } else {
+                glBufferSubData(GL_ARRAY_BUFFER, 0, buffer);
+            }
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+
+        uploadedInstances = roomInstances;
+    }
+
+    /**
+     * Get the shape used to draw a furniture type.
+     *
+     * @param type Furniture type
+     * @return Shape index
+     */
+    static int getShape(FurnitureType type) {
+        switch (type) {
+            case SOFA:
+                return SHAPE_SOFA;
+            case BED:
+                return SHAPE_BED;
+            case TABLE:
+            case COFFEE_TABLE:
+            case DESK:
+                return SHAPE_TABLE;
+            case CHAIR:
+                return SHAPE_CHAIR;
+            case BOOKSHELF:
+            case SHELF:
+                return SHAPE_SHELF;
+            case TV:
+            case COMPUTER:
+            case HOLOGRAM_DISPLAY:
+                return SHAPE_SCREEN;
+            default:
+                return SHAPE_BOX;
+        }
+    }
+
+    /**
+     * Get the colour of a piece of furniture. Fabric colours vary per piece
+     * but are derived from its position, so they are stable between frames.
+     *
+     * @param furniture The furniture
+     * @param color Output RGB colour
+     */
+    static void getFurnitureColor(Furniture furniture, float[] color) {
+        switch (furniture.getType()) {
+            case SOFA:
+            case BED:
+                // Fabric colour
+                int hash = Float.floatToIntBits(furniture.getX()) * 31
+                    + Float.floatToIntBits(furniture.getY()) * 17
+                    + Float.floatToIntBits(furniture.getZ());
+                hash *= 0x9E3779B9;
+                color[0] = 0.2f + ((hash >>> 8) & 0xFF) / 255.0f * 0.6f;
+                color[1] = 0.2f + ((hash >>> 16) & 0xFF) / 255.0f * 0.6f;
+                color[2] = 0.2f + ((hash >>> 24) & 0xFF) / 255.0f * 0.6f;
+                return;
+            case COFFEE_TABLE:
+            case TABLE:
+            case DESK:
+            case BOOKSHELF:
+            case SHELF:
+            case DRESSER:
+            case NIGHTSTAND:
+            case WARDROBE:
+            case CABINET:
+                setColor(color, 0.6f, 0.4f, 0.2f); // Wood brown
+                return;
+            case TV:
+            case COMPUTER:
+            case HOLOGRAM_PROJECTOR:
+            case HOLOGRAM_DISPLAY:
+                setColor(color, 0.1f, 0.1f, 0.1f); // Black
+                return;
+            case CHAIR:
+            case BARSTOOL:
+                setColor(color, 0.3f, 0.3f, 0.3f); // Dark gray
+                return;
+            case COUNTER:
+            case BAR_COUNTER:
+            case LAB_BENCH:
+                setColor(color, 0.8f, 0.8f, 0.8f); // White
+                return;
+            case STOVE:
+            case REFRIGERATOR:
+            case SINK:
+            case SHOWER:
+            case BATHTUB:
+            case TOILET:
+                setColor(color, 0.9f, 0.9f, 0.9f); // White
+                return;
+            case PLANT:
+                setColor(color, 0.0f, 0.5f, 0.0f); // Green
+                return;
+            case LAMP:
+            case NEON_SIGN:
+                setColor(color, 0.9f, 0.9f, 0.0f); // Yellow
+                return;
+            case MIRROR:
+                setColor(color, 0.8f, 0.8f, 1.0f); // Light blue
+                return;
+            case FILING_CABINET:
+            case SERVER_RACK:
+            case LAB_EQUIPMENT:
+                setColor(color, 0.7f, 0.7f, 0.7f); // Light gray
+                return;
+            case DISPLAY_CASE:
+                setColor(color, 0.9f, 0.9f, 0.9f); // White
+                return;
+            case CASH_REGISTER:
+            case VENDING_MACHINE:
+            case JUKEBOX:
+                setColor(color, 0.5f, 0.5f, 0.5f); // Gray
+                return;
+            case CRATE:
+                setColor(color, 0.5f, 0.4f, 0.3f); // Brown
+                return;
+            case FORKLIFT:
+                setColor(color, 1.0f, 0.8f, 0.0f); // Yellow
+                return;
+            case FOOD_SYNTHESIZER:
+                setColor(color, 0.7f, 0.7f, 0.7f); // Light gray
+                return;
+            default:
+                setColor(color, 0.5f, 0.5f, 0.5f); // Default gray
+        }
+    }
+
+    private static void setColor(float[] color, float r, float g, float b) {
+        color[0] = r;
+        color[1] = g;
+        color[2] = b;
+    }
+
+    /**
+     * Add the boxes of a shape in unit space. Proportions match the
+     * immediate-mode furniture in BuildingInteriorRenderer.
+     */
+    private static void buildShape(ShapeBuilder builder, int shape) {
+        switch (shape) {
+            case SHAPE_SOFA:
+                builder.box(0, 0, 0, 1, 0.5f, 1, null); // Base
+                builder.box(0, 0.5f, 0.7f, 1, 0.5f, 0.3f, null); // Back
+                builder.box(0, 0.5f, 0, 0.1f, 0.3f, 0.7f, null); // Arms
+                builder.box(0.9f, 0.5f, 0, 0.1f, 0.3f, 0.7f, null);
+                break;
+            case SHAPE_BED:
+                builder.box(0, 0, 0, 1, 0.3f, 1, null); // Base
+                builder.box(0.05f, 0.3f, 0.05f, 0.9f, 0.2f, 0.9f, WHITE); // Mattress
+                builder.box(0.1f, 0.5f, 0.1f, 0.3f, 0.1f, 0.2f, WHITE); // Pillow
+                builder.box(0, 0, 0, 1, 1, 0.1f, WOOD); // Headboard
+                break;
+            case SHAPE_TABLE:
+                builder.box(0, 0.8f, 0, 1, 0.1f, 1, null); // Top
+                builder.legs(0.1f, 0.1f, 0.8f);
+                break;
+            case SHAPE_CHAIR:
+                builder.box(0, 0.45f, 0, 1, 0.1f, 1, null); // Seat
+                builder.box(0, 0.55f, 0.9f, 1, 0.45f, 0.1f, null); // Back
+                builder.legs(0.1f, 0.1f, 0.45f);
+                break;
+            case SHAPE_SHELF:
+                builder.box(0, 0, 0.9f, 1, 1, 0.1f, null); // Back panel
+                builder.box(0, 0, 0, 0.05f, 1, 1, null); // Sides
+                builder.box(0.95f, 0, 0, 0.05f, 1, 1, null);
+                for (int i = 0; i < 4; i++) {
+                    builder.box(0.05f, i * 0.32f, 0, 0.9f, 0.04f, 0.9f, null); // Shelves
+                }
+                break;
+            case SHAPE_SCREEN:
+                builder.box(0.4f, 0, 0.4f, 0.2f, 0.2f, 0.2f, null); // Stand
+                builder.box(0, 0.2f, 0.45f, 1, 0.8f, 0.1f, null); // Panel
+                break;
+            default:
+                builder.box(0, 0, 0, 1, 1, 1, null);
+        }
+    }
+
+    /**
+     * Get the number of draw calls issued by the last render.
+     *
+     * @return Draw call count
+     */
+    public int getDrawCallCount() {
+        return drawCallCount;
+    }
+
+    /**
+     * Get the number of furniture instances drawn by the last render.
+     *
+     * @return Instance count
+     */
+    public int getInstanceCount() {
+        return instanceCount;
+    }
+
+    /**
+     * Delete the shader and buffers.
+     */
+    public void cleanup() {
+        if (!initialized) {
+            return;
+        }
+
+        shader.cleanup();
+        glDeleteVertexArrays(vao);
+        glDeleteBuffers(vertexVbo);
+        glDeleteBuffers(indexIbo);
+        glDeleteBuffers(instanceVbo);
+
+        uploadedInstances = null;
+        instanceCapacity = 0;
+        initialized = false;
+    }
+}
+
+/**
+ * Furniture instance data of one interior, grouped by room and then shape.
+ */
+class FurnitureInstances {
+    // Instance data (FurnitureBatch.INSTANCE_FLOATS per instance)
+    final float[] data;
+
+    // First instance of each room and shape, indexed by room * SHAPE_COUNT + shape
+    final int[] offsets;
+
+    /**
+     * Constructor.
+     *
+     * @param visibility Room graph with furniture assigned to rooms
+     */
+    FurnitureInstances(InteriorVisibility visibility) {
+        int numRooms = visibility.getRoomCount();
+        int shapes = FurnitureBatch.SHAPE_COUNT;
+
+        int total = 0;
+        for (int room = 0; room < numRooms; room++) {
+            total += visibility.getRoomFurniture(room).size();
+        }
+
+        data = new float[total * FurnitureBatch.INSTANCE_FLOATS];
+        offsets = new int[numRooms * shapes + 1];
+        float[] color = new float[3];
+
+        int count = 0;
+        for (int room = 0; room < numRooms; room++) {
+            List<Furniture> furniture = visibility.getRoomFurniture(room);
+            for (int shape = 0; shape < shapes; shape++) {
+                offsets[room * shapes + shape] = count;
+                for (Furniture piece : furniture) {
+                    if (FurnitureBatch.getShape(piece.getType()) != shape) {
+                        continue;
+                    }
+
+                    FurnitureBatch.getFurnitureColor(piece, color);
+                    int i = count * FurnitureBatch.INSTANCE_FLOATS;
+                    data[i] = piece.getX();
+                    data[i + 1] = piece.getY();
+                    data[i + 2] = piece.getZ();
+                    data[i + 3] = piece.getWidth();
+                    data[i + 4] = piece.getHeight();
+                    data[i + 5] = piece.getDepth();
+                    data[i + 6] = color[0];
+                    data[i + 7] = color[1];
+                    data[i + 8] = color[2];
+                    count++;
+                }
+            }
+        }
+        offsets[numRooms * shapes] = count;
+    }
+}
+
+/**
+ * Accumulates box geometry for the furniture shapes.
+ */
+class ShapeBuilder {
+    float[] vertices = new float[1024];
+    int[] indices = new int[1024];
+    int vertexCount;
+    int indexCount;
+
+    // Corners of a unit box and the triangles of its six faces
+    private static final float[][] CORNERS = {
+        {0, 0, 0}, {1, 0, 0}, {1, 1, 0}, {0, 1, 0},
+        {0, 0, 1}, {1, 0, 1}, {1, 1, 1}, {0, 1, 1}
+    };
+    private static final int[] FACES = {
+        0, 2, 1, 0, 3, 2, // Front
+        4, 5, 6, 4, 6, 7, // Back
+        0, 4, 7, 0, 7, 3, // Left
+        1, 2, 6, 1, 6, 5, // Right
+        3, 7, 6, 3, 6, 2, // Top
+        0, 1, 5, 0, 5, 4  // Bottom
+    };
+
+    /**
+     * Add a box.
+     *
+     * @param color Fixed colour, or null to use the instance colour
+     */
+    void box(float x, float y, float z, float width, float height, float depth, float[] color) {
+        ensureCapacity(CORNERS.length, FACES.length);
+
+        for (float[] corner : CORNERS) {
+            int v = vertexCount * 7;
+            vertices[v] = x + corner[0] * width;
+            vertices[v + 1] = y + corner[1] * height;
+            vertices[v + 2] = z + corner[2] * depth;
+            vertices[v + 3] = color != null ? color[0] : 0;
+            vertices[v + 4] = color != null ? color[1] : 0;
+            vertices[v + 5] = color != null ? color[2] : 0;
+            vertices[v + 6] = color != null ? 0 : 1;
+            vertexCount++;
+        }
+
+        int base = vertexCount - CORNERS.length;
+        for (int index : FACES) {
+            indices[indexCount++] = base + index;
+        }
+    }
+
+    /**
+     * Add four legs at the corners.
+     */
+    void legs(float legWidth, float legDepth, float legHeight) {
+        box(0, 0, 0, legWidth, legHeight, legDepth, null);
+        box(1 - legWidth, 0, 0, legWidth, legHeight, legDepth, null);
+        box(0, 0, 1 - legDepth, legWidth, legHeight, legDepth, null);
+        box(1 - legWidth, 0, 1 - legDepth, legWidth, legHeight, legDepth, null);
+    }
+
+    private void ensureCapacity(int extraVertices, int extraIndices) {
+        if ((vertexCount + extraVertices) * 7 > vertices.length) {
+            vertices = Arrays.copyOf(vertices, vertices.length * 2);
+        }
+        if (indexCount + extraIndices > indices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        }
+    }
+}
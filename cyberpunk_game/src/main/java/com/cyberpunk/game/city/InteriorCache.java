@@ -0,0 +1,332 @@
+package com.cyberpunk.game.city;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Size-bounded LRU cache of building interiors keyed by building id.
+ *
+ * Interiors are generated lazily the first time a building is entered.
+ * Interiors the player is inside are pinned and never evicted; once the
+ * player leaves they become eligible for eviction in least-recently-used
+ * order. Each cached interior keeps its room graph and furniture instance
+ * data, built once when the interior enters the cache.
+ */
+public class InteriorCache {
+
+    // Default number of interiors kept in memory
+    public static final int DEFAULT_CAPACITY = 8;
+
+    // Rough per-object heap cost used for the memory metric
+    private static final long INTERIOR_BYTES = 128;
+    private static final long ROOM_BYTES = 64;
+    private static final long FURNITURE_BYTES = 64;
+
+    // Interior generator
+    private final BuildingInteriorGenerator generator;
+
+    // Cached interiors in access order
+    private final int capacity;
+    private final LinkedHashMap<Integer, CachedInterior> interiors;
+
+    // Buildings the player is currently inside
+    private final Set<Integer> activeBuildings;
+
+    // Player changes re-applied to regenerated interiors
+    private InteriorDeltaStore deltaStore;
+
+    // Metrics
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+    private long memoryBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param generator Generator used on cache misses
+     */
+    public InteriorCache(BuildingInteriorGenerator generator) {
+        this(generator, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param generator Generator used on cache misses
+     * @param capacity Maximum number of interiors kept (pinned interiors may exceed it)
+     */
+    public InteriorCache(BuildingInteriorGenerator generator, int capacity) {
+        this.generator = generator;
+        this.capacity = Math.max(1, capacity);
+        interiors = new LinkedHashMap<>(16, 0.75f, true);
+        activeBuildings = new HashSet<>();
+    }
+
+    /**
+     * Get the interior of a building the player is entering.
+     * The interior is generated if needed and pinned until exitBuilding is called.
+     *
+     * @param building The building being entered
+     * @return The building interior
+     */
+    public BuildingInterior enterBuilding(BuildingData building) {
+        int buildingId = BuildingInteriorGenerator.getBuildingId(building);
+        activeBuildings.add(buildingId);
+        return getInterior(building);
+    }
+
+    /**
+     * Mark a building as left by the player so its interior can be evicted.
+     *
+     * @param building The building being exited
+     */
+    public void exitBuilding(BuildingData building) {
+        activeBuildings.remove(BuildingInteriorGenerator.getBuildingId(building));
+        evictOverflow();
+    }
+
+    /**
+     * Get the interior of a building, generating it on a miss.
+     *
+     * @param building The building
+     * @return The building interior
+     */
+    public BuildingInterior getInterior(BuildingData building) {
+        int buildingId = BuildingInteriorGenerator.getBuildingId(building);
+
+        CachedInterior cached = interiors.get(buildingId);
+        if (cached != null) {
+            hitCount++;
+            return cached.interior;
+        }
+
+        missCount++;
+        BuildingInterior interior = generator.generateInterior(building);
+        put(buildingId, interior);
+        return interior;
+    }
+
+    /**
+     * Add an interior that was generated elsewhere.
+     *
+     * @param buildingId Building id
+     * @param interior The building interior
+     */
+    public void put(int buildingId, BuildingInterior interior) {
+        CachedInterior previous = interiors.remove(buildingId);
+        if (previous != null) {
+            memoryBytes -= previous.bytes;
+        }
+
+        if (deltaStore != null) {
+            deltaStore.apply(interior);
+        }
+
+        CachedInterior cached = new CachedInterior(interior, estimateMemory(interior));
+        cached.visibility = new InteriorVisibility(interior);
+        interiors.put(buildingId, cached);
+        memoryBytes += cached.bytes;
+
+        evictOverflow();
+    }
+
+    /**
+     * Get the room graph of a cached interior, with its furniture instance
+     * data. The graph is rebuilt if furniture was destroyed since.
+     *
+     * @param building The building
+     * @return The interior's room graph, or null if the interior is not cached
+     */
+    public InteriorVisibility getVisibility(BuildingData building) {
+        CachedInterior cached = interiors.get(BuildingInteriorGenerator.getBuildingId(building));
+        if (cached == null) {
+            return null;
+        }
+
+        if (cached.visibility.isStale(cached.interior)) {
+            cached.visibility = new InteriorVisibility(cached.interior);
+        }
+        return cached.visibility;
+    }
+
+    /**
+     * Record that a piece of furniture in a cached interior was moved to its
+     * current position, and rebuild the interior's room graph so the
+     * furniture is drawn there.
+     *
+     * @param building The building containing the furniture
+     * @param furniture The moved furniture
+     */
+    public void recordMoved(BuildingData building, Furniture furniture) {
+        CachedInterior cached = interiors.get(BuildingInteriorGenerator.getBuildingId(building));
+        if (cached == null) {
+            return;
+        }
+
+        if (deltaStore != null) {
+            deltaStore.recordMoved(cached.interior, furniture);
+        }
+        cached.visibility = new InteriorVisibility(cached.interior);
+    }
+
+    /**
+     * Set the store whose player changes are applied to every interior
+     * entering the cache.
+     *
+     * @param deltaStore Interior delta store, or null for none
+     */
+    public void setDeltaStore(InteriorDeltaStore deltaStore) {
+        this.deltaStore = deltaStore;
+    }
+
+    /**
+     * Get the generator used on cache misses.
+     *
+     * @return The interior generator
+     */
+    public BuildingInteriorGenerator getGenerator() {
+        return generator;
+    }
+
+    /**
+     * Check if an interior is cached without touching its recency.
+     *
+     * @param buildingId Building id
+     * @return true if cached
+     */
+    public boolean contains(int buildingId) {
+        return interiors.containsKey(buildingId);
+    }
+
+    /**
+     * Evict least-recently-used interiors the player is not inside until
+     * the cache is back within capacity.
+     */
+    private void evictOverflow() {
+        Iterator<Map.Entry<Integer, CachedInterior>> iterator = interiors.entrySet().iterator();
+        while (interiors.size() > capacity && iterator.hasNext()) {
+            Map.Entry<Integer, CachedInterior> entry = iterator.next();
+            if (activeBuildings.contains(entry.getKey())) {
+                continue;
+            }
+
+            memoryBytes -= entry.getValue().bytes;
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Remove all interiors the player is not inside.
+     */
+    public void clear() {
+        Iterator<Map.Entry<Integer, CachedInterior>> iterator = interiors.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, CachedInterior> entry = iterator.next();
+            if (!activeBuildings.contains(entry.getKey())) {
+                memoryBytes -= entry.getValue().bytes;
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Estimate the heap memory used by an interior.
+     *
+     * @param interior The building interior
+     * @return Estimated size in bytes
+     */
+    public static long estimateMemory(BuildingInterior interior) {
+        return INTERIOR_BYTES
+            + interior.getRooms().size() * ROOM_BYTES
+            + interior.getFurniture().size() * FURNITURE_BYTES;
+    }
+
+    /**
+     * Get the number of cache hits.
+     *
+     * @return Hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of cache misses.
+     *
+     * @return Miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the cache hit rate.
+     *
+     * @return Hit rate (0.0 to 1.0)
+     */
+    public float getHitRate() {
+        long lookups = hitCount + missCount;
+        return lookups == 0 ? 0.0f : (float) hitCount / lookups;
+    }
+
+    /**
+     * Get the number of evicted interiors.
+     *
+     * @return Eviction count
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Get the estimated memory used by cached interiors.
+     *
+     * @return Memory in bytes
+     */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     * Get the number of cached interiors.
+     *
+     * @return Cached interior count
+     */
+    public int getSize() {
+        return interiors.size();
+    }
+
+    /**
+     * Get the cache capacity.
+     *
+     * @return Maximum number of unpinned interiors
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
+
+/**
+ * A cached interior with its room graph and estimated memory cost.
+ */
+class CachedInterior {
+    final BuildingInterior interior;
+    final long bytes;
+    InteriorVisibility visibility;
+
+    /**
+     * Constructor.
+     *
+     * @param interior The building interior
+     * @param bytes Estimated size in bytes
+     */
+    CachedInterior(BuildingInterior interior, long bytes) {
+        this.interior = interior;
+        this.bytes = bytes;
+    }
+}
@@ -0,0 +1,305 @@
+package com.cyberpunk.game.city;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * Records the changes the player made to building interiors.
+ *
+ * Interiors are regenerated from the world seed (see BuildingInteriorGenerator),
+ * so a save only needs these deltas: moved, destroyed and looted furniture,
+ * addressed by building id and the furniture's index in generation order.
+ * Save size and time depend on how much the player changed, not on how many
+ * buildings were visited. Furniture indices only mean something for the
+ * world seed the interiors were generated from, so the seed is saved with
+ * the deltas and a save from another world is rejected.
+ */
+public class InteriorDeltaStore {
+
+    // Save format
+    private static final int SAVE_MAGIC = 0x494E5444; // "INTD"
+    private static final int SAVE_VERSION = 2;
+
+    // World seed the interiors are generated from
+    private final long worldSeed;
+
+    // Deltas by building id
+    private final Map<Integer, InteriorDelta> deltas;
+
+    // Furniture of each live interior in generation order, used to map
+    // furniture objects back to their generated index
+    private final Map<BuildingInterior, List<Furniture>> generatedFurniture;
+
+    /**
+     * Constructor.
+     *
+     * @param worldSeed World seed of the interiors, as given to BuildingInteriorGenerator
+     */
+    public InteriorDeltaStore(long worldSeed) {
+        this.worldSeed = worldSeed;
+        deltas = new TreeMap<>();
+        generatedFurniture = new WeakHashMap<>();
+    }
+
+    /**
+     * Apply recorded deltas to a freshly generated interior.
+     * Interiors that were already applied are left untouched.
+     *
+     * @param interior The generated interior
+     */
+    public void apply(BuildingInterior interior) {
+        if (generatedFurniture.containsKey(interior)) {
+            return;
+        }
+
+        List<Furniture> furniture = interior.getFurniture();
+        List<Furniture> generated = new ArrayList<>(furniture);
+        generatedFurniture.put(interior, generated);
+
+        InteriorDelta delta = deltas.get(getBuildingId(interior));
+        if (delta == null) {
+            return;
+        }
+
+        // Moved furniture
+        for (Map.Entry<Integer, float[]> entry : delta.moved.entrySet()) {
+            int index = entry.getKey();
+            if (index < generated.size()) {
+                float[] position = entry.getValue();
+                generated.get(index).setPosition(position[0], position[1], position[2]);
+            }
+        }
+
+        // Destroyed furniture
+        for (int index : delta.destroyed) {
+            if (index < generated.size()) {
+                furniture.remove(generated.get(index));
+            }
+        }
+    }
+
+    /**
+     * Record that a piece of furniture was moved to its current position.
+     *
+     * @param interior The interior containing the furniture
+     * @param furniture The moved furniture
+     */
+    public void recordMoved(BuildingInterior interior, Furniture furniture) {
+        int index = getFurnitureIndex(interior, furniture);
+        if (index < 0) {
+            return;
+        }
+
+        getOrCreateDelta(interior).moved.put(index,
+            new float[] {furniture.getX(), furniture.getY(), furniture.getZ()});
+    }
+
+    /**
+     * Record that a piece of furniture was destroyed and remove it from the interior.
+     *
+     * @param interior The interior containing the furniture
+     * @param furniture The destroyed furniture
+     */
+    public void recordDestroyed(BuildingInterior interior, Furniture furniture) {
+        int index = getFurnitureIndex(interior, furniture);
+        if (index < 0) {
+            return;
+        }
+
+        InteriorDelta delta = getOrCreateDelta(interior);
+        delta.moved.remove(index);
+        delta.destroyed.add(index);
+        interior.getFurniture().remove(furniture);
+    }
+
+    /**
+     * Record that a piece of furniture was looted.
+     *
+     * @param interior The interior containing the furniture
+     * @param furniture The looted furniture
+     */
+    public void recordLooted(BuildingInterior interior, Furniture furniture) {
+        int index = getFurnitureIndex(interior, furniture);
+        if (index < 0) {
+            return;
+        }
+
+        getOrCreateDelta(interior).looted.add(index);
+    }
+
+    /**
+     * Check if a piece of furniture has been looted.
+     *
+     * @param interior The interior containing the furniture
+     * @param furniture The furniture
+     * @return true if looted
+     */
+    public boolean isLooted(BuildingInterior interior, Furniture furniture) {
+        InteriorDelta delta = deltas.get(getBuildingId(interior));
+        if (delta == null) {
+            return false;
+        }
+
+        return delta.looted.contains(getFurnitureIndex(interior, furniture));
+    }
+
+    /**
+     * Find the generated index of a piece of furniture.
+     *
+     * @return The index, or -1 if the interior was not applied or the furniture is unknown
+     */
+    private int getFurnitureIndex(BuildingInterior interior, Furniture furniture) {
+        List<Furniture> generated = generatedFurniture.get(interior);
+        if (generated == null) {
+            return -1;
+        }
+
+        // Identity lookup; furniture does not define equality
+        for (int i = 0; i < generated.size(); i++) {
+            if (generated.get(i) == furniture) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Get the delta for an interior's building, creating it if needed.
+     */
+    private InteriorDelta getOrCreateDelta(BuildingInterior interior) {
+        return deltas.computeIfAbsent(getBuildingId(interior), id -> new InteriorDelta());
+    }
+
+    /**
+     * Get the building id of an interior.
+     */
+    private int getBuildingId(BuildingInterior interior) {
+        return BuildingInteriorGenerator.getBuildingId(interior.getBuilding());
+    }
+
+    /**
+     * Write all deltas to a save.
+     *
+     * @param out Output stream
+     * @throws IOException If an I/O error occurs
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(SAVE_MAGIC);
+        out.writeInt(SAVE_VERSION);
+        out.writeLong(worldSeed);
+        out.writeInt(deltas.size());
+
+        for (Map.Entry<Integer, InteriorDelta> entry : deltas.entrySet()) {
+            InteriorDelta delta = entry.getValue();
+            out.writeInt(entry.getKey());
+
+            out.writeInt(delta.moved.size());
+            for (Map.Entry<Integer, float[]> moved : delta.moved.entrySet()) {
+                float[] position = moved.getValue();
+                out.writeInt(moved.getKey());
+                out.writeFloat(position[0]);
+                out.writeFloat(position[1]);
+                out.writeFloat(position[2]);
+            }
+
+            out.writeInt(delta.destroyed.size());
+            for (int index : delta.destroyed) {
+                out.writeInt(index);
+            }
+
+            out.writeInt(delta.looted.size());
+            for (int index : delta.looted) {
+                out.writeInt(index);
+            }
+        }
+    }
+
+    /**
+     * Replace all deltas with those read from a save. Nothing is replaced if
+     * the save cannot be read.
+     * Interiors that are already generated keep their current state and stay
+     * registered, so changes to them are still recorded; clear the interior
+     * cache after loading so the ones the player is not inside are
+     * regenerated with the loaded deltas.
+     *
+     * @param in Input stream
+     * @throws IOException If an I/O error occurs, the data is not a delta save
+     *         or it was saved for a different world seed
+     */
+    public void read(DataInputStream in) throws IOException {
+        if (in.readInt() != SAVE_MAGIC) {
+            throw new IOException("Not an interior delta save");
+        }
+        int version = in.readInt();
+        if (version != SAVE_VERSION) {
+            throw new IOException("Unsupported interior delta save version: " + version);
+        }
+        long savedSeed = in.readLong();
+        if (savedSeed != worldSeed) {
+            throw new IOException("Interior delta save is for world seed " + savedSeed + ", not " + worldSeed);
+        }
+
+        Map<Integer, InteriorDelta> loaded = new TreeMap<>();
+        int numBuildings = in.readInt();
+        for (int b = 0; b < numBuildings; b++) {
+            int buildingId = in.readInt();
+            InteriorDelta delta = new InteriorDelta();
+
+            int numMoved = in.readInt();
+            for (int i = 0; i < numMoved; i++) {
+                int index = in.readInt();
+                delta.moved.put(index, new float[] {in.readFloat(), in.readFloat(), in.readFloat()});
+            }
+
+            int numDestroyed = in.readInt();
+            for (int i = 0; i < numDestroyed; i++) {
+                delta.destroyed.add(in.readInt());
+            }
+
+            int numLooted = in.readInt();
+            for (int i = 0; i < numLooted; i++) {
+                delta.looted.add(in.readInt());
+            }
+
+            loaded.put(buildingId, delta);
+        }
+
+        deltas.clear();
+        deltas.putAll(loaded);
+    }
+
+    /**
+     * Get the world seed the deltas apply to.
+     *
+     * @return The world seed
+     */
+    public long getWorldSeed() {
+        return worldSeed;
+    }
+
+    /**
+     * Get the number of buildings with recorded changes.
+     *
+     * @return Changed building count
+     */
+    public int getChangedBuildingCount() {
+        return deltas.size();
+    }
+}
+
+/**
+ * Player changes to one building interior.
+ */
+class InteriorDelta {
+    final TreeMap<Integer, float[]> moved = new TreeMap<>();
+    final TreeSet<Integer> destroyed = new TreeSet<>();
+    final TreeSet<Integer> looted = new TreeSet<>();
+}
@@ -0,0 +1,337 @@
+package com.cyberpunk.game.city;
+
+import org.joml.Vector3f;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Generates interiors in the background for buildings the player is approaching.
+ *
+ * Each frame the main thread calls update with the player's position and
+ * heading. Buildings whose entrances lie ahead of the player within range are
+ * generated on a worker thread and handed back through a queue, which update
+ * drains into the interior cache. Entering a prefetched building is then a
+ * cache hit instead of a full generation on the interact frame.
+ *
+ * Prefetched interiors that are still in range and not yet entered, plus
+ * those generating, are kept below the cache capacity. When more buildings
+ * are in range than the cache holds, only the closest are prefetched rather
+ * than each new prefetch evicting an earlier one.
+ */
+public class InteriorPrefetcher {
+
+    // Prefetch range settings
+    private static final float PREFETCH_RADIUS = 60.0f; // Entrances ahead of the player within this range
+    private static final float NEAR_RADIUS = 15.0f; // Entrances this close are fetched regardless of heading
+    private static final float HEADING_COS = 0.5f; // Within 60 degrees of the player's heading
+
+    // Maximum interiors generating at once
+    private static final int MAX_IN_FLIGHT = 2;
+
+    // Interior cache shared with the main thread
+    private final InteriorCache cache;
+
+    // Worker thread and its own generator (generators are not thread-safe)
+    private final ExecutorService worker;
+    private final BuildingInteriorGenerator workerGenerator;
+
+    // Interiors being generated, and finished ones waiting for the main thread
+    private final Map<Integer, Future<BuildingInterior>> pending;
+    private final ConcurrentLinkedQueue<PrefetchedInterior> completed;
+
+    // Prefetched interiors in the cache that have not been entered yet
+    private final Set<Integer> unclaimed;
+
+    // Metrics
+    private long prefetchCount;
+    private long instantEntries;
+    private long stalledEntries;
+
+    /**
+     * Constructor.
+     *
+     * @param cache Interior cache to fill
+     */
+    public InteriorPrefetcher(InteriorCache cache) {
+        this.cache = cache;
+        workerGenerator = new BuildingInteriorGenerator(cache.getGenerator().getWorldSeed());
+        pending = new HashMap<>();
+        completed = new ConcurrentLinkedQueue<>();
+        unclaimed = new HashSet<>();
+
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "interior-prefetch");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Update prefetching. Must be called from the main thread.
+     *
+     * @param position Player position
+     * @param rotationY Player rotation around the Y axis in radians
+     * @param buildings Buildings in the city
+     */
+    public void update(Vector3f position, float rotationY, List<BuildingData> buildings) {
+        collectCompleted();
+
+        // Leave a cache slot for the building being entered
+        int budget = cache.getCapacity() - 1 - pending.size() - countUnclaimedInRange(position, buildings);
+        if (pending.size() >= MAX_IN_FLIGHT || budget <= 0) {
+            return;
+        }
+
+        // Heading matches Player.moveForward
+        float headingX = (float) Math.sin(rotationY);
+        float headingZ = (float) Math.cos(rotationY);
+
+        // Queue the closest approached entrances first
+        while (pending.size() < MAX_IN_FLIGHT && budget > 0) {
+            BuildingData best = null;
+            float bestDistanceSquared = PREFETCH_RADIUS * PREFETCH_RADIUS;
+
+            for (BuildingData building : buildings) {
+                int buildingId = BuildingInteriorGenerator.getBuildingId(building);
+                if (pending.containsKey(buildingId) || cache.contains(buildingId)) {
+                    continue;
+                }
+
+                float distanceSquared = getEntranceDistanceSquared(building, position);
+                if (distanceSquared >= bestDistanceSquared) {
+                    continue;
+                }
+
+                if (distanceSquared > NEAR_RADIUS * NEAR_RADIUS) {
+                    // Entrances face -Z, under the shop sign
+                    float dx = building.getX() - position.x;
+                    float dz = building.getZ() - building.getDepth() / 2 - position.z;
+                    float distance = (float) Math.sqrt(distanceSquared);
+                    float facing = (dx * headingX + dz * headingZ) / distance;
+                    if (facing < HEADING_COS) {
+                        continue;
+                    }
+                }
+
+                best = building;
+                bestDistanceSquared = distanceSquared;
+            }
+
+            if (best == null) {
+                break;
+            }
+
+            submit(best);
+            budget--;
+        }
+    }
+
+    /**
+     * Count the prefetched interiors not yet entered whose entrances are still
+     * in range, forgetting those the cache has evicted.
+     *
+     * @param position Player position
+     * @param buildings Buildings in the city
+     * @return Unclaimed prefetched interiors in range
+     */
+    private int countUnclaimedInRange(Vector3f position, List<BuildingData> buildings) {
+        unclaimed.removeIf(buildingId -> !cache.contains(buildingId));
+        if (unclaimed.isEmpty()) {
+            return 0;
+        }
+
+        int count = 0;
+        for (BuildingData building : buildings) {
+            if (unclaimed.contains(BuildingInteriorGenerator.getBuildingId(building))
+                && getEntranceDistanceSquared(building, position) < PREFETCH_RADIUS * PREFETCH_RADIUS) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the squared distance from the player to a building's entrance.
+     *
+     * @param building The building
+     * @param position Player position
+     * @return Squared distance
+     */
+    private static float getEntranceDistanceSquared(BuildingData building, Vector3f position) {
+        // Entrances face -Z, under the shop sign
+        float dx = building.getX() - position.x;
+        float dz = building.getZ() - building.getDepth() / 2 - position.z;
+        return dx * dx + dz * dz;
+    }
+
+    /**
+     * Start generating a building interior on the worker thread.
+     *
+     * @param building The building
+     */
+    private void submit(BuildingData building) {
+        int buildingId = BuildingInteriorGenerator.getBuildingId(building);
+
+        Future<BuildingInterior> future = worker.submit(() -> {
+            BuildingInterior interior = workerGenerator.generateInterior(building);
+            completed.add(new PrefetchedInterior(buildingId, interior));
+            return interior;
+        });
+
+        pending.put(buildingId, future);
+        prefetchCount++;
+    }
+
+    /**
+     * Move finished interiors from the worker into the cache.
+     */
+    private void collectCompleted() {
+        PrefetchedInterior prefetched;
+        while ((prefetched = completed.poll()) != null) {
+            // Skip interiors enterBuilding already waited for
+            if (pending.remove(prefetched.buildingId) != null) {
+                cache.put(prefetched.buildingId, prefetched.interior);
+                unclaimed.add(prefetched.buildingId);
+            }
+        }
+
+        // Drop failed jobs so they can be retried
+        Iterator<Future<BuildingInterior>> iterator = pending.values().iterator();
+        while (iterator.hasNext()) {
+            Future<BuildingInterior> future = iterator.next();
+            if (future.isDone() && !completedNormally(future)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Check whether a finished job produced an interior.
+     */
+    private boolean completedNormally(Future<BuildingInterior> future) {
+        try {
+            return !future.isCancelled() && future.get() != null;
+        } catch (InterruptedException | ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get the interior for a building the player is entering.
+     * Prefetched interiors are returned immediately. If the building is still
+     * generating, this waits for the worker rather than generating twice.
+     *
+     * @param building The building being entered
+     * @return The building interior
+     */
+    public BuildingInterior enterBuilding(BuildingData building) {
+        collectCompleted();
+
+        int buildingId = BuildingInteriorGenerator.getBuildingId(building);
+        Future<BuildingInterior> future = pending.remove(buildingId);
+        unclaimed.remove(buildingId);
+
+        if (cache.contains(buildingId)) {
+            instantEntries++;
+        } else if (future != null) {
+            stalledEntries++;
+            try {
+                cache.put(buildingId, future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        } else {
+            stalledEntries++;
+        }
+
+        return cache.enterBuilding(building);
+    }
+
+    /**
+     * Notify that the player left a building.
+     *
+     * @param building The building being exited
+     */
+    public void exitBuilding(BuildingData building) {
+        cache.exitBuilding(building);
+    }
+
+    /**
+     * Get the number of interiors generated in the background.
+     *
+     * @return Prefetch count
+     */
+    public long getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    /**
+     * Get the number of building entries served without waiting, either from
+     * a prefetched interior or one still cached from an earlier visit.
+     *
+     * @return Instant entry count
+     */
+    public long getInstantEntries() {
+        return instantEntries;
+    }
+
+    /**
+     * Get the number of building entries that had to wait for generation.
+     *
+     * @return Stalled entry count
+     */
+    public long getStalledEntries() {
+        return stalledEntries;
+    }
+
+    /**
+     * Get the number of interiors currently generating.
+     *
+     * @return In-flight count
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Stop the worker thread.
+     */
+    public void cleanup() {
+        worker.shutdownNow();
+        pending.clear();
+        completed.clear();
+        unclaimed.clear();
+    }
+}
+
+/**
+ * An interior finished on the worker thread.
+ */
+class PrefetchedInterior {
+    final int buildingId;
+    final BuildingInterior interior;
+
+    /**
+     * Constructor.
+     *
+     * @param buildingId Building id
+     * @param interior The generated interior
+     */
+    PrefetchedInterior(int buildingId, BuildingInterior interior) {
+        this.buildingId = buildingId;
+        this.interior = interior;
+    }
+}
@@ -0,0 +1,464 @@
+package com.cyberpunk.game.city;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Room and portal graph of a building interior used for visibility culling.
+ *
+ * Every room has a doorway centred on each wall (see
+ * BuildingInteriorRenderer.renderDoorways). Where a doorway opens onto a
+ * neighbouring room on the same floor it becomes a portal of both rooms. Visibility starts
+ * in the viewer's room and flows through portals, narrowing the view cone at
+ * each one, so only rooms actually seen through doorways are drawn. Floors
+ * other than the viewer's are hidden by floors and ceilings and are culled
+ * outright.
+ */
+public class InteriorVisibility {
+
+    // Doorway size shared with the renderer
+    static final float DOOR_WIDTH = 1.0f;
+    static final float DOOR_HEIGHT = 2.0f;
+
+    // Maximum number of portals followed from the viewer's room
+    private static final int MAX_PORTAL_DEPTH = 6;
+
+    // Tolerance when matching walls
+    private static final float EPSILON = 0.01f;
+
+    // Rooms and their floors
+    private final List<Room> rooms;
+    private final int[] roomFloors;
+
+    // Portals: for each room, neighbour room and doorway endpoints in XZ
+    private final int[][] portalRooms;
+    private final float[][] portalPoints;
+
+    // Furniture grouped by room, and its instance data for FurnitureBatch
+    private final List<List<Furniture>> furnitureByRoom;
+    private final int furnitureCount;
+    private final FurnitureInstances furnitureInstances;
+
+    // Last query results
+    private final boolean[] visible;
+    private final List<Room> visibleRooms;
+    private final List<Furniture> visibleFurniture;
+    private final boolean[] onPath;
+
+    /**
+     * Constructor.
+     *
+     * @param interior The interior to build the graph for
+     */
+    public InteriorVisibility(BuildingInterior interior) {
+        rooms = new ArrayList<>(interior.getRooms());
+        int numRooms = rooms.size();
+
+        roomFloors = new int[numRooms];
+        for (int i = 0; i < numRooms; i++) {
+            roomFloors[i] = rooms.get(i).getFloor();
+        }
+
+        // Find portals between rooms on the same floor. Two rooms sharing a
+        // wall are connected through the doorway of either room that opens
+        // onto the other, and each portal is added to both rooms, so what is
+        // visible does not depend on which of them the viewer stands in
+        portalRooms = new int[numRooms][];
+        portalPoints = new float[numRooms][];
+        int[] portalCounts = new int[numRooms];
+        int[][] neighbours = new int[numRooms][4];
+        float[][] points = new float[numRooms][16];
+        float[] doorway = new float[4];
+        float[] otherDoorway = new float[4];
+
+        for (int i = 0; i < numRooms; i++) {
+            for (int j = i + 1; j < numRooms; j++) {
+                if (roomFloors[j] != roomFloors[i]) {
+                    continue;
+                }
+
+                boolean found = findDoorway(rooms.get(i), rooms.get(j), doorway);
+                if (found) {
+                    addPortal(i, j, doorway, portalCounts, neighbours, points);
+                    addPortal(j, i, doorway, portalCounts, neighbours, points);
+                }
+
+                // Rooms whose shared walls are centred alike share one doorway
+                if (findDoorway(rooms.get(j), rooms.get(i), otherDoorway)
+                        && !(found && sameDoorway(doorway, otherDoorway))) {
+                    addPortal(i, j, otherDoorway, portalCounts, neighbours, points);
+                    addPortal(j, i, otherDoorway, portalCounts, neighbours, points);
+                }
+            }
+        }
+
+        for (int i = 0; i < numRooms; i++) {
+            portalRooms[i] = Arrays.copyOf(neighbours[i], portalCounts[i]);
+            portalPoints[i] = Arrays.copyOf(points[i], portalCounts[i] * 4);
+        }
+
+        // Assign furniture to the room containing it
+        furnitureByRoom = new ArrayList<>(numRooms);
+        for (int i = 0; i < numRooms; i++) {
+            furnitureByRoom.add(new ArrayList<>());
+        }
+        for (Furniture furniture : interior.getFurniture()) {
+            int room = findRoom(furniture.getX(), furniture.getY(), furniture.getZ());
+            if (room >= 0) {
+                furnitureByRoom.get(room).add(furniture);
+            }
+        }
+        furnitureCount = interior.getFurniture().size();
+        furnitureInstances = new FurnitureInstances(this);
+
+        visible = new boolean[numRooms];
+        onPath = new boolean[numRooms];
+        visibleRooms = new ArrayList<>();
+        visibleFurniture = new ArrayList<>();
+    }
+
+    /**
+     * Find the doorway centred on a wall of a room that opens onto another
+     * room sharing that wall.
+     *
+     * @param room Room whose doorways are checked
+     * @param other Neighbouring room
+     * @param doorway Output doorway endpoints in XZ (x1, z1, x2, z2)
+     * @return true if one of the room's doorways opens onto the other room
+     */
+    private static boolean findDoorway(Room room, Room other, float[] doorway) {
+        float minX = room.getX();
+        float maxX = room.getX() + room.getWidth();
+        float minZ = room.getZ();
+        float maxZ = room.getZ() + room.getDepth();
+        float centerX = (minX + maxX) / 2;
+        float centerZ = (minZ + maxZ) / 2;
+        float halfDoor = DOOR_WIDTH / 2;
+
+        float otherMinX = other.getX();
+        float otherMaxX = other.getX() + other.getWidth();
+        float otherMinZ = other.getZ();
+        float otherMaxZ = other.getZ() + other.getDepth();
+
+        if ((Math.abs(maxX - otherMinX) < EPSILON || Math.abs(minX - otherMaxX) < EPSILON)
+                && centerZ > otherMinZ && centerZ < otherMaxZ) {
+            // Doorway in the left or right wall
+            float wallX = Math.abs(maxX - otherMinX) < EPSILON ? maxX : minX;
+            doorway[0] = wallX;
+            doorway[1] = centerZ - halfDoor;
+            doorway[2] = wallX;
+            doorway[3] = centerZ + halfDoor;
+            return true;
+        }
+        if ((Math.abs(maxZ - otherMinZ) < EPSILON || Math.abs(minZ - otherMaxZ) < EPSILON)
+                && centerX > otherMinX && centerX < otherMaxX) {
+            // Doorway in the front or back wall
+            float wallZ = Math.abs(maxZ - otherMinZ) < EPSILON ? maxZ : minZ;
+            doorway[0] = centerX - halfDoor;
+            doorway[1] = wallZ;
+            doorway[2] = centerX + halfDoor;
+            doorway[3] = wallZ;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check whether two doorways are the same opening.
+     */
+    private static boolean sameDoorway(float[] a, float[] b) {
+        for (int k = 0; k < 4; k++) {
+            if (Math.abs(a[k] - b[k]) >= EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a portal from one room to another, growing the room's arrays as needed.
+     */
+    private static void addPortal(int room, int next, float[] doorway,
+                                  int[] portalCounts, int[][] neighbours, float[][] points) {
+        int count = portalCounts[room];
+        if (count == neighbours[room].length) {
+            neighbours[room] = Arrays.copyOf(neighbours[room], count * 2);
+            points[room] = Arrays.copyOf(points[room], count * 8);
+        }
+        neighbours[room][count] = next;
+        System.arraycopy(doorway, 0, points[room], count * 4, 4);
+        portalCounts[room] = count + 1;
+    }
+
+    /**
+     * Check whether this graph still matches an interior's furniture. Moved
+     * furniture is not detected; the graph must be rebuilt when furniture
+     * moves (see InteriorCache.recordMoved).
+     *
+     * @param interior The interior
+     * @return true if furniture was added or removed since the graph was built
+     */
+    public boolean isStale(BuildingInterior interior) {
+        return interior.getFurniture().size() != furnitureCount
+            || interior.getRooms().size() != rooms.size();
+    }
+
+    /**
+     * Find the room containing a point.
+     *
+     * @param x X position in building space
+     * @param y Y position in building space
+     * @param z Z position in building space
+     * @return Room index, or -1 if the point is in no room
+     */
+    public int findRoom(float x, float y, float z) {
+        for (int i = 0; i < rooms.size(); i++) {
+            Room room = rooms.get(i);
+            if (x >= room.getX() - EPSILON && x <= room.getX() + room.getWidth() + EPSILON
+                    && z >= room.getZ() - EPSILON && z <= room.getZ() + room.getDepth() + EPSILON
+                    && y >= room.getY() - EPSILON && y < room.getY() + room.getHeight()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Determine the rooms and furniture visible from a viewer position.
+     * Results are available from getVisibleRooms and getVisibleFurniture.
+     *
+     * @param x Viewer X position in building space
+     * @param y Viewer Y position in building space
+     * @param z Viewer Z position in building space
+     */
+    public void update(float x, float y, float z) {
+        Arrays.fill(visible, false);
+        visibleRooms.clear();
+        visibleFurniture.clear();
+
+        int startRoom = findRoom(x, y, z);
+        if (startRoom >= 0) {
+            onPath[startRoom] = true;
+            flood(startRoom, x, z, 0, 0, 0, 0, true, 0);
+            onPath[startRoom] = false;
+        } else {
+            // Viewer is not inside a room (e.g. at the entrance): show the nearest floor
+            int floor = findNearestFloor(y);
+            for (int i = 0; i < rooms.size(); i++) {
+                if (roomFloors[i] == floor) {
+                    visible[i] = true;
+                }
+            }
+        }
+
+        for (int i = 0; i < rooms.size(); i++) {
+            if (visible[i]) {
+                visibleRooms.add(rooms.get(i));
+                visibleFurniture.addAll(furnitureByRoom.get(i));
+            }
+        }
+    }
+
+    /**
+     * Mark every room visible, e.g. to draw a whole interior without culling.
+     */
+    public void showAll() {
+        Arrays.fill(visible, true);
+        visibleRooms.clear();
+        visibleFurniture.clear();
+
+        visibleRooms.addAll(rooms);
+        for (List<Furniture> furniture : furnitureByRoom) {
+            visibleFurniture.addAll(furniture);
+        }
+    }
+
+    /**
+     * Mark a room visible and recurse through its portals.
+     *
+     * The view cone is the set of directions from the viewer between the
+     * "from" and "to" vectors, counter-clockwise, and is unbounded in the
+     * viewer's own room.
+     */
+    private void flood(int room, float viewerX, float viewerZ,
+                       float fromX, float fromZ, float toX, float toZ, boolean unbounded, int depth) {
+        visible[room] = true;
+
+        if (depth >= MAX_PORTAL_DEPTH) {
+            return;
+        }
+
+        int[] neighbours = portalRooms[room];
+        float[] points = portalPoints[room];
+
+        for (int p = 0; p < neighbours.length; p++) {
+            int next = neighbours[p];
+            if (onPath[next]) {
+                continue;
+            }
+
+            // Portal cone from the viewer, ordered counter-clockwise
+            float ax = points[p * 4] - viewerX;
+            float az = points[p * 4 + 1] - viewerZ;
+            float bx = points[p * 4 + 2] - viewerX;
+            float bz = points[p * 4 + 3] - viewerZ;
+            float cross = ax * bz - az * bx;
+
+            float newFromX, newFromZ, newToX, newToZ;
+            boolean newUnbounded = false;
+
+            if (Math.abs(cross) < 1e-4f) {
+                // Viewer is in line with the doorway: seen edge-on it hides the
+                // next room, but standing in it leaves the view unrestricted
+                if (!unbounded || ax * bx + az * bz >= 0) {
+                    continue;
+                }
+                newFromX = fromX;
+                newFromZ = fromZ;
+                newToX = toX;
+                newToZ = toZ;
+                newUnbounded = unbounded;
+            } else {
+                if (cross < 0) {
+                    float tx = ax, tz = az;
+                    ax = bx;
+                    az = bz;
+                    bx = tx;
+                    bz = tz;
+                }
+
+                if (unbounded) {
+                    newFromX = ax;
+                    newFromZ = az;
+                    newToX = bx;
+                    newToZ = bz;
+                } else {
+                    // Intersect the current cone with the portal cone
+                    if (inCone(ax, az, fromX, fromZ, toX, toZ)) {
+                        newFromX = ax;
+                        newFromZ = az;
+                    } else if (inCone(fromX, fromZ, ax, az, bx, bz)) {
+                        newFromX = fromX;
+                        newFromZ = fromZ;
+                    } else {
+                        continue;
+                    }
+
+                    if (inCone(bx, bz, fromX, fromZ, toX, toZ)) {
+                        newToX = bx;
+                        newToZ = bz;
+                    } else if (inCone(toX, toZ, ax, az, bx, bz)) {
+                        newToX = toX;
+                        newToZ = toZ;
+                    } else {
+                        continue;
+                    }
+
+                    if (newFromX * newToZ - newFromZ * newToX < 0) {
+                        continue; // Empty intersection
+                    }
+                }
+            }
+
+            onPath[next] = true;
+            flood(next, viewerX, viewerZ, newFromX, newFromZ, newToX, newToZ, newUnbounded, depth + 1);
+            onPath[next] = false;
+        }
+    }
+
+    /**
+     * Check whether a direction lies inside a counter-clockwise cone.
+     */
+    private static boolean inCone(float x, float z, float fromX, float fromZ, float toX, float toZ) {
+        return fromX * z - fromZ * x >= 0 && x * toZ - z * toX >= 0;
+    }
+
+    /**
+     * Find the floor whose rooms are closest to a height.
+     */
+    private int findNearestFloor(float y) {
+        int nearest = 0;
+        float nearestDistance = Float.MAX_VALUE;
+        for (int i = 0; i < rooms.size(); i++) {
+            Room room = rooms.get(i);
+            float distance = Math.abs(room.getY() + DOOR_HEIGHT / 2 - y);
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = roomFloors[i];
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Get the rooms visible after the last update.
+     *
+     * @return Visible rooms
+     */
+    public List<Room> getVisibleRooms() {
+        return visibleRooms;
+    }
+
+    /**
+     * Get the furniture in visible rooms after the last update.
+     *
+     * @return Visible furniture
+     */
+    public List<Furniture> getVisibleFurniture() {
+        return visibleFurniture;
+    }
+
+    /**
+     * Get the total number of rooms in the interior.
+     *
+     * @return Room count
+     */
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    /**
+     * Get the index of a room in the interior's room list.
+     *
+     * @param room The room
+     * @return Room index, or -1 if not part of this interior
+     */
+    public int getRoomIndex(Room room) {
+        for (int i = 0; i < rooms.size(); i++) {
+            if (rooms.get(i) == room) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check if a room was visible after the last update.
+     *
+     * @param roomIndex Room index
+     * @return true if visible
+     */
+    public boolean isRoomVisible(int roomIndex) {
+        return visible[roomIndex];
+    }
+
+    /**
+     * Get the furniture assigned to a room.
+     *
+     * @param roomIndex Room index
+     * @return Furniture in the room
+     */
+    public List<Furniture> getRoomFurniture(int roomIndex) {
+        return furnitureByRoom.get(roomIndex);
+    }
+
+    /**
+     * Get the furniture instance data, grouped by room and shape.
+     *
+     * @return Furniture instances
+     */
+    FurnitureInstances getFurnitureInstances() {
+        return furnitureInstances;
+    }
+}
@@ -0,0 +1,560 @@
+package com.cyberpunk.game.city;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact road graph derived from the city's road segments.
+ *
+ * Nodes are intersections and road ends. Edges are directed lanes between
+ * neighbouring nodes, stored in compressed sparse row (CSR) form: the edges
+ * leaving node n are the indices in [getEdgeStart(n), getEdgeEnd(n)).
+ * All data lives in primitive arrays so pathfinding, traffic, GPS routing and
+ * the minimap can share it without re-deriving geometry from raw segments.
+ */
+public class RoadNetwork {
+
+    // Speed classes
+    public static final byte SPEED_CLASS_STREET = 0;
+    public static final byte SPEED_CLASS_ARTERIAL = 1;
+
+    // Speed limits by speed class in metres per second
+    private static final float[] SPEED_LIMITS = {
+        13.9f, // Street: 50 km/h
+        22.2f  // Arterial: 80 km/h
+    };
+
+    // Lane and classification settings
+    private static final float LANE_WIDTH = 3.5f;
+    private static final float ARTERIAL_MIN_WIDTH = 15.0f;
+
+    // Nodes closer than this are merged into one intersection
+    private static final float NODE_MERGE_DISTANCE = 0.1f;
+
+    // Nodes
+    private final int nodeCount;
+    private final float[] nodeX;
+    private final float[] nodeZ;
+
+    // Edges (CSR adjacency)
+    private final int[] edgeOffsets;
+    private final int[] edgeSources;
+    private final int[] edgeTargets;
+    private final float[] edgeLengths;
+    private final float[] edgeWidths;
+    private final byte[] edgeLanes;
+    private final byte[] edgeSpeedClasses;
+    private final int[] edgeRoads;
+
+    /**
+     * Constructor.
+     *
+     * @param nodeX Node X positions
+     * @param nodeZ Node Z positions
+     * @param edgeOffsets CSR offsets, one per node plus a terminator
+     * @param edgeSources Source node of each edge
+     * @param edgeTargets Target node of each edge
+     * @param edgeLengths Edge lengths in metres
+     * @param edgeWidths Full road width of each edge in metres
+     * @param edgeLanes Lanes in the direction of travel of each edge
+     * @param edgeSpeedClasses Speed class of each edge
+     * @param edgeRoads Index of the source road of each edge
+     */
+    private RoadNetwork(float[] nodeX, float[] nodeZ, int[] edgeOffsets, int[] edgeSources, int[] edgeTargets,
+                        float[] edgeLengths, float[] edgeWidths, byte[] edgeLanes, byte[] edgeSpeedClasses,
+                        int[] edgeRoads) {
+        this.nodeCount = nodeX.length;
+        this.nodeX = nodeX;
+        this.nodeZ = nodeZ;
+        this.edgeOffsets = edgeOffsets;
+        this.edgeSources = edgeSources;
+        this.edgeTargets = edgeTargets;
+        this.edgeLengths = edgeLengths;
+        this.edgeWidths = edgeWidths;
+        this.edgeLanes = edgeLanes;
+        this.edgeSpeedClasses = edgeSpeedClasses;
+        this.edgeRoads = edgeRoads;
+    }
+
+    /**
+     * Build a road network from road segments.
+     * Every road is split wherever it crosses another road, so each edge runs
+     * between two neighbouring intersections.
+     *
+     * @param roads Road segments
+     * @return The road network
+     */
+    public static RoadNetwork fromRoads(List<Road> roads) {
+        int numRoads = roads.size();
+
+        // Node positions, deduplicated on a quantized grid
+        Map<Long, Integer> nodeIndex = new HashMap<>();
+        float[] xs = new float[64];
+        float[] zs = new float[64];
+        int numNodes = 0;
+
+        // Undirected segments (two edges each once built)
+        int[] segA = new int[64];
+        int[] segB = new int[64];
+        int[] segRoad = new int[64];
+        int numSegments = 0;
+
+        float[] splits = new float[numRoads + 2];
+
+        for (int r = 0; r < numRoads; r++) {
+            Road road = roads.get(r);
+            float ax = road.getStartX();
+            float az = road.getStartZ();
+            float bx = road.getEndX();
+            float bz = road.getEndZ();
+
+            // Collect split points along this road
+            int numSplits = 0;
+            splits[numSplits++] = 0.0f;
+            splits[numSplits++] = 1.0f;
+
+            for (int o = 0; o < numRoads; o++) {
+                if (o == r) {
+                    continue;
+                }
+                Road other = roads.get(o);
+                float t = intersect(ax, az, bx, bz,
+                                    other.getStartX(), other.getStartZ(), other.getEndX(), other.getEndZ());
+                if (t > 0.0f && t < 1.0f) {
+                    splits[numSplits++] = t;
+                }
+            }
+
+            Arrays.sort(splits, 0, numSplits);
+
+            // Create nodes and segments between consecutive split points
+            int previous = -1;
+            for (int i = 0; i < numSplits; i++) {
+                float x = ax + (bx - ax) * splits[i];
+                float z = az + (bz - az) * splits[i];
+
+                long key = quantize(x, z);
+                Integer existing = nodeIndex.get(key);
+                int node;
+                if (existing != null) {
+                    node = existing;
+                } else {
+                    if (numNodes == xs.length) {
+                        xs = Arrays.copyOf(xs, numNodes * 2);
+                        zs = Arrays.copyOf(zs, numNodes * 2);
+                    }
+                    node = numNodes++;
+                    xs[node] = x;
+                    zs[node] = z;
+                    nodeIndex.put(key, node);
+                }
+
+                if (previous != -1 && previous != node) {
+                    if (numSegments == segA.length) {
+                        segA = Arrays.copyOf(segA, numSegments * 2);
+                        segB = Arrays.copyOf(segB, numSegments * 2);
+                        segRoad = Arrays.copyOf(segRoad, numSegments * 2);
+                    }
+                    segA[numSegments] = previous;
+                    segB[numSegments] = node;
+                    segRoad[numSegments] = r;
+                    numSegments++;
+                }
+                previous = node;
+            }
+        }
+
+        // Count outgoing edges per node
+        int[] offsets = new int[numNodes + 1];
+        for (int s = 0; s < numSegments; s++) {
+            offsets[segA[s] + 1]++;
+            offsets[segB[s] + 1]++;
+        }
+        for (int n = 0; n < numNodes; n++) {
+            offsets[n + 1] += offsets[n];
+        }
+
+        // Fill edge arrays in CSR order
+        int numEdges = numSegments * 2;
+        int[] sources = new int[numEdges];
+        int[] targets = new int[numEdges];
+        float[] lengths = new float[numEdges];
+        float[] widths = new float[numEdges];
+        byte[] lanes = new byte[numEdges];
+        byte[] speedClasses = new byte[numEdges];
+        int[] edgeRoads = new int[numEdges];
+        int[] cursor = Arrays.copyOf(offsets, numNodes);
+
+        for (int s = 0; s < numSegments; s++) {
+            Road road = roads.get(segRoad[s]);
+            float width = road.getWidth();
+            float dx = xs[segB[s]] - xs[segA[s]];
+            float dz = zs[segB[s]] - zs[segA[s]];
+            float length = (float) Math.sqrt(dx * dx + dz * dz);
+            byte laneCount = (byte) Math.max(1, (int) (width / LANE_WIDTH) / 2);
+            byte speedClass = width >= ARTERIAL_MIN_WIDTH ? SPEED_CLASS_ARTERIAL : SPEED_CLASS_STREET;
+
+            for (int dir = 0; dir < 2; dir++) {
+                int from = dir == 0 ? segA[s] : segB[s];
+                int to = dir == 0 ? segB[s] : segA[s];
+                int e = cursor[from]++;
+                sources[e] = from;
+                targets[e] = to;
+                lengths[e] = length;
+                widths[e] = width;
+                lanes[e] = laneCount;
+                speedClasses[e] = speedClass;
+                edgeRoads[e] = segRoad[s];
+            }
+        }
+
+        return new RoadNetwork(Arrays.copyOf(xs, numNodes), Arrays.copyOf(zs, numNodes), offsets,
+                               sources, targets, lengths, widths, lanes, speedClasses, edgeRoads);
+    }
+
+    /**
+     * Intersect segment AB with segment CD in the XZ plane.
+     *
+     * @return Parameter along AB of the crossing, or -1 if they do not cross
+     */
+    private static float intersect(float ax, float az, float bx, float bz,
+                                   float cx, float cz, float dx, float dz) {
+        float rx = bx - ax;
+        float rz = bz - az;
+        float sx = dx - cx;
+        float sz = dz - cz;
+
+        float denominator = rx * sz - rz * sx;
+        if (Math.abs(denominator) < 1e-6f) {
+            return -1.0f; // Parallel
+        }
+
+        float t = ((cx - ax) * sz - (cz - az) * sx) / denominator;
+        float u = ((cx - ax) * rz - (cz - az) * rx) / denominator;
+
+        if (u < 0.0f || u > 1.0f) {
+            return -1.0f;
+        }
+
+        return t;
+    }
+
+    /**
+     * Build a lookup key for a position on the node merge grid.
+     */
+    private static long quantize(float x, float z) {
+        long qx = Math.round(x / NODE_MERGE_DISTANCE);
+        long qz = Math.round(z / NODE_MERGE_DISTANCE);
+        return (qx << 32) ^ (qz & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Find the node closest to a position.
+     *
+     * @param x X position
+     * @param z Z position
+     * @return Node index, or -1 if the network is empty
+     */
+    public int findNearestNode(float x, float z) {
+        int nearest = -1;
+        float nearestDistanceSquared = Float.MAX_VALUE;
+
+        for (int n = 0; n < nodeCount; n++) {
+            float dx = nodeX[n] - x;
+            float dz = nodeZ[n] - z;
+            float distanceSquared = dx * dx + dz * dz;
+            if (distanceSquared < nearestDistanceSquared) {
+                nearestDistanceSquared = distanceSquared;
+                nearest = n;
+            }
+        }
+
+        return nearest;
+    }
+
+    /**
+     * Find the fastest route between two nodes using A* over travel time.
+     *
+     * @param startNode Start node index
+     * @param goalNode Goal node index
+     * @return Node indices from start to goal, or an empty array if unreachable
+     */
+    public int[] findRoute(int startNode, int goalNode) {
+        if (startNode < 0 || startNode >= nodeCount || goalNode < 0 || goalNode >= nodeCount) {
+            return new int[0];
+        }
+
+        float maxSpeed = SPEED_LIMITS[SPEED_CLASS_ARTERIAL];
+
+        float[] cost = new float[nodeCount];
+        int[] previous = new int[nodeCount];
+        boolean[] closed = new boolean[nodeCount];
+        Arrays.fill(cost, Float.MAX_VALUE);
+        Arrays.fill(previous, -1);
+
+        // Binary min-heap of nodes keyed by estimated total cost
+        int[] heap = new int[Math.max(16, getEdgeCount() + 1)];
+        float[] heapKeys = new float[heap.length];
+        int heapSize = 0;
+
+        cost[startNode] = 0.0f;
+        heap[heapSize] = startNode;
+        heapKeys[heapSize] = 0.0f;
+        heapSize++;
+
+        while (heapSize > 0) {
+            // Pop minimum
+            int node = heap[0];
+            heapSize--;
+            if (heapSize > 0) {
+                int last = heap[heapSize];
+                float lastKey = heapKeys[heapSize];
+                int i = 0;
+                while (true) {
+                    int child = i * 2 + 1;
+                    if (child >= heapSize) {
+                        break;
+                    }
+                    if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                        child++;
+                    }
+                    if (heapKeys[child] >= lastKey) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    heapKeys[i] = heapKeys[child];
+                    i = child;
+                }
+                heap[i] = last;
+                heapKeys[i] = lastKey;
+            }
+
+            if (closed[node]) {
+                continue;
+            }
+            closed[node] = true;
+
+            if (node == goalNode) {
+                break;
+            }
+
+            for (int e = edgeOffsets[node]; e < edgeOffsets[node + 1]; e++) {
+                int target = edgeTargets[e];
+                if (closed[target]) {
+                    continue;
+                }
+
+                float newCost = cost[node] + getEdgeTravelTime(e);
+                if (newCost >= cost[target]) {
+                    continue;
+                }
+                cost[target] = newCost;
+                previous[target] = node;
+
+                // Push with straight-line travel time as the heuristic
+                float dx = nodeX[goalNode] - nodeX[target];
+                float dz = nodeZ[goalNode] - nodeZ[target];
+                float key = newCost + (float) Math.sqrt(dx * dx + dz * dz) / maxSpeed;
+
+                if (heapSize == heap.length) {
+                    heap = Arrays.copyOf(heap, heapSize * 2);
+                    heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+                }
+                int i = heapSize++;
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (heapKeys[parent] <= key) {
+                        break;
+                    }
+                    heap[i] = heap[parent];
+                    heapKeys[i] = heapKeys[parent];
+                    i = parent;
+                }
+                heap[i] = target;
+                heapKeys[i] = key;
+            }
+        }
+
+        if (!closed[goalNode]) {
+            return new int[0];
+        }
+
+        // Walk back from the goal
+        int length = 0;
+        for (int n = goalNode; n != -1; n = previous[n]) {
+            length++;
+        }
+        int[] route = new int[length];
+        for (int n = goalNode, i = length - 1; n != -1; n = previous[n], i--) {
+            route[i] = n;
+        }
+
+        return route;
+    }
+
+    /**
+     * Find the edge from one node to another.
+     *
+     * @param fromNode Source node index
+     * @param toNode Target node index
+     * @return Edge index, or -1 if the nodes are not adjacent
+     */
+    public int findEdge(int fromNode, int toNode) {
+        for (int e = edgeOffsets[fromNode]; e < edgeOffsets[fromNode + 1]; e++) {
+            if (edgeTargets[e] == toNode) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Get the number of nodes.
+     *
+     * @return Node count
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Get the X position of a node.
+     *
+     * @param node Node index
+     * @return X position
+     */
+    public float getNodeX(int node) {
+        return nodeX[node];
+    }
+
+    /**
+     * Get the Z position of a node.
+     *
+     * @param node Node index
+     * @return Z position
+     */
+    public float getNodeZ(int node) {
+        return nodeZ[node];
+    }
+
+    /**
+     * Get the number of directed edges.
+     *
+     * @return Edge count
+     */
+    public int getEdgeCount() {
+        return edgeTargets.length;
+    }
+
+    /**
+     * Get the index of the first edge leaving a node.
+     *
+     * @param node Node index
+     * @return First edge index
+     */
+    public int getEdgeStart(int node) {
+        return edgeOffsets[node];
+    }
+
+    /**
+     * Get the index one past the last edge leaving a node.
+     *
+     * @param node Node index
+     * @return End edge index (exclusive)
+     */
+    public int getEdgeEnd(int node) {
+        return edgeOffsets[node + 1];
+    }
+
+    /**
+     * Get the source node of an edge.
+     *
+     * @param edge Edge index
+     * @return Source node index
+     */
+    public int getEdgeSource(int edge) {
+        return edgeSources[edge];
+    }
+
+    /**
+     * Get the target node of an edge.
+     *
+     * @param edge Edge index
+     * @return Target node index
+     */
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    /**
+     * Get the length of an edge.
+     *
+     * @param edge Edge index
+     * @return Length in metres
+     */
+    public float getEdgeLength(int edge) {
+        return edgeLengths[edge];
+    }
+
+    /**
+     * Get the full road width of an edge.
+     *
+     * @param edge Edge index
+     * @return Width in metres
+     */
+    public float getEdgeWidth(int edge) {
+        return edgeWidths[edge];
+    }
+
+    /**
+     * Get the number of lanes in the direction of travel of an edge.
+     *
+     * @param edge Edge index
+     * @return Lane count
+     */
+    public int getEdgeLanes(int edge) {
+        return edgeLanes[edge];
+    }
+
+    /**
+     * Get the speed class of an edge.
+     *
+     * @param edge Edge index
+     * @return SPEED_CLASS_STREET or SPEED_CLASS_ARTERIAL
+     */
+    public byte getEdgeSpeedClass(int edge) {
+        return edgeSpeedClasses[edge];
+    }
+
+    /**
+     * Get the speed limit of an edge.
+     *
+     * @param edge Edge index
+     * @return Speed limit in metres per second
+     */
+    public float getEdgeSpeedLimit(int edge) {
+        return SPEED_LIMITS[edgeSpeedClasses[edge]];
+    }
+
+    /**
+     * Get the travel time along an edge at its speed limit.
+     *
+     * @param edge Edge index
+     * @return Travel time in seconds
+     */
+    public float getEdgeTravelTime(int edge) {
+        return edgeLengths[edge] / SPEED_LIMITS[edgeSpeedClasses[edge]];
+    }
+
+    /**
+     * Get the index of the road an edge was derived from.
+     *
+     * @param edge Edge index
+     * @return Road index in the city generator's road list
+     */
+    public int getEdgeRoad(int edge) {
+        return edgeRoads[edge];
+    }
+}
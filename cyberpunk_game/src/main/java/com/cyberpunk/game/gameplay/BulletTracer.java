@@ -0,0 +1,72 @@
+package com.cyberpunk.game.gameplay;
+
+import org.joml.Vector3f;
+
+/**
+ * Represents a bullet tracer effect.
+ */
+public class BulletTracer {
+    private Vector3f start;
+    private Vector3f end;
+    private float duration;
+    private float timer;
+    
+    /**
+     * Constructor.
+     * 
+     * @param start Start position
+     * @param end End position
+     * @param duration Effect duration in seconds
+     */
+    public BulletTracer(Vector3f start, Vector3f end, float duration) {
+        this.start = start;
+        this.end = end;
+        this.duration = duration;
+        this.timer = 0.0f;
+    }
+    
+    /**
+     * Update the tracer.
+     * 
+     * @param delta Time since last update in seconds
+     */
+    public void update(float delta) {
+        timer += delta;
+    }
+    
+    /**
+     * Check if the tracer effect is finished.
+     * 
+     * @return true if finished
+     */
+    public boolean isFinished() {
+        return timer >= duration;
+    }
+    
+    /**
+     * Get the start position.
+     * 
+     * @return The start position
+     */
+    public Vector3f getStart() {
+        return start;
+    }
+    
+    /**
+     * Get the end position.
+     * 
+     * @return The end position
+     */
+    public Vector3f getEnd() {
+        return end;
+    }
+    
+    /**
+     * Get the completion ratio (0.0 to 1.0).
+     * 
+     * @return The completion ratio
+     */
+    public float getCompletionRatio() {
+        return Math.min(timer / duration, 1.0f);
+    }
+}
@@ -0,0 +1,311 @@
+package com.cyberpunk.game.gameplay;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.*;
+
+import com.cyberpunk.game.render.Camera;
+import com.cyberpunk.game.render.ClusteredLights;
+import com.cyberpunk.game.render.RenderStats;
+import com.cyberpunk.game.render.ShaderProgram;
+import com.cyberpunk.game.render.StreamingBuffer;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Draws the combat system's bullet tracers, impact effects and damage
+ * numbers.
+ *
+ * The effects change every frame, so their lines are written straight into
+ * a StreamingBuffer and drawn with one call. Tracers fade along their
+ * length, impacts are bursts of lines that grow and fade, and damage numbers
+ * are seven-segment digits that face the camera and rise. Lines are blended
+ * additively and fade into the distance fog.
+ */
+public class CombatEffectRenderer {
+
+    // Vertex layout: position (3) + color (4)
+    private static final int VERTEX_FLOATS = 7;
+    private static final int VERTEX_BYTES = VERTEX_FLOATS * Float.BYTES;
+
+    // Vertices streamed per frame; effects past this are dropped
+    private static final int MAX_VERTICES = 16384;
+
+    // Effect shapes
+    private static final int IMPACT_RAYS = 8;
+    private static final float IMPACT_SIZE = 0.6f;
+    private static final float DIGIT_WIDTH = 0.25f;
+    private static final float DIGIT_HEIGHT = 0.45f;
+    private static final float DIGIT_SPACING = 0.35f;
+    private static final float NUMBER_RISE = 1.5f;
+
+    // Lights cast by muzzle flashes and impacts
+    private static final float FLASH_DURATION = 0.25f;
+    private static final float FLASH_RADIUS = 6.0f;
+    private static final float IMPACT_LIGHT_RADIUS = 4.0f;
+
+    // Segments of each digit as bits a to g: top, top right, bottom right,
+    // bottom, bottom left, top left, middle
+    private static final int[] DIGIT_SEGMENTS = {
+        0x3F, 0x06, 0x5B, 0x4F, 0x66, 0x6D, 0x7D, 0x07, 0x7F, 0x6F
+    };
+
+    // Segment endpoints in digit space (0 to 1 across, 0 to 1 up)
+    private static final float[][] SEGMENT_LINES = {
+        {0, 1, 1, 1}, {1, 1, 1, 0.5f}, {1, 0.5f, 1, 0}, {0, 0, 1, 0},
+        {0, 0, 0, 0.5f}, {0, 0.5f, 0, 1}, {0, 0.5f, 1, 0.5f}
+    };
+
+    private static final String VERTEX_SHADER = """
+        #version 330 compatibility
+
+        layout(location = 0) in vec3 position;
+        layout(location = 1) in vec4 color;
+
+        out vec4 fragColor;
+        out float fogDepth;
+
+        void main() {
+            gl_Position = gl_ModelViewProjectionMatrix * vec4(position, 1.0);
+            fragColor = color;
+            fogDepth = -(gl_ModelViewMatrix * vec4(position, 1.0)).z;
+        }
+        """;
+
+    private static final String FRAGMENT_SHADER = """
+        #version 330 compatibility
+
+        in vec4 fragColor;
+        in float fogDepth;
+
+        out vec4 outColor;
+
+        void main() {
+            // Additive lines fade out in the fog instead of turning its colour
+            float fog = clamp((gl_Fog.end - fogDepth) * gl_Fog.scale, 0.0, 1.0);
+            outColor = vec4(fragColor.rgb, fragColor.a * fog);
+        }
+        """;
+
+    // GPU objects
+    private final ShaderProgram shader;
+    private final StreamingBuffer stream;
+    private final int vao;
+
+    // Scratch for the frame being written
+    private ByteBuffer vertices;
+    private int vertexCount;
+    private final Vector3f right;
+
+    /**
+     * Constructor. Must be called on the render thread.
+     */
+    public CombatEffectRenderer() {
+        shader = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        stream = new StreamingBuffer(VERTEX_BYTES, MAX_VERTICES);
+        right = new Vector3f();
+
+        vao = glGenVertexArrays();
+        glBindVertexArray(vao);
+        glBindBuffer(GL_ARRAY_BUFFER, stream.getBufferId());
+        glVertexAttribPointer(0, 3, GL_FLOAT, false, VERTEX_BYTES, 0);
+        glEnableVertexAttribArray(0);
+        glVertexAttribPointer(1, 4, GL_FLOAT, false, VERTEX_BYTES, 3L * Float.BYTES);
+        glEnableVertexAttribArray(1);
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Draw the current combat effects. The shader from getShader() must be
+     * bound.
+     *
+     * @param combatSystem Combat system holding the effects
+     * @param camera Camera the frame is rendered from
+     */
+    public void render(CombatSystem combatSystem, Camera camera) {
+        List<BulletTracer> tracers = combatSystem.getBulletTracers();
+        List<ImpactEffect> impacts = combatSystem.getImpactEffects();
+        List<DamageNumber> numbers = combatSystem.getDamageNumbers();
+        if (tracers.isEmpty() && impacts.isEmpty() && numbers.isEmpty()) {
+            return;
+        }
+
+        // Numbers face the camera: its right axis is the view matrix's first row
+        Matrix4f view = camera.getViewMatrix();
+        right.set(view.m00(), view.m10(), view.m20()).normalize();
+
+        vertices = stream.begin();
+        vertexCount = 0;
+        for (BulletTracer tracer : tracers) {
+            writeTracer(tracer);
+        }
+        for (ImpactEffect impact : impacts) {
+            writeImpact(impact);
+        }
+        for (DamageNumber number : numbers) {
+            writeDamageNumber(number);
+        }
+        int first = stream.end(vertexCount);
+
+        glDepthMask(false);
+        glEnable(GL_BLEND);
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE);
+
+        glBindVertexArray(vao);
+        glDrawArrays(GL_LINES, first, vertexCount);
+        glBindVertexArray(0);
+        RenderStats.addDrawCall(0);
+
+        glDisable(GL_BLEND);
+        glDepthMask(true);
+
+        stream.fence();
+        vertices = null;
+    }
+
+    /**
+     * Add the lights of the current effects: a flash at the muzzle of each
+     * new tracer and a fading glow at each impact.
+     *
+     * @param combatSystem Combat system holding the effects
+     * @param lights Clustered lights of the frame
+     */
+    public void submitLights(CombatSystem combatSystem, ClusteredLights lights) {
+        for (BulletTracer tracer : combatSystem.getBulletTracers()) {
+            float ratio = tracer.getCompletionRatio();
+            if (ratio < FLASH_DURATION) {
+                float intensity = 1.0f - ratio / FLASH_DURATION;
+                Vector3f start = tracer.getStart();
+                lights.addLight(start.x, start.y, start.z, FLASH_RADIUS,
+                    2.0f * intensity, 1.6f * intensity, 0.8f * intensity);
+            }
+        }
+        for (ImpactEffect impact : combatSystem.getImpactEffects()) {
+            float intensity = 1.0f - impact.getCompletionRatio();
+            Vector3f p = impact.getPosition();
+            lights.addLight(p.x, p.y + 0.3f, p.z, IMPACT_LIGHT_RADIUS,
+                1.5f * intensity, 0.8f * intensity, 0.3f * intensity);
+        }
+    }
+
+    /**
+     * Write a tracer: bright at the muzzle, fading towards the target and
+     * over its lifetime.
+     *
+     * @param tracer Tracer
+     */
+    private void writeTracer(BulletTracer tracer) {
+        float alpha = 1.0f - tracer.getCompletionRatio();
+        Vector3f start = tracer.getStart();
+        Vector3f end = tracer.getEnd();
+        writeLine(start.x, start.y, start.z, end.x, end.y, end.z,
+            1.0f, 0.9f, 0.5f, alpha, alpha * 0.2f);
+    }
+
+    /**
+     * Write an impact: a ring of rays that grow and fade.
+     *
+     * @param impact Impact effect
+     */
+    private void writeImpact(ImpactEffect impact) {
+        float ratio = impact.getCompletionRatio();
+        float alpha = 1.0f - ratio;
+        float inner = IMPACT_SIZE * ratio * 0.5f;
+        float outer = IMPACT_SIZE * (0.3f + ratio);
+        Vector3f p = impact.getPosition();
+
+        for (int i = 0; i < IMPACT_RAYS; i++) {
+            // Alternate between flat and upward rays
+            double angle = Math.PI * 2.0 * i / IMPACT_RAYS;
+            float dx = (float) Math.cos(angle);
+            float dz = (float) Math.sin(angle);
+            float dy = (i & 1) == 0 ? 0.0f : 0.7f;
+            writeLine(p.x + dx * inner, p.y + dy * inner, p.z + dz * inner,
+                p.x + dx * outer, p.y + dy * outer, p.z + dz * outer,
+                1.0f, 0.6f, 0.2f, alpha, 0.0f);
+        }
+    }
+
+    /**
+     * Write a damage number centred above its position.
+     *
+     * @param number Damage number
+     */
+    private void writeDamageNumber(DamageNumber number) {
+        float ratio = number.getCompletionRatio();
+        float alpha = 1.0f - ratio * ratio;
+        String digits = Integer.toString(Math.abs(number.getDamage()));
+        Vector3f p = number.getPosition();
+
+        float y = p.y + NUMBER_RISE * ratio;
+        float offset = -(digits.length() * DIGIT_SPACING - (DIGIT_SPACING - DIGIT_WIDTH)) * 0.5f;
+        for (int i = 0; i < digits.length(); i++) {
+            int segments = DIGIT_SEGMENTS[digits.charAt(i) - '0'];
+            float x = p.x + right.x * offset;
+            float z = p.z + right.z * offset;
+            for (int s = 0; s < SEGMENT_LINES.length; s++) {
+                if ((segments & (1 << s)) == 0) {
+                    continue;
+                }
+                float[] line = SEGMENT_LINES[s];
+                float ax = line[0] * DIGIT_WIDTH;
+                float bx = line[2] * DIGIT_WIDTH;
+                writeLine(x + right.x * ax, y + line[1] * DIGIT_HEIGHT, z + right.z * ax,
+                    x + right.x * bx, y + line[3] * DIGIT_HEIGHT, z + right.z * bx,
+                    1.0f, 0.95f, 0.2f, alpha, alpha);
+            }
+            offset += DIGIT_SPACING;
+        }
+    }
+
+    /**
+     * Write a line with one colour and an alpha per end. Does nothing once
+     * the frame's section is full.
+     *
+     * @param x1 Start X
+     * @param y1 Start Y
+     * @param z1 Start Z
+     * @param x2 End X
+     * @param y2 End Y
+     * @param z2 End Z
+     * @param r Red
+     * @param g Green
+     * @param b Blue
+     * @param alpha1 Alpha at the start
+     * @param alpha2 Alpha at the end
+     */
+    private void writeLine(float x1, float y1, float z1, float x2, float y2, float z2,
+                           float r, float g, float b, float alpha1, float alpha2) {
+        if (vertexCount + 2 > MAX_VERTICES) {
+            return;
+        }
+        vertices.putFloat(x1).putFloat(y1).putFloat(z1).putFloat(r).putFloat(g).putFloat(b).putFloat(alpha1);
+        vertices.putFloat(x2).putFloat(y2).putFloat(z2).putFloat(r).putFloat(g).putFloat(b).putFloat(alpha2);
+        vertexCount += 2;
+    }
+
+    /**
+     * Get the shader the effects are drawn with, for a render queue packet.
+     *
+     * @return Shader program
+     */
+    public ShaderProgram getShader() {
+        return shader;
+    }
+
+    /**
+     * Delete the GPU objects. Must be called on the render thread.
+     */
+    public void cleanup() {
+        glDeleteVertexArrays(vao);
+        stream.cleanup();
+        shader.cleanup();
+    }
+}
@@ -22,6 +22,11 @@ public class CombatSystem {
     // Impact effects
     private List<ImpactEffect> impactEffects;
     
+    // Positions of impacts created since they were last taken, for particles;
+    // the oldest are dropped if nothing takes them
+    private static final int MAX_NEW_IMPACTS = 64;
+    private List<Vector3f> newImpacts;
+    
     // Damage numbers
     private List<DamageNumber> damageNumbers;
     
@@ -31,6 +36,7 @@ public class CombatSystem {
     public CombatSystem() {
         bulletTracers = new ArrayList<>();
         impactEffects = new ArrayList<>();
+        newImpacts = new ArrayList<>();
         damageNumbers = new ArrayList<>();
     }
     
@@ -179,7 +185,7 @@ public class CombatSystem {
                 new Vector3f(hitNPC.getPosition().x, hitNPC.getPosition().y + 1.0f, hitNPC.getPosition().z),
                 0.5f // Duration in seconds
             );
-            impactEffects.add(impact);
+            addImpact(impact);
             
             // Create damage number
             DamageNumber damageNumber = new DamageNumber(
@@ -194,7 +200,7 @@ public class CombatSystem {
         
         // No hit, create impact at end of tracer
         ImpactEffect impact = new ImpactEffect(tracerEnd, 0.3f);
-        impactEffects.add(impact);
+        addImpact(impact);
         
         return false;
     }
@@ -306,7 +312,7 @@ public class CombatSystem {
                 new Vector3f(targetPosition.x, targetPosition.y + 1.0f, targetPosition.z),
                 0.5f // Duration in seconds
             );
-            impactEffects.add(impact);
+            addImpact(impact);
             
             // Create damage number
             DamageNumber damageNumber = new DamageNumber(
@@ -320,12 +326,24 @@ public class CombatSystem {
         } else {
             // Miss, create impact at end of tracer
             ImpactEffect impact = new ImpactEffect(tracerEnd, 0.3f);
-            impactEffects.add(impact);
+            addImpact(impact);
             
             return false;
         }
     }
     
+    /**
+     * Add a shot that is not tied to a weapon: a tracer from start to end and
+     * an impact where it lands.
+     * 
+     * @param start Muzzle position
+     * @param end Position the shot lands at
+     */
+    public void addShot(Vector3f start, Vector3f end) {
+        bulletTracers.add(new BulletTracer(new Vector3f(start), new Vector3f(end), 0.2f));
+        addImpact(new ImpactEffect(new Vector3f(end), 0.3f));
+    }
+    
     /**
      * Get the range of a weapon.
      * 
@@ -392,6 +410,30 @@ public class CombatSystem {
         return angle;
     }
     
+    /**
+     * Add an impact effect.
+     * 
+     * @param impact The impact effect
+     */
+    private void addImpact(ImpactEffect impact) {
+        impactEffects.add(impact);
+        if (newImpacts.size() >= MAX_NEW_IMPACTS) {
+            newImpacts.remove(0);
+        }
+        newImpacts.add(impact.getPosition());
+    }
+    
+    /**
+     * Move the positions of impacts created since the last call into a list.
+     * At most the 64 most recent impacts are kept between calls.
+     * 
+     * @param positions List to add the positions to
+     */
+    public void takeNewImpacts(List<Vector3f> positions) {
+        positions.addAll(newImpacts);
+        newImpacts.clear();
+    }
+    
     /**
      * Get all bullet tracers.
      * 
@@ -419,198 +461,3 @@ public class CombatSystem {
         return damageNumbers;
     }
 }
-
-/**
- * Represents a bullet tracer effect.
- */
-class BulletTracer {
-    private Vector3f start;
-    private Vector3f end;
-    private float duration;
-    private float timer;
-    
-    /**
-     * Constructor.
-     * 
-     * @param start Start position
-     * @param end End position
-     * @param duration Effect duration in seconds
-     */
-    public BulletTracer(Vector3f start, Vector3f end, float duration) {
-        this.start = start;
-        this.end = end;
-        this.duration = duration;
-        this.timer = 0.0f;
-    }
-    
-    /**
-     * Update the tracer.
-     * 
-     * @param delta Time since last update in seconds
-     */
-    public void update(float delta) {
-        timer += delta;
-    }
-    
-    /**
-     * Check if the tracer effect is finished.
-     * 
-     * @return true if finished
-     */
-    public boolean isFinished() {
-        return timer >= duration;
-    }
-    
-    /**
-     * Get the start position.
-     * 
-     * @return The start position
-     */
-    public Vector3f getStart() {
-        return start;
-    }
-    
-    /**
-     * Get the end position.
-     * 
-     * @return The end position
-     */
-    public Vector3f getEnd() {
-        return end;
-    }
-    
-    /**
-     * Get the completion ratio (0.0 to 1.0).
-     * 
-     * @return The completion ratio
-     */
-    public float getCompletionRatio() {
-        return Math.min(timer / duration, 1.0f);
-    }
-}
-
-/**
- * Represents an impact effect.
- */
-class ImpactEffect {
-    private Vector3f position;
-    private float duration;
-    private float timer;
-    
-    /**
-     * Constructor.
-     * 
-     * @param position Effect position
-     * @param duration Effect duration in seconds
-     */
-    public ImpactEffect(Vector3f position, float duration) {
-        this.position = position;
-        this.duration = duration;
-        this.timer = 0.0f;
-    }
-    
-    /**
-     * Update the effect.
-     * 
-     * @param delta Time since last update in seconds
-     */
-    public void update(float delta) {
-        timer += delta;
-    }
-    
-    /**
-     * Check if the effect is finished.
-     * 
-     * @return true if finished
-     */
-    public boolean isFinished() {
-        return timer >= duration;
-    }
-    
-    /**
-     * Get the position.
-     * 
-     * @return The position
-     */
-    public Vector3f getPosition() {
-        return position;
-    }
-    
-    /**
-     * Get the completion ratio (0.0 to 1.0).
-     * 
-     * @return The completion ratio
-     */
-    public float getCompletionRatio() {
-        return Math.min(timer / duration, 1.0f);
-    }
-}
-
-/**
- * Represents a damage number effect.
- */
-class DamageNumber {
-    private Vector3f position;
-    private int damage;
-    private float duration;
-    private float timer;
-    
-    /**
-     * Constructor.
-     * 
-     * @param position Effect position
-     * @param damage Damage amount
-     * @param duration Effect duration in seconds
-     */
-    public DamageNumber(Vector3f position, int damage, float duration) {
-        this.position = position;
-        this.damage = damage;
-        this.duration = duration;
-        this.timer = 0.0f;
-    }
-    
-    /**
-     * Update the effect.
-     * 
-     * @param delta Time since last update in seconds
-     */
-    public void update(float delta) {
-        timer += delta;
-    }
-    
-    /**
-     * Check if the effect is finished.
-     * 
-     * @return true if finished
-     */
-    public boolean isFinished() {
-        return timer >= duration;
-    }
-    
-    /**
-     * Get the position.
-     * 
-     * @return The position
-     */
-    public Vector3f getPosition() {
-        return position;
-    }
-    
-    /**
-     * Get the damage amount.
-     * 
-     * @return The damage amount
-     */
-    public int getDamage() {
-        return damage;
-    }
-    
-    /**
-     * Get the completion ratio (0.0 to 1.0).
-     * 
-     * @return The completion ratio
-     */
-    public float getCompletionRatio() {
-        return Math.min(timer / duration, 1.0f);
-    }
-}
\ No newline at end of file
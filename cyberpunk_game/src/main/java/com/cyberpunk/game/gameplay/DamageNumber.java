@@ -0,0 +1,72 @@
+package com.cyberpunk.game.gameplay;
+
+import org.joml.Vector3f;
+
+/**
+ * Represents a damage number effect.
+ */
+public class DamageNumber {
+    private Vector3f position;
+    private int damage;
+    private float duration;
+    private float timer;
+    
+    /**
+     * Constructor.
+     * 
+     * @param position Effect position
+     * @param damage Damage amount
+     * @param duration Effect duration in seconds
+     */
+    public DamageNumber(Vector3f position, int damage, float duration) {
+        this.position = position;
+        this.damage = damage;
+        this.duration = duration;
+        this.timer = 0.0f;
+    }
+    
+    /**
+     * Update the effect.
+     * 
+     * @param delta Time since last update in seconds
+     */
+    public void update(float delta) {
+        timer += delta;
+    }
+    
+    /**
+     * Check if the effect is finished.
+     * 
+     * @return true if finished
+     */
+    public boolean isFinished() {
+        return timer >= duration;
+    }
+    
+    /**
+     * Get the position.
+     * 
+     * @return The position
+     */
+    public Vector3f getPosition() {
+        return position;
+    }
+    
+    /**
+     * Get the damage amount.
+     * 
+     * @return The damage amount
+     */
+    public int getDamage() {
+        return damage;
+    }
+    
+    /**
+     * Get the completion ratio (0.0 to 1.0).
+     * 
+     * @return The completion ratio
+     */
+    public float getCompletionRatio() {
+        return Math.min(timer / duration, 1.0f);
+    }
+}
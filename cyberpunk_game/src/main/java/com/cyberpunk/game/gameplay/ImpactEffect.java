@@ -0,0 +1,60 @@
+package com.cyberpunk.game.gameplay;
+
+import org.joml.Vector3f;
+
+/**
+ * Represents an impact effect.
+ */
+public class ImpactEffect {
+    private Vector3f position;
+    private float duration;
+    private float timer;
+    
+    /**
+     * Constructor.
+     * 
+     * @param position Effect position
+     * @param duration Effect duration in seconds
+     */
+    public ImpactEffect(Vector3f position, float duration) {
+        this.position = position;
+        this.duration = duration;
+        this.timer = 0.0f;
+    }
+    
+    /**
+     * Update the effect.
+     * 
+     * @param delta Time since last update in seconds
+     */
+    public void update(float delta) {
+        timer += delta;
+    }
+    
+    /**
+     * Check if the effect is finished.
+     * 
+     * @return true if finished
+     */
+    public boolean isFinished() {
+        return timer >= duration;
+    }
+    
+    /**
+     * Get the position.
+     * 
+     * @return The position
+     */
+    public Vector3f getPosition() {
+        return position;
+    }
+    
+    /**
+     * Get the completion ratio (0.0 to 1.0).
+     * 
+     * @return The completion ratio
+     */
+    public float getCompletionRatio() {
+        return Math.min(timer / duration, 1.0f);
+    }
+}
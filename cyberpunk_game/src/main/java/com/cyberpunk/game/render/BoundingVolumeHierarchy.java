@@ -0,0 +1,211 @@
+package com.cyberpunk.game.render;
+
+import org.joml.FrustumIntersection;
+
+import java.util.Arrays;
+
+/**
+ * Bounding volume hierarchy over static axis-aligned boxes, used to cull
+ * static geometry against the view frustum.
+ *
+ * Nodes are split at the median of the longest axis. Every node covers a
+ * contiguous range of the reordered item list, so a node entirely inside
+ * the frustum accepts its whole range without visiting its children.
+ */
+public class BoundingVolumeHierarchy {
+
+    // Maximum number of items in a leaf
+    private static final int LEAF_SIZE = 4;
+
+    // Item ids in tree order, and item bounds by id
+    private final int[] items;
+    private final float[] itemBounds;
+
+    // Nodes: bounds (6 floats), first item, item count, right child (left child is next)
+    private float[] nodeBounds;
+    private int[] nodeFirst;
+    private int[] nodeCount;
+    private int[] nodeRight;
+    private int nodeTotal;
+
+    // Traversal stack
+    private int[] stack;
+
+    /**
+     * Constructor.
+     *
+     * @param bounds Item bounds as minX, minY, minZ, maxX, maxY, maxZ per item
+     * @param count Number of items
+     */
+    public BoundingVolumeHierarchy(float[] bounds, int count) {
+        items = new int[count];
+        itemBounds = Arrays.copyOf(bounds, count * 6);
+        for (int i = 0; i < count; i++) {
+            items[i] = i;
+        }
+
+        int maxNodes = Math.max(1, 2 * count);
+        nodeBounds = new float[maxNodes * 6];
+        nodeFirst = new int[maxNodes];
+        nodeCount = new int[maxNodes];
+        nodeRight = new int[maxNodes];
+
+        float[] centers = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                centers[i * 3 + axis] = (bounds[i * 6 + axis] + bounds[i * 6 + 3 + axis]) / 2;
+            }
+        }
+
+        build(bounds, centers, 0, count);
+        stack = new int[64];
+    }
+
+    /**
+     * Build the subtree for an item range.
+     *
+     * @return Node index
+     */
+    private int build(float[] bounds, float[] centers, int first, int count) {
+        int node = nodeTotal++;
+        nodeFirst[node] = first;
+        nodeCount[node] = count;
+        nodeRight[node] = -1;
+
+        // Node bounds
+        int b = node * 6;
+        for (int axis = 0; axis < 3; axis++) {
+            nodeBounds[b + axis] = Float.MAX_VALUE;
+            nodeBounds[b + 3 + axis] = -Float.MAX_VALUE;
+        }
+        for (int i = first; i < first + count; i++) {
+            int item = items[i] * 6;
+            for (int axis = 0; axis < 3; axis++) {
+                nodeBounds[b + axis] = Math.min(nodeBounds[b + axis], bounds[item + axis]);
+                nodeBounds[b + 3 + axis] = Math.max(nodeBounds[b + 3 + axis], bounds[item + 3 + axis]);
+            }
+        }
+
+        if (count <= LEAF_SIZE) {
+            return node;
+        }
+
+        // Split along the longest axis at the median centre
+        int axis = 0;
+        float longest = -1;
+        for (int a = 0; a < 3; a++) {
+            float extent = nodeBounds[b + 3 + a] - nodeBounds[b + a];
+            if (extent > longest) {
+                longest = extent;
+                axis = a;
+            }
+        }
+
+        int half = count / 2;
+        select(centers, axis, first, first + count - 1, first + half);
+
+        build(bounds, centers, first, half);
+        nodeRight[node] = build(bounds, centers, first + half, count - half);
+        return node;
+    }
+
+    /**
+     * Partially sort items so the k-th item by centre on an axis is in place,
+     * with smaller items before it and larger ones after.
+     */
+    private void select(float[] centers, int axis, int left, int right, int k) {
+        while (left < right) {
+            float pivot = centers[items[(left + right) >>> 1] * 3 + axis];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (centers[items[i] * 3 + axis] < pivot) {
+                    i++;
+                }
+                while (centers[items[j] * 3 + axis] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int swap = items[i];
+                    items[i] = items[j];
+                    items[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Find the items whose bounds intersect the frustum.
+     *
+     * @param frustum The view frustum
+     * @param result Output item ids; must hold at least getItemCount values
+     * @return Number of visible items written to result
+     */
+    public int query(FrustumIntersection frustum, int[] result) {
+        if (items.length == 0) {
+            return 0;
+        }
+
+        int visible = 0;
+        int top = 0;
+        stack[top++] = 0;
+
+        while (top > 0) {
+            int node = stack[--top];
+            int b = node * 6;
+            int test = frustum.intersectAab(nodeBounds[b], nodeBounds[b + 1], nodeBounds[b + 2],
+                nodeBounds[b + 3], nodeBounds[b + 4], nodeBounds[b + 5]);
+
+            if (test == FrustumIntersection.INSIDE) {
+                // Whole subtree visible
+                System.arraycopy(items, nodeFirst[node], result, visible, nodeCount[node]);
+                visible += nodeCount[node];
+            } else if (test == FrustumIntersection.INTERSECT && nodeRight[node] < 0) {
+                // Leaf straddling the frustum: test its items
+                for (int i = nodeFirst[node]; i < nodeFirst[node] + nodeCount[node]; i++) {
+                    int item = items[i] * 6;
+                    if (frustum.testAab(itemBounds[item], itemBounds[item + 1], itemBounds[item + 2],
+                            itemBounds[item + 3], itemBounds[item + 4], itemBounds[item + 5])) {
+                        result[visible++] = items[i];
+                    }
+                }
+            } else if (test == FrustumIntersection.INTERSECT) {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = nodeRight[node];
+                stack[top++] = node + 1;
+            }
+        }
+
+        return visible;
+    }
+
+    /**
+     * Get the number of items.
+     *
+     * @return Item count
+     */
+    public int getItemCount() {
+        return items.length;
+    }
+
+    /**
+     * Get the number of nodes.
+     *
+     * @return Node count
+     */
+    public int getNodeCount() {
+        return nodeTotal;
+    }
+}
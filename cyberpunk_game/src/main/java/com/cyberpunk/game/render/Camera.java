@@ -0,0 +1,270 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import org.joml.FrustumIntersection;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.BufferUtils;
+
+import java.nio.FloatBuffer;
+
+/**
+ * Perspective camera following a position and heading.
+ *
+ * The projection, view and view-projection matrices and the culling frustum
+ * are cached and only recomputed after the camera moves or the viewport
+ * changes. The heading matches Player.moveForward: a rotation of zero looks
+ * down +Z.
+ */
+public class Camera {
+
+    // Projection settings
+    private float fov = 70.0f;
+    private float aspectRatio = 1280.0f / 720.0f;
+    private int viewportHeight = 720;
+    private float nearPlane = 0.1f;
+    private float farPlane = 1000.0f;
+
+    // View settings
+    private final Vector3f position;
+    private float rotationY;
+    private float pitch;
+
+    // Cached matrices
+    private final Matrix4f projectionMatrix;
+    private final Matrix4f viewMatrix;
+    private final Matrix4f viewProjectionMatrix;
+    private final FrustumIntersection frustum;
+    private boolean projectionDirty = true;
+    private boolean viewDirty = true;
+
+    // Buffer for loading matrices into OpenGL
+    private final FloatBuffer matrixBuffer = BufferUtils.createFloatBuffer(16);
+
+    /**
+     * Constructor.
+     */
+    public Camera() {
+        position = new Vector3f();
+        projectionMatrix = new Matrix4f();
+        viewMatrix = new Matrix4f();
+        viewProjectionMatrix = new Matrix4f();
+        frustum = new FrustumIntersection();
+    }
+
+    /**
+     * Set the camera position.
+     *
+     * @param x X position
+     * @param y Y position
+     * @param z Z position
+     */
+    public void setPosition(float x, float y, float z) {
+        if (position.x != x || position.y != y || position.z != z) {
+            position.set(x, y, z);
+            viewDirty = true;
+        }
+    }
+
+    /**
+     * Set the camera heading.
+     *
+     * @param rotationY Rotation around the Y axis in radians
+     * @param pitch Rotation above the horizon in radians
+     */
+    public void setRotation(float rotationY, float pitch) {
+        if (this.rotationY != rotationY || this.pitch != pitch) {
+            this.rotationY = rotationY;
+            this.pitch = pitch;
+            viewDirty = true;
+        }
+    }
+
+    /**
+     * Set the viewport size.
+     *
+     * @param width Viewport width in pixels
+     * @param height Viewport height in pixels
+     */
+    public void setViewport(int width, int height) {
+        viewportHeight = Math.max(1, height);
+        float aspect = (float) width / Math.max(1, height);
+        if (aspect != aspectRatio) {
+            aspectRatio = aspect;
+            projectionDirty = true;
+        }
+    }
+
+    /**
+     * Set the vertical field of view.
+     *
+     * @param fov Field of view in degrees
+     */
+    public void setFov(float fov) {
+        if (this.fov != fov) {
+            this.fov = fov;
+            projectionDirty = true;
+        }
+    }
+
+    /**
+     * Set the far clipping distance.
+     *
+     * @param farPlane Far plane distance
+     */
+    public void setFarPlane(float farPlane) {
+        if (this.farPlane != farPlane) {
+            this.farPlane = farPlane;
+            projectionDirty = true;
+        }
+    }
+
+    /**
+     * Recompute cached matrices that are out of date.
+     */
+    private void update() {
+        if (!projectionDirty && !viewDirty) {
+            return;
+        }
+
+        if (projectionDirty) {
+            projectionMatrix.setPerspective((float) Math.toRadians(fov), aspectRatio, nearPlane, farPlane);
+            projectionDirty = false;
+        }
+
+        if (viewDirty) {
+            float cosPitch = (float) Math.cos(pitch);
+            float forwardX = (float) Math.sin(rotationY) * cosPitch;
+            float forwardY = (float) Math.sin(pitch);
+            float forwardZ = (float) Math.cos(rotationY) * cosPitch;
+            viewMatrix.setLookAt(position.x, position.y, position.z,
+                position.x + forwardX, position.y + forwardY, position.z + forwardZ,
+                0, 1, 0);
+            viewDirty = false;
+        }
+
+        projectionMatrix.mul(viewMatrix, viewProjectionMatrix);
+        frustum.set(viewProjectionMatrix);
+    }
+
+    /**
+     * Load the projection and view matrices into the fixed-function matrix stack.
+     * Leaves the modelview matrix mode active.
+     */
+    public void apply() {
+        update();
+
+        glMatrixMode(GL_PROJECTION);
+        glLoadMatrixf(projectionMatrix.get(matrixBuffer));
+
+        glMatrixMode(GL_MODELVIEW);
+        glLoadMatrixf(viewMatrix.get(matrixBuffer));
+    }
+
+    /**
+     * Get the projection matrix.
+     *
+     * @return Projection matrix
+     */
+    public Matrix4f getProjectionMatrix() {
+        update();
+        return projectionMatrix;
+    }
+
+    /**
+     * Get the view matrix.
+     *
+     * @return View matrix
+     */
+    public Matrix4f getViewMatrix() {
+        update();
+        return viewMatrix;
+    }
+
+    /**
+     * Get the combined view-projection matrix.
+     *
+     * @return View-projection matrix
+     */
+    public Matrix4f getViewProjectionMatrix() {
+        update();
+        return viewProjectionMatrix;
+    }
+
+    /**
+     * Get the view frustum for culling.
+     *
+     * @return Frustum intersection tester
+     */
+    public FrustumIntersection getFrustum() {
+        update();
+        return frustum;
+    }
+
+    /**
+     * Get the camera position.
+     *
+     * @return Position
+     */
+    public Vector3f getPosition() {
+        return position;
+    }
+
+    /**
+     * Get the approximate on-screen size of an object.
+     *
+     * @param worldSize Size of the object in game units
+     * @param distance Distance from the camera
+     * @return Size in pixels
+     */
+    public float getScreenSize(float worldSize, float distance) {
+        float viewHeight = 2.0f * Math.max(distance, nearPlane) * (float) Math.tan(Math.toRadians(fov) / 2);
+        return worldSize / viewHeight * viewportHeight;
+    }
+
+    /**
+     * Get the vertical field of view.
+     *
+     * @return Field of view in degrees
+     */
+    public float getFov() {
+        return fov;
+    }
+
+    /**
+     * Get the viewport aspect ratio.
+     *
+     * @return Width over height
+     */
+    public float getAspectRatio() {
+        return aspectRatio;
+    }
+
+    /**
+     * Get the viewport height.
+     *
+     * @return Height in pixels
+     */
+    public int getViewportHeight() {
+        return viewportHeight;
+    }
+
+    /**
+     * Get the near clipping distance.
+     *
+     * @return Near plane distance
+     */
+    public float getNearPlane() {
+        return nearPlane;
+    }
+
+    /**
+     * Get the far clipping distance.
+     *
+     * @return Far plane distance
+     */
+    public float getFarPlane() {
+        return farPlane;
+    }
+}
@@ -0,0 +1,631 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.GL_R32UI;
+import static org.lwjgl.opengl.GL30.GL_RG32UI;
+import static org.lwjgl.opengl.GL30.GL_RGBA32F;
+import static org.lwjgl.opengl.GL30.glBindBufferBase;
+import static org.lwjgl.opengl.GL31.*;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Point lights culled into a view-space cluster grid for forward shading.
+ *
+ * Lights are added every frame, e.g. from neon signs, muzzle flashes and
+ * impacts. update() divides the view into TILES_X by TILES_Y screen tiles and
+ * SLICES depth slices spaced logarithmically, finds the clusters each light's
+ * sphere overlaps and builds, for every cluster, the list of its lights. The
+ * lists are built in parallel by depth slice on worker threads and uploaded
+ * to texture buffers. A receiver shades a fragment with only the lights of
+ * its cluster, so its cost follows the lights nearby rather than the number
+ * of lights in the city.
+ *
+ * Receivers include LIGHT_FUNCTIONS in their fragment shader, are attached
+ * once with attach() and call getClusteredLight() where the uniform
+ * receiveLights is set.
+ */
+public class ClusteredLights {
+
+    // Cluster grid
+    static final int TILES_X = 16;
+    static final int TILES_Y = 9;
+    static final int SLICES = 24;
+    private static final int CLUSTERS = TILES_X * TILES_Y * SLICES;
+
+    // Depth of the first slice's far side; nearer fragments use slice 0
+    private static final float CLUSTER_NEAR = 1.0f;
+
+    // Limits
+    private static final int MAX_LIGHTS = 1024;
+    static final int MAX_LIGHTS_PER_CLUSTER = 64;
+    private static final int MAX_INDICES = 65536;
+
+    // Light layout: position (3) + radius (1), color (3) + unused (1)
+    private static final int LIGHT_FLOATS = 8;
+
+    // Texture units and uniform buffer binding shared by all receivers
+    private static final int CELL_UNIT = 8;
+    private static final int INDEX_UNIT = 9;
+    private static final int LIGHT_UNIT = 10;
+    private static final int BLOCK_BINDING = 2;
+    private static final int BLOCK_FLOATS = 12;
+
+    /**
+     * Clustered light lookup for receiver fragment shaders.
+     * getSurfaceNormal() must be called outside of branches, since it takes
+     * screen-space derivatives; getClusteredLight() returns the diffuse light
+     * reaching a surface, to be multiplied by its colour.
+     */
+    public static final String LIGHT_FUNCTIONS = """
+        layout(std140) uniform LightData {
+            vec4 clusterGrid; // tiles across, tiles up, depth slices, light count
+            vec4 clusterDepth; // near depth, slices per log unit, tile width, tile height
+            vec4 clusterEye; // camera position
+        };
+        uniform usamplerBuffer clusterCells; // first index and count per cluster
+        uniform usamplerBuffer clusterIndices;
+        uniform samplerBuffer clusterLights; // position and radius, colour
+
+        vec3 getSurfaceNormal(vec3 worldPosition) {
+            vec3 normal = normalize(cross(dFdx(worldPosition), dFdy(worldPosition)));
+            return dot(normal, clusterEye.xyz - worldPosition) < 0.0 ? -normal : normal;
+        }
+
+        vec3 getClusteredLight(vec3 worldPosition, vec3 normal, float viewDepth) {
+            ivec3 grid = ivec3(clusterGrid.xyz);
+            ivec2 tile = clamp(ivec2(gl_FragCoord.xy / clusterDepth.zw), ivec2(0), grid.xy - 1);
+            int slice = int(log(max(viewDepth, clusterDepth.x) / clusterDepth.x) * clusterDepth.y);
+            slice = clamp(slice, 0, grid.z - 1);
+            uvec2 cell = texelFetch(clusterCells, (slice * grid.y + tile.y) * grid.x + tile.x).xy;
+
+            vec3 light = vec3(0.0);
+            for (uint i = 0u; i < cell.y; i++) {
+                int index = int(texelFetch(clusterIndices, int(cell.x + i)).x);
+                vec4 positionRadius = texelFetch(clusterLights, index * 2);
+                vec3 toLight = positionRadius.xyz - worldPosition;
+                float lightDistance = length(toLight);
+                float falloff = clamp(1.0 - lightDistance / positionRadius.w, 0.0, 1.0);
+                float diffuse = max(dot(normal, toLight / max(lightDistance, 0.0001)), 0.0);
+                light += texelFetch(clusterLights, index * 2 + 1).rgb * (falloff * falloff * diffuse);
+            }
+            return light;
+        }
+        """;
+
+    // Lights of the frame
+    private final float[] lights;
+    private int lightCount;
+
+    // Cluster range of each light: first and last tile across, tile up and
+    // slice; lights out of view get an empty slice range
+    private final int[] ranges;
+
+    // Per-cluster lists
+    private final int[] cellCounts;
+    private final int[] cellOffsets;
+    private final int[] cellWritten;
+    private final int[] indices;
+    private int indexCount;
+    private int maxClusterLights;
+
+    // Workers, one task per band of slices for each phase
+    private final ExecutorService workers;
+    private final List<Callable<Void>> countTasks;
+    private final List<Callable<Void>> fillTasks;
+
+    // GPU objects, created on the first update
+    private int cellBuffer;
+    private int indexBuffer;
+    private int lightBuffer;
+    private int cellTexture;
+    private int indexTexture;
+    private int lightTexture;
+    private int uniformBuffer;
+    private IntBuffer cellData;
+    private IntBuffer indexData;
+    private FloatBuffer lightData;
+    private FloatBuffer blockData;
+
+    // View of the frame
+    private final Matrix4f view;
+    private final Vector3f viewPosition;
+    private float sliceScale;
+    private float farDepth;
+
+    /**
+     * Constructor. The GPU objects are created by the first update, on the
+     * render thread.
+     */
+    public ClusteredLights() {
+        lights = new float[MAX_LIGHTS * LIGHT_FLOATS];
+        ranges = new int[MAX_LIGHTS * 6];
+        cellCounts = new int[CLUSTERS];
+        cellOffsets = new int[CLUSTERS];
+        cellWritten = new int[CLUSTERS];
+        indices = new int[MAX_INDICES];
+        view = new Matrix4f();
+        viewPosition = new Vector3f();
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        countTasks = new ArrayList<>();
+        fillTasks = new ArrayList<>();
+        int bandSlices = (SLICES + threads - 1) / threads;
+        for (int slice = 0; slice < SLICES; slice += bandSlices) {
+            int minSlice = slice;
+            int maxSlice = Math.min(SLICES, slice + bandSlices);
+            countTasks.add(() -> {
+                countBand(minSlice, maxSlice);
+                return null;
+            });
+            fillTasks.add(() -> {
+                fillBand(minSlice, maxSlice);
+                return null;
+            });
+        }
+        workers = threads > 1 ? Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "light-clusters");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Create the buffers the lists are uploaded to and bind the uniform block.
+     */
+    private void createGpuObjects() {
+        cellData = MemoryUtil.memAllocInt(CLUSTERS * 2);
+        indexData = MemoryUtil.memAllocInt(MAX_INDICES);
+        lightData = MemoryUtil.memAllocFloat(MAX_LIGHTS * LIGHT_FLOATS);
+        blockData = MemoryUtil.memAllocFloat(BLOCK_FLOATS);
+
+        cellBuffer = createBuffer((long) CLUSTERS * 2 * Integer.BYTES);
+        indexBuffer = createBuffer((long) MAX_INDICES * Integer.BYTES);
+        lightBuffer = createBuffer((long) MAX_LIGHTS * LIGHT_FLOATS * Float.BYTES);
+        cellTexture = createBufferTexture(cellBuffer, GL_RG32UI);
+        indexTexture = createBufferTexture(indexBuffer, GL_R32UI);
+        lightTexture = createBufferTexture(lightBuffer, GL_RGBA32F);
+
+        uniformBuffer = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, uniformBuffer);
+        glBufferData(GL_UNIFORM_BUFFER, (long) BLOCK_FLOATS * Float.BYTES, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, BLOCK_BINDING, uniformBuffer);
+    }
+
+    /**
+     * Create a buffer for a texture buffer.
+     *
+     * @param bytes Size in bytes
+     * @return Buffer ID
+     */
+    private static int createBuffer(long bytes) {
+        int buffer = glGenBuffers();
+        glBindBuffer(GL_TEXTURE_BUFFER, buffer);
+        glBufferData(GL_TEXTURE_BUFFER, bytes, GL_STREAM_DRAW);
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+        return buffer;
+    }
+
+    /**
+     * Create a texture reading a buffer.
+     *
+     * @param buffer Buffer ID
+     * @param format Texel format
+     * @return Texture ID
+     */
+    private static int createBufferTexture(int buffer, int format) {
+        int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_BUFFER, texture);
+        glTexBuffer(GL_TEXTURE_BUFFER, format, buffer);
+        glBindTexture(GL_TEXTURE_BUFFER, 0);
+        return texture;
+    }
+
+    /**
+     * Connect a receiver program to the light data. Call once after the
+     * program is linked.
+     *
+     * @param program Program whose fragment shader includes LIGHT_FUNCTIONS
+     */
+    public static void attach(ShaderProgram program) {
+        int index = glGetUniformBlockIndex(program.getProgramId(), "LightData");
+        if (index != GL_INVALID_INDEX) {
+            glUniformBlockBinding(program.getProgramId(), index, BLOCK_BINDING);
+        }
+        program.bind();
+        program.setUniform("clusterCells", CELL_UNIT);
+        program.setUniform("clusterIndices", INDEX_UNIT);
+        program.setUniform("clusterLights", LIGHT_UNIT);
+        program.unbind();
+    }
+
+    /**
+     * Remove all lights, to add the next frame's.
+     */
+    public void clear() {
+        lightCount = 0;
+    }
+
+    /**
+     * Add a point light for this frame. Lights past MAX_LIGHTS are dropped.
+     *
+     * @param x X position
+     * @param y Y position
+     * @param z Z position
+     * @param radius Distance at which the light fades out
+     * @param r Red intensity
+     * @param g Green intensity
+     * @param b Blue intensity
+     */
+    public void addLight(float x, float y, float z, float radius, float r, float g, float b) {
+        if (lightCount == MAX_LIGHTS) {
+            return;
+        }
+
+        int o = lightCount * LIGHT_FLOATS;
+        lights[o] = x;
+        lights[o + 1] = y;
+        lights[o + 2] = z;
+        lights[o + 3] = radius;
+        lights[o + 4] = r;
+        lights[o + 5] = g;
+        lights[o + 6] = b;
+        lights[o + 7] = 0.0f;
+        lightCount++;
+    }
+
+    /**
+     * Assign the frame's lights to clusters and upload them. Must be called
+     * on the render thread, after the lights are added and before receivers
+     * draw.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    public void update(Camera camera) {
+        assign(camera);
+        upload(camera);
+    }
+
+    /**
+     * Build the per-cluster light lists on the CPU.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    void assign(Camera camera) {
+        view.set(camera.getViewMatrix());
+        farDepth = Math.max(CLUSTER_NEAR * 2.0f, camera.getFarPlane());
+        sliceScale = SLICES / (float) Math.log(farDepth / CLUSTER_NEAR);
+        float tanVertical = (float) Math.tan(Math.toRadians(camera.getFov()) / 2);
+        float tanHorizontal = tanVertical * camera.getAspectRatio();
+        float nearPlane = camera.getNearPlane();
+        for (int i = 0; i < lightCount; i++) {
+            findRange(i, nearPlane, tanHorizontal, tanVertical);
+        }
+
+        Arrays.fill(cellCounts, 0);
+        runBands(countTasks);
+
+        // Lists follow each other in cluster order, until the index space
+        // runs out
+        int offset = 0;
+        maxClusterLights = 0;
+        for (int cell = 0; cell < CLUSTERS; cell++) {
+            int count = Math.min(cellCounts[cell], MAX_INDICES - offset);
+            cellOffsets[cell] = offset;
+            cellCounts[cell] = count;
+            offset += count;
+            maxClusterLights = Math.max(maxClusterLights, count);
+        }
+        indexCount = offset;
+
+        runBands(fillTasks);
+    }
+
+    /**
+     * Find the clusters a light's sphere may touch. The screen bounds use the
+     * nearest or farthest depth of the sphere, whichever widens them.
+     *
+     * @param light Light index
+     * @param nearPlane Camera near plane
+     * @param tanHorizontal Tangent of half the horizontal field of view
+     * @param tanVertical Tangent of half the vertical field of view
+     */
+    private void findRange(int light, float nearPlane, float tanHorizontal, float tanVertical) {
+        int o = light * LIGHT_FLOATS;
+        float radius = lights[o + 3];
+        view.transformPosition(lights[o], lights[o + 1], lights[o + 2], viewPosition);
+        float depth = -viewPosition.z;
+
+        int r = light * 6;
+        if (depth + radius < nearPlane || depth - radius > farDepth) {
+            ranges[r + 4] = 0;
+            ranges[r + 5] = -1;
+            return;
+        }
+
+        float nearDepth = Math.max(nearPlane, depth - radius);
+        float farSide = depth + radius;
+        float minX = getBound(viewPosition.x - radius, nearDepth, farSide, false) / tanHorizontal;
+        float maxX = getBound(viewPosition.x + radius, nearDepth, farSide, true) / tanHorizontal;
+        float minY = getBound(viewPosition.y - radius, nearDepth, farSide, false) / tanVertical;
+        float maxY = getBound(viewPosition.y + radius, nearDepth, farSide, true) / tanVertical;
+        if (minX > 1.0f || maxX < -1.0f || minY > 1.0f || maxY < -1.0f) {
+            ranges[r + 4] = 0;
+            ranges[r + 5] = -1;
+            return;
+        }
+
+        ranges[r] = getTile(minX, TILES_X);
+        ranges[r + 1] = getTile(maxX, TILES_X);
+        ranges[r + 2] = getTile(minY, TILES_Y);
+        ranges[r + 3] = getTile(maxY, TILES_Y);
+        ranges[r + 4] = getSlice(nearDepth);
+        ranges[r + 5] = getSlice(Math.min(farSide, farDepth));
+    }
+
+    /**
+     * Get a screen bound of a sphere, as a view-space offset over depth.
+     *
+     * @param offset View-space X or Y of the sphere's side
+     * @param nearDepth Nearest depth of the sphere
+     * @param farSide Farthest depth of the sphere
+     * @param upper Whether this is the upper bound
+     * @return Offset over depth
+     */
+    private static float getBound(float offset, float nearDepth, float farSide, boolean upper) {
+        // The side is widest at the near depth when it points away from the
+        // view axis, and at the far depth when it points towards it
+        boolean outward = upper ? offset > 0.0f : offset < 0.0f;
+        return offset / (outward ? nearDepth : farSide);
+    }
+
+    /**
+     * Get the tile containing a normalized device coordinate.
+     *
+     * @param ndc Coordinate from -1 to 1
+     * @param tiles Tile count along the axis
+     * @return Tile index
+     */
+    private static int getTile(float ndc, int tiles) {
+        int tile = (int) Math.floor((ndc * 0.5f + 0.5f) * tiles);
+        return Math.max(0, Math.min(tiles - 1, tile));
+    }
+
+    /**
+     * Get the slice containing a view depth, as the shader computes it.
+     *
+     * @param depth View depth
+     * @return Slice index
+     */
+    private int getSlice(float depth) {
+        int slice = (int) (Math.log(Math.max(depth, CLUSTER_NEAR) / CLUSTER_NEAR) * sliceScale);
+        return Math.max(0, Math.min(SLICES - 1, slice));
+    }
+
+    /**
+     * Count the lights of each cluster in a band of slices.
+     *
+     * @param minSlice First slice
+     * @param maxSlice Slice after the last
+     */
+    private void countBand(int minSlice, int maxSlice) {
+        for (int light = 0; light < lightCount; light++) {
+            int r = light * 6;
+            int firstSlice = Math.max(minSlice, ranges[r + 4]);
+            int lastSlice = Math.min(maxSlice - 1, ranges[r + 5]);
+            for (int slice = firstSlice; slice <= lastSlice; slice++) {
+                for (int y = ranges[r + 2]; y <= ranges[r + 3]; y++) {
+                    int row = (slice * TILES_Y + y) * TILES_X;
+                    for (int x = ranges[r]; x <= ranges[r + 1]; x++) {
+                        if (cellCounts[row + x] < MAX_LIGHTS_PER_CLUSTER) {
+                            cellCounts[row + x]++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the light indices of each cluster in a band of slices, in light
+     * order.
+     *
+     * @param minSlice First slice
+     * @param maxSlice Slice after the last
+     */
+    private void fillBand(int minSlice, int maxSlice) {
+        Arrays.fill(cellWritten, minSlice * TILES_Y * TILES_X, maxSlice * TILES_Y * TILES_X, 0);
+        for (int light = 0; light < lightCount; light++) {
+            int r = light * 6;
+            int firstSlice = Math.max(minSlice, ranges[r + 4]);
+            int lastSlice = Math.min(maxSlice - 1, ranges[r + 5]);
+            for (int slice = firstSlice; slice <= lastSlice; slice++) {
+                for (int y = ranges[r + 2]; y <= ranges[r + 3]; y++) {
+                    int row = (slice * TILES_Y + y) * TILES_X;
+                    for (int x = ranges[r]; x <= ranges[r + 1]; x++) {
+                        int cell = row + x;
+                        int n = cellWritten[cell];
+                        if (n < cellCounts[cell]) {
+                            indices[cellOffsets[cell] + n] = light;
+                            cellWritten[cell] = n + 1;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Run one task per band of slices, on the workers when there are any.
+     *
+     * @param tasks Tasks to run
+     */
+    private void runBands(List<Callable<Void>> tasks) {
+        if (workers == null) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+            return;
+        }
+
+        try {
+            for (Future<Void> band : workers.invokeAll(tasks)) {
+                band.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Upload the lists, the lights and the grid parameters, and bind them
+     * for the receivers.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    private void upload(Camera camera) {
+        if (uniformBuffer == 0) {
+            createGpuObjects();
+        }
+
+        cellData.clear();
+        for (int cell = 0; cell < CLUSTERS; cell++) {
+            cellData.put(cellOffsets[cell]).put(cellCounts[cell]);
+        }
+        cellData.flip();
+        indexData.clear();
+        indexData.put(indices, 0, indexCount).flip();
+        lightData.clear();
+        lightData.put(lights, 0, lightCount * LIGHT_FLOATS).flip();
+
+        glBindBuffer(GL_TEXTURE_BUFFER, cellBuffer);
+        glBufferSubData(GL_TEXTURE_BUFFER, 0, cellData);
+        if (indexCount > 0) {
+            glBindBuffer(GL_TEXTURE_BUFFER, indexBuffer);
+            glBufferSubData(GL_TEXTURE_BUFFER, 0, indexData);
+            glBindBuffer(GL_TEXTURE_BUFFER, lightBuffer);
+            glBufferSubData(GL_TEXTURE_BUFFER, 0, lightData);
+        }
+        glBindBuffer(GL_TEXTURE_BUFFER, 0);
+
+        float viewportHeight = camera.getViewportHeight();
+        float viewportWidth = viewportHeight * camera.getAspectRatio();
+        Vector3f eye = camera.getPosition();
+        blockData.clear();
+        blockData.put(TILES_X).put(TILES_Y).put(SLICES).put(lightCount);
+        blockData.put(CLUSTER_NEAR).put(sliceScale).put(viewportWidth / TILES_X).put(viewportHeight / TILES_Y);
+        blockData.put(eye.x).put(eye.y).put(eye.z).put(0.0f);
+        blockData.flip();
+        glBindBuffer(GL_UNIFORM_BUFFER, uniformBuffer);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, blockData);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+
+        bindTexture(CELL_UNIT, cellTexture);
+        bindTexture(INDEX_UNIT, indexTexture);
+        bindTexture(LIGHT_UNIT, lightTexture);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    /**
+     * Bind a buffer texture to a texture unit.
+     *
+     * @param unit Texture unit
+     * @param texture Texture ID
+     */
+    private static void bindTexture(int unit, int texture) {
+        glActiveTexture(GL_TEXTURE0 + unit);
+        glBindTexture(GL_TEXTURE_BUFFER, texture);
+    }
+
+    /**
+     * Get the number of lights added this frame.
+     *
+     * @return Light count
+     */
+    public int getLightCount() {
+        return lightCount;
+    }
+
+    /**
+     * Get the number of lights in a cluster at the last update.
+     *
+     * @param tileX Screen tile across, from the left
+     * @param tileY Screen tile up, from the bottom
+     * @param slice Depth slice
+     * @return Light count
+     */
+    int getClusterLightCount(int tileX, int tileY, int slice) {
+        return cellCounts[(slice * TILES_Y + tileY) * TILES_X + tileX];
+    }
+
+    /**
+     * Get a light of a cluster at the last update, in the order the lights
+     * were added.
+     *
+     * @param tileX Screen tile across, from the left
+     * @param tileY Screen tile up, from the bottom
+     * @param slice Depth slice
+     * @param i Position in the cluster's list
+     * @return Light index, in the order the lights were added
+     */
+    int getClusterLight(int tileX, int tileY, int slice, int i) {
+        return indices[cellOffsets[(slice * TILES_Y + tileY) * TILES_X + tileX] + i];
+    }
+
+    /**
+     * Get the largest number of lights in one cluster at the last update,
+     * the most any fragment was shaded with.
+     *
+     * @return Light count
+     */
+    public int getMaxClusterLights() {
+        return maxClusterLights;
+    }
+
+    /**
+     * Delete the GPU objects and stop the workers. Must be called on the
+     * render thread.
+     */
+    public void cleanup() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+        if (uniformBuffer == 0) {
+            return;
+        }
+        glDeleteTextures(cellTexture);
+        glDeleteTextures(indexTexture);
+        glDeleteTextures(lightTexture);
+        glDeleteBuffers(cellBuffer);
+        glDeleteBuffers(indexBuffer);
+        glDeleteBuffers(lightBuffer);
+        glDeleteBuffers(uniformBuffer);
+        MemoryUtil.memFree(cellData);
+        MemoryUtil.memFree(indexData);
+        MemoryUtil.memFree(lightData);
+        MemoryUtil.memFree(blockData);
+    }
+}
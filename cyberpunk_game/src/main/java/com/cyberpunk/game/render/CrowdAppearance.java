@@ -0,0 +1,304 @@
+package com.cyberpunk.game.render;
+
+import java.util.Random;
+
+/**
+ * Appearance of a crowd member, packed for the CrowdRenderer.
+ *
+ * Colours are stored as indices into a fixed 256 colour palette with 3 bits
+ * of red, 3 of green and 2 of blue, so all colours of a character fit in a
+ * few bytes of instance data and the shader decodes them without a lookup
+ * table. Which clothing parts are worn is a bit mask, and cybernetics are
+ * flags that change how the arms, eyes and face are drawn. The packed words
+ * are kept up to date by the setters, so adding a character to the crowd
+ * each frame only copies them.
+ */
+public class CrowdAppearance {
+
+    // Body types, each with its own body meshes
+    public static final int BODY_SLIM = 0;
+    public static final int BODY_AVERAGE = 1;
+    public static final int BODY_ATHLETIC = 2;
+    public static final int BODY_HEAVY = 3;
+    public static final int BODY_TYPES = 4;
+
+    // Builds of each body type: broad shoulders, or narrower shoulders and
+    // wider hips
+    public static final int BUILD_BROAD = 0;
+    public static final int BUILD_NARROW = 1;
+    public static final int BUILDS = 2;
+
+    // Coloured parts; skin and eyes are always shown, the rest only when worn
+    public static final int PART_SKIN = 0;
+    public static final int PART_HAIR = 1;
+    public static final int PART_EYES = 2;
+    public static final int PART_SHIRT = 3;
+    public static final int PART_PANTS = 4;
+    public static final int PART_SHOES = 5;
+    public static final int PART_JACKET = 6;
+    public static final int PART_HAT = 7;
+    public static final int PART_GLASSES = 8;
+    public static final int PARTS = 9;
+
+    // Cybernetic flags
+    public static final int CYBER_ARMS = 1;
+    public static final int CYBER_EYES = 2;
+    public static final int CYBER_FACE = 4;
+
+    // Height range, in multiples of the body mesh height
+    private static final float MIN_HEIGHT = 0.85f;
+    private static final float MAX_HEIGHT = 1.15f;
+
+    // Body mesh
+    private int bodyType;
+    private int build;
+
+    // Palette index per part, parts worn and cybernetics
+    private final int[] colors;
+    private int wornMask;
+    private int cybernetics;
+    private int height;
+
+    // Packed instance words: palette indices of parts 0-3, of parts 4-7,
+    // and the glasses index, worn mask, cybernetics and height
+    private final int[] packed;
+
+    /**
+     * Constructor. Starts as an average build with hair and no clothing.
+     */
+    public CrowdAppearance() {
+        colors = new int[PARTS];
+        packed = new int[3];
+        bodyType = BODY_AVERAGE;
+        build = BUILD_BROAD;
+        height = 127;
+        wornMask = getPartBit(PART_HAIR) | getPartBit(PART_EYES);
+        pack();
+    }
+
+    /**
+     * Give the appearance a random body, colours and clothing. Shirt, pants
+     * and shoes are always worn, the other clothing half of the time.
+     *
+     * @param random Random generator
+     * @param cyberneticChance Chance of having a cybernetic (0.0 to 1.0)
+     */
+    public void randomize(Random random, float cyberneticChance) {
+        bodyType = random.nextInt(BODY_TYPES);
+        build = random.nextInt(BUILDS);
+        height = random.nextInt(256);
+
+        // Skin from pale to dark brown, anything else from the whole palette
+        float shade = random.nextFloat();
+        colors[PART_SKIN] = getPaletteIndex(lerpColor(0xF2D0B0, 0x5A3A22, shade));
+        for (int part = PART_HAIR; part < PARTS; part++) {
+            colors[part] = random.nextInt(256);
+        }
+
+        wornMask = getPartBit(PART_EYES) | getPartBit(PART_SHIRT) | getPartBit(PART_PANTS) | getPartBit(PART_SHOES);
+        if (random.nextFloat() < 0.9f) {
+            wornMask |= getPartBit(PART_HAIR);
+        }
+        if (random.nextBoolean()) {
+            wornMask |= getPartBit(PART_JACKET);
+        }
+        if (random.nextBoolean()) {
+            wornMask |= getPartBit(PART_HAT);
+        }
+        if (random.nextBoolean()) {
+            wornMask |= getPartBit(PART_GLASSES);
+        }
+
+        cybernetics = 0;
+        if (random.nextFloat() < cyberneticChance) {
+            cybernetics = 1 << random.nextInt(3);
+        }
+        pack();
+    }
+
+    /**
+     * Set the body mesh.
+     *
+     * @param bodyType Body type, BODY_SLIM to BODY_HEAVY
+     * @param build BUILD_BROAD or BUILD_NARROW
+     */
+    public void setBody(int bodyType, int build) {
+        this.bodyType = Math.floorMod(bodyType, BODY_TYPES);
+        this.build = Math.floorMod(build, BUILDS);
+    }
+
+    /**
+     * Set the height.
+     *
+     * @param scale Height in multiples of the body mesh height, clamped to 0.85-1.15
+     */
+    public void setHeight(float scale) {
+        float t = (scale - MIN_HEIGHT) / (MAX_HEIGHT - MIN_HEIGHT);
+        height = Math.round(Math.max(0.0f, Math.min(1.0f, t)) * 255);
+        pack();
+    }
+
+    /**
+     * Set the colour of a part.
+     *
+     * @param part Part, PART_SKIN to PART_GLASSES
+     * @param rgb Colour as 0xRRGGBB, rounded to the palette
+     */
+    public void setColor(int part, int rgb) {
+        colors[part] = getPaletteIndex(rgb);
+        pack();
+    }
+
+    /**
+     * Set whether a part is worn. Skin is always shown.
+     *
+     * @param part Part, PART_HAIR to PART_GLASSES
+     * @param worn Whether it is shown
+     */
+    public void setWorn(int part, boolean worn) {
+        if (worn) {
+            wornMask |= getPartBit(part);
+        } else {
+            wornMask &= ~getPartBit(part);
+        }
+        pack();
+    }
+
+    /**
+     * Wear a part in a colour.
+     *
+     * @param part Part, PART_HAIR to PART_GLASSES
+     * @param rgb Colour as 0xRRGGBB, rounded to the palette
+     */
+    public void wear(int part, int rgb) {
+        colors[part] = getPaletteIndex(rgb);
+        wornMask |= getPartBit(part);
+        pack();
+    }
+
+    /**
+     * Add a cybernetic.
+     *
+     * @param flag CYBER_ARMS, CYBER_EYES or CYBER_FACE
+     */
+    public void addCybernetic(int flag) {
+        cybernetics |= flag;
+        pack();
+    }
+
+    /**
+     * Update the packed instance words.
+     */
+    private void pack() {
+        packed[0] = colors[PART_SKIN] | colors[PART_HAIR] << 8 | colors[PART_EYES] << 16 | colors[PART_SHIRT] << 24;
+        packed[1] = colors[PART_PANTS] | colors[PART_SHOES] << 8 | colors[PART_JACKET] << 16 | colors[PART_HAT] << 24;
+        packed[2] = colors[PART_GLASSES] | wornMask << 8 | cybernetics << 16 | height << 24;
+    }
+
+    /**
+     * Get the bit of a part in the worn mask. Skin has none.
+     *
+     * @param part Part, PART_HAIR to PART_GLASSES
+     * @return Bit
+     */
+    private static int getPartBit(int part) {
+        return part > PART_SKIN ? 1 << (part - 1) : 0;
+    }
+
+    /**
+     * Get the palette index nearest to a colour.
+     *
+     * @param rgb Colour as 0xRRGGBB
+     * @return Palette index: red in the top 3 bits, green in the next 3, blue in the low 2
+     */
+    public static int getPaletteIndex(int rgb) {
+        int r = (((rgb >> 16) & 0xFF) * 7 + 127) / 255;
+        int g = (((rgb >> 8) & 0xFF) * 7 + 127) / 255;
+        int b = ((rgb & 0xFF) * 3 + 127) / 255;
+        return r << 5 | g << 2 | b;
+    }
+
+    /**
+     * Interpolate between two colours.
+     *
+     * @param from Colour at 0 as 0xRRGGBB
+     * @param to Colour at 1 as 0xRRGGBB
+     * @param t Position between them
+     * @return Colour as 0xRRGGBB
+     */
+    private static int lerpColor(int from, int to, float t) {
+        int color = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int a = (from >> shift) & 0xFF;
+            int b = (to >> shift) & 0xFF;
+            color |= Math.round(a + (b - a) * t) << shift;
+        }
+        return color;
+    }
+
+    /**
+     * Get the index of the body mesh among all body types and builds.
+     *
+     * @return Body mesh index
+     */
+    int getBodyMesh() {
+        return bodyType * BUILDS + build;
+    }
+
+    /**
+     * Get a packed instance word.
+     *
+     * @param word Word index, 0 to 2
+     * @return Packed word
+     */
+    int getPacked(int word) {
+        return packed[word];
+    }
+
+    /**
+     * Get the body type.
+     *
+     * @return Body type
+     */
+    public int getBodyType() {
+        return bodyType;
+    }
+
+    /**
+     * Get the build.
+     *
+     * @return Build
+     */
+    public int getBuild() {
+        return build;
+    }
+
+    /**
+     * Get the palette index of a part's colour.
+     *
+     * @param part Part
+     * @return Palette index
+     */
+    public int getColor(int part) {
+        return colors[part];
+    }
+
+    /**
+     * Whether a part is shown.
+     *
+     * @param part Part
+     * @return true if worn, or always for skin
+     */
+    public boolean isWorn(int part) {
+        return part == PART_SKIN || (wornMask & getPartBit(part)) != 0;
+    }
+
+    /**
+     * Get the cybernetic flags.
+     *
+     * @return Cybernetics
+     */
+    public int getCybernetics() {
+        return cybernetics;
+    }
+}
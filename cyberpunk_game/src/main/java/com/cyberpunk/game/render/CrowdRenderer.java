@@ -0,0 +1,741 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glVertexAttribIPointer;
+import static org.lwjgl.opengl.GL31.glDrawElementsInstanced;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.joml.FrustumIntersection;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Draws crowds of characters with hardware instancing.
+ *
+ * Every body type and build of CrowdAppearance has a shared body mesh at two
+ * levels of detail, built from boxes once. Each vertex of a body mesh knows
+ * the part it belongs to; each character is an instance with its position,
+ * heading and the packed words of its appearance, from which the vertex
+ * shader picks the part's palette colour, drops clothing that is not worn
+ * and applies cybernetics. Characters are culled against the view frustum
+ * and the crowd distance on the CPU, sorted by mesh, streamed into a
+ * StreamingBuffer and drawn with one instanced call per mesh in use.
+ *
+ * Characters are added every frame between clear() and render(), so they
+ * can move freely. Like the buildings, they receive the shadows of a
+ * ShadowCascades and the lights of a ClusteredLights when those are set.
+ * They also cast shadows: prepareShadowCasters() streams every character
+ * within the crowd distance, in view or not, into a buffer of its own, and
+ * renderShadowCasters() draws them at the far level of detail as the
+ * cascades' dynamic casters.
+ */
+public class CrowdRenderer {
+
+    // Vertex layout: position (3) + normal (3) + part (1)
+    private static final int VERTEX_FLOATS = 7;
+
+    // Instance layout: position (3) + heading (1) as floats, then the three
+    // packed appearance words
+    private static final int INSTANCE_BYTES = 4 * Float.BYTES + 3 * Integer.BYTES;
+
+    // Vertex attribute locations
+    private static final int ATTRIBUTE_POSITION = 0;
+    private static final int ATTRIBUTE_NORMAL = 1;
+    private static final int ATTRIBUTE_PART = 2;
+    private static final int ATTRIBUTE_INSTANCE_TRANSFORM = 3;
+    private static final int ATTRIBUTE_INSTANCE_APPEARANCE = 4;
+
+    // Parts of the meshes past those of CrowdAppearance: forearms and hands
+    // in the skin colour, the torso of the far level in the jacket or shirt
+    // colour, and the face plate of facial cybernetics
+    private static final int PART_ARMS = CrowdAppearance.PARTS;
+    private static final int PART_TORSO = CrowdAppearance.PARTS + 1;
+    private static final int PART_PLATE = CrowdAppearance.PARTS + 2;
+
+    // Levels of detail
+    private static final int LOD_FULL = 0;
+    private static final int LOD_FAR = 1;
+    private static final int LODS = 2;
+    private static final int BODY_MESHES = CrowdAppearance.BODY_TYPES * CrowdAppearance.BUILDS;
+    private static final int MESHES = BODY_MESHES * LODS;
+
+    // Distances at model detail 1.0: characters beyond DETAIL_DISTANCE use
+    // the far level, beyond CROWD_DISTANCE they are not drawn
+    private static final float DETAIL_DISTANCE = 30.0f;
+    private static final float CROWD_DISTANCE = 150.0f;
+
+    // Bounding sphere of a character above its feet, at the tallest height
+    private static final float BOUNDS_CENTER_Y = 1.0f;
+    private static final float BOUNDS_RADIUS = 1.2f;
+
+    // Characters streamed per frame; visible characters past this are dropped
+    private static final int MAX_INSTANCES = 16384;
+
+    // Shoulder width, torso depth and limb thickness per body type
+    private static final float[][] BODY_SCALES = {
+        {0.88f, 0.85f, 0.85f}, // Slim
+        {1.0f, 1.0f, 1.0f}, // Average
+        {1.15f, 1.05f, 1.15f}, // Athletic
+        {1.2f, 1.45f, 1.25f} // Heavy
+    };
+
+    // Shoulder width and leg spacing per build
+    private static final float[][] BUILD_SCALES = {
+        {0.44f, 0.1f}, // Broad
+        {0.38f, 0.115f} // Narrow
+    };
+
+    private static final String VERTEX_SHADER = """
+        #version 330 compatibility
+
+        const int PART_SKIN = 0;
+        const int PART_EYES = 2;
+        const int PART_SHIRT = 3;
+        const int PART_JACKET = 6;
+        const int PART_ARMS = 9;
+        const int PART_TORSO = 10;
+        const int PART_PLATE = 11;
+
+        const uint CYBER_ARMS = 1u;
+        const uint CYBER_EYES = 2u;
+        const uint CYBER_FACE = 4u;
+
+        const vec3 CHROME = vec3(0.55, 0.6, 0.68);
+
+        layout(location = 0) in vec3 position;
+        layout(location = 1) in vec3 normal;
+        layout(location = 2) in float part;
+        layout(location = 3) in vec4 instanceTransform; // position, heading
+        layout(location = 4) in uvec3 instanceAppearance;
+
+        out vec3 fragColor;
+        out float fogDepth;
+        out vec3 shadowPosition;
+        out vec3 fragNormal;
+        flat out int emissive;
+
+        // Palette index: 3 bits of red, 3 of green and 2 of blue
+        vec3 getPaletteColor(uint index) {
+            return vec3(float(index >> 5u), float((index >> 2u) & 7u), float(index & 3u)) / vec3(7.0, 7.0, 3.0);
+        }
+
+        uint getPaletteIndex(int slot) {
+            uint word = slot < 4 ? instanceAppearance.x : (slot < 8 ? instanceAppearance.y : instanceAppearance.z);
+            return (word >> uint((slot & 3) * 8)) & 0xFFu;
+        }
+
+        void main() {
+            int vertexPart = int(part + 0.5);
+            uint worn = (instanceAppearance.z >> 8u) & 0xFFu;
+            uint cybernetics = (instanceAppearance.z >> 16u) & 0xFFu;
+
+            // Colour slot of the part; the far torso shows the outer layer
+            int slot = vertexPart;
+            if (vertexPart == PART_ARMS || vertexPart == PART_PLATE) {
+                slot = PART_SKIN;
+            } else if (vertexPart == PART_TORSO) {
+                slot = (worn & (1u << uint(PART_JACKET - 1))) != 0u ? PART_JACKET : PART_SHIRT;
+            }
+
+            // Parts not worn collapse to a point and draw nothing
+            bool shown = slot == PART_SKIN || (worn & (1u << uint(slot - 1))) != 0u;
+            if (vertexPart == PART_PLATE) {
+                shown = (cybernetics & CYBER_FACE) != 0u;
+            }
+            if (!shown) {
+                gl_Position = vec4(0.0, 0.0, 0.0, 1.0);
+                emissive = 0;
+                return;
+            }
+
+            vec3 color = getPaletteColor(getPaletteIndex(slot));
+            emissive = 0;
+            if (vertexPart == PART_PLATE || (vertexPart == PART_ARMS && (cybernetics & CYBER_ARMS) != 0u)) {
+                color = CHROME;
+            } else if (vertexPart == PART_EYES && (cybernetics & CYBER_EYES) != 0u) {
+                color = mix(color, vec3(1.0), 0.5) * 1.5;
+                emissive = 1;
+            }
+
+            // Scale to the character's height, turn to its heading and place it
+            float height = 0.85 + 0.3 * float(instanceAppearance.z >> 24u) / 255.0;
+            float s = sin(instanceTransform.w);
+            float c = cos(instanceTransform.w);
+            vec3 local = position * height;
+            vec3 turned = vec3(local.x * c + local.z * s, local.y, local.z * c - local.x * s);
+            vec4 worldPosition = vec4(instanceTransform.xyz + turned, 1.0);
+
+            gl_Position = gl_ModelViewProjectionMatrix * worldPosition;
+            fogDepth = -(gl_ModelViewMatrix * worldPosition).z;
+            shadowPosition = worldPosition.xyz;
+            fragNormal = vec3(normal.x * c + normal.z * s, normal.y, normal.z * c - normal.x * s);
+            fragColor = color;
+        }
+        """;
+
+    private static final String FRAGMENT_SHADER = """
+        #version 330 compatibility
+
+        in vec3 fragColor;
+        in float fogDepth;
+        in vec3 shadowPosition;
+        in vec3 fragNormal;
+        flat in int emissive;
+
+        uniform bool receiveShadows;
+        uniform bool receiveLights;
+
+        out vec4 outColor;
+
+        """ + ShadowCascades.SHADOW_FUNCTIONS + ClusteredLights.LIGHT_FUNCTIONS + """
+
+        void main() {
+            vec3 color = fragColor;
+
+            // Glowing cybernetic eyes are not shadowed or lit further
+            if (emissive == 0) {
+                if (receiveShadows) {
+                    color *= getShadow(shadowPosition, fogDepth);
+                }
+                if (receiveLights) {
+                    color += fragColor * getClusteredLight(shadowPosition, normalize(fragNormal), fogDepth);
+                }
+            }
+
+            // Linear distance fog from the fixed-function fog state
+            float fog = clamp((gl_Fog.end - fogDepth) * gl_Fog.scale, 0.0, 1.0);
+            outColor = vec4(mix(gl_Fog.color.rgb, color, fog), 1.0);
+        }
+        """;
+
+    // Box faces: X and Z from -0.5 to 0.5, Y from 0 to 1; normal, then
+    // corners counter-clockwise from outside, no bottom
+    private static final float[][] BOX_FACES = {
+        {0, 0, -1, -0.5f, 0, -0.5f, -0.5f, 1, -0.5f, 0.5f, 1, -0.5f, 0.5f, 0, -0.5f}, // Back
+        {0, 0, 1, -0.5f, 0, 0.5f, 0.5f, 0, 0.5f, 0.5f, 1, 0.5f, -0.5f, 1, 0.5f}, // Front
+        {-1, 0, 0, -0.5f, 0, -0.5f, -0.5f, 0, 0.5f, -0.5f, 1, 0.5f, -0.5f, 1, -0.5f}, // Left
+        {1, 0, 0, 0.5f, 0, -0.5f, 0.5f, 1, -0.5f, 0.5f, 1, 0.5f, 0.5f, 0, 0.5f}, // Right
+        {0, 1, 0, -0.5f, 1, -0.5f, -0.5f, 1, 0.5f, 0.5f, 1, 0.5f, 0.5f, 1, -0.5f} // Top
+    };
+
+    // Most boxes in a body mesh
+    private static final int MAX_BOXES = 32;
+
+    // GPU objects
+    private final PerformanceOptimizer performanceOptimizer;
+    private final ShaderProgram shader;
+    private final StreamingBuffer stream;
+    private final StreamingBuffer shadowStream;
+    private final int[] vaos;
+    private final int[] indexCounts;
+
+    // Mesh being built
+    private final float[] meshVertices;
+    private final int[] meshIndices;
+    private int meshBoxes;
+
+    // Characters of the frame: position and heading, packed appearance, body mesh
+    private float[] transforms;
+    private int[] appearances;
+    private byte[] bodyMeshes;
+    private int count;
+
+    // Culling results: visible characters and their mesh, grouped per mesh
+    private int[] visible;
+    private byte[] visibleMeshes;
+    private final int[] meshCounts;
+    private final int[] meshFirst;
+    private final int[] meshCursors;
+    private int visibleCount;
+
+    // Shadow casters: characters in range grouped per body mesh, and whether
+    // they were streamed this frame and still need a fence
+    private final int[] casterCounts;
+    private final int[] casterFirst;
+    private int casterBase;
+    private boolean castersStreamed;
+
+    // Shadows and lights received, if any
+    private ShadowCascades shadows;
+    private ClusteredLights lights;
+
+    /**
+     * Constructor. Must be called on the render thread.
+     *
+     * @param performanceOptimizer Performance optimizer that owns the buffers and model quality
+     */
+    public CrowdRenderer(PerformanceOptimizer performanceOptimizer) {
+        this.performanceOptimizer = performanceOptimizer;
+        shader = new ShaderProgram(VERTEX_SHADER, FRAGMENT_SHADER);
+        ShadowCascades.attach(shader);
+        ClusteredLights.attach(shader);
+        stream = new StreamingBuffer(INSTANCE_BYTES, MAX_INSTANCES);
+        shadowStream = new StreamingBuffer(INSTANCE_BYTES, MAX_INSTANCES);
+
+        transforms = new float[256 * 4];
+        appearances = new int[256 * 3];
+        bodyMeshes = new byte[256];
+        visible = new int[256];
+        visibleMeshes = new byte[256];
+        meshCounts = new int[MESHES];
+        meshFirst = new int[MESHES];
+        meshCursors = new int[MESHES];
+        casterCounts = new int[BODY_MESHES];
+        casterFirst = new int[BODY_MESHES];
+
+        // Body meshes for every body type and build at each level
+        meshVertices = new float[MAX_BOXES * BOX_FACES.length * 4 * VERTEX_FLOATS];
+        meshIndices = new int[MAX_BOXES * BOX_FACES.length * 6];
+        vaos = new int[MESHES];
+        indexCounts = new int[MESHES];
+        for (int bodyType = 0; bodyType < CrowdAppearance.BODY_TYPES; bodyType++) {
+            for (int build = 0; build < CrowdAppearance.BUILDS; build++) {
+                for (int level = 0; level < LODS; level++) {
+                    int mesh = getMesh(bodyType * CrowdAppearance.BUILDS + build, level);
+                    buildBody(bodyType, build, level);
+                    vaos[mesh] = uploadMesh();
+                    indexCounts[mesh] = meshBoxes * BOX_FACES.length * 6;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the mesh of a body mesh at a level of detail.
+     *
+     * @param bodyMesh Body mesh index
+     * @param level Level of detail
+     * @return Mesh index
+     */
+    private static int getMesh(int bodyMesh, int level) {
+        return level * BODY_MESHES + bodyMesh;
+    }
+
+    /**
+     * Build the boxes of a body. Characters stand on the origin facing +Z;
+     * sizes are in metres for a character of average height.
+     *
+     * @param bodyType Body type
+     * @param build Build
+     * @param level Level of detail
+     */
+    private void buildBody(int bodyType, int build, int level) {
+        meshBoxes = 0;
+        float shoulders = BUILD_SCALES[build][0] * BODY_SCALES[bodyType][0];
+        float depth = 0.22f * BODY_SCALES[bodyType][1];
+        float limb = BODY_SCALES[bodyType][2];
+        float hip = BUILD_SCALES[build][1];
+
+        if (level == LOD_FAR) {
+            // Legs, torso and head as one box each
+            addBox(0, 0, 0, hip * 2 + 0.15f * limb, 0.86f, 0.17f * limb, CrowdAppearance.PART_PANTS);
+            addBox(0, 0.86f, 0, shoulders + 0.02f, 0.64f, depth + 0.02f, PART_TORSO);
+            addBox(0, 1.5f, 0, 0.2f, 0.32f, 0.22f, CrowdAppearance.PART_SKIN);
+            return;
+        }
+
+        for (int side = -1; side <= 1; side += 2) {
+            // Legs and shoes
+            addBox(side * hip, 0.08f, 0, 0.15f * limb, 0.82f, 0.17f * limb, CrowdAppearance.PART_PANTS);
+            addBox(side * hip, 0, 0.03f, 0.15f * limb, 0.08f, 0.26f, CrowdAppearance.PART_SHOES);
+
+            // Sleeve, forearm and hand, and the jacket sleeve over them
+            float armX = side * (shoulders / 2 + 0.055f * limb);
+            addBox(armX, 1.17f, 0, 0.1f * limb, 0.33f, 0.1f * limb, CrowdAppearance.PART_SHIRT);
+            addBox(armX, 0.8f, 0, 0.085f * limb, 0.37f, 0.085f * limb, PART_ARMS);
+            addBox(armX, 0.9f, 0, 0.12f * limb, 0.62f, 0.12f * limb, CrowdAppearance.PART_JACKET);
+
+            // Eyes on the front of the head
+            addBox(side * 0.05f, 1.67f, 0.11f, 0.04f, 0.025f, 0.01f, CrowdAppearance.PART_EYES);
+        }
+
+        // Torso and the jacket around it
+        addBox(0, 0.88f, 0, shoulders, 0.62f, depth, CrowdAppearance.PART_SHIRT);
+        addBox(0, 0.84f, 0, shoulders + 0.04f, 0.68f, depth + 0.04f, CrowdAppearance.PART_JACKET);
+
+        // Neck and head, and the plate of facial cybernetics along the jaw
+        addBox(0, 1.5f, 0, 0.09f, 0.06f, 0.09f, CrowdAppearance.PART_SKIN);
+        addBox(0, 1.56f, 0, 0.2f, 0.24f, 0.22f, CrowdAppearance.PART_SKIN);
+        addBox(0.04f, 1.57f, 0.108f, 0.12f, 0.07f, 0.02f, PART_PLATE);
+
+        // Hair on top and at the back, a hat over it and glasses over the eyes
+        addBox(0, 1.74f, -0.01f, 0.22f, 0.09f, 0.24f, CrowdAppearance.PART_HAIR);
+        addBox(0, 1.6f, -0.115f, 0.22f, 0.16f, 0.03f, CrowdAppearance.PART_HAIR);
+        addBox(0, 1.78f, -0.01f, 0.24f, 0.11f, 0.26f, CrowdAppearance.PART_HAT);
+        addBox(0, 1.78f, 0.08f, 0.26f, 0.02f, 0.2f, CrowdAppearance.PART_HAT);
+        addBox(0, 1.66f, 0.12f, 0.2f, 0.045f, 0.01f, CrowdAppearance.PART_GLASSES);
+    }
+
+    /**
+     * Add a box to the mesh being built.
+     *
+     * @param x Center X position
+     * @param y Bottom Y position
+     * @param z Center Z position
+     * @param width Size along X
+     * @param height Size along Y
+     * @param depth Size along Z
+     * @param part Part the box belongs to
+     */
+    private void addBox(float x, float y, float z, float width, float height, float depth, int part) {
+        int vertex = meshBoxes * BOX_FACES.length * 4;
+        int index = meshBoxes * BOX_FACES.length * 6;
+        for (float[] face : BOX_FACES) {
+            for (int corner = 0; corner < 4; corner++) {
+                int o = (vertex + corner) * VERTEX_FLOATS;
+                meshVertices[o] = x + face[3 + corner * 3] * width;
+                meshVertices[o + 1] = y + face[4 + corner * 3] * height;
+                meshVertices[o + 2] = z + face[5 + corner * 3] * depth;
+                meshVertices[o + 3] = face[0];
+                meshVertices[o + 4] = face[1];
+                meshVertices[o + 5] = face[2];
+                meshVertices[o + 6] = part;
+            }
+            meshIndices[index++] = vertex;
+            meshIndices[index++] = vertex + 1;
+            meshIndices[index++] = vertex + 2;
+            meshIndices[index++] = vertex;
+            meshIndices[index++] = vertex + 2;
+            meshIndices[index++] = vertex + 3;
+            vertex += 4;
+        }
+        meshBoxes++;
+    }
+
+    /**
+     * Upload the mesh being built into a vertex array whose instance
+     * attributes read from the streaming buffer.
+     *
+     * @return Vertex array ID
+     */
+    private int uploadMesh() {
+        int vao = performanceOptimizer.createVAO();
+
+        int vertexCount = meshBoxes * BOX_FACES.length * 4;
+        int indexCount = meshBoxes * BOX_FACES.length * 6;
+        FloatBuffer vertices = MemoryUtil.memAllocFloat(vertexCount * VERTEX_FLOATS);
+        IntBuffer indices = MemoryUtil.memAllocInt(indexCount);
+        try {
+            vertices.put(meshVertices, 0, vertexCount * VERTEX_FLOATS).flip();
+            indices.put(meshIndices, 0, indexCount).flip();
+
+            performanceOptimizer.createVBO(vertices, GL_STATIC_DRAW);
+            int stride = VERTEX_FLOATS * Float.BYTES;
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_POSITION, 3, stride, 0);
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_NORMAL, 3, stride, 3 * Float.BYTES);
+            performanceOptimizer.setVertexAttribPointer(ATTRIBUTE_PART, 1, stride, 6 * Float.BYTES);
+
+            performanceOptimizer.createIBO(indices);
+        } finally {
+            MemoryUtil.memFree(vertices);
+            MemoryUtil.memFree(indices);
+        }
+
+        glBindBuffer(GL_ARRAY_BUFFER, stream.getBufferId());
+        setInstanceAttributes(0);
+        glEnableVertexAttribArray(ATTRIBUTE_INSTANCE_TRANSFORM);
+        glEnableVertexAttribArray(ATTRIBUTE_INSTANCE_APPEARANCE);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_TRANSFORM, 1);
+        glVertexAttribDivisor(ATTRIBUTE_INSTANCE_APPEARANCE, 1);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        performanceOptimizer.unbindVAO();
+        return vao;
+    }
+
+    /**
+     * Point the instance attributes of the bound vertex array at an
+     * instance in the streaming buffer, which must be bound.
+     *
+     * @param firstInstance Index of the first instance in the buffer
+     */
+    private static void setInstanceAttributes(int firstInstance) {
+        long offset = (long) firstInstance * INSTANCE_BYTES;
+        glVertexAttribPointer(ATTRIBUTE_INSTANCE_TRANSFORM, 4, GL_FLOAT, false, INSTANCE_BYTES, offset);
+        glVertexAttribIPointer(ATTRIBUTE_INSTANCE_APPEARANCE, 3, GL_UNSIGNED_INT, INSTANCE_BYTES,
+            offset + 4L * Float.BYTES);
+    }
+
+    /**
+     * Remove all characters, before adding those of a new frame.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    /**
+     * Add a character to the frame.
+     *
+     * @param x X position of its feet
+     * @param y Y position of its feet
+     * @param z Z position of its feet
+     * @param rotationY Heading around the Y axis in radians, 0 facing +Z
+     * @param appearance Its appearance
+     */
+    public void add(float x, float y, float z, float rotationY, CrowdAppearance appearance) {
+        if (count == bodyMeshes.length) {
+            int capacity = count * 2;
+            transforms = Arrays.copyOf(transforms, capacity * 4);
+            appearances = Arrays.copyOf(appearances, capacity * 3);
+            bodyMeshes = Arrays.copyOf(bodyMeshes, capacity);
+            visible = new int[capacity];
+            visibleMeshes = new byte[capacity];
+        }
+
+        int t = count * 4;
+        transforms[t] = x;
+        transforms[t + 1] = y;
+        transforms[t + 2] = z;
+        transforms[t + 3] = rotationY;
+        int a = count * 3;
+        appearances[a] = appearance.getPacked(0);
+        appearances[a + 1] = appearance.getPacked(1);
+        appearances[a + 2] = appearance.getPacked(2);
+        bodyMeshes[count] = (byte) appearance.getBodyMesh();
+        count++;
+    }
+
+    /**
+     * Draw the characters inside the camera's view frustum and the crowd
+     * distance, with one instanced draw per mesh. Binds its own shader.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    public void render(Camera camera) {
+        // The shadow casters were drawn before the scene
+        if (castersStreamed) {
+            shadowStream.fence();
+            castersStreamed = false;
+        }
+
+        cull(camera);
+        if (visibleCount == 0) {
+            return;
+        }
+
+        // Write the visible characters grouped by mesh
+        ByteBuffer instances = stream.begin();
+        Arrays.fill(meshCursors, 0);
+        for (int i = 0; i < visibleCount; i++) {
+            int mesh = visibleMeshes[i];
+            writeInstance(instances, meshFirst[mesh] + meshCursors[mesh]++, visible[i]);
+        }
+        int first = stream.end(visibleCount);
+
+        shader.bind();
+        shader.setUniform("receiveShadows", shadows != null && shadows.isEnabled() ? 1 : 0);
+        shader.setUniform("receiveLights", lights != null ? 1 : 0);
+        glBindBuffer(GL_ARRAY_BUFFER, stream.getBufferId());
+        for (int mesh = 0; mesh < MESHES; mesh++) {
+            if (meshCounts[mesh] == 0) {
+                continue;
+            }
+            glBindVertexArray(vaos[mesh]);
+            setInstanceAttributes(first + meshFirst[mesh]);
+            glDrawElementsInstanced(GL_TRIANGLES, indexCounts[mesh], GL_UNSIGNED_INT, 0, meshCounts[mesh]);
+            RenderStats.addDrawCall((long) indexCounts[mesh] / 3 * meshCounts[mesh]);
+        }
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        shader.unbind();
+
+        stream.fence();
+    }
+
+    /**
+     * Stream the shadow casters of the frame: every character within the
+     * crowd distance, grouped per body mesh. Characters out of view are
+     * included, since their shadows can fall into it. Must be called after
+     * the frame's characters are added and before render().
+     *
+     * @param camera Camera the frame is rendered from
+     * @return true if there are casters to draw with renderShadowCasters()
+     */
+    public boolean prepareShadowCasters(Camera camera) {
+        Vector3f eye = camera.getPosition();
+        float crowdDistance = Math.min(CROWD_DISTANCE * performanceOptimizer.getModelDetailMultiplier(), camera.getFarPlane());
+        float crowdDistanceSquared = crowdDistance * crowdDistance;
+
+        // Count the characters in range per body mesh
+        Arrays.fill(casterCounts, 0);
+        int casters = 0;
+        for (int i = 0; i < count && casters < MAX_INSTANCES; i++) {
+            int t = i * 4;
+            if (eye.distanceSquared(transforms[t], transforms[t + 1], transforms[t + 2]) <= crowdDistanceSquared) {
+                casterCounts[bodyMeshes[i]]++;
+                casters++;
+            }
+        }
+        if (casters == 0) {
+            return false;
+        }
+
+        int offset = 0;
+        for (int bodyMesh = 0; bodyMesh < BODY_MESHES; bodyMesh++) {
+            casterFirst[bodyMesh] = offset;
+            offset += casterCounts[bodyMesh];
+        }
+
+        // Write the same characters grouped per body mesh
+        ByteBuffer instances = shadowStream.begin();
+        Arrays.fill(meshCursors, 0);
+        int written = 0;
+        for (int i = 0; i < count && written < casters; i++) {
+            int t = i * 4;
+            if (eye.distanceSquared(transforms[t], transforms[t + 1], transforms[t + 2]) > crowdDistanceSquared) {
+                continue;
+            }
+            int bodyMesh = bodyMeshes[i];
+            writeInstance(instances, casterFirst[bodyMesh] + meshCursors[bodyMesh]++, i);
+            written++;
+        }
+        casterBase = shadowStream.end(casters);
+        castersStreamed = true;
+        return true;
+    }
+
+    /**
+     * Draw the shadow casters streamed by prepareShadowCasters() at the far
+     * level of detail, with the matrices that are loaded and without shading.
+     * Binds its own shader.
+     */
+    public void renderShadowCasters() {
+        shader.bind();
+        shader.setUniform("receiveShadows", 0);
+        shader.setUniform("receiveLights", 0);
+        glBindBuffer(GL_ARRAY_BUFFER, shadowStream.getBufferId());
+        for (int bodyMesh = 0; bodyMesh < BODY_MESHES; bodyMesh++) {
+            if (casterCounts[bodyMesh] == 0) {
+                continue;
+            }
+            int mesh = getMesh(bodyMesh, LOD_FAR);
+            glBindVertexArray(vaos[mesh]);
+            setInstanceAttributes(casterBase + casterFirst[bodyMesh]);
+            glDrawElementsInstanced(GL_TRIANGLES, indexCounts[mesh], GL_UNSIGNED_INT, 0, casterCounts[bodyMesh]);
+            RenderStats.addDrawCall((long) indexCounts[mesh] / 3 * casterCounts[bodyMesh]);
+        }
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        shader.unbind();
+    }
+
+    /**
+     * Write a character's instance into a streaming buffer section.
+     *
+     * @param instances Section being written
+     * @param index Instance index in the section
+     * @param character Character index
+     */
+    private void writeInstance(ByteBuffer instances, int index, int character) {
+        int o = index * INSTANCE_BYTES;
+        int t = character * 4;
+        instances.putFloat(o, transforms[t]);
+        instances.putFloat(o + 4, transforms[t + 1]);
+        instances.putFloat(o + 8, transforms[t + 2]);
+        instances.putFloat(o + 12, transforms[t + 3]);
+        int a = character * 3;
+        instances.putInt(o + 16, appearances[a]);
+        instances.putInt(o + 20, appearances[a + 1]);
+        instances.putInt(o + 24, appearances[a + 2]);
+    }
+
+    /**
+     * Find the characters in view, choose their level of detail and count
+     * them per mesh.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    private void cull(Camera camera) {
+        FrustumIntersection frustum = camera.getFrustum();
+        Vector3f eye = camera.getPosition();
+        float detail = performanceOptimizer.getModelDetailMultiplier();
+        float detailDistance = DETAIL_DISTANCE * detail;
+        float crowdDistance = Math.min(CROWD_DISTANCE * detail, camera.getFarPlane());
+        float detailDistanceSquared = detailDistance * detailDistance;
+        float crowdDistanceSquared = crowdDistance * crowdDistance;
+
+        Arrays.fill(meshCounts, 0);
+        visibleCount = 0;
+        for (int i = 0; i < count && visibleCount < MAX_INSTANCES; i++) {
+            int t = i * 4;
+            float x = transforms[t];
+            float y = transforms[t + 1];
+            float z = transforms[t + 2];
+            float distanceSquared = eye.distanceSquared(x, y, z);
+            if (distanceSquared > crowdDistanceSquared
+                    || !frustum.testSphere(x, y + BOUNDS_CENTER_Y, z, BOUNDS_RADIUS)) {
+                continue;
+            }
+
+            int level = distanceSquared < detailDistanceSquared ? LOD_FULL : LOD_FAR;
+            int mesh = getMesh(bodyMeshes[i], level);
+            visible[visibleCount] = i;
+            visibleMeshes[visibleCount] = (byte) mesh;
+            meshCounts[mesh]++;
+            visibleCount++;
+        }
+        RenderStats.addCullResult(visibleCount, count - visibleCount);
+
+        int offset = 0;
+        for (int mesh = 0; mesh < MESHES; mesh++) {
+            meshFirst[mesh] = offset;
+            offset += meshCounts[mesh];
+        }
+    }
+
+    /**
+     * Set the shadow maps the characters receive.
+     *
+     * @param shadows Shadow cascades, or null for none
+     */
+    public void setShadows(ShadowCascades shadows) {
+        this.shadows = shadows;
+    }
+
+    /**
+     * Set the clustered lights the characters receive.
+     *
+     * @param lights Clustered lights, or null for none
+     */
+    public void setLights(ClusteredLights lights) {
+        this.lights = lights;
+    }
+
+    /**
+     * Get the number of characters added this frame.
+     *
+     * @return Character count
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of characters drawn in the last frame.
+     *
+     * @return Visible character count
+     */
+    public int getVisibleCount() {
+        return visibleCount;
+    }
+
+    /**
+     * Delete the shader and the streaming buffer. Meshes are deleted by the
+     * performance optimizer.
+     */
+    public void cleanup() {
+        shader.cleanup();
+        stream.cleanup();
+        shadowStream.cleanup();
+    }
+}
@@ -0,0 +1,47 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Linear distance fog that hides the render distance cut-off.
+ *
+ * The fog is set through the fixed-function fog state, which applies to
+ * immediate-mode drawing directly and reaches the mesh and building shaders
+ * through the gl_Fog built-in.
+ */
+public final class DistanceFog {
+
+    // Fog starts at this share of the render distance
+    private static final float START_FRACTION = 0.5f;
+
+    // Fog colour; matches the clear colour so geometry fades into the sky
+    private static final float[] FOG_COLOR = {0.0f, 0.0f, 0.0f, 1.0f};
+
+    // Fog end used while disabled, far enough that shaders apply no fog
+    private static final float NO_FOG_DISTANCE = 1.0e30f;
+
+    private DistanceFog() {
+    }
+
+    /**
+     * Enable fog that is fully opaque at the render distance.
+     *
+     * @param renderDistance Render distance in game units
+     */
+    public static void apply(float renderDistance) {
+        glFogi(GL_FOG_MODE, GL_LINEAR);
+        glFogfv(GL_FOG_COLOR, FOG_COLOR);
+        glFogf(GL_FOG_START, renderDistance * START_FRACTION);
+        glFogf(GL_FOG_END, renderDistance);
+        glEnable(GL_FOG);
+    }
+
+    /**
+     * Disable fog, e.g. for the UI.
+     */
+    public static void disable() {
+        glFogf(GL_FOG_START, 0.0f);
+        glFogf(GL_FOG_END, NO_FOG_DISTANCE);
+        glDisable(GL_FOG);
+    }
+}
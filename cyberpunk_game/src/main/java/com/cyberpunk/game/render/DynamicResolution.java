@@ -0,0 +1,300 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33.glGetQueryObjectui64;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Renders the 3D scene at a scale of the window resolution chosen from the
+ * measured GPU time.
+ *
+ * Between begin() and end() the scene is drawn into an offscreen framebuffer
+ * whose viewport is the window size times the current scale; end() upscales
+ * it into the window with a linear blit, so the UI drawn afterwards stays at
+ * native resolution. The framebuffer is allocated at the window size, so the
+ * scale changes without reallocating it.
+ *
+ * GPU time of the scene is measured with timer queries, read a few frames
+ * later so the CPU never waits for them. When the smoothed time exceeds the
+ * frame budget of the target frame rate, the scale drops by the step that
+ * should bring it back within budget, since pixel cost grows with the square
+ * of the scale; when there is ample headroom it rises one step at a time.
+ * After each change the controller waits for the new scale to be measured.
+ */
+public class DynamicResolution {
+
+    // Scale limits, and the step scales are rounded to
+    private static final float MIN_SCALE = 0.5f;
+    private static final float MAX_SCALE = 1.0f;
+    private static final float SCALE_STEP = 0.05f;
+
+    // Fractions of the frame budget: above HIGH_LOAD the scale drops to aim
+    // for TARGET_LOAD, below LOW_LOAD it rises
+    private static final float HIGH_LOAD = 0.95f;
+    private static final float TARGET_LOAD = 0.85f;
+    private static final float LOW_LOAD = 0.7f;
+
+    // Weight of each new measurement in the smoothed GPU time
+    private static final float SMOOTHING = 0.2f;
+
+    // Timer queries in flight, and frames to wait after a scale change
+    private static final int QUERIES = 4;
+    private static final int SETTLE_FRAMES = QUERIES + 4;
+
+    private final PerformanceOptimizer performanceOptimizer;
+
+    // Timer queries
+    private final int[] queries;
+    private final boolean[] queryPending;
+    private int queryIndex;
+
+    // Offscreen framebuffer at window size
+    private int framebuffer;
+    private int colorTexture;
+    private int depthBuffer;
+    private int framebufferWidth;
+    private int framebufferHeight;
+    private boolean failed;
+
+    // Window size and the current frame
+    private int width;
+    private int height;
+    private int scaledWidth;
+    private int scaledHeight;
+    private int previousFramebuffer;
+    private boolean active;
+
+    // Controller state
+    private float scale;
+    private float gpuTime;
+    private int settleFrames;
+
+    /**
+     * Constructor. Must be called on the render thread.
+     *
+     * @param performanceOptimizer Performance optimizer holding the target frame rate
+     */
+    public DynamicResolution(PerformanceOptimizer performanceOptimizer) {
+        this.performanceOptimizer = performanceOptimizer;
+        queries = new int[QUERIES];
+        queryPending = new boolean[QUERIES];
+        glGenQueries(queries);
+        width = 1280;
+        height = 720;
+        scale = MAX_SCALE;
+    }
+
+    /**
+     * Set the window size the scene is upscaled to.
+     *
+     * @param width Framebuffer width in pixels
+     * @param height Framebuffer height in pixels
+     */
+    public void setViewport(int width, int height) {
+        this.width = Math.max(1, width);
+        this.height = Math.max(1, height);
+    }
+
+    /**
+     * Start the scene: read finished timer queries, adjust the scale and,
+     * when dynamic resolution is enabled, bind and clear the offscreen
+     * framebuffer with the scaled viewport. Must be called before the
+     * camera's matrices are applied, since its viewport is set here.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    public void begin(Camera camera) {
+        readQueries();
+
+        if (queryPending[queryIndex]) {
+            // Not read back in time; its result is dropped
+            queryPending[queryIndex] = false;
+        }
+        glBeginQuery(GL_TIME_ELAPSED, queries[queryIndex]);
+
+        active = performanceOptimizer.isEnableDynamicResolution() && prepareFramebuffer();
+        if (!active) {
+            scaledWidth = width;
+            scaledHeight = height;
+            return;
+        }
+
+        scaledWidth = Math.max(1, Math.round(width * scale));
+        scaledHeight = Math.max(1, Math.round(height * scale));
+        previousFramebuffer = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glViewport(0, 0, scaledWidth, scaledHeight);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        camera.setViewport(scaledWidth, scaledHeight);
+    }
+
+    /**
+     * Finish the scene: upscale it into the window and restore the window
+     * viewport for the UI.
+     *
+     * @param camera Camera the frame was rendered from
+     */
+    public void end(Camera camera) {
+        if (active) {
+            int filter = scaledWidth == width && scaledHeight == height ? GL_NEAREST : GL_LINEAR;
+            glBindFramebuffer(GL_READ_FRAMEBUFFER, framebuffer);
+            glBindFramebuffer(GL_DRAW_FRAMEBUFFER, previousFramebuffer);
+            glBlitFramebuffer(0, 0, scaledWidth, scaledHeight, 0, 0, width, height, GL_COLOR_BUFFER_BIT, filter);
+            glBindFramebuffer(GL_FRAMEBUFFER, previousFramebuffer);
+            glViewport(0, 0, width, height);
+            camera.setViewport(width, height);
+            active = false;
+        }
+
+        glEndQuery(GL_TIME_ELAPSED);
+        queryPending[queryIndex] = true;
+        queryIndex = (queryIndex + 1) % QUERIES;
+    }
+
+    /**
+     * Read the timer queries that have finished, oldest first, and feed
+     * them to the controller.
+     */
+    private void readQueries() {
+        for (int i = 0; i < QUERIES; i++) {
+            int index = (queryIndex + i) % QUERIES;
+            if (!queryPending[index]) {
+                continue;
+            }
+            if (glGetQueryObjecti(queries[index], GL_QUERY_RESULT_AVAILABLE) == GL_FALSE) {
+                // Later queries cannot have finished either
+                break;
+            }
+            long nanos = glGetQueryObjectui64(queries[index], GL_QUERY_RESULT);
+            queryPending[index] = false;
+            addMeasurement(nanos / 1_000_000.0f);
+        }
+    }
+
+    /**
+     * Smooth a GPU time measurement and adjust the scale from it.
+     *
+     * @param millis GPU time of a frame's scene in milliseconds
+     */
+    private void addMeasurement(float millis) {
+        gpuTime = gpuTime == 0.0f ? millis : gpuTime + (millis - gpuTime) * SMOOTHING;
+        RenderStats.setDynamicResolution(gpuTime, scale);
+
+        if (!performanceOptimizer.isEnableDynamicResolution()) {
+            scale = MAX_SCALE;
+            return;
+        }
+        if (settleFrames > 0) {
+            settleFrames--;
+            return;
+        }
+
+        float budget = 1000.0f / performanceOptimizer.getTargetFrameRate();
+        float newScale = scale;
+        if (gpuTime > budget * HIGH_LOAD) {
+            // Pixel cost goes with the square of the scale
+            float wanted = scale * (float) Math.sqrt(budget * TARGET_LOAD / gpuTime);
+            newScale = Math.min(scale - SCALE_STEP, (float) Math.floor(wanted / SCALE_STEP) * SCALE_STEP);
+        } else if (gpuTime < budget * LOW_LOAD) {
+            newScale = scale + SCALE_STEP;
+        }
+        newScale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, newScale));
+
+        if (Math.abs(newScale - scale) > SCALE_STEP * 0.5f) {
+            scale = newScale;
+            settleFrames = SETTLE_FRAMES;
+        }
+    }
+
+    /**
+     * Make sure the offscreen framebuffer exists at the window size.
+     *
+     * @return true if it can be rendered to
+     */
+    private boolean prepareFramebuffer() {
+        if (failed) {
+            return false;
+        }
+        if (framebuffer != 0 && framebufferWidth == width && framebufferHeight == height) {
+            return true;
+        }
+
+        deleteFramebuffer();
+        framebufferWidth = width;
+        framebufferHeight = height;
+        int previous = glGetInteger(GL_FRAMEBUFFER_BINDING);
+
+        colorTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, colorTexture);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        depthBuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, depthBuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+
+        framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, colorTexture, 0);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+        boolean complete = glCheckFramebufferStatus(GL_FRAMEBUFFER) == GL_FRAMEBUFFER_COMPLETE;
+        glBindFramebuffer(GL_FRAMEBUFFER, previous);
+
+        if (!complete) {
+            System.err.println("Dynamic resolution framebuffer is incomplete; rendering at native resolution");
+            deleteFramebuffer();
+            failed = true;
+        }
+        return complete;
+    }
+
+    /**
+     * Delete the offscreen framebuffer and its attachments.
+     */
+    private void deleteFramebuffer() {
+        if (framebuffer != 0) {
+            glDeleteFramebuffers(framebuffer);
+            glDeleteRenderbuffers(depthBuffer);
+            glDeleteTextures(colorTexture);
+            framebuffer = 0;
+            depthBuffer = 0;
+            colorTexture = 0;
+        }
+    }
+
+    /**
+     * Get the current render scale.
+     *
+     * @return Fraction of the window resolution the scene is rendered at
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * Get the smoothed GPU time of the scene.
+     *
+     * @return GPU time in milliseconds, or 0 before the first measurement
+     */
+    public float getGpuTime() {
+        return gpuTime;
+    }
+
+    /**
+     * Delete the framebuffer and queries. Must be called on the render thread.
+     */
+    public void cleanup() {
+        deleteFramebuffer();
+        glDeleteQueries(queries);
+    }
+}
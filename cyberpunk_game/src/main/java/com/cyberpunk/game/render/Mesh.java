@@ -0,0 +1,169 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Static indexed mesh kept on the GPU in a VAO with a vertex and index buffer.
+ *
+ * Vertices hold a position and a colour. Buffers are created through the
+ * PerformanceOptimizer, which deletes them in its cleanup.
+ */
+public class Mesh {
+
+    // Vertex layout: position (3) + color (3)
+    public static final int VERTEX_FLOATS = 6;
+
+    // Vertex attribute locations
+    public static final int ATTRIBUTE_POSITION = 0;
+    public static final int ATTRIBUTE_COLOR = 1;
+
+    /**
+     * Vertex shader for meshes. Works inside the fixed-function matrix stack.
+     */
+    public static final String VERTEX_SHADER = """
+        #version 330 compatibility
+
+        layout(location = 0) in vec3 position;
+        layout(location = 1) in vec3 color;
+
+        out vec3 fragColor;
+        out float fogDepth;
+        out vec3 shadowPosition;
+
+        void main() {
+            gl_Position = gl_ModelViewProjectionMatrix * vec4(position, 1.0);
+            fragColor = color;
+            fogDepth = -(gl_ModelViewMatrix * vec4(position, 1.0)).z;
+            shadowPosition = position;
+        }
+        """;
+
+    /**
+     * Fragment shader for meshes. Applies the distance fog set by DistanceFog.
+     */
+    public static final String FRAGMENT_SHADER = """
+        #version 330 compatibility
+
+        in vec3 fragColor;
+        in float fogDepth;
+
+        out vec4 outColor;
+
+        void main() {
+            // Linear distance fog from the fixed-function fog state
+            float fog = clamp((gl_Fog.end - fogDepth) * gl_Fog.scale, 0.0, 1.0);
+            outColor = vec4(mix(gl_Fog.color.rgb, fragColor, fog), 1.0);
+        }
+        """;
+
+    /**
+     * Fragment shader for meshes that receive the shadows of ShadowCascades
+     * while the uniform receiveShadows is set, and the lights of
+     * ClusteredLights while receiveLights is set. Vertex positions must be in
+     * world space. Programs using it must be passed to ShadowCascades.attach
+     * and ClusteredLights.attach.
+     */
+    public static final String LIT_FRAGMENT_SHADER = """
+        #version 330 compatibility
+
+        in vec3 fragColor;
+        in float fogDepth;
+        in vec3 shadowPosition;
+
+        uniform bool receiveShadows;
+        uniform bool receiveLights;
+
+        out vec4 outColor;
+
+        """ + ShadowCascades.SHADOW_FUNCTIONS + ClusteredLights.LIGHT_FUNCTIONS + """
+
+        void main() {
+            vec3 color = fragColor;
+            vec3 normal = getSurfaceNormal(shadowPosition);
+            if (receiveShadows) {
+                color *= getShadow(shadowPosition, fogDepth);
+            }
+            if (receiveLights) {
+                color += fragColor * getClusteredLight(shadowPosition, normal, fogDepth);
+            }
+
+            // Linear distance fog from the fixed-function fog state
+            float fog = clamp((gl_Fog.end - fogDepth) * gl_Fog.scale, 0.0, 1.0);
+            outColor = vec4(mix(gl_Fog.color.rgb, color, fog), 1.0);
+        }
+        """;
+
+    // GPU objects
+    private final int vao;
+    private final int indexCount;
+    private final int mode;
+
+    /**
+     * Constructor. Must be called on the render thread.
+     *
+     * @param optimizer Performance optimizer that owns the buffers
+     * @param vertices Interleaved vertex data
+     * @param vertexCount Number of vertices
+     * @param indices Index data
+     * @param indexCount Number of indices
+     * @param mode Primitive mode (GL_TRIANGLES or GL_LINES)
+     */
+    public Mesh(PerformanceOptimizer optimizer, float[] vertices, int vertexCount,
+                int[] indices, int indexCount, int mode) {
+        this.indexCount = indexCount;
+        this.mode = mode;
+
+        vao = optimizer.createVAO();
+
+        FloatBuffer vertexBuffer = MemoryUtil.memAllocFloat(Math.max(1, vertexCount * VERTEX_FLOATS));
+        IntBuffer indexBuffer = MemoryUtil.memAllocInt(Math.max(1, indexCount));
+        try {
+            vertexBuffer.put(vertices, 0, vertexCount * VERTEX_FLOATS).flip();
+            indexBuffer.put(indices, 0, indexCount).flip();
+
+            optimizer.createVBO(vertexBuffer, GL_STATIC_DRAW);
+            int stride = VERTEX_FLOATS * Float.BYTES;
+            optimizer.setVertexAttribPointer(ATTRIBUTE_POSITION, 3, stride, 0);
+            optimizer.setVertexAttribPointer(ATTRIBUTE_COLOR, 3, stride, 3 * Float.BYTES);
+
+            optimizer.createIBO(indexBuffer);
+        } finally {
+            MemoryUtil.memFree(vertexBuffer);
+            MemoryUtil.memFree(indexBuffer);
+        }
+
+        optimizer.unbindVAO();
+    }
+
+    /**
+     * Draw the mesh with one draw call. A mesh shader must be bound.
+     */
+    public void draw() {
+        if (indexCount == 0) {
+            return;
+        }
+
+        glBindVertexArray(vao);
+        glDrawElements(mode, indexCount, GL_UNSIGNED_INT, 0);
+        glBindVertexArray(0);
+
+        RenderStats.addDrawCall(mode == GL_TRIANGLES ? indexCount / 3 : 0);
+    }
+
+    /**
+     * Get the number of indices.
+     *
+     * @return Index count
+     */
+    public int getIndexCount() {
+        return indexCount;
+    }
+}
@@ -0,0 +1,213 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.GL_LINES;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates coloured geometry on the CPU and uploads it as a Mesh.
+ *
+ * Works like immediate mode: set a colour, then add quads, boxes or lines.
+ * Faces are wound counter-clockwise when seen from outside so they survive
+ * back-face culling.
+ */
+public class MeshBuilder {
+
+    // Primitive mode
+    private final int mode;
+
+    // Geometry
+    private float[] vertices;
+    private int[] indices;
+    private int vertexCount;
+    private int indexCount;
+
+    // Current colour
+    private float red;
+    private float green;
+    private float blue;
+
+    /**
+     * Constructor for a triangle mesh.
+     */
+    public MeshBuilder() {
+        this(GL_TRIANGLES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param mode Primitive mode (GL_TRIANGLES or GL_LINES)
+     */
+    public MeshBuilder(int mode) {
+        this.mode = mode;
+        vertices = new float[256 * Mesh.VERTEX_FLOATS];
+        indices = new int[384];
+    }
+
+    /**
+     * Set the colour of subsequent vertices.
+     *
+     * @param r Red component
+     * @param g Green component
+     * @param b Blue component
+     */
+    public void setColor(float r, float g, float b) {
+        red = r;
+        green = g;
+        blue = b;
+    }
+
+    /**
+     * Add a vertex with the current colour.
+     *
+     * @return Vertex index
+     */
+    private int addVertex(float x, float y, float z) {
+        if ((vertexCount + 1) * Mesh.VERTEX_FLOATS > vertices.length) {
+            vertices = Arrays.copyOf(vertices, vertices.length * 2);
+        }
+
+        int v = vertexCount * Mesh.VERTEX_FLOATS;
+        vertices[v] = x;
+        vertices[v + 1] = y;
+        vertices[v + 2] = z;
+        vertices[v + 3] = red;
+        vertices[v + 4] = green;
+        vertices[v + 5] = blue;
+        return vertexCount++;
+    }
+
+    /**
+     * Add an index.
+     */
+    private void addIndex(int index) {
+        if (indexCount == indices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        }
+        indices[indexCount++] = index;
+    }
+
+    /**
+     * Add a quad facing a direction. The corners are given in order around
+     * the quad; the winding is flipped if needed so the quad faces the
+     * given direction.
+     *
+     * @param corners Four corners as x, y, z triples
+     * @param facingX Facing direction X
+     * @param facingY Facing direction Y
+     * @param facingZ Facing direction Z
+     */
+    public void addQuad(float[] corners, float facingX, float facingY, float facingZ) {
+        // Normal of the given winding
+        float ax = corners[3] - corners[0];
+        float ay = corners[4] - corners[1];
+        float az = corners[5] - corners[2];
+        float bx = corners[6] - corners[0];
+        float by = corners[7] - corners[1];
+        float bz = corners[8] - corners[2];
+        float nx = ay * bz - az * by;
+        float ny = az * bx - ax * bz;
+        float nz = ax * by - ay * bx;
+        boolean flip = nx * facingX + ny * facingY + nz * facingZ < 0;
+
+        int first = vertexCount;
+        for (int i = 0; i < 4; i++) {
+            int c = (flip ? 3 - i : i) * 3;
+            addVertex(corners[c], corners[c + 1], corners[c + 2]);
+        }
+
+        addIndex(first);
+        addIndex(first + 1);
+        addIndex(first + 2);
+        addIndex(first);
+        addIndex(first + 2);
+        addIndex(first + 3);
+    }
+
+    /**
+     * Add an axis-aligned box.
+     *
+     * @param x Minimum X
+     * @param y Minimum Y
+     * @param z Minimum Z
+     * @param width Size along X
+     * @param height Size along Y
+     * @param depth Size along Z
+     * @param bottom Whether to add the bottom face
+     */
+    public void addBox(float x, float y, float z, float width, float height, float depth, boolean bottom) {
+        float x2 = x + width;
+        float y2 = y + height;
+        float z2 = z + depth;
+
+        addQuad(new float[] {x, y, z, x2, y, z, x2, y2, z, x, y2, z}, 0, 0, -1); // Front
+        addQuad(new float[] {x, y, z2, x2, y, z2, x2, y2, z2, x, y2, z2}, 0, 0, 1); // Back
+        addQuad(new float[] {x, y, z, x, y, z2, x, y2, z2, x, y2, z}, -1, 0, 0); // Left
+        addQuad(new float[] {x2, y, z, x2, y, z2, x2, y2, z2, x2, y2, z}, 1, 0, 0); // Right
+        addQuad(new float[] {x, y2, z, x2, y2, z, x2, y2, z2, x, y2, z2}, 0, 1, 0); // Top
+        if (bottom) {
+            addQuad(new float[] {x, y, z, x2, y, z, x2, y, z2, x, y, z2}, 0, -1, 0);
+        }
+    }
+
+    /**
+     * Add a line segment. Only valid for GL_LINES builders.
+     *
+     * @param x1 Start X
+     * @param y1 Start Y
+     * @param z1 Start Z
+     * @param x2 End X
+     * @param y2 End Y
+     * @param z2 End Z
+     */
+    public void addLine(float x1, float y1, float z1, float x2, float y2, float z2) {
+        if (mode != GL_LINES) {
+            throw new IllegalStateException("Lines can only be added to a GL_LINES mesh");
+        }
+
+        addIndex(addVertex(x1, y1, z1));
+        addIndex(addVertex(x2, y2, z2));
+    }
+
+    /**
+     * Upload the geometry. Must be called on the render thread.
+     *
+     * @param optimizer Performance optimizer that owns the buffers
+     * @return The mesh
+     */
+    public Mesh build(PerformanceOptimizer optimizer) {
+        return new Mesh(optimizer, vertices, vertexCount, indices, indexCount, mode);
+    }
+
+    /**
+     * Write the bounding box of the geometry added so far.
+     *
+     * @param bounds Output array
+     * @param offset Offset of minX, minY, minZ, maxX, maxY, maxZ in the array
+     */
+    public void getBounds(float[] bounds, int offset) {
+        for (int axis = 0; axis < 3; axis++) {
+            bounds[offset + axis] = Float.MAX_VALUE;
+            bounds[offset + 3 + axis] = -Float.MAX_VALUE;
+        }
+        for (int v = 0; v < vertexCount * Mesh.VERTEX_FLOATS; v += Mesh.VERTEX_FLOATS) {
+            for (int axis = 0; axis < 3; axis++) {
+                bounds[offset + axis] = Math.min(bounds[offset + axis], vertices[v + axis]);
+                bounds[offset + 3 + axis] = Math.max(bounds[offset + 3 + axis], vertices[v + axis]);
+            }
+        }
+    }
+
+    /**
+     * Get the number of vertices added.
+     *
+     * @return Vertex count
+     */
+    public int getVertexCount() {
+        return vertexCount;
+    }
+}
@@ -0,0 +1,125 @@
+package com.cyberpunk.game.render;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.joml.FrustumIntersection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Static geometry split into square cells on the ground plane.
+ *
+ * Geometry is added to the builder of the cell it stands in and each cell
+ * becomes its own mesh, so cells outside the view frustum (including beyond
+ * the far plane) can be skipped with one box test each.
+ */
+public class MeshGrid {
+
+    // Cell layout
+    private final float cellSize;
+    private final int mode;
+
+    // Builders by cell while building
+    private final Map<Long, MeshBuilder> builders;
+
+    // Built cells
+    private final List<Mesh> meshes;
+    private float[] bounds;
+
+    /**
+     * Constructor.
+     *
+     * @param cellSize Side length of a cell
+     * @param mode Primitive mode (GL_TRIANGLES or GL_LINES)
+     */
+    public MeshGrid(float cellSize, int mode) {
+        this.cellSize = cellSize;
+        this.mode = mode;
+        builders = new HashMap<>();
+        meshes = new ArrayList<>();
+        bounds = new float[0];
+    }
+
+    /**
+     * Get the builder of the cell containing a point.
+     *
+     * @param x X position
+     * @param z Z position
+     * @return Mesh builder for the cell
+     */
+    public MeshBuilder getBuilder(float x, float z) {
+        long cellX = (long) Math.floor(x / cellSize);
+        long cellZ = (long) Math.floor(z / cellSize);
+        return builders.computeIfAbsent((cellX << 32) ^ (cellZ & 0xFFFFFFFFL), key -> new MeshBuilder(mode));
+    }
+
+    /**
+     * Upload the cells. Must be called on the render thread.
+     *
+     * @param optimizer Performance optimizer that owns the buffers
+     */
+    public void build(PerformanceOptimizer optimizer) {
+        meshes.clear();
+        bounds = new float[builders.size() * 6];
+        for (MeshBuilder builder : builders.values()) {
+            if (builder.getVertexCount() == 0) {
+                continue;
+            }
+            builder.getBounds(bounds, meshes.size() * 6);
+            meshes.add(builder.build(optimizer));
+        }
+        builders.clear();
+    }
+
+    /**
+     * Draw the cells that intersect the frustum. A shader must be bound.
+     *
+     * @param frustum The view frustum, or null to draw every cell
+     */
+    public void draw(FrustumIntersection frustum) {
+        int visible = 0;
+        for (int i = 0; i < meshes.size(); i++) {
+            int b = i * 6;
+            if (frustum == null || frustum.testAab(bounds[b], bounds[b + 1], bounds[b + 2],
+                    bounds[b + 3], bounds[b + 4], bounds[b + 5])) {
+                meshes.get(i).draw();
+                visible++;
+            }
+        }
+        RenderStats.addCullResult(visible, meshes.size() - visible);
+    }
+
+    /**
+     * Submit the cells that intersect the frustum to a render queue as opaque
+     * packets, sorted front to back by their centres.
+     *
+     * @param queue Render queue
+     * @param shader Mesh shader to draw with
+     * @param frustum The view frustum, or null to submit every cell
+     */
+    public void submit(RenderQueue queue, ShaderProgram shader, FrustumIntersection frustum) {
+        int visible = 0;
+        for (int i = 0; i < meshes.size(); i++) {
+            int b = i * 6;
+            if (frustum == null || frustum.testAab(bounds[b], bounds[b + 1], bounds[b + 2],
+                    bounds[b + 3], bounds[b + 4], bounds[b + 5])) {
+                float depth = queue.getDepth((bounds[b] + bounds[b + 3]) / 2, (bounds[b + 1] + bounds[b + 4]) / 2,
+                    (bounds[b + 2] + bounds[b + 5]) / 2);
+                queue.submit(RenderQueue.PASS_OPAQUE, shader, 0, depth, meshes.get(i)::draw);
+                visible++;
+            }
+        }
+        RenderStats.addCullResult(visible, meshes.size() - visible);
+    }
+
+    /**
+     * Get the number of cells.
+     *
+     * @return Cell count
+     */
+    public int getCellCount() {
+        return meshes.size();
+    }
+}
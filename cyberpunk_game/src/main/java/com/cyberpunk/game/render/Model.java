@@ -0,0 +1,124 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+
+/**
+ * Handle to a model loaded by the ModelLoader.
+ *
+ * The handle exists as soon as the model is requested; draw() does nothing
+ * until the model has been imported or read from the cache and uploaded, so
+ * callers can keep their hand-built fallback until isLoaded() is true.
+ * Vertices carry a position and colour at the attribute locations of Mesh,
+ * so models are drawn with the mesh shaders, followed by a normal and
+ * texture coordinates.
+ */
+public class Model {
+
+    // Vertex attribute locations past those shared with Mesh
+    public static final int ATTRIBUTE_NORMAL = 2;
+    public static final int ATTRIBUTE_TEXCOORD = 3;
+
+    // Model name
+    private final String name;
+
+    // GPU objects
+    private int vao;
+    private int indexCount;
+
+    // Loading state
+    private volatile boolean loaded;
+    private volatile boolean failed;
+    private final float[] bounds;
+
+    /**
+     * Constructor.
+     *
+     * @param name Model name
+     */
+    Model(String name) {
+        this.name = name;
+        bounds = new float[6];
+    }
+
+    /**
+     * Point the model at its uploaded buffers.
+     *
+     * @param vao Vertex array ID
+     * @param indexCount Number of indices
+     * @param bounds Bounding box in model space
+     */
+    void setBuffers(int vao, int indexCount, float[] bounds) {
+        this.vao = vao;
+        this.indexCount = indexCount;
+        System.arraycopy(bounds, 0, this.bounds, 0, 6);
+        loaded = true;
+    }
+
+    /**
+     * Mark the model as failed to load.
+     */
+    void setFailed() {
+        failed = true;
+    }
+
+    /**
+     * Draw the model with one draw call. A mesh shader must be bound.
+     */
+    public void draw() {
+        if (!loaded) {
+            return;
+        }
+
+        glBindVertexArray(vao);
+        glDrawElements(GL_TRIANGLES, indexCount, GL_UNSIGNED_INT, 0);
+        glBindVertexArray(0);
+
+        RenderStats.addDrawCall(indexCount / 3);
+    }
+
+    /**
+     * Get the model name.
+     *
+     * @return Name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the bounding box in model space.
+     *
+     * @return minX, minY, minZ, maxX, maxY, maxZ, all 0 until loaded
+     */
+    public float[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Get the number of indices.
+     *
+     * @return Index count, 0 until loaded
+     */
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * Whether the model has been uploaded.
+     *
+     * @return true if loaded
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Whether the model failed to load.
+     *
+     * @return true if failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+}
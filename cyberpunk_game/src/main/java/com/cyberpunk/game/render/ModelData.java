@@ -0,0 +1,391 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.assimp.Assimp.*;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.assimp.AIColor4D;
+import org.lwjgl.assimp.AIFace;
+import org.lwjgl.assimp.AIMaterial;
+import org.lwjgl.assimp.AIMesh;
+import org.lwjgl.assimp.AIScene;
+import org.lwjgl.assimp.AIVector3D;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A model's vertices and indices in the layout they are uploaded in, held
+ * in native memory until then. Importing and cache access are safe to run
+ * off the render thread.
+ *
+ * The data is one block laid out exactly like the cache file: a header,
+ * interleaved vertices and triangle indices. Writing the cache is a single
+ * write of the block, and reading it back maps the file and uses the mapping
+ * as is, so the vertex and index buffers are uploaded straight from it.
+ *
+ * Cache files are in native byte order and record the size and modification
+ * time of the source they were imported from; a cache written on another
+ * platform, by another version or from a changed source is not used.
+ */
+class ModelData {
+
+    // Vertex layout: position (3) + color (3) + normal (3) + texture coordinates (2)
+    static final int VERTEX_FLOATS = 11;
+
+    // Cache header: magic, version, source size, source time, vertex count,
+    // index count and bounds, padded so the vertices start 16-byte aligned
+    private static final int MAGIC = 0x43504D44;
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int VERTEX_COUNT_OFFSET = 24;
+    private static final int INDEX_COUNT_OFFSET = 28;
+    private static final int BOUNDS_OFFSET = 32;
+
+    // Assimp post-processing: triangles only, shared vertices, smooth
+    // normals where missing, and all nodes flattened into model space
+    private static final int IMPORT_FLAGS = aiProcess_Triangulate | aiProcess_JoinIdenticalVertices
+        | aiProcess_GenSmoothNormals | aiProcess_PreTransformVertices | aiProcess_SortByPType
+        | aiProcess_OptimizeMeshes | aiProcess_ImproveCacheLocality;
+
+    // Header followed by vertices and indices
+    private final ByteBuffer data;
+    private final boolean mapped;
+    private final int vertexCount;
+    private final int indexCount;
+    private final float[] bounds;
+
+    /**
+     * Constructor.
+     *
+     * @param data Block in the cache layout, positioned at 0
+     * @param mapped Whether the block is a file mapping rather than allocated memory
+     */
+    private ModelData(ByteBuffer data, boolean mapped) {
+        this.data = data;
+        this.mapped = mapped;
+        vertexCount = data.getInt(VERTEX_COUNT_OFFSET);
+        indexCount = data.getInt(INDEX_COUNT_OFFSET);
+        bounds = new float[6];
+        for (int i = 0; i < 6; i++) {
+            bounds[i] = data.getFloat(BOUNDS_OFFSET + i * Float.BYTES);
+        }
+    }
+
+    /**
+     * Import a model file through Assimp. All meshes are merged into one,
+     * in model space, coloured by their material's diffuse colour unless
+     * they have vertex colours.
+     *
+     * @param file Model file contents (glTF, OBJ, FBX, ...)
+     * @param extension File extension, as a format hint
+     * @param sourceSize Size of the source, recorded for the cache
+     * @param sourceTime Modification time of the source, recorded for the cache
+     * @return The imported model
+     * @throws IllegalStateException If the file cannot be imported or has no triangles
+     */
+    static ModelData importModel(byte[] file, String extension, long sourceSize, long sourceTime) {
+        ByteBuffer encoded = MemoryUtil.memAlloc(file.length);
+        AIScene scene = null;
+        try {
+            encoded.put(file).flip();
+            scene = aiImportFileFromMemory(encoded, IMPORT_FLAGS, extension);
+            if (scene == null) {
+                throw new IllegalStateException("Failed to import model: " + aiGetErrorString());
+            }
+            return convert(scene, sourceSize, sourceTime);
+        } finally {
+            if (scene != null) {
+                aiReleaseImport(scene);
+            }
+            MemoryUtil.memFree(encoded);
+        }
+    }
+
+    /**
+     * Convert an imported scene into the cache layout.
+     *
+     * @param scene Imported scene
+     * @param sourceSize Size of the source
+     * @param sourceTime Modification time of the source
+     * @return The converted model
+     */
+    private static ModelData convert(AIScene scene, long sourceSize, long sourceTime) {
+        PointerBuffer meshes = scene.mMeshes();
+        int meshCount = meshes != null ? scene.mNumMeshes() : 0;
+
+        // Size the block; point and line meshes are left out
+        int vertexCount = 0;
+        int indexCount = 0;
+        for (int i = 0; i < meshCount; i++) {
+            AIMesh mesh = AIMesh.create(meshes.get(i));
+            if ((mesh.mPrimitiveTypes() & aiPrimitiveType_TRIANGLE) == 0) {
+                continue;
+            }
+            vertexCount += mesh.mNumVertices();
+            AIFace.Buffer faces = mesh.mFaces();
+            for (int f = 0; f < mesh.mNumFaces(); f++) {
+                if (faces.get(f).mNumIndices() == 3) {
+                    indexCount += 3;
+                }
+            }
+        }
+        if (indexCount == 0) {
+            throw new IllegalStateException("Model has no triangles");
+        }
+
+        long size = HEADER_BYTES + (long) vertexCount * VERTEX_FLOATS * Float.BYTES + (long) indexCount * Integer.BYTES;
+        ByteBuffer data = MemoryUtil.memAlloc(Math.toIntExact(size)).order(ByteOrder.nativeOrder());
+        float[] bounds = {
+            Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE,
+            -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE
+        };
+
+        float[] color = new float[3];
+        int vertex = 0;
+        int index = 0;
+        int indexBase = HEADER_BYTES + vertexCount * VERTEX_FLOATS * Float.BYTES;
+        for (int i = 0; i < meshCount; i++) {
+            AIMesh mesh = AIMesh.create(meshes.get(i));
+            if ((mesh.mPrimitiveTypes() & aiPrimitiveType_TRIANGLE) == 0) {
+                continue;
+            }
+
+            getMaterialColor(scene, mesh.mMaterialIndex(), color);
+            AIVector3D.Buffer positions = mesh.mVertices();
+            AIVector3D.Buffer normals = mesh.mNormals();
+            AIVector3D.Buffer uvs = mesh.mTextureCoords(0);
+            AIColor4D.Buffer colors = mesh.mColors(0);
+            int first = vertex;
+            for (int v = 0; v < mesh.mNumVertices(); v++) {
+                AIVector3D p = positions.get(v);
+                int o = HEADER_BYTES + vertex * VERTEX_FLOATS * Float.BYTES;
+                data.putFloat(o, p.x()).putFloat(o + 4, p.y()).putFloat(o + 8, p.z());
+                if (colors != null) {
+                    AIColor4D c = colors.get(v);
+                    data.putFloat(o + 12, c.r()).putFloat(o + 16, c.g()).putFloat(o + 20, c.b());
+                } else {
+                    data.putFloat(o + 12, color[0]).putFloat(o + 16, color[1]).putFloat(o + 20, color[2]);
+                }
+                if (normals != null) {
+                    AIVector3D n = normals.get(v);
+                    data.putFloat(o + 24, n.x()).putFloat(o + 28, n.y()).putFloat(o + 32, n.z());
+                } else {
+                    data.putFloat(o + 24, 0.0f).putFloat(o + 28, 1.0f).putFloat(o + 32, 0.0f);
+                }
+                if (uvs != null) {
+                    AIVector3D uv = uvs.get(v);
+                    data.putFloat(o + 36, uv.x()).putFloat(o + 40, uv.y());
+                } else {
+                    data.putFloat(o + 36, 0.0f).putFloat(o + 40, 0.0f);
+                }
+
+                bounds[0] = Math.min(bounds[0], p.x());
+                bounds[1] = Math.min(bounds[1], p.y());
+                bounds[2] = Math.min(bounds[2], p.z());
+                bounds[3] = Math.max(bounds[3], p.x());
+                bounds[4] = Math.max(bounds[4], p.y());
+                bounds[5] = Math.max(bounds[5], p.z());
+                vertex++;
+            }
+
+            AIFace.Buffer faces = mesh.mFaces();
+            for (int f = 0; f < mesh.mNumFaces(); f++) {
+                AIFace face = faces.get(f);
+                if (face.mNumIndices() != 3) {
+                    continue;
+                }
+                IntBuffer indices = face.mIndices();
+                for (int k = 0; k < 3; k++) {
+                    data.putInt(indexBase + index * Integer.BYTES, first + indices.get(k));
+                    index++;
+                }
+            }
+        }
+
+        data.putInt(0, MAGIC);
+        data.putInt(4, VERSION);
+        data.putLong(8, sourceSize);
+        data.putLong(16, sourceTime);
+        data.putInt(VERTEX_COUNT_OFFSET, vertexCount);
+        data.putInt(INDEX_COUNT_OFFSET, indexCount);
+        for (int i = 0; i < 6; i++) {
+            data.putFloat(BOUNDS_OFFSET + i * Float.BYTES, bounds[i]);
+        }
+        return new ModelData(data, false);
+    }
+
+    /**
+     * Get the diffuse colour of a material.
+     *
+     * @param scene Imported scene
+     * @param materialIndex Material index
+     * @param color Output RGB, light grey if the material has none
+     */
+    private static void getMaterialColor(AIScene scene, int materialIndex, float[] color) {
+        color[0] = 0.8f;
+        color[1] = 0.8f;
+        color[2] = 0.8f;
+
+        PointerBuffer materials = scene.mMaterials();
+        if (materials == null || materialIndex >= scene.mNumMaterials()) {
+            return;
+        }
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            AIColor4D diffuse = AIColor4D.malloc(stack);
+            AIMaterial material = AIMaterial.create(materials.get(materialIndex));
+            if (aiGetMaterialColor(material, AI_MATKEY_COLOR_DIFFUSE, aiTextureType_NONE, 0, diffuse) == aiReturn_SUCCESS) {
+                color[0] = diffuse.r();
+                color[1] = diffuse.g();
+                color[2] = diffuse.b();
+            }
+        }
+    }
+
+    /**
+     * Map a cache file, if it exists and matches the source.
+     *
+     * @param file Cache file
+     * @param sourceSize Size of the source
+     * @param sourceTime Modification time of the source
+     * @return The cached model, or null if there is no usable cache
+     * @throws IOException If the file exists but cannot be read
+     */
+    static ModelData readCache(Path file, long sourceSize, long sourceTime) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                return null;
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.nativeOrder());
+        }
+
+        if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION
+                || data.getLong(8) != sourceSize || data.getLong(16) != sourceTime) {
+            return null;
+        }
+        long expected = HEADER_BYTES + (long) data.getInt(VERTEX_COUNT_OFFSET) * VERTEX_FLOATS * Float.BYTES
+            + (long) data.getInt(INDEX_COUNT_OFFSET) * Integer.BYTES;
+        if (data.capacity() != expected) {
+            return null;
+        }
+        return new ModelData(data, true);
+    }
+
+    /**
+     * Write the model to a cache file. The file is written beside its final
+     * name and then moved into place, so readers never see it half written.
+     *
+     * @param file Cache file
+     * @throws IOException If the file cannot be written
+     */
+    void writeCache(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                ByteBuffer block = data.duplicate();
+                block.clear();
+                while (block.hasRemaining()) {
+                    channel.write(block);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Get the interleaved vertices, for upload.
+     *
+     * @return View of the vertex data
+     */
+    FloatBuffer getVertices() {
+        ByteBuffer vertices = data.duplicate();
+        vertices.position(HEADER_BYTES).limit(HEADER_BYTES + vertexCount * VERTEX_FLOATS * Float.BYTES);
+        return vertices.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Get the triangle indices, for upload.
+     *
+     * @return View of the index data
+     */
+    IntBuffer getIndices() {
+        int start = HEADER_BYTES + vertexCount * VERTEX_FLOATS * Float.BYTES;
+        ByteBuffer indices = data.duplicate();
+        indices.position(start).limit(start + indexCount * Integer.BYTES);
+        return indices.slice().order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * Get the number of vertices.
+     *
+     * @return Vertex count
+     */
+    int getVertexCount() {
+        return vertexCount;
+    }
+
+    /**
+     * Get the number of indices.
+     *
+     * @return Index count
+     */
+    int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * Get the bounding box in model space.
+     *
+     * @return minX, minY, minZ, maxX, maxY, maxZ
+     */
+    float[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * Get the size of the vertex and index data.
+     *
+     * @return Size in bytes
+     */
+    long getByteSize() {
+        return data.capacity() - HEADER_BYTES;
+    }
+
+    /**
+     * Whether the data is mapped from a cache file.
+     *
+     * @return true if read from the cache
+     */
+    boolean isCached() {
+        return mapped;
+    }
+
+    /**
+     * Free the native memory of an imported model. A mapped cache file is
+     * released once no longer referenced.
+     */
+    void free() {
+        if (!mapped) {
+            MemoryUtil.memFree(data);
+        }
+    }
+}
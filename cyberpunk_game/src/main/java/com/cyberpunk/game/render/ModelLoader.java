@@ -0,0 +1,302 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads models without blocking the render thread.
+ *
+ * The first time a model is loaded it is imported through Assimp on a
+ * worker thread and converted to interleaved, indexed vertices, which are
+ * also written to a binary cache. Later launches find the cache and map it
+ * instead, skipping Assimp entirely; the mapping is uploaded as is. A cache
+ * is rebuilt when the size or modification time of its source changes.
+ * Finished models are handed back through a queue, and update() uploads a
+ * limited amount of them per frame on the render thread.
+ */
+public class ModelLoader {
+
+    // Bytes uploaded per update, so a burst of finished models does not stall a frame
+    private static final long UPLOAD_BYTES_PER_UPDATE = 8L * 1024 * 1024;
+
+    // Default cache directory, relative to the working directory
+    private static final String DEFAULT_CACHE_DIRECTORY = "cache/models";
+
+    // Buffers are created through the optimizer, which deletes them
+    private final PerformanceOptimizer performanceOptimizer;
+    private final Path cacheDirectory;
+
+    // Worker threads
+    private final ExecutorService workers;
+
+    // Requested models by name
+    private final Map<String, Model> models;
+
+    // Models waiting for upload
+    private final ConcurrentLinkedQueue<LoadedModel> completed;
+
+    // Statistics
+    private final AtomicInteger importedCount;
+    private final AtomicInteger cachedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param performanceOptimizer Performance optimizer that owns the buffers
+     */
+    public ModelLoader(PerformanceOptimizer performanceOptimizer) {
+        this(performanceOptimizer, Paths.get(DEFAULT_CACHE_DIRECTORY));
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param performanceOptimizer Performance optimizer that owns the buffers
+     * @param cacheDirectory Directory the converted models are cached in
+     */
+    public ModelLoader(PerformanceOptimizer performanceOptimizer, Path cacheDirectory) {
+        this.performanceOptimizer = performanceOptimizer;
+        this.cacheDirectory = cacheDirectory;
+        models = new HashMap<>();
+        completed = new ConcurrentLinkedQueue<>();
+        importedCount = new AtomicInteger();
+        cachedCount = new AtomicInteger();
+
+        int threads = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "model-loader");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Request a model. Returns at once; the model is read from the cache or
+     * imported in the background. Requesting a name again returns the same
+     * handle.
+     *
+     * @param name Model name, also the name of its cache file
+     * @param path Model path, looked up on the classpath and then the file system
+     * @return Model handle
+     */
+    public Model load(String name, String path) {
+        Model model = models.get(name);
+        if (model != null) {
+            return model;
+        }
+
+        Model newModel = new Model(name);
+        models.put(name, newModel);
+
+        workers.submit(() -> {
+            try {
+                completed.add(new LoadedModel(newModel, read(name, path)));
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("Failed to load model " + name + " from " + path + ": " + e.getMessage());
+                newModel.setFailed();
+            }
+        });
+        return newModel;
+    }
+
+    /**
+     * Read a model from its cache, or import it and write the cache.
+     *
+     * @param name Model name
+     * @param path Model path
+     * @return The model data
+     * @throws IOException If the source cannot be read
+     */
+    private ModelData read(String name, String path) throws IOException {
+        long[] source = getSourceStamp(path);
+        Path cacheFile = cacheDirectory.resolve(name.replaceAll("[^A-Za-z0-9._-]", "_") + ".model");
+
+        try {
+            ModelData cached = ModelData.readCache(cacheFile, source[0], source[1]);
+            if (cached != null) {
+                cachedCount.incrementAndGet();
+                return cached;
+            }
+        } catch (IOException e) {
+            System.err.println("Ignoring unreadable model cache " + cacheFile + ": " + e.getMessage());
+        }
+
+        int dot = path.lastIndexOf('.');
+        String extension = dot >= 0 ? path.substring(dot + 1) : "";
+        ModelData imported = ModelData.importModel(readFile(path), extension, source[0], source[1]);
+        importedCount.incrementAndGet();
+        try {
+            imported.writeCache(cacheFile);
+        } catch (IOException e) {
+            // The model is still usable; it is imported again next launch
+            System.err.println("Failed to write model cache " + cacheFile + ": " + e.getMessage());
+        }
+        return imported;
+    }
+
+    /**
+     * Get the size and modification time of a model source on the classpath
+     * or the file system, to tell whether its cache is current.
+     *
+     * @param path Model path
+     * @return Size in bytes and modification time in milliseconds
+     * @throws IOException If the source does not exist
+     */
+    private static long[] getSourceStamp(String path) throws IOException {
+        URL resource = ModelLoader.class.getResource("/" + path);
+        if (resource != null) {
+            URLConnection connection = resource.openConnection();
+            long[] stamp = {connection.getContentLengthLong(), connection.getLastModified()};
+            connection.getInputStream().close();
+            return stamp;
+        }
+
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("File not found");
+        }
+        return new long[] {Files.size(file), Files.getLastModifiedTime(file).toMillis()};
+    }
+
+    /**
+     * Read a file from the classpath or the file system.
+     *
+     * @param path File path
+     * @return File contents
+     * @throws IOException If the file cannot be read
+     */
+    private static byte[] readFile(String path) throws IOException {
+        try (InputStream stream = ModelLoader.class.getResourceAsStream("/" + path)) {
+            if (stream != null) {
+                return stream.readAllBytes();
+            }
+        }
+
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("File not found");
+        }
+        return Files.readAllBytes(file);
+    }
+
+    /**
+     * Upload finished models. Must be called on the render thread once per
+     * frame.
+     */
+    public void update() {
+        long uploaded = 0;
+        LoadedModel loaded;
+        while (uploaded < UPLOAD_BYTES_PER_UPDATE && (loaded = completed.poll()) != null) {
+            try {
+                upload(loaded.data, loaded.model);
+                uploaded += loaded.data.getByteSize();
+            } finally {
+                loaded.data.free();
+            }
+        }
+    }
+
+    /**
+     * Create the vertex array and buffers of a model.
+     *
+     * @param data The model data
+     * @param model Model handle to update
+     */
+    private void upload(ModelData data, Model model) {
+        int vao = performanceOptimizer.createVAO();
+        performanceOptimizer.createVBO(data.getVertices(), GL_STATIC_DRAW);
+        int stride = ModelData.VERTEX_FLOATS * Float.BYTES;
+        performanceOptimizer.setVertexAttribPointer(Mesh.ATTRIBUTE_POSITION, 3, stride, 0);
+        performanceOptimizer.setVertexAttribPointer(Mesh.ATTRIBUTE_COLOR, 3, stride, 3 * Float.BYTES);
+        performanceOptimizer.setVertexAttribPointer(Model.ATTRIBUTE_NORMAL, 3, stride, 6 * Float.BYTES);
+        performanceOptimizer.setVertexAttribPointer(Model.ATTRIBUTE_TEXCOORD, 2, stride, 9 * Float.BYTES);
+        performanceOptimizer.createIBO(data.getIndices());
+        performanceOptimizer.unbindVAO();
+
+        model.setBuffers(vao, data.getIndexCount(), data.getBounds());
+    }
+
+    /**
+     * Get a requested model.
+     *
+     * @param name Model name
+     * @return Model handle, or null if it was never requested
+     */
+    public Model getModel(String name) {
+        return models.get(name);
+    }
+
+    /**
+     * Get the number of models imported through Assimp since startup.
+     *
+     * @return Imported model count
+     */
+    public int getImportedCount() {
+        return importedCount.get();
+    }
+
+    /**
+     * Get the number of models read from the cache since startup.
+     *
+     * @return Cached model count
+     */
+    public int getCachedCount() {
+        return cachedCount.get();
+    }
+
+    /**
+     * Whether models are still being loaded or waiting for upload.
+     *
+     * @return true if loading is in progress
+     */
+    public boolean isLoading() {
+        for (Model model : models.values()) {
+            if (!model.isLoaded() && !model.isFailed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop the workers and free models not yet uploaded. Buffers of
+     * uploaded models are deleted by the performance optimizer.
+     */
+    public void cleanup() {
+        workers.shutdownNow();
+
+        LoadedModel loaded;
+        while ((loaded = completed.poll()) != null) {
+            loaded.data.free();
+        }
+    }
+
+    /**
+     * Model data and the model it belongs to.
+     */
+    private static class LoadedModel {
+        final Model model;
+        final ModelData data;
+
+        LoadedModel(Model model, ModelData data) {
+            this.model = model;
+            this.data = data;
+        }
+    }
+}
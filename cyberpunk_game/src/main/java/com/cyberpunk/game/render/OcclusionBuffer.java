@@ -0,0 +1,365 @@
+package com.cyberpunk.game.render;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Low-resolution software depth buffer for occlusion culling.
+ *
+ * A frame starts with begin(), after which the largest nearby boxes are
+ * added as occluders and rasterized into the buffer, and then the bounds of
+ * other objects are tested against it before they are drawn. The buffer
+ * stores 1/w per pixel, which is linear in screen space, so a box is hidden
+ * when its nearest corner is farther than every pixel its screen rectangle
+ * covers.
+ *
+ * Rasterization is split into horizontal bands processed in parallel. The
+ * inner loops step edge functions and depth over plain float arrays with no
+ * branches besides the coverage test, so the JIT can vectorize them.
+ */
+public class OcclusionBuffer {
+
+    // Buffer resolution
+    public static final int WIDTH = 256;
+    public static final int HEIGHT = 128;
+
+    // Closest w accepted before geometry is clipped or treated as visible
+    private static final float NEAR_W = 0.1f;
+
+    // Triangle layout: screen x, screen y and 1/w of each corner
+    private static final int TRIANGLE_FLOATS = 9;
+
+    // Box corners from the bounds array: min/max index per axis
+    private static final int[][] CORNERS = {
+        {0, 1, 2}, {3, 1, 2}, {3, 1, 5}, {0, 1, 5},
+        {0, 4, 2}, {3, 4, 2}, {3, 4, 5}, {0, 4, 5}
+    };
+
+    // Box faces as corner indices, with the axis and side they face
+    private static final int[][] FACES = {
+        {0, 3, 7, 4}, {1, 2, 6, 5}, // -X, +X
+        {0, 1, 2, 3}, {4, 5, 6, 7}, // -Y, +Y
+        {0, 1, 5, 4}, {3, 2, 6, 7}  // -Z, +Z
+    };
+
+    // Depth per pixel as 1/w; 0 where nothing has been drawn
+    private final float[] depth;
+
+    // Rasterization workers and their bands
+    private final ExecutorService workers;
+    private final List<Callable<Void>> bandTasks;
+
+    // Frame state
+    private final Matrix4f viewProjection;
+    private final Vector3f eye;
+    private final float[] clip;
+    private final float[] polygon;
+    private float[] triangles;
+    private int triangleCount;
+
+    // Statistics of the current frame
+    private long frameStart;
+    private int tested;
+    private int occluded;
+
+    /**
+     * Constructor.
+     */
+    public OcclusionBuffer() {
+        depth = new float[WIDTH * HEIGHT];
+        viewProjection = new Matrix4f();
+        eye = new Vector3f();
+        clip = new float[CORNERS.length * 3];
+        polygon = new float[8 * 3];
+        triangles = new float[64 * TRIANGLE_FLOATS];
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        bandTasks = new ArrayList<>();
+        int bandHeight = (HEIGHT + threads - 1) / threads;
+        for (int y = 0; y < HEIGHT; y += bandHeight) {
+            int minY = y;
+            int maxY = Math.min(HEIGHT, y + bandHeight);
+            bandTasks.add(() -> {
+                rasterizeBand(minY, maxY);
+                return null;
+            });
+        }
+        workers = threads > 1 ? Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "occlusion-raster");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Start a frame: clear the buffer and take the camera's view.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    public void begin(Camera camera) {
+        frameStart = System.nanoTime();
+        viewProjection.set(camera.getViewProjectionMatrix());
+        eye.set(camera.getPosition());
+        Arrays.fill(depth, 0.0f);
+        triangleCount = 0;
+        tested = 0;
+        occluded = 0;
+    }
+
+    /**
+     * Add a box as an occluder. Only its faces turned towards the camera are
+     * kept, clipped against the near plane.
+     *
+     * @param bounds Array of boxes
+     * @param offset Offset of minX, minY, minZ, maxX, maxY, maxZ in the array
+     */
+    public void addOccluder(float[] bounds, int offset) {
+        for (int i = 0; i < CORNERS.length; i++) {
+            int[] corner = CORNERS[i];
+            float x = bounds[offset + corner[0]];
+            float y = bounds[offset + corner[1]];
+            float z = bounds[offset + corner[2]];
+            clip[i * 3] = viewProjection.m00() * x + viewProjection.m10() * y + viewProjection.m20() * z + viewProjection.m30();
+            clip[i * 3 + 1] = viewProjection.m01() * x + viewProjection.m11() * y + viewProjection.m21() * z + viewProjection.m31();
+            clip[i * 3 + 2] = viewProjection.m03() * x + viewProjection.m13() * y + viewProjection.m23() * z + viewProjection.m33();
+        }
+
+        for (int face = 0; face < FACES.length; face++) {
+            int axis = face / 2;
+            float plane = bounds[offset + axis + (face % 2 == 0 ? 0 : 3)];
+            float eyeCoordinate = axis == 0 ? eye.x : axis == 1 ? eye.y : eye.z;
+            boolean facing = face % 2 == 0 ? eyeCoordinate < plane : eyeCoordinate > plane;
+            if (facing) {
+                addFace(FACES[face]);
+            }
+        }
+    }
+
+    /**
+     * Clip a box face against the near plane and add it as triangles.
+     *
+     * @param face Corner indices of the face
+     */
+    private void addFace(int[] face) {
+        // Sutherland-Hodgman against w >= NEAR_W in clip space
+        int count = 0;
+        for (int i = 0; i < face.length; i++) {
+            int a = face[i] * 3;
+            int b = face[(i + 1) % face.length] * 3;
+            float wa = clip[a + 2];
+            float wb = clip[b + 2];
+            if (wa >= NEAR_W) {
+                polygon[count * 3] = clip[a];
+                polygon[count * 3 + 1] = clip[a + 1];
+                polygon[count * 3 + 2] = wa;
+                count++;
+            }
+            if ((wa >= NEAR_W) != (wb >= NEAR_W)) {
+                float t = (NEAR_W - wa) / (wb - wa);
+                polygon[count * 3] = clip[a] + (clip[b] - clip[a]) * t;
+                polygon[count * 3 + 1] = clip[a + 1] + (clip[b + 1] - clip[a + 1]) * t;
+                polygon[count * 3 + 2] = NEAR_W;
+                count++;
+            }
+        }
+
+        // Project to the buffer and fan into triangles
+        for (int i = 0; i < count; i++) {
+            float invW = 1.0f / polygon[i * 3 + 2];
+            polygon[i * 3] = (polygon[i * 3] * invW * 0.5f + 0.5f) * WIDTH;
+            polygon[i * 3 + 1] = (polygon[i * 3 + 1] * invW * 0.5f + 0.5f) * HEIGHT;
+            polygon[i * 3 + 2] = invW;
+        }
+        for (int i = 1; i + 1 < count; i++) {
+            if ((triangleCount + 1) * TRIANGLE_FLOATS > triangles.length) {
+                triangles = Arrays.copyOf(triangles, triangles.length * 2);
+            }
+            int t = triangleCount * TRIANGLE_FLOATS;
+            System.arraycopy(polygon, 0, triangles, t, 3);
+            System.arraycopy(polygon, i * 3, triangles, t + 3, 6);
+            triangleCount++;
+        }
+    }
+
+    /**
+     * Rasterize the occluders added since begin(). Call once, after the last
+     * occluder and before the first test.
+     */
+    public void rasterize() {
+        if (workers == null) {
+            rasterizeBand(0, HEIGHT);
+        } else {
+            try {
+                for (Future<Void> band : workers.invokeAll(bandTasks)) {
+                    band.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Rasterize all triangles into a band of rows.
+     *
+     * @param minY First row
+     * @param maxY Row after the last
+     */
+    private void rasterizeBand(int minY, int maxY) {
+        for (int t = 0; t < triangleCount; t++) {
+            int o = t * TRIANGLE_FLOATS;
+            float x0 = triangles[o];
+            float y0 = triangles[o + 1];
+            float z0 = triangles[o + 2];
+            float x1 = triangles[o + 3];
+            float y1 = triangles[o + 4];
+            float z1 = triangles[o + 5];
+            float x2 = triangles[o + 6];
+            float y2 = triangles[o + 7];
+            float z2 = triangles[o + 8];
+
+            float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+            if (Math.abs(area) < 1.0e-6f) {
+                continue;
+            }
+
+            // Pixel centres inside the triangle's bounding box and the band
+            int startX = Math.max(0, (int) Math.ceil(Math.min(x0, Math.min(x1, x2)) - 0.5f));
+            int endX = Math.min(WIDTH - 1, (int) Math.floor(Math.max(x0, Math.max(x1, x2)) - 0.5f));
+            int startY = Math.max(minY, (int) Math.ceil(Math.min(y0, Math.min(y1, y2)) - 0.5f));
+            int endY = Math.min(maxY - 1, (int) Math.floor(Math.max(y0, Math.max(y1, y2)) - 0.5f));
+            if (startX > endX || startY > endY) {
+                continue;
+            }
+
+            // Edge functions scaled by the winding, so inside is positive
+            // either way; each steps by a constant per pixel
+            float sign = area > 0 ? 1.0f : -1.0f;
+            float a0 = (y1 - y2) * sign;
+            float b0 = (x2 - x1) * sign;
+            float a1 = (y2 - y0) * sign;
+            float b1 = (x0 - x2) * sign;
+            float a2 = (y0 - y1) * sign;
+            float b2 = (x1 - x0) * sign;
+
+            // Depth plane from the barycentric weights
+            float invArea = 1.0f / (area * sign);
+            float dzdx = (a0 * z0 + a1 * z1 + a2 * z2) * invArea;
+            float dzdy = (b0 * z0 + b1 * z1 + b2 * z2) * invArea;
+
+            float px = startX + 0.5f;
+            for (int y = startY; y <= endY; y++) {
+                float py = y + 0.5f;
+                float e0 = a0 * (px - x1) + b0 * (py - y1);
+                float e1 = a1 * (px - x2) + b1 * (py - y2);
+                float e2 = a2 * (px - x0) + b2 * (py - y0);
+                float z = z0 + dzdx * (px - x0) + dzdy * (py - y0);
+
+                int row = y * WIDTH;
+                for (int x = startX; x <= endX; x++) {
+                    if (Math.min(e0, Math.min(e1, e2)) >= 0.0f) {
+                        depth[row + x] = Math.max(depth[row + x], z);
+                    }
+                    e0 += a0;
+                    e1 += a1;
+                    e2 += a2;
+                    z += dzdx;
+                }
+            }
+        }
+    }
+
+    /**
+     * Test whether a box is hidden behind the rasterized occluders.
+     *
+     * @param bounds Array of boxes
+     * @param offset Offset of minX, minY, minZ, maxX, maxY, maxZ in the array
+     * @return true if the box is certainly hidden
+     */
+    public boolean isOccluded(float[] bounds, int offset) {
+        tested++;
+
+        // Screen rectangle and nearest depth of the box
+        float minX = Float.MAX_VALUE;
+        float minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE;
+        float maxY = -Float.MAX_VALUE;
+        float nearest = 0.0f;
+        for (int[] corner : CORNERS) {
+            float x = bounds[offset + corner[0]];
+            float y = bounds[offset + corner[1]];
+            float z = bounds[offset + corner[2]];
+            float w = viewProjection.m03() * x + viewProjection.m13() * y + viewProjection.m23() * z + viewProjection.m33();
+            if (w < NEAR_W) {
+                // Reaches behind the near plane: too close to test
+                return false;
+            }
+            float invW = 1.0f / w;
+            float sx = ((viewProjection.m00() * x + viewProjection.m10() * y + viewProjection.m20() * z + viewProjection.m30())
+                * invW * 0.5f + 0.5f) * WIDTH;
+            float sy = ((viewProjection.m01() * x + viewProjection.m11() * y + viewProjection.m21() * z + viewProjection.m31())
+                * invW * 0.5f + 0.5f) * HEIGHT;
+            minX = Math.min(minX, sx);
+            minY = Math.min(minY, sy);
+            maxX = Math.max(maxX, sx);
+            maxY = Math.max(maxY, sy);
+            nearest = Math.max(nearest, invW);
+        }
+
+        // Every pixel the rectangle touches must be nearer than the box
+        int startX = Math.max(0, (int) Math.floor(minX));
+        int endX = Math.min(WIDTH - 1, (int) Math.floor(maxX));
+        int startY = Math.max(0, (int) Math.floor(minY));
+        int endY = Math.min(HEIGHT - 1, (int) Math.floor(maxY));
+        if (startX > endX || startY > endY) {
+            return false;
+        }
+        for (int y = startY; y <= endY; y++) {
+            int row = y * WIDTH;
+            for (int x = startX; x <= endX; x++) {
+                if (depth[row + x] <= nearest) {
+                    return false;
+                }
+            }
+        }
+
+        occluded++;
+        return true;
+    }
+
+    /**
+     * Finish the frame and report its results to RenderStats.
+     */
+    public void end() {
+        RenderStats.addOcclusionResult(tested, occluded, System.nanoTime() - frameStart);
+    }
+
+    /**
+     * Get the number of occluder triangles in the current frame.
+     *
+     * @return Triangle count
+     */
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    /**
+     * Stop the rasterization workers.
+     */
+    public void cleanup() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+}
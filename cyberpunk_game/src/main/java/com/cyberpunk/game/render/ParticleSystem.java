@@ -0,0 +1,505 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.GL_PROGRAM_POINT_SIZE;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+/**
+ * Particles simulated and drawn entirely on the GPU.
+ *
+ * Particle state lives in two vertex buffers. Each frame a vertex shader
+ * reads every slot of one buffer, advances it and writes it to the other
+ * with transform feedback, and the result is drawn as point sprites, so the
+ * CPU issues the same two draws however many particles are alive. The CPU
+ * only writes newly emitted particles, into a ring of slots that overwrites
+ * the oldest ones first.
+ *
+ * Sparks fall, slow down and bounce off the ground until their life runs
+ * out. Rain lives in a reserved quarter of the slots and never dies: the
+ * shader wraps each drop around a box that follows the camera, so rain is
+ * written once when its density changes.
+ *
+ * The number of slots is the PerformanceOptimizer's particle budget. When
+ * particles are disabled the budget is 0 and nothing is allocated, emitted,
+ * simulated or drawn.
+ */
+public class ParticleSystem {
+
+    // Particle layout: position (3) + life (1), velocity (3) + kind (1),
+    // color (3) + size (1)
+    private static final int PARTICLE_FLOATS = 12;
+    private static final int PARTICLE_BYTES = PARTICLE_FLOATS * Float.BYTES;
+
+    // Particle kinds
+    private static final float KIND_SPARK = 0.0f;
+    private static final float KIND_RAIN = 1.0f;
+
+    // Particles emitted per frame; emissions past this are dropped
+    private static final int MAX_EMITTED = 4096;
+
+    // Share of the slots reserved for rain
+    private static final int RAIN_DIVISOR = 4;
+
+    // Half extents of the box of rain around the camera
+    private static final float RAIN_HALF_WIDTH = 40.0f;
+    private static final float RAIN_HALF_HEIGHT = 25.0f;
+
+    // Longest time step, so a hitch does not fling particles
+    private static final float MAX_DELTA = 0.1f;
+
+    // Neon sign colours
+    private static final float[][] NEON_COLORS = {
+        {0.0f, 1.0f, 1.0f}, {1.0f, 0.0f, 0.8f}, {0.6f, 0.2f, 1.0f}, {1.0f, 0.9f, 0.2f}
+    };
+
+    private static final String UPDATE_SHADER = """
+        #version 330 compatibility
+
+        layout(location = 0) in vec4 positionLife;
+        layout(location = 1) in vec4 velocityKind;
+        layout(location = 2) in vec4 colorSize;
+
+        uniform float delta;
+        uniform vec3 cameraPosition;
+        uniform vec3 rainExtent;
+
+        out vec4 outPositionLife;
+        out vec4 outVelocityKind;
+        out vec4 outColorSize;
+
+        void main() {
+            vec3 position = positionLife.xyz;
+            float life = positionLife.w;
+            vec3 velocity = velocityKind.xyz;
+
+            if (life > 0.0) {
+                if (velocityKind.w < 0.5) {
+                    // Spark: gravity, drag and a dull bounce off the ground
+                    velocity.y -= 9.81 * delta;
+                    velocity *= max(0.0, 1.0 - 1.5 * delta);
+                    position += velocity * delta;
+                    if (position.y < 0.0) {
+                        position.y = 0.0;
+                        velocity.y = -velocity.y * 0.3;
+                        velocity.xz *= 0.6;
+                    }
+                    life -= delta;
+                } else {
+                    // Rain: fall and wrap around the box following the camera
+                    position += velocity * delta;
+                    vec3 offset = mod(position - cameraPosition + rainExtent, 2.0 * rainExtent) - rainExtent;
+                    position = cameraPosition + offset;
+                }
+            }
+
+            outPositionLife = vec4(position, life);
+            outVelocityKind = vec4(velocity, velocityKind.w);
+            outColorSize = colorSize;
+        }
+        """;
+
+    private static final String RENDER_VERTEX_SHADER = """
+        #version 330 compatibility
+
+        layout(location = 0) in vec4 positionLife;
+        layout(location = 1) in vec4 velocityKind;
+        layout(location = 2) in vec4 colorSize;
+
+        uniform float pointScale;
+
+        out vec4 fragColor;
+        out float fogDepth;
+
+        void main() {
+            if (positionLife.w <= 0.0) {
+                // Dead slot: outside the clip volume
+                gl_Position = vec4(2.0, 2.0, 2.0, 1.0);
+                gl_PointSize = 0.0;
+                fragColor = vec4(0.0);
+                fogDepth = 0.0;
+                return;
+            }
+
+            vec4 eyePosition = gl_ModelViewMatrix * vec4(positionLife.xyz, 1.0);
+            gl_Position = gl_ProjectionMatrix * eyePosition;
+            fogDepth = -eyePosition.z;
+            gl_PointSize = max(1.0, colorSize.w * pointScale / max(fogDepth, 0.1));
+
+            // Sparks fade over their last half second
+            float alpha = velocityKind.w < 0.5 ? clamp(positionLife.w * 2.0, 0.0, 1.0) : 0.5;
+            fragColor = vec4(colorSize.rgb, alpha);
+        }
+        """;
+
+    private static final String RENDER_FRAGMENT_SHADER = """
+        #version 330 compatibility
+
+        in vec4 fragColor;
+        in float fogDepth;
+
+        out vec4 outColor;
+
+        void main() {
+            // Round, soft-edged sprite
+            vec2 offset = gl_PointCoord * 2.0 - 1.0;
+            float radius = dot(offset, offset);
+            if (radius > 1.0) {
+                discard;
+            }
+
+            float fog = clamp((gl_Fog.end - fogDepth) * gl_Fog.scale, 0.0, 1.0);
+            outColor = vec4(fragColor.rgb, fragColor.a * (1.0 - radius) * fog);
+        }
+        """;
+
+    // Settings
+    private final PerformanceOptimizer optimizer;
+
+    // Shaders
+    private final ShaderProgram updateShader;
+    private final ShaderProgram renderShader;
+
+    // Ping-pong state buffers; source holds the latest state
+    private final int[] buffers;
+    private final int[] vaos;
+    private int source;
+    private int capacity;
+
+    // Slots in use: rain, then the ring of emitted particles
+    private int rainSlots;
+    private int ringCursor;
+    private int activeSlots;
+
+    // Particles emitted since the last update
+    private final FloatBuffer emitted;
+    private int emittedCount;
+    private final Random random;
+
+    // Rain
+    private float rainDensity;
+    private boolean rainDirty;
+
+    // Timing
+    private long lastUpdate;
+
+    /**
+     * Constructor. Must be called on the render thread.
+     *
+     * @param optimizer Performance optimizer holding the particle budget
+     */
+    public ParticleSystem(PerformanceOptimizer optimizer) {
+        this.optimizer = optimizer;
+        updateShader = new ShaderProgram(UPDATE_SHADER,
+            new String[] {"outPositionLife", "outVelocityKind", "outColorSize"});
+        renderShader = new ShaderProgram(RENDER_VERTEX_SHADER, RENDER_FRAGMENT_SHADER);
+        buffers = new int[2];
+        vaos = new int[2];
+        emitted = MemoryUtil.memAllocFloat(MAX_EMITTED * PARTICLE_FLOATS);
+        random = new Random();
+    }
+
+    /**
+     * Emit a burst of sparks.
+     *
+     * @param x X position
+     * @param y Y position
+     * @param z Z position
+     * @param count Number of sparks
+     * @param r Red
+     * @param g Green
+     * @param b Blue
+     */
+    public void emitSparks(float x, float y, float z, int count, float r, float g, float b) {
+        if (optimizer.getParticleBudget() == 0) {
+            return;
+        }
+
+        int n = Math.min(count, MAX_EMITTED - emittedCount);
+        for (int i = 0; i < n; i++) {
+            // Mostly upward, in every direction around
+            float angle = random.nextFloat() * (float) (Math.PI * 2.0);
+            float speed = 1.5f + random.nextFloat() * 4.5f;
+            float spread = random.nextFloat();
+            float vx = (float) Math.cos(angle) * speed * spread;
+            float vz = (float) Math.sin(angle) * speed * spread;
+            float vy = speed * (0.3f + random.nextFloat());
+            float life = 0.4f + random.nextFloat() * 0.8f;
+            float brightness = 0.7f + random.nextFloat() * 0.3f;
+            emitted.put(x).put(y).put(z).put(life)
+                .put(vx).put(vy).put(vz).put(KIND_SPARK)
+                .put(r * brightness).put(g * brightness).put(b * brightness).put(0.04f);
+        }
+        emittedCount += n;
+    }
+
+    /**
+     * Emit the sparks of a bullet impact.
+     *
+     * @param position Impact position
+     */
+    public void emitImpact(Vector3f position) {
+        emitSparks(position.x, position.y, position.z, 24, 1.0f, 0.6f, 0.2f);
+    }
+
+    /**
+     * Emit sparks from a shorting neon sign, in one of the sign colours.
+     *
+     * @param x X position
+     * @param y Y position
+     * @param z Z position
+     */
+    public void emitNeonSparks(float x, float y, float z) {
+        float[] color = NEON_COLORS[random.nextInt(NEON_COLORS.length)];
+        emitSparks(x, y, z, 16, color[0], color[1], color[2]);
+    }
+
+    /**
+     * Set how heavily it rains.
+     *
+     * @param density Share of the rain slots in use (0.0 for none to 1.0)
+     */
+    public void setRainDensity(float density) {
+        density = Math.max(0.0f, Math.min(1.0f, density));
+        if (density != rainDensity) {
+            rainDensity = density;
+            rainDirty = true;
+        }
+    }
+
+    /**
+     * Upload new particles and advance the simulation. Must be called on the
+     * render thread, once per frame, outside any render queue.
+     *
+     * @param camera Camera the frame is rendered from; rain follows it
+     */
+    public void update(Camera camera) {
+        long now = System.nanoTime();
+        float delta = lastUpdate == 0 ? 0.0f : Math.min(MAX_DELTA, (now - lastUpdate) / 1_000_000_000.0f);
+        lastUpdate = now;
+
+        int budget = optimizer.getParticleBudget();
+        if (budget != capacity) {
+            allocate(budget);
+        }
+        if (capacity == 0) {
+            emitted.clear();
+            emittedCount = 0;
+            return;
+        }
+
+        glBindBuffer(GL_ARRAY_BUFFER, buffers[source]);
+        if (rainDirty) {
+            writeRain(camera.getPosition());
+        }
+        writeEmitted();
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+
+        if (activeSlots == 0) {
+            return;
+        }
+
+        // Advance every active slot from the source buffer into the other one
+        int target = 1 - source;
+        Vector3f eye = camera.getPosition();
+        updateShader.bind();
+        updateShader.setUniform("delta", delta);
+        updateShader.setUniform("cameraPosition", eye.x, eye.y, eye.z);
+        updateShader.setUniform("rainExtent", RAIN_HALF_WIDTH, RAIN_HALF_HEIGHT, RAIN_HALF_WIDTH);
+
+        glEnable(GL_RASTERIZER_DISCARD);
+        glBindVertexArray(vaos[source]);
+        glBindBufferBase(GL_TRANSFORM_FEEDBACK_BUFFER, 0, buffers[target]);
+        glBeginTransformFeedback(GL_POINTS);
+        glDrawArrays(GL_POINTS, 0, activeSlots);
+        glEndTransformFeedback();
+        glBindBufferBase(GL_TRANSFORM_FEEDBACK_BUFFER, 0, 0);
+        glBindVertexArray(0);
+        glDisable(GL_RASTERIZER_DISCARD);
+
+        updateShader.unbind();
+        RenderStats.addDrawCall(0);
+        source = target;
+    }
+
+    /**
+     * Draw the particles as additive point sprites. The shader from
+     * getShader() must be bound.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    public void render(Camera camera) {
+        if (capacity == 0 || activeSlots == 0) {
+            return;
+        }
+
+        renderShader.setUniform("pointScale", camera.getScreenSize(1.0f, 1.0f));
+
+        glEnable(GL_PROGRAM_POINT_SIZE);
+        glEnable(GL_POINT_SPRITE);
+        glDepthMask(false);
+        glEnable(GL_BLEND);
+        glBlendFunc(GL_SRC_ALPHA, GL_ONE);
+
+        glBindVertexArray(vaos[source]);
+        glDrawArrays(GL_POINTS, 0, activeSlots);
+        glBindVertexArray(0);
+        RenderStats.addDrawCall(0);
+
+        glDisable(GL_BLEND);
+        glDepthMask(true);
+        glDisable(GL_POINT_SPRITE);
+        glDisable(GL_PROGRAM_POINT_SIZE);
+    }
+
+    /**
+     * Replace the state buffers with ones of a new size. Live particles are
+     * dropped. Every slot starts zeroed, which the shaders treat as dead, so
+     * rain slots that are never written draw nothing.
+     *
+     * @param slots Number of particle slots, 0 to free the buffers
+     */
+    private void allocate(int slots) {
+        freeBuffers();
+        capacity = slots;
+        rainSlots = slots / RAIN_DIVISOR;
+        ringCursor = rainSlots;
+        activeSlots = 0;
+        source = 0;
+        rainDirty = rainDensity > 0.0f;
+        if (slots == 0) {
+            return;
+        }
+
+        ByteBuffer zeros = MemoryUtil.memCalloc(slots * PARTICLE_BYTES);
+        try {
+            for (int i = 0; i < 2; i++) {
+                buffers[i] = glGenBuffers();
+                glBindBuffer(GL_ARRAY_BUFFER, buffers[i]);
+                glBufferData(GL_ARRAY_BUFFER, zeros, GL_DYNAMIC_COPY);
+
+                vaos[i] = glGenVertexArrays();
+                glBindVertexArray(vaos[i]);
+                for (int attribute = 0; attribute < 3; attribute++) {
+                    glVertexAttribPointer(attribute, 4, GL_FLOAT, false, PARTICLE_BYTES, attribute * 4L * Float.BYTES);
+                    glEnableVertexAttribArray(attribute);
+                }
+                glBindVertexArray(0);
+            }
+        } finally {
+            MemoryUtil.memFree(zeros);
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Rewrite the rain slots of the bound source buffer for the current
+     * density, around the camera.
+     *
+     * @param eye Camera position
+     */
+    private void writeRain(Vector3f eye) {
+        rainDirty = false;
+        if (rainSlots == 0) {
+            return;
+        }
+
+        int alive = Math.round(rainSlots * rainDensity);
+        FloatBuffer rain = MemoryUtil.memCallocFloat(rainSlots * PARTICLE_FLOATS);
+        try {
+            for (int i = 0; i < alive; i++) {
+                float x = eye.x + (random.nextFloat() * 2.0f - 1.0f) * RAIN_HALF_WIDTH;
+                float y = eye.y + (random.nextFloat() * 2.0f - 1.0f) * RAIN_HALF_HEIGHT;
+                float z = eye.z + (random.nextFloat() * 2.0f - 1.0f) * RAIN_HALF_WIDTH;
+                float fall = -12.0f - random.nextFloat() * 4.0f;
+                rain.put(x).put(y).put(z).put(1.0f)
+                    .put(0.5f).put(fall).put(0.0f).put(KIND_RAIN)
+                    .put(0.55f).put(0.65f).put(0.85f).put(0.02f);
+            }
+
+            // Dead slots stay zeroed
+            rain.clear();
+            glBufferSubData(GL_ARRAY_BUFFER, 0, rain);
+        } finally {
+            MemoryUtil.memFree(rain);
+        }
+        activeSlots = Math.max(activeSlots, rainSlots);
+    }
+
+    /**
+     * Write the particles emitted since the last update into the ring of
+     * the bound source buffer, wrapping at its end.
+     */
+    private void writeEmitted() {
+        int ringSize = capacity - rainSlots;
+        int count = Math.min(emittedCount, ringSize);
+        int written = 0;
+        while (written < count) {
+            int n = Math.min(count - written, capacity - ringCursor);
+            emitted.position(written * PARTICLE_FLOATS);
+            emitted.limit((written + n) * PARTICLE_FLOATS);
+            glBufferSubData(GL_ARRAY_BUFFER, (long) ringCursor * PARTICLE_BYTES, emitted);
+
+            written += n;
+            ringCursor += n;
+            activeSlots = Math.max(activeSlots, ringCursor);
+            if (ringCursor == capacity) {
+                ringCursor = rainSlots;
+            }
+        }
+
+        emitted.clear();
+        emittedCount = 0;
+    }
+
+    /**
+     * Delete the state buffers.
+     */
+    private void freeBuffers() {
+        for (int i = 0; i < 2; i++) {
+            if (buffers[i] != 0) {
+                glDeleteVertexArrays(vaos[i]);
+                glDeleteBuffers(buffers[i]);
+                buffers[i] = 0;
+                vaos[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Get the shader the particles are drawn with, for a render queue packet.
+     *
+     * @return Shader program
+     */
+    public ShaderProgram getShader() {
+        return renderShader;
+    }
+
+    /**
+     * Get the number of particle slots.
+     *
+     * @return Slot count, the current particle budget
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Delete the GPU objects. Must be called on the render thread.
+     */
+    public void cleanup() {
+        freeBuffers();
+        updateShader.cleanup();
+        renderShader.cleanup();
+        MemoryUtil.memFree(emitted);
+    }
+}
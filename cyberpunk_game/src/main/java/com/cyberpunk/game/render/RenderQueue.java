@@ -0,0 +1,272 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import org.joml.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * Collects a frame's draws as packets and submits them sorted by state.
+ *
+ * Each packet gets a 64-bit sort key built from its pass, shader, texture
+ * and depth. Opaque packets are grouped by shader and texture and drawn
+ * front to back within a group; transparent packets are drawn back to
+ * front; UI packets keep their submission order. execute() sorts the keys
+ * with an LSD radix sort, which is stable, and only binds a shader or
+ * texture when it differs from the previous packet's.
+ *
+ * A packet with no shader runs with the fixed-function pipeline and one with
+ * texture 0 runs with no texture bound. Commands that bind other programs or
+ * textures themselves must restore those before returning.
+ */
+public class RenderQueue {
+
+    // Passes, drawn in this order
+    public static final int PASS_OPAQUE = 0;
+    public static final int PASS_TRANSPARENT = 1;
+    public static final int PASS_UI = 2;
+
+    // Key layout: pass in the top 4 bits, then 12 bits of shader, 16 of
+    // texture and 24 of depth; transparent packets put depth first
+    private static final int PASS_SHIFT = 60;
+    private static final int SHADER_BITS = 12;
+    private static final int TEXTURE_BITS = 16;
+    private static final int DEPTH_BITS = 24;
+    private static final float DEFAULT_FAR_PLANE = 1000.0f;
+
+    /**
+     * A draw in a packet.
+     */
+    @FunctionalInterface
+    public interface DrawCommand {
+
+        /**
+         * Issue the draw. The packet's shader and texture are bound.
+         */
+        void draw();
+    }
+
+    // Packets of the current frame
+    private long[] keys;
+    private int[] order;
+    private ShaderProgram[] shaders;
+    private int[] textures;
+    private DrawCommand[] commands;
+    private int count;
+
+    // Radix sort scratch
+    private long[] sortKeys;
+    private int[] sortOrder;
+    private final int[] histogram;
+
+    // View of the current frame, for depth
+    private final Vector3f eye;
+    private boolean hasEye;
+    private float farPlane;
+
+    /**
+     * Constructor.
+     */
+    public RenderQueue() {
+        int capacity = 256;
+        keys = new long[capacity];
+        order = new int[capacity];
+        shaders = new ShaderProgram[capacity];
+        textures = new int[capacity];
+        commands = new DrawCommand[capacity];
+        sortKeys = new long[capacity];
+        sortOrder = new int[capacity];
+        histogram = new int[256];
+        eye = new Vector3f();
+        farPlane = DEFAULT_FAR_PLANE;
+    }
+
+    /**
+     * Start collecting a frame.
+     *
+     * @param camera Camera the frame is rendered from, or null if packet
+     *               depths are not measured from a camera
+     */
+    public void begin(Camera camera) {
+        clear();
+        hasEye = camera != null;
+        if (camera != null) {
+            eye.set(camera.getPosition());
+            farPlane = camera.getFarPlane();
+        } else {
+            farPlane = DEFAULT_FAR_PLANE;
+        }
+    }
+
+    /**
+     * Get the distance of a point from the camera given to begin(), for use
+     * as a packet depth.
+     *
+     * @param x X position
+     * @param y Y position
+     * @param z Z position
+     * @return Distance, or 0 without a camera
+     */
+    public float getDepth(float x, float y, float z) {
+        return hasEye ? eye.distance(x, y, z) : 0.0f;
+    }
+
+    /**
+     * Get the depth that sorts after every other packet, e.g. for a ground
+     * plane that is best drawn after what stands on it.
+     *
+     * @return Far plane distance
+     */
+    public float getFarDepth() {
+        return farPlane;
+    }
+
+    /**
+     * Add a draw.
+     *
+     * @param pass Pass (PASS_OPAQUE, PASS_TRANSPARENT or PASS_UI)
+     * @param shader Shader to bind, or null for the fixed-function pipeline
+     * @param texture GL texture to bind, or 0 for none
+     * @param depth Distance from the camera; ignored in the UI pass
+     * @param command The draw
+     */
+    public void submit(int pass, ShaderProgram shader, int texture, float depth, DrawCommand command) {
+        if (count == keys.length) {
+            grow();
+        }
+
+        long shaderBits = shader != null ? shader.getProgramId() & ((1 << SHADER_BITS) - 1) : 0;
+        long textureBits = texture & ((1 << TEXTURE_BITS) - 1);
+        long maxDepth = (1L << DEPTH_BITS) - 1;
+        long depthBits = (long) (Math.max(0.0f, Math.min(1.0f, depth / farPlane)) * maxDepth);
+
+        long key = (long) pass << PASS_SHIFT;
+        if (pass == PASS_OPAQUE) {
+            key |= shaderBits << (TEXTURE_BITS + DEPTH_BITS + 8) | textureBits << (DEPTH_BITS + 8) | depthBits << 8;
+        } else if (pass == PASS_TRANSPARENT) {
+            key |= (maxDepth - depthBits) << (SHADER_BITS + TEXTURE_BITS + 8) | shaderBits << (TEXTURE_BITS + 8) | textureBits << 8;
+        }
+
+        keys[count] = key;
+        order[count] = count;
+        shaders[count] = shader;
+        textures[count] = texture;
+        commands[count] = command;
+        count++;
+    }
+
+    /**
+     * Double the packet capacity.
+     */
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        order = Arrays.copyOf(order, capacity);
+        shaders = Arrays.copyOf(shaders, capacity);
+        textures = Arrays.copyOf(textures, capacity);
+        commands = Arrays.copyOf(commands, capacity);
+        sortKeys = new long[capacity];
+        sortOrder = new int[capacity];
+    }
+
+    /**
+     * Sort the packets, draw them and clear the queue. Must be called on the
+     * render thread.
+     */
+    public void execute() {
+        sort();
+
+        ShaderProgram currentShader = null;
+        int currentTexture = 0;
+        int shaderChanges = 0;
+        int textureChanges = 0;
+        for (int i = 0; i < count; i++) {
+            int packet = order[i];
+
+            ShaderProgram shader = shaders[packet];
+            if (shader != currentShader) {
+                if (shader != null) {
+                    shader.bind();
+                } else {
+                    currentShader.unbind();
+                }
+                currentShader = shader;
+                shaderChanges++;
+            }
+
+            int texture = textures[packet];
+            if (texture != currentTexture) {
+                glBindTexture(GL_TEXTURE_2D, texture);
+                currentTexture = texture;
+                textureChanges++;
+            }
+
+            commands[packet].draw();
+        }
+
+        // Leave the fixed-function state the next renderer expects
+        if (currentShader != null) {
+            currentShader.unbind();
+        }
+        if (currentTexture != 0) {
+            glBindTexture(GL_TEXTURE_2D, 0);
+        }
+
+        RenderStats.addQueueResult(count, shaderChanges, textureChanges);
+        clear();
+    }
+
+    /**
+     * Sort the packet order by key, one byte per pass from the lowest. Bytes
+     * that are the same in every key are skipped.
+     */
+    private void sort() {
+        for (int shift = 0; shift < Long.SIZE; shift += 8) {
+            Arrays.fill(histogram, 0);
+            for (int i = 0; i < count; i++) {
+                histogram[(int) (keys[i] >>> shift) & 0xFF]++;
+            }
+            if (histogram[(int) (keys[0] >>> shift) & 0xFF] == count) {
+                continue;
+            }
+
+            int offset = 0;
+            for (int bucket = 0; bucket < histogram.length; bucket++) {
+                int bucketCount = histogram[bucket];
+                histogram[bucket] = offset;
+                offset += bucketCount;
+            }
+            for (int i = 0; i < count; i++) {
+                int target = histogram[(int) (keys[i] >>> shift) & 0xFF]++;
+                sortKeys[target] = keys[i];
+                sortOrder[target] = order[i];
+            }
+
+            long[] swapKeys = keys;
+            keys = sortKeys;
+            sortKeys = swapKeys;
+            int[] swapOrder = order;
+            order = sortOrder;
+            sortOrder = swapOrder;
+        }
+    }
+
+    /**
+     * Drop all packets.
+     */
+    private void clear() {
+        Arrays.fill(shaders, 0, count, null);
+        Arrays.fill(commands, 0, count, null);
+        count = 0;
+    }
+
+    /**
+     * Get the number of packets submitted since begin().
+     *
+     * @return Packet count
+     */
+    public int getPacketCount() {
+        return count;
+    }
+}
@@ -0,0 +1,307 @@
+package com.cyberpunk.game.render;
+
+/**
+ * Per-frame rendering counters.
+ *
+ * Renderers report their draw calls and culling results as they submit
+ * them; the frame's totals become readable after endFrame, e.g. for the
+ * debug overlay or benchmarks.
+ */
+public final class RenderStats {
+
+    // Counters for the frame being rendered
+    private static int drawCalls;
+    private static long triangles;
+    private static int culledObjects;
+    private static int visibleObjects;
+    private static int occlusionTested;
+    private static int occludedObjects;
+    private static long occlusionTime;
+    private static int renderPackets;
+    private static int shaderChanges;
+    private static int textureChanges;
+    private static long streamedVertices;
+    private static long streamTime;
+    private static long frameStart;
+
+    // Totals of the last finished frame
+    private static int lastDrawCalls;
+    private static long lastTriangles;
+    private static int lastCulledObjects;
+    private static int lastVisibleObjects;
+    private static int lastOcclusionTested;
+    private static int lastOccludedObjects;
+    private static float lastOcclusionTime;
+    private static int lastRenderPackets;
+    private static int lastShaderChanges;
+    private static int lastTextureChanges;
+    private static long lastStreamedVertices;
+    private static float lastStreamTime;
+    private static float lastCpuFrameTime;
+
+    // Latest dynamic resolution measurement
+    private static float gpuFrameTime;
+    private static float renderScale = 1.0f;
+
+    private RenderStats() {
+    }
+
+    /**
+     * Start counting a new frame.
+     */
+    public static void beginFrame() {
+        drawCalls = 0;
+        triangles = 0;
+        culledObjects = 0;
+        visibleObjects = 0;
+        occlusionTested = 0;
+        occludedObjects = 0;
+        occlusionTime = 0;
+        renderPackets = 0;
+        shaderChanges = 0;
+        textureChanges = 0;
+        streamedVertices = 0;
+        streamTime = 0;
+        frameStart = System.nanoTime();
+    }
+
+    /**
+     * Finish the frame and publish its totals.
+     */
+    public static void endFrame() {
+        lastDrawCalls = drawCalls;
+        lastTriangles = triangles;
+        lastCulledObjects = culledObjects;
+        lastVisibleObjects = visibleObjects;
+        lastOcclusionTested = occlusionTested;
+        lastOccludedObjects = occludedObjects;
+        lastOcclusionTime = occlusionTime / 1_000_000.0f;
+        lastRenderPackets = renderPackets;
+        lastShaderChanges = shaderChanges;
+        lastTextureChanges = textureChanges;
+        lastStreamedVertices = streamedVertices;
+        lastStreamTime = streamTime / 1_000_000.0f;
+        lastCpuFrameTime = (System.nanoTime() - frameStart) / 1_000_000.0f;
+    }
+
+    /**
+     * Record a draw call.
+     *
+     * @param numTriangles Triangles drawn (0 for lines and points)
+     */
+    public static void addDrawCall(long numTriangles) {
+        drawCalls++;
+        triangles += numTriangles;
+    }
+
+    /**
+     * Record the result of a visibility test.
+     *
+     * @param visible Objects that passed the test
+     * @param culled Objects that were rejected
+     */
+    public static void addCullResult(int visible, int culled) {
+        visibleObjects += visible;
+        culledObjects += culled;
+    }
+
+    /**
+     * Record the result of occlusion culling.
+     *
+     * @param tested Objects tested against the occluders
+     * @param occluded Objects found hidden
+     * @param nanos CPU time spent rasterizing and testing
+     */
+    public static void addOcclusionResult(int tested, int occluded, long nanos) {
+        occlusionTested += tested;
+        occludedObjects += occluded;
+        occlusionTime += nanos;
+    }
+
+    /**
+     * Record the execution of a render queue.
+     *
+     * @param packets Packets drawn
+     * @param shaders Shader program changes
+     * @param textures Texture binding changes
+     */
+    public static void addQueueResult(int packets, int shaders, int textures) {
+        renderPackets += packets;
+        shaderChanges += shaders;
+        textureChanges += textures;
+    }
+
+    /**
+     * Record vertices written to a streaming buffer.
+     *
+     * @param vertices Vertices written
+     * @param nanos CPU time spent writing them
+     */
+    public static void addStreamedVertices(int vertices, long nanos) {
+        streamedVertices += vertices;
+        streamTime += nanos;
+    }
+
+    /**
+     * Record the GPU time measured by dynamic resolution and the scale it
+     * chose. GPU times arrive a few frames late, so they are kept until the
+     * next measurement rather than per frame.
+     *
+     * @param millis Smoothed GPU time of the scene in milliseconds
+     * @param scale Render scale of the scene
+     */
+    public static void setDynamicResolution(float millis, float scale) {
+        gpuFrameTime = millis;
+        renderScale = scale;
+    }
+
+    /**
+     * Get the number of draw calls in the last frame.
+     *
+     * @return Draw call count
+     */
+    public static int getDrawCalls() {
+        return lastDrawCalls;
+    }
+
+    /**
+     * Get the number of triangles drawn in the last frame.
+     *
+     * @return Triangle count
+     */
+    public static long getTriangles() {
+        return lastTriangles;
+    }
+
+    /**
+     * Get the number of objects culled in the last frame.
+     *
+     * @return Culled object count
+     */
+    public static int getCulledObjects() {
+        return lastCulledObjects;
+    }
+
+    /**
+     * Get the number of objects that passed culling in the last frame.
+     *
+     * @return Visible object count
+     */
+    public static int getVisibleObjects() {
+        return lastVisibleObjects;
+    }
+
+    /**
+     * Get the number of objects hidden by occluders in the last frame.
+     *
+     * @return Occluded object count
+     */
+    public static int getOccludedObjects() {
+        return lastOccludedObjects;
+    }
+
+    /**
+     * Get the share of objects tested for occlusion that were hidden in the
+     * last frame.
+     *
+     * @return Occlusion rate (0.0 to 1.0)
+     */
+    public static float getOcclusionRate() {
+        return lastOcclusionTested > 0 ? (float) lastOccludedObjects / lastOcclusionTested : 0.0f;
+    }
+
+    /**
+     * Get the CPU time spent on occlusion culling in the last frame.
+     *
+     * @return Time in milliseconds
+     */
+    public static float getOcclusionTime() {
+        return lastOcclusionTime;
+    }
+
+    /**
+     * Get the number of render queue packets drawn in the last frame.
+     *
+     * @return Packet count
+     */
+    public static int getRenderPackets() {
+        return lastRenderPackets;
+    }
+
+    /**
+     * Get the number of shader program changes made by render queues in the
+     * last frame.
+     *
+     * @return Shader change count
+     */
+    public static int getShaderChanges() {
+        return lastShaderChanges;
+    }
+
+    /**
+     * Get the number of texture binding changes made by render queues in the
+     * last frame.
+     *
+     * @return Texture change count
+     */
+    public static int getTextureChanges() {
+        return lastTextureChanges;
+    }
+
+    /**
+     * Get the number of vertices written to streaming buffers in the last
+     * frame.
+     *
+     * @return Vertex count
+     */
+    public static long getStreamedVertices() {
+        return lastStreamedVertices;
+    }
+
+    /**
+     * Get the rate at which vertices were written to streaming buffers in
+     * the last frame.
+     *
+     * @return Vertices per millisecond, or 0 if none were written
+     */
+    public static float getStreamThroughput() {
+        return lastStreamTime > 0.0f ? lastStreamedVertices / lastStreamTime : 0.0f;
+    }
+
+    /**
+     * Get the CPU time spent writing vertices to streaming buffers in the
+     * last frame.
+     *
+     * @return Time in milliseconds
+     */
+    public static float getStreamTime() {
+        return lastStreamTime;
+    }
+
+    /**
+     * Get the CPU time spent submitting the last frame.
+     *
+     * @return Frame time in milliseconds
+     */
+    public static float getCpuFrameTime() {
+        return lastCpuFrameTime;
+    }
+
+    /**
+     * Get the latest smoothed GPU time of the scene.
+     *
+     * @return GPU time in milliseconds, or 0 before it is measured
+     */
+    public static float getGpuFrameTime() {
+        return gpuFrameTime;
+    }
+
+    /**
+     * Get the scale of the window resolution the scene is rendered at.
+     *
+     * @return Render scale, 1 at native resolution
+     */
+    public static float getRenderScale() {
+        return renderScale;
+    }
+}
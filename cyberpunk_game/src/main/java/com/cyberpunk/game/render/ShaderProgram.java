@@ -0,0 +1,250 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.GL_INTERLEAVED_ATTRIBS;
+import static org.lwjgl.opengl.GL30.glTransformFeedbackVaryings;
+import static org.lwjgl.opengl.GL43.GL_COMPUTE_SHADER;
+
+import org.joml.Matrix4f;
+import org.lwjgl.system.MemoryStack;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A linked GLSL vertex and fragment shader program, a vertex-only program
+ * whose outputs are captured with transform feedback, or a compute program.
+ *
+ * Shaders written against "#version 330 compatibility" can read
+ * gl_ModelViewProjectionMatrix, so they draw correctly inside the
+ * fixed-function matrix stack used by the rest of the renderer.
+ */
+public class ShaderProgram {
+
+    // Program ID
+    private final int programId;
+
+    // Uniform locations looked up so far
+    private final Map<String, Integer> uniforms;
+
+    /**
+     * Constructor.
+     *
+     * @param vertexSource Vertex shader source
+     * @param fragmentSource Fragment shader source
+     * @throws IllegalStateException If a shader fails to compile or the program fails to link
+     */
+    public ShaderProgram(String vertexSource, String fragmentSource) {
+        uniforms = new HashMap<>();
+
+        int vertexShader = compileShader(GL_VERTEX_SHADER, vertexSource);
+        int fragmentShader;
+        try {
+            fragmentShader = compileShader(GL_FRAGMENT_SHADER, fragmentSource);
+        } catch (IllegalStateException e) {
+            glDeleteShader(vertexShader);
+            throw e;
+        }
+
+        programId = glCreateProgram();
+        glAttachShader(programId, vertexShader);
+        glAttachShader(programId, fragmentShader);
+        glLinkProgram(programId);
+
+        // Shaders are no longer needed once linked
+        glDetachShader(programId, vertexShader);
+        glDetachShader(programId, fragmentShader);
+        glDeleteShader(vertexShader);
+        glDeleteShader(fragmentShader);
+
+        if (glGetProgrami(programId, GL_LINK_STATUS) == GL_FALSE) {
+            String log = glGetProgramInfoLog(programId);
+            glDeleteProgram(programId);
+            throw new IllegalStateException("Failed to link shader program: " + log);
+        }
+    }
+
+    /**
+     * Constructor for a vertex-only program whose outputs are captured into
+     * a buffer with transform feedback, interleaved in the given order.
+     *
+     * @param vertexSource Vertex shader source
+     * @param feedbackVaryings Names of the captured outputs
+     * @throws IllegalStateException If the shader fails to compile or the program fails to link
+     */
+    public ShaderProgram(String vertexSource, String[] feedbackVaryings) {
+        uniforms = new HashMap<>();
+
+        int vertexShader = compileShader(GL_VERTEX_SHADER, vertexSource);
+        programId = glCreateProgram();
+        glAttachShader(programId, vertexShader);
+        glTransformFeedbackVaryings(programId, feedbackVaryings, GL_INTERLEAVED_ATTRIBS);
+        glLinkProgram(programId);
+        glDetachShader(programId, vertexShader);
+        glDeleteShader(vertexShader);
+
+        if (glGetProgrami(programId, GL_LINK_STATUS) == GL_FALSE) {
+            String log = glGetProgramInfoLog(programId);
+            glDeleteProgram(programId);
+            throw new IllegalStateException("Failed to link transform feedback program: " + log);
+        }
+    }
+
+    /**
+     * Constructor for a compute program. Requires OpenGL 4.3.
+     *
+     * @param computeSource Compute shader source
+     * @throws IllegalStateException If the shader fails to compile or the program fails to link
+     */
+    public ShaderProgram(String computeSource) {
+        uniforms = new HashMap<>();
+
+        int computeShader = compileShader(GL_COMPUTE_SHADER, computeSource);
+        programId = glCreateProgram();
+        glAttachShader(programId, computeShader);
+        glLinkProgram(programId);
+        glDetachShader(programId, computeShader);
+        glDeleteShader(computeShader);
+
+        if (glGetProgrami(programId, GL_LINK_STATUS) == GL_FALSE) {
+            String log = glGetProgramInfoLog(programId);
+            glDeleteProgram(programId);
+            throw new IllegalStateException("Failed to link compute program: " + log);
+        }
+    }
+
+    /**
+     * Compile a shader.
+     *
+     * @param type Shader type
+     * @param source Shader source
+     * @return Shader ID
+     */
+    private static int compileShader(int type, String source) {
+        int shader = glCreateShader(type);
+        glShaderSource(shader, source);
+        glCompileShader(shader);
+
+        if (glGetShaderi(shader, GL_COMPILE_STATUS) == GL_FALSE) {
+            String log = glGetShaderInfoLog(shader);
+            glDeleteShader(shader);
+            String name = type == GL_VERTEX_SHADER ? "vertex" : type == GL_FRAGMENT_SHADER ? "fragment" : "compute";
+            throw new IllegalStateException("Failed to compile " + name + " shader: " + log);
+        }
+
+        return shader;
+    }
+
+    /**
+     * Use this program for subsequent draws.
+     */
+    public void bind() {
+        glUseProgram(programId);
+    }
+
+    /**
+     * Return to the fixed-function pipeline.
+     */
+    public void unbind() {
+        glUseProgram(0);
+    }
+
+    /**
+     * Get the location of a uniform.
+     *
+     * @param name Uniform name
+     * @return Uniform location, or -1 if the uniform is not active
+     */
+    public int getUniformLocation(String name) {
+        Integer location = uniforms.get(name);
+        if (location == null) {
+            location = glGetUniformLocation(programId, name);
+            uniforms.put(name, location);
+        }
+        return location;
+    }
+
+    /**
+     * Set an int uniform. The program must be bound.
+     *
+     * @param name Uniform name
+     * @param value Value
+     */
+    public void setUniform(String name, int value) {
+        glUniform1i(getUniformLocation(name), value);
+    }
+
+    /**
+     * Set a float uniform. The program must be bound.
+     *
+     * @param name Uniform name
+     * @param value Value
+     */
+    public void setUniform(String name, float value) {
+        glUniform1f(getUniformLocation(name), value);
+    }
+
+    /**
+     * Set a vec2 uniform. The program must be bound.
+     *
+     * @param name Uniform name
+     * @param x X component
+     * @param y Y component
+     */
+    public void setUniform(String name, float x, float y) {
+        glUniform2f(getUniformLocation(name), x, y);
+    }
+
+    /**
+     * Set a vec3 uniform. The program must be bound.
+     *
+     * @param name Uniform name
+     * @param x X component
+     * @param y Y component
+     * @param z Z component
+     */
+    public void setUniform(String name, float x, float y, float z) {
+        glUniform3f(getUniformLocation(name), x, y, z);
+    }
+
+    /**
+     * Set a vec4 uniform. The program must be bound.
+     *
+     * @param name Uniform name
+     * @param x X component
+     * @param y Y component
+     * @param z Z component
+     * @param w W component
+     */
+    public void setUniform(String name, float x, float y, float z, float w) {
+        glUniform4f(getUniformLocation(name), x, y, z, w);
+    }
+
+    /**
+     * Set a mat4 uniform. The program must be bound.
+     *
+     * @param name Uniform name
+     * @param matrix Value
+     */
+    public void setUniform(String name, Matrix4f matrix) {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            glUniformMatrix4fv(getUniformLocation(name), false, matrix.get(stack.mallocFloat(16)));
+        }
+    }
+
+    /**
+     * Get the program ID.
+     *
+     * @return Program ID
+     */
+    public int getProgramId() {
+        return programId;
+    }
+
+    /**
+     * Delete the program.
+     */
+    public void cleanup() {
+        glDeleteProgram(programId);
+    }
+}
@@ -0,0 +1,526 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
+import static org.lwjgl.opengl.GL13.GL_CLAMP_TO_BORDER;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_FUNC;
+import static org.lwjgl.opengl.GL14.GL_TEXTURE_COMPARE_MODE;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL31.*;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Cascaded shadow maps for a directional light, cached for static geometry.
+ *
+ * The view out to SHADOW_DISTANCE is split into cascades, each with its own
+ * layer of a depth texture array. Static casters such as buildings are drawn
+ * into a cascade only when it stops covering its slice of the view: each
+ * cascade is fitted with a margin around the slice and snapped to whole
+ * texels, so it is kept while the camera moves within the margin and redrawn
+ * when the camera crosses its bounds, the light turns or invalidate() is
+ * called. Dynamic casters such as NPCs and vehicles are drawn every frame,
+ * over a copy of the cached layers.
+ *
+ * Receivers include SHADOW_FUNCTIONS in their fragment shader, are attached
+ * once with attach() and call getShadow() where the uniform receiveShadows
+ * is set. The cascade matrices and splits reach every receiver through one
+ * uniform buffer. Resolution and cascade count follow the
+ * PerformanceOptimizer; with shadows disabled the count is 0 and nothing is
+ * drawn or allocated.
+ */
+public class ShadowCascades {
+
+    // Most cascades a quality preset may ask for
+    public static final int MAX_CASCADES = 4;
+
+    // Texture unit and uniform buffer binding shared by all receivers
+    private static final int TEXTURE_UNIT = 7;
+    private static final int BLOCK_BINDING = 1;
+
+    // Uniform block: MAX_CASCADES matrices, the splits and the parameters
+    private static final int BLOCK_FLOATS = MAX_CASCADES * 16 + 4 + 4;
+
+    // Cascade layout
+    private static final float SHADOW_DISTANCE = 300.0f;
+    private static final float SPLIT_LAMBDA = 0.75f;
+    private static final float CACHE_MARGIN = 1.5f;
+    private static final float CASTER_HEIGHT = 400.0f;
+
+    // Appearance
+    private static final float SHADOW_STRENGTH = 0.5f;
+    private static final float DEPTH_BIAS = 0.0005f;
+
+    // Smallest change of light direction that invalidates the cache
+    private static final float LIGHT_EPSILON = 0.99999f;
+
+    /**
+     * Shadow lookup for receiver fragment shaders. getShadow() returns 1.0
+     * where a point is lit and less in shadow.
+     */
+    public static final String SHADOW_FUNCTIONS = """
+        layout(std140) uniform ShadowData {
+            mat4 shadowMatrices[4];
+            vec4 shadowSplits; // far view depth of each cascade
+            vec4 shadowParams; // cascade count, strength, depth bias, texel size
+        };
+        uniform sampler2DArrayShadow shadowMap;
+
+        float getShadow(vec3 worldPosition, float viewDepth) {
+            int count = int(shadowParams.x);
+            int cascade = count;
+            for (int i = 0; i < count; i++) {
+                if (viewDepth < shadowSplits[i]) {
+                    cascade = i;
+                    break;
+                }
+            }
+            if (cascade == count) {
+                return 1.0;
+            }
+
+            // Four filtered taps; further cascades need a larger bias
+            vec3 coord = (shadowMatrices[cascade] * vec4(worldPosition, 1.0)).xyz * 0.5 + 0.5;
+            float depth = coord.z - shadowParams.z * float(cascade + 1);
+            float offset = shadowParams.w * 0.5;
+            float layer = float(cascade);
+            float lit = texture(shadowMap, vec4(coord.xy + vec2(-offset, -offset), layer, depth))
+                + texture(shadowMap, vec4(coord.xy + vec2(offset, -offset), layer, depth))
+                + texture(shadowMap, vec4(coord.xy + vec2(-offset, offset), layer, depth))
+                + texture(shadowMap, vec4(coord.xy + vec2(offset, offset), layer, depth));
+            return 1.0 - shadowParams.y * (1.0 - lit * 0.25);
+        }
+        """;
+
+    // Settings
+    private final PerformanceOptimizer optimizer;
+
+    // Light
+    private final Vector3f lightDirection;
+    private final Vector3f cachedLightDirection;
+    private final Matrix4f lightView;
+
+    // GPU objects
+    private int staticTexture;
+    private int liveTexture;
+    private int framebuffer;
+    private int readFramebuffer;
+    private final int uniformBuffer;
+    private final FloatBuffer blockData;
+    private int size;
+    private int cascadeCount;
+
+    // Cascades, and the region each cached cascade covers in light space
+    private final Matrix4f[] matrices;
+    private final float[] splits;
+    private final Vector3f[] cachedCenters;
+    private final float[] cachedExtents;
+    private final boolean[] valid;
+    private int renderedCascades;
+
+    // Bounding sphere of the slice last measured by covers(), in light space
+    private final Vector3f center;
+    private float sliceRadius;
+
+    // Scratch
+    private final Vector3f forward;
+    private final IntBuffer viewport;
+
+    /**
+     * Constructor. Must be called on the render thread.
+     *
+     * @param optimizer Performance optimizer holding the shadow settings
+     */
+    public ShadowCascades(PerformanceOptimizer optimizer) {
+        this.optimizer = optimizer;
+        lightDirection = new Vector3f(0.0f, -1.0f, 0.0f);
+        cachedLightDirection = new Vector3f(lightDirection);
+        lightView = new Matrix4f();
+        updateLightView();
+
+        matrices = new Matrix4f[MAX_CASCADES];
+        cachedCenters = new Vector3f[MAX_CASCADES];
+        for (int i = 0; i < MAX_CASCADES; i++) {
+            matrices[i] = new Matrix4f();
+            cachedCenters[i] = new Vector3f();
+        }
+        splits = new float[MAX_CASCADES];
+        cachedExtents = new float[MAX_CASCADES];
+        valid = new boolean[MAX_CASCADES];
+
+        center = new Vector3f();
+        forward = new Vector3f();
+        viewport = MemoryUtil.memAllocInt(4);
+
+        blockData = MemoryUtil.memAllocFloat(BLOCK_FLOATS);
+        uniformBuffer = glGenBuffers();
+        glBindBuffer(GL_UNIFORM_BUFFER, uniformBuffer);
+        glBufferData(GL_UNIFORM_BUFFER, (long) BLOCK_FLOATS * Float.BYTES, GL_DYNAMIC_DRAW);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+        glBindBufferBase(GL_UNIFORM_BUFFER, BLOCK_BINDING, uniformBuffer);
+        writeBlock();
+    }
+
+    /**
+     * Connect a receiver program to the shadow data. Call once after the
+     * program is linked.
+     *
+     * @param program Program whose fragment shader includes SHADOW_FUNCTIONS
+     */
+    public static void attach(ShaderProgram program) {
+        int index = glGetUniformBlockIndex(program.getProgramId(), "ShadowData");
+        if (index != GL_INVALID_INDEX) {
+            glUniformBlockBinding(program.getProgramId(), index, BLOCK_BINDING);
+        }
+        program.bind();
+        program.setUniform("shadowMap", TEXTURE_UNIT);
+        program.unbind();
+    }
+
+    /**
+     * Set the direction the light shines in. Cached cascades are redrawn when
+     * it changes.
+     *
+     * @param x X component
+     * @param y Y component
+     * @param z Z component
+     */
+    public void setLightDirection(float x, float y, float z) {
+        lightDirection.set(x, y, z).normalize();
+        updateLightView();
+    }
+
+    /**
+     * Drop the cached cascades, e.g. after the static geometry changed.
+     */
+    public void invalidate() {
+        for (int i = 0; i < MAX_CASCADES; i++) {
+            valid[i] = false;
+        }
+    }
+
+    /**
+     * Bring the cascades up to date for a frame. Redraws the static casters
+     * into the cascades that no longer cover their slice of the view, then
+     * draws the dynamic casters. Casters are drawn with the cascade's light
+     * matrix loaded as the fixed-function projection and depth writes only.
+     * Must be called on the render thread, outside any render queue; the GL
+     * matrices, viewport and framebuffer binding are restored.
+     *
+     * @param camera Camera the frame is rendered from
+     * @param staticCasters Draws the static casters
+     * @param dynamicCasters Draws the casters that move, or null if there are none
+     */
+    public void update(Camera camera, RenderQueue.DrawCommand staticCasters, RenderQueue.DrawCommand dynamicCasters) {
+        int count = Math.min(MAX_CASCADES, optimizer.getShadowCascadeCount());
+        int mapSize = optimizer.getShadowMapSize();
+        if (count != cascadeCount || (count > 0 && mapSize != size)) {
+            allocate(count, mapSize);
+        }
+        renderedCascades = 0;
+        if (cascadeCount == 0) {
+            writeBlock();
+            return;
+        }
+
+        if (lightDirection.dot(cachedLightDirection) < LIGHT_EPSILON) {
+            cachedLightDirection.set(lightDirection);
+            invalidate();
+        }
+        computeSplits(camera);
+
+        // Draw with the light's matrices into the shadow framebuffer; the
+        // cascades are not bound for reading while they are drawn. The frame
+        // may be drawn into an offscreen framebuffer, which is restored.
+        int previousFramebuffer = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        glGetIntegerv(GL_VIEWPORT, viewport);
+        glActiveTexture(GL_TEXTURE0 + TEXTURE_UNIT);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+        glActiveTexture(GL_TEXTURE0);
+        glMatrixMode(GL_PROJECTION);
+        glPushMatrix();
+        glMatrixMode(GL_MODELVIEW);
+        glPushMatrix();
+        glLoadIdentity();
+        glViewport(0, 0, size, size);
+        glColorMask(false, false, false, false);
+        glEnable(GL_POLYGON_OFFSET_FILL);
+        glPolygonOffset(2.0f, 4.0f);
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+
+        float previousSplit = camera.getNearPlane();
+        for (int i = 0; i < cascadeCount; i++) {
+            if (!covers(camera, i, previousSplit)) {
+                fit(i);
+                glFramebufferTextureLayer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticTexture, 0, i);
+                glClear(GL_DEPTH_BUFFER_BIT);
+                drawCasters(i, staticCasters);
+                renderedCascades++;
+            }
+            previousSplit = splits[i];
+        }
+
+        boolean live = dynamicCasters != null;
+        if (live) {
+            if (liveTexture == 0) {
+                liveTexture = createDepthArray();
+            }
+            for (int i = 0; i < cascadeCount; i++) {
+                // Start from the cached static depth
+                glBindFramebuffer(GL_READ_FRAMEBUFFER, readFramebuffer);
+                glFramebufferTextureLayer(GL_READ_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, staticTexture, 0, i);
+                glBindFramebuffer(GL_DRAW_FRAMEBUFFER, framebuffer);
+                glFramebufferTextureLayer(GL_DRAW_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, liveTexture, 0, i);
+                glBlitFramebuffer(0, 0, size, size, 0, 0, size, size, GL_DEPTH_BUFFER_BIT, GL_NEAREST);
+
+                glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+                drawCasters(i, dynamicCasters);
+            }
+        }
+
+        glBindFramebuffer(GL_FRAMEBUFFER, previousFramebuffer);
+        glDisable(GL_POLYGON_OFFSET_FILL);
+        glColorMask(true, true, true, true);
+        glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+        glMatrixMode(GL_PROJECTION);
+        glPopMatrix();
+        glMatrixMode(GL_MODELVIEW);
+        glPopMatrix();
+
+        writeBlock();
+        glActiveTexture(GL_TEXTURE0 + TEXTURE_UNIT);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, live ? liveTexture : staticTexture);
+        glActiveTexture(GL_TEXTURE0);
+    }
+
+    /**
+     * Draw casters into the bound framebuffer with a cascade's matrix.
+     *
+     * @param cascade Cascade index
+     * @param casters Draws the casters
+     */
+    private void drawCasters(int cascade, RenderQueue.DrawCommand casters) {
+        glMatrixMode(GL_PROJECTION);
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            glLoadMatrixf(matrices[cascade].get(stack.mallocFloat(16)));
+        }
+        glMatrixMode(GL_MODELVIEW);
+        casters.draw();
+    }
+
+    /**
+     * Set the far view depth of each cascade, between a uniform and a
+     * logarithmic split of the shadowed distance.
+     *
+     * @param camera Camera the frame is rendered from
+     */
+    private void computeSplits(Camera camera) {
+        float near = camera.getNearPlane();
+        float far = Math.min(camera.getFarPlane(), SHADOW_DISTANCE);
+        for (int i = 0; i < cascadeCount; i++) {
+            float share = (float) (i + 1) / cascadeCount;
+            float uniform = near + (far - near) * share;
+            float logarithmic = near * (float) Math.pow(far / near, share);
+            splits[i] = SPLIT_LAMBDA * logarithmic + (1.0f - SPLIT_LAMBDA) * uniform;
+        }
+    }
+
+    /**
+     * Check whether a cached cascade still covers its slice of the view, and
+     * keep the slice's bounding sphere in center and sliceRadius.
+     *
+     * @param camera Camera the frame is rendered from
+     * @param cascade Cascade index
+     * @param sliceNear Near view depth of the slice
+     * @return true if the cascade can be kept
+     */
+    private boolean covers(Camera camera, int cascade, float sliceNear) {
+        // Bounding sphere of the slice, centred on the view axis
+        Matrix4f view = camera.getViewMatrix();
+        float sliceFar = splits[cascade];
+        float middle = (sliceNear + sliceFar) * 0.5f;
+        float halfLength = (sliceFar - sliceNear) * 0.5f;
+        float tanVertical = (float) Math.tan(Math.toRadians(camera.getFov()) / 2);
+        float farHeight = sliceFar * tanVertical;
+        float farWidth = farHeight * camera.getAspectRatio();
+        float radius = (float) Math.sqrt(halfLength * halfLength + farHeight * farHeight + farWidth * farWidth);
+
+        forward.set(-view.m02(), -view.m12(), -view.m22()).normalize();
+        center.set(forward).mul(middle).add(camera.getPosition());
+        lightView.transformPosition(center);
+        sliceRadius = radius;
+
+        if (!valid[cascade]) {
+            return false;
+        }
+
+        // Inside the cached region, across and along the light so the slice
+        // stays within the depth range, and not so much smaller that a refit
+        // would gain resolution
+        float extent = cachedExtents[cascade];
+        float dx = Math.abs(center.x - cachedCenters[cascade].x);
+        float dy = Math.abs(center.y - cachedCenters[cascade].y);
+        float dz = Math.abs(center.z - cachedCenters[cascade].z);
+        return Math.max(Math.max(dx, dy), dz) + radius <= extent && radius * CACHE_MARGIN >= extent * 0.75f;
+    }
+
+    /**
+     * Fit a cascade around the slice measured by covers(), with a margin,
+     * snapped to whole texels so static shadows do not shimmer.
+     *
+     * @param cascade Cascade index
+     */
+    private void fit(int cascade) {
+        float extent = sliceRadius * CACHE_MARGIN;
+        float texel = 2.0f * extent / size;
+        float x = (float) Math.floor(center.x / texel) * texel;
+        float y = (float) Math.floor(center.y / texel) * texel;
+        float depth = -center.z;
+
+        matrices[cascade].setOrtho(x - extent, x + extent, y - extent, y + extent,
+            depth - extent - CASTER_HEIGHT, depth + extent).mul(lightView);
+        cachedCenters[cascade].set(x, y, center.z);
+        cachedExtents[cascade] = extent;
+        valid[cascade] = true;
+    }
+
+    /**
+     * Rebuild the light's view matrix from its direction.
+     */
+    private void updateLightView() {
+        boolean vertical = Math.abs(lightDirection.y) > 0.99f;
+        lightView.setLookAlong(lightDirection.x, lightDirection.y, lightDirection.z,
+            0.0f, vertical ? 0.0f : 1.0f, vertical ? 1.0f : 0.0f);
+    }
+
+    /**
+     * Replace the depth textures for a new cascade count or resolution.
+     *
+     * @param count Number of cascades, 0 to free everything
+     * @param mapSize Resolution of each cascade
+     */
+    private void allocate(int count, int mapSize) {
+        freeTextures();
+        cascadeCount = count;
+        size = mapSize;
+        invalidate();
+        if (count == 0) {
+            return;
+        }
+
+        staticTexture = createDepthArray();
+        framebuffer = glGenFramebuffers();
+        readFramebuffer = glGenFramebuffers();
+        int previousFramebuffer = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        for (int fbo : new int[] {framebuffer, readFramebuffer}) {
+            glBindFramebuffer(GL_FRAMEBUFFER, fbo);
+            glDrawBuffer(GL_NONE);
+            glReadBuffer(GL_NONE);
+        }
+        glBindFramebuffer(GL_FRAMEBUFFER, previousFramebuffer);
+    }
+
+    /**
+     * Create a depth texture array with a layer per cascade, compared on
+     * lookup and lit outside its edges.
+     *
+     * @return Texture ID
+     */
+    private int createDepthArray() {
+        int texture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D_ARRAY, texture);
+        glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_DEPTH_COMPONENT24, size, size, cascadeCount, 0,
+            GL_DEPTH_COMPONENT, GL_FLOAT, (ByteBuffer) null);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_BORDER);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_BORDER);
+        glTexParameterfv(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_BORDER_COLOR, new float[] {1.0f, 1.0f, 1.0f, 1.0f});
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_MODE, GL_COMPARE_REF_TO_TEXTURE);
+        glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_COMPARE_FUNC, GL_LEQUAL);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+        return texture;
+    }
+
+    /**
+     * Write the cascade matrices, splits and parameters to the uniform
+     * buffer.
+     */
+    private void writeBlock() {
+        blockData.clear();
+        for (int i = 0; i < MAX_CASCADES; i++) {
+            matrices[i].get(i * 16, blockData);
+        }
+        blockData.position(MAX_CASCADES * 16);
+        for (int i = 0; i < MAX_CASCADES; i++) {
+            blockData.put(i < cascadeCount ? splits[i] : 0.0f);
+        }
+        blockData.put(cascadeCount).put(SHADOW_STRENGTH).put(DEPTH_BIAS).put(size > 0 ? 1.0f / size : 0.0f);
+        blockData.flip();
+
+        glBindBuffer(GL_UNIFORM_BUFFER, uniformBuffer);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, blockData);
+        glBindBuffer(GL_UNIFORM_BUFFER, 0);
+    }
+
+    /**
+     * Delete the depth textures and framebuffers.
+     */
+    private void freeTextures() {
+        if (staticTexture != 0) {
+            glDeleteTextures(staticTexture);
+            staticTexture = 0;
+        }
+        if (liveTexture != 0) {
+            glDeleteTextures(liveTexture);
+            liveTexture = 0;
+        }
+        if (framebuffer != 0) {
+            glDeleteFramebuffers(framebuffer);
+            glDeleteFramebuffers(readFramebuffer);
+            framebuffer = 0;
+            readFramebuffer = 0;
+        }
+    }
+
+    /**
+     * Whether shadows are drawn with the current settings.
+     *
+     * @return true if there is at least one cascade
+     */
+    public boolean isEnabled() {
+        return cascadeCount > 0;
+    }
+
+    /**
+     * Get the number of cascades redrawn by the last update, 0 when every
+     * cascade came from the cache.
+     *
+     * @return Redrawn cascade count
+     */
+    public int getRenderedCascades() {
+        return renderedCascades;
+    }
+
+    /**
+     * Delete the GPU objects. Must be called on the render thread.
+     */
+    public void cleanup() {
+        freeTextures();
+        glDeleteBuffers(uniformBuffer);
+        MemoryUtil.memFree(blockData);
+        MemoryUtil.memFree(viewport);
+    }
+}
@@ -0,0 +1,204 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL44.*;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Vertex buffer for geometry rewritten every frame.
+ *
+ * The buffer holds three sections used in turn, so the CPU writes one while
+ * the GPU may still be reading the previous two. A fence after each frame's
+ * draws tells when a section is free again. With ARB_buffer_storage the
+ * buffer is mapped once, persistently and coherently, and written directly;
+ * otherwise each section is mapped unsynchronized for the frame, with the
+ * same fences keeping writes away from data in use. Neither path orphans or
+ * reallocates the buffer.
+ *
+ * Usage per frame: begin() returns the section to write vertices into,
+ * end() finishes writing and returns the first vertex for the draw, and
+ * fence() is called once the draws reading the section have been issued.
+ */
+public class StreamingBuffer {
+
+    // Sections in flight
+    private static final int SECTIONS = 3;
+
+    // Longest single wait for a fence, in nanoseconds
+    private static final long FENCE_TIMEOUT = 1_000_000L;
+
+    // Layout
+    private final int vertexBytes;
+    private final int sectionBytes;
+
+    // GL buffer and its mapping
+    private final int bufferId;
+    private final boolean persistent;
+    private final ByteBuffer persistentMapping;
+    private final long[] fences;
+    private final boolean hasFences;
+
+    // Current frame
+    private int section;
+    private ByteBuffer writeBuffer;
+    private long writeStart;
+
+    /**
+     * Constructor. Must be called on the render thread.
+     *
+     * @param vertexBytes Size of a vertex in bytes
+     * @param sectionVertices Vertices that fit in one frame's section
+     */
+    public StreamingBuffer(int vertexBytes, int sectionVertices) {
+        this.vertexBytes = vertexBytes;
+        sectionBytes = vertexBytes * sectionVertices;
+        fences = new long[SECTIONS];
+        section = SECTIONS - 1;
+
+        GLCapabilities capabilities = GL.getCapabilities();
+        persistent = capabilities.OpenGL44 || capabilities.GL_ARB_buffer_storage;
+        hasFences = capabilities.OpenGL32 || capabilities.GL_ARB_sync;
+
+        long size = (long) sectionBytes * SECTIONS;
+        bufferId = glGenBuffers();
+        glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+        if (persistent) {
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(GL_ARRAY_BUFFER, size, flags);
+            persistentMapping = glMapBufferRange(GL_ARRAY_BUFFER, 0, size, flags);
+            if (persistentMapping == null) {
+                throw new IllegalStateException("Failed to map streaming buffer");
+            }
+        } else {
+            glBufferData(GL_ARRAY_BUFFER, size, GL_STREAM_DRAW);
+            persistentMapping = null;
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Move to the next section and return it for writing, waiting for the
+     * GPU to finish with it if needed.
+     *
+     * @return Buffer to write vertices into, positioned at 0, with room for
+     *         one section
+     */
+    public ByteBuffer begin() {
+        section = (section + 1) % SECTIONS;
+        waitForFence(section);
+
+        int offset = section * sectionBytes;
+        if (persistent) {
+            writeBuffer = MemoryUtil.memSlice(persistentMapping, offset, sectionBytes);
+        } else {
+            glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+            writeBuffer = glMapBufferRange(GL_ARRAY_BUFFER, offset, sectionBytes,
+                GL_MAP_WRITE_BIT | GL_MAP_UNSYNCHRONIZED_BIT | GL_MAP_INVALIDATE_RANGE_BIT, writeBuffer);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            if (writeBuffer == null) {
+                throw new IllegalStateException("Failed to map streaming buffer section");
+            }
+        }
+        writeBuffer.clear().order(ByteOrder.nativeOrder());
+        writeStart = System.nanoTime();
+        return writeBuffer;
+    }
+
+    /**
+     * Finish writing the current section.
+     *
+     * @param vertexCount Vertices written
+     * @return Index of the section's first vertex in the buffer, for the draw
+     */
+    public int end(int vertexCount) {
+        RenderStats.addStreamedVertices(vertexCount, System.nanoTime() - writeStart);
+
+        if (!persistent) {
+            glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+            glUnmapBuffer(GL_ARRAY_BUFFER);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+        return section * sectionBytes / vertexBytes;
+    }
+
+    /**
+     * Mark the current section as in use by the draws issued so far.
+     */
+    public void fence() {
+        if (hasFences) {
+            fences[section] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+        }
+    }
+
+    /**
+     * Wait until the GPU has finished reading a section.
+     *
+     * @param index Section index
+     */
+    private void waitForFence(int index) {
+        long fence = fences[index];
+        if (fence == 0) {
+            return;
+        }
+
+        int result;
+        do {
+            result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT);
+        } while (result == GL_TIMEOUT_EXPIRED);
+        glDeleteSync(fence);
+        fences[index] = 0;
+    }
+
+    /**
+     * Get the GL buffer ID, for vertex attribute setup.
+     *
+     * @return Buffer ID
+     */
+    public int getBufferId() {
+        return bufferId;
+    }
+
+    /**
+     * Get the number of vertices that fit in one frame.
+     *
+     * @return Vertex capacity of a section
+     */
+    public int getSectionVertices() {
+        return sectionBytes / vertexBytes;
+    }
+
+    /**
+     * Whether the buffer is persistently mapped.
+     *
+     * @return true with ARB_buffer_storage, false when mapping per frame
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    /**
+     * Delete the buffer and fences. Must be called on the render thread.
+     */
+    public void cleanup() {
+        for (int i = 0; i < SECTIONS; i++) {
+            if (fences[i] != 0) {
+                glDeleteSync(fences[i]);
+                fences[i] = 0;
+            }
+        }
+        if (persistent) {
+            glBindBuffer(GL_ARRAY_BUFFER, bufferId);
+            glUnmapBuffer(GL_ARRAY_BUFFER);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+        }
+        glDeleteBuffers(bufferId);
+    }
+}
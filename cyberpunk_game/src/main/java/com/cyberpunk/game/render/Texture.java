@@ -0,0 +1,182 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Handle to a texture loaded by the TextureLoader.
+ *
+ * The handle exists as soon as the texture is requested. Until its image has
+ * been decoded and uploaded it refers to a 1x1 white fallback texture, so it
+ * can always be bound. Textures packed into an atlas refer to the atlas
+ * texture and the region they occupy in it. Large textures are streamed, so
+ * their GL texture changes as mip levels are promoted or demoted.
+ */
+public class Texture {
+
+    // Texture name
+    private final String name;
+
+    // GL texture and the region of it this texture covers
+    private int id;
+    private float u0;
+    private float v0;
+    private float u1 = 1.0f;
+    private float v1 = 1.0f;
+
+    // Loading state
+    private volatile boolean loaded;
+    private volatile boolean failed;
+    private int width;
+    private int height;
+
+    // Residency state if the texture is streamed
+    private TextureStreamer.StreamedTexture streamed;
+
+    /**
+     * Constructor.
+     *
+     * @param name Texture name
+     */
+    Texture(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Point the texture at its uploaded image.
+     *
+     * @param id GL texture ID
+     * @param u0 Left texture coordinate of the region
+     * @param v0 Top texture coordinate of the region
+     * @param u1 Right texture coordinate of the region
+     * @param v1 Bottom texture coordinate of the region
+     * @param width Width in pixels
+     * @param height Height in pixels
+     */
+    void setImage(int id, float u0, float v0, float u1, float v1, int width, int height) {
+        this.id = id;
+        this.u0 = u0;
+        this.v0 = v0;
+        this.u1 = u1;
+        this.v1 = v1;
+        this.width = width;
+        this.height = height;
+        loaded = true;
+    }
+
+    /**
+     * Point the texture at the fallback texture while it is not loaded.
+     *
+     * @param fallbackId GL texture ID of the fallback
+     */
+    void setFallback(int fallbackId) {
+        if (!loaded) {
+            id = fallbackId;
+        }
+    }
+
+    /**
+     * Mark the texture as failed to load. It keeps the fallback texture.
+     */
+    void setFailed() {
+        failed = true;
+    }
+
+    /**
+     * Set the residency state of a streamed texture.
+     *
+     * @param streamed Residency state, or null if not streamed
+     */
+    void setStreamed(TextureStreamer.StreamedTexture streamed) {
+        this.streamed = streamed;
+    }
+
+    /**
+     * Get the residency state of a streamed texture.
+     *
+     * @return Residency state, or null if not streamed
+     */
+    TextureStreamer.StreamedTexture getStreamed() {
+        return streamed;
+    }
+
+    /**
+     * Bind the texture to the active texture unit.
+     */
+    public void bind() {
+        glBindTexture(GL_TEXTURE_2D, id);
+    }
+
+    /**
+     * Get the texture name.
+     *
+     * @return Name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the GL texture ID. Textures in an atlas share the atlas ID.
+     *
+     * @return Texture ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Map a texture coordinate of this texture into its region.
+     *
+     * @param u Horizontal coordinate (0.0 to 1.0)
+     * @return Horizontal coordinate in the GL texture
+     */
+    public float mapU(float u) {
+        return u0 + (u1 - u0) * u;
+    }
+
+    /**
+     * Map a texture coordinate of this texture into its region.
+     *
+     * @param v Vertical coordinate (0.0 to 1.0)
+     * @return Vertical coordinate in the GL texture
+     */
+    public float mapV(float v) {
+        return v0 + (v1 - v0) * v;
+    }
+
+    /**
+     * Whether the image has been uploaded.
+     *
+     * @return true if loaded
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Whether the image could not be read or decoded.
+     *
+     * @return true if loading failed
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Get the width of the full resolution image.
+     *
+     * @return Width in pixels, or 0 if not loaded
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height of the full resolution image.
+     *
+     * @return Height in pixels, or 0 if not loaded
+     */
+    public int getHeight() {
+        return height;
+    }
+}
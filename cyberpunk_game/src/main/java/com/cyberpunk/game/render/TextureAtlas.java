@@ -0,0 +1,128 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A large texture that small textures are packed into, so geometry using
+ * different small textures can be drawn without rebinding.
+ *
+ * Textures are placed on shelves at positions aligned to 2^MAX_LEVEL pixels,
+ * so every mip level of a packed texture lands on whole pixels of the
+ * atlas's own mip level and the atlas can be mipmapped from the textures'
+ * precomputed levels.
+ */
+class TextureAtlas {
+
+    // Atlas size and mip levels
+    static final int SIZE = 1024;
+    static final int MAX_LEVEL = 4;
+    private static final int ALIGN = 1 << MAX_LEVEL;
+
+    // Video memory used by an atlas with its mip levels
+    static final long BYTE_SIZE = (long) SIZE * SIZE * TextureImage.PIXEL_BYTES * 4 / 3;
+
+    // Largest texture packed into an atlas
+    static final int MAX_TEXTURE_SIZE = 256;
+
+    // GL texture
+    private final int id;
+
+    // Shelf packing state
+    private int shelfX;
+    private int shelfY;
+    private int shelfHeight;
+
+    /**
+     * Constructor. Must be called on the render thread.
+     */
+    TextureAtlas() {
+        id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            glTexImage2D(GL_TEXTURE_2D, level, GL_RGBA8, SIZE >> level, SIZE >> level, 0,
+                GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        }
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, MAX_LEVEL);
+        glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
+    /**
+     * Whether an image is small enough to be packed into an atlas.
+     *
+     * @param image The image
+     * @return true if it fits the atlas size limit
+     */
+    static boolean accepts(TextureImage image) {
+        return image.getWidth() <= MAX_TEXTURE_SIZE && image.getHeight() <= MAX_TEXTURE_SIZE;
+    }
+
+    /**
+     * Pack an image into the atlas and upload its mip levels. Must be called
+     * on the render thread.
+     *
+     * @param image The image
+     * @param texture Texture to point at the packed region
+     * @return false if the atlas is full
+     */
+    boolean add(TextureImage image, Texture texture) {
+        int width = align(image.getWidth());
+        int height = align(image.getHeight());
+
+        // Start a new shelf when the current one is full
+        if (shelfX + width > SIZE) {
+            shelfX = 0;
+            shelfY += shelfHeight;
+            shelfHeight = 0;
+        }
+        if (shelfY + height > SIZE) {
+            return false;
+        }
+
+        int x = shelfX;
+        int y = shelfY;
+        shelfX += width;
+        shelfHeight = Math.max(shelfHeight, height);
+
+        glBindTexture(GL_TEXTURE_2D, id);
+        int levels = Math.min(MAX_LEVEL + 1, image.getLevelCount());
+        for (int level = 0; level < levels; level++) {
+            glTexSubImage2D(GL_TEXTURE_2D, level, x >> level, y >> level,
+                image.getLevelWidth(level), image.getLevelHeight(level),
+                GL_RGBA, GL_UNSIGNED_BYTE, image.getLevel(level));
+        }
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        texture.setImage(id, (float) x / SIZE, (float) y / SIZE,
+            (float) (x + image.getWidth()) / SIZE, (float) (y + image.getHeight()) / SIZE,
+            image.getWidth(), image.getHeight());
+        return true;
+    }
+
+    /**
+     * Round a size up to the packing alignment.
+     */
+    private static int align(int size) {
+        return (size + ALIGN - 1) & -ALIGN;
+    }
+
+    /**
+     * Get the GL texture ID.
+     *
+     * @return Texture ID
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * Delete the GL texture.
+     */
+    void cleanup() {
+        glDeleteTextures(id);
+    }
+}
@@ -0,0 +1,205 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.stb.STBImage.*;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A decoded RGBA image with its mip chain, held in native memory until it
+ * is uploaded. Decoding and mip generation are safe to run off the render
+ * thread.
+ */
+class TextureImage {
+
+    // Bytes per RGBA pixel
+    static final int PIXEL_BYTES = 4;
+
+    // Size of the base level
+    private final int width;
+    private final int height;
+
+    // Mip levels, from the base level down to 1x1
+    private final ByteBuffer[] levels;
+
+    /**
+     * Constructor.
+     *
+     * @param width Base level width
+     * @param height Base level height
+     * @param levels Mip levels
+     */
+    private TextureImage(int width, int height, ByteBuffer[] levels) {
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+    }
+
+    /**
+     * Decode an image file and build its mip chain.
+     *
+     * @param file Encoded image (PNG, JPEG, TGA, ...)
+     * @return The decoded image
+     * @throws IllegalStateException If the image cannot be decoded
+     */
+    static TextureImage decode(byte[] file) {
+        ByteBuffer encoded = MemoryUtil.memAlloc(file.length);
+        ByteBuffer base;
+        int width;
+        int height;
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            encoded.put(file).flip();
+            IntBuffer pWidth = stack.mallocInt(1);
+            IntBuffer pHeight = stack.mallocInt(1);
+            IntBuffer pChannels = stack.mallocInt(1);
+
+            ByteBuffer pixels = stbi_load_from_memory(encoded, pWidth, pHeight, pChannels, PIXEL_BYTES);
+            if (pixels == null) {
+                throw new IllegalStateException("Failed to decode image: " + stbi_failure_reason());
+            }
+
+            // Copy into memory we free ourselves, like the generated levels
+            width = pWidth.get(0);
+            height = pHeight.get(0);
+            base = MemoryUtil.memAlloc(width * height * PIXEL_BYTES);
+            MemoryUtil.memCopy(pixels, base);
+            stbi_image_free(pixels);
+        } finally {
+            MemoryUtil.memFree(encoded);
+        }
+
+        List<ByteBuffer> levels = new ArrayList<>();
+        levels.add(base);
+        int levelWidth = width;
+        int levelHeight = height;
+        while (levelWidth > 1 || levelHeight > 1) {
+            ByteBuffer previous = levels.get(levels.size() - 1);
+            int nextWidth = Math.max(1, levelWidth / 2);
+            int nextHeight = Math.max(1, levelHeight / 2);
+            levels.add(downsample(previous, levelWidth, levelHeight, nextWidth, nextHeight));
+            levelWidth = nextWidth;
+            levelHeight = nextHeight;
+        }
+
+        return new TextureImage(width, height, levels.toArray(new ByteBuffer[0]));
+    }
+
+    /**
+     * Halve an image with a 2x2 box filter.
+     *
+     * @return The smaller image
+     */
+    private static ByteBuffer downsample(ByteBuffer source, int width, int height, int nextWidth, int nextHeight) {
+        ByteBuffer target = MemoryUtil.memAlloc(nextWidth * nextHeight * PIXEL_BYTES);
+        for (int y = 0; y < nextHeight; y++) {
+            int y0 = Math.min(y * 2, height - 1);
+            int y1 = Math.min(y * 2 + 1, height - 1);
+            for (int x = 0; x < nextWidth; x++) {
+                int x0 = Math.min(x * 2, width - 1);
+                int x1 = Math.min(x * 2 + 1, width - 1);
+                for (int c = 0; c < PIXEL_BYTES; c++) {
+                    int sum = (source.get((y0 * width + x0) * PIXEL_BYTES + c) & 0xFF)
+                        + (source.get((y0 * width + x1) * PIXEL_BYTES + c) & 0xFF)
+                        + (source.get((y1 * width + x0) * PIXEL_BYTES + c) & 0xFF)
+                        + (source.get((y1 * width + x1) * PIXEL_BYTES + c) & 0xFF);
+                    target.put((y * nextWidth + x) * PIXEL_BYTES + c, (byte) ((sum + 2) / 4));
+                }
+            }
+        }
+        return target;
+    }
+
+    /**
+     * Get the base level width.
+     *
+     * @return Width in pixels
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the base level height.
+     *
+     * @return Height in pixels
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the number of mip levels.
+     *
+     * @return Level count
+     */
+    int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Get the pixels of a mip level.
+     *
+     * @param level Mip level
+     * @return RGBA pixels
+     */
+    ByteBuffer getLevel(int level) {
+        return levels[level];
+    }
+
+    /**
+     * Get the width of a mip level.
+     *
+     * @param level Mip level
+     * @return Width in pixels
+     */
+    int getLevelWidth(int level) {
+        return Math.max(1, width >> level);
+    }
+
+    /**
+     * Get the height of a mip level.
+     *
+     * @param level Mip level
+     * @return Height in pixels
+     */
+    int getLevelHeight(int level) {
+        return Math.max(1, height >> level);
+    }
+
+    /**
+     * Get the memory used by all levels.
+     *
+     * @return Size in bytes
+     */
+    long getByteSize() {
+        return getByteSize(0);
+    }
+
+    /**
+     * Get the memory used by a level and all smaller ones.
+     *
+     * @param firstLevel First mip level
+     * @return Size in bytes
+     */
+    long getByteSize(int firstLevel) {
+        long size = 0;
+        for (int level = firstLevel; level < levels.length; level++) {
+            size += levels[level].capacity();
+        }
+        return size;
+    }
+
+    /**
+     * Free the native memory of all levels.
+     */
+    void free() {
+        for (ByteBuffer level : levels) {
+            MemoryUtil.memFree(level);
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+import org.lwjgl.BufferUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads textures without blocking the render thread.
+ *
+ * Reading, stb_image decoding and mip generation run on a pool of worker
+ * threads. Decoded images are handed back through a queue, and update()
+ * uploads a limited amount of them per frame on the render thread. Small
+ * textures are packed into shared atlases to cut texture binds; larger ones
+ * are handed to a TextureStreamer, which keeps only the mip levels they need
+ * resident. Until a texture is uploaded its handle refers to a white fallback
+ * texture.
+ */
+public class TextureLoader {
+
+    // Bytes uploaded per update, so a burst of finished images does not stall a frame
+    private static final long UPLOAD_BYTES_PER_UPDATE = 4L * 1024 * 1024;
+
+    // Worker threads
+    private final ExecutorService workers;
+
+    // Requested textures by name
+    private final Map<String, Texture> textures;
+
+    // Decoded images waiting for upload
+    private final ConcurrentLinkedQueue<LoadedImage> completed;
+
+    // GL resources, created on the render thread
+    private final List<TextureAtlas> atlases;
+    private final TextureStreamer streamer;
+    private int fallbackTexture;
+
+    /**
+     * Constructor.
+     */
+    public TextureLoader() {
+        this(new PerformanceOptimizer());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param performanceOptimizer Performance optimizer holding the texture quality
+     */
+    public TextureLoader(PerformanceOptimizer performanceOptimizer) {
+        textures = new HashMap<>();
+        completed = new ConcurrentLinkedQueue<>();
+        atlases = new ArrayList<>();
+        streamer = new TextureStreamer(performanceOptimizer);
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "texture-loader");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Request a texture. Returns at once; the image is read and decoded in
+     * the background. Requesting a name again returns the same handle.
+     *
+     * @param name Texture name
+     * @param path Image path, looked up on the classpath and then the file system
+     * @return Texture handle
+     */
+    public Texture load(String name, String path) {
+        Texture texture = textures.get(name);
+        if (texture != null) {
+            return texture;
+        }
+
+        Texture newTexture = new Texture(name);
+        newTexture.setFallback(fallbackTexture);
+        textures.put(name, newTexture);
+
+        workers.submit(() -> {
+            try {
+                TextureImage image = TextureImage.decode(readFile(path));
+                completed.add(new LoadedImage(newTexture, image));
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("Failed to load texture " + name + " from " + path + ": " + e.getMessage());
+                newTexture.setFailed();
+            }
+        });
+        return newTexture;
+    }
+
+    /**
+     * Whether an image exists on the classpath or the file system, e.g. to
+     * skip optional textures that are not shipped.
+     *
+     * @param path Image path
+     * @return true if the image can be read
+     */
+    public static boolean exists(String path) {
+        return TextureLoader.class.getResource("/" + path) != null || Files.isRegularFile(Paths.get(path));
+    }
+
+    /**
+     * Read a file from the classpath or the file system.
+     *
+     * @param path File path
+     * @return File contents
+     * @throws IOException If the file cannot be read
+     */
+    private static byte[] readFile(String path) throws IOException {
+        try (InputStream stream = TextureLoader.class.getResourceAsStream("/" + path)) {
+            if (stream != null) {
+                return stream.readAllBytes();
+            }
+        }
+
+        Path file = Paths.get(path);
+        if (!Files.isRegularFile(file)) {
+            throw new IOException("File not found");
+        }
+        return Files.readAllBytes(file);
+    }
+
+    /**
+     * Upload decoded images and update texture streaming. Must be called on
+     * the render thread once per frame, after the frame's requests to the
+     * streamer.
+     */
+    public void update() {
+        if (fallbackTexture == 0) {
+            createFallbackTexture();
+        }
+
+        long uploaded = 0;
+        LoadedImage loaded;
+        while (uploaded < UPLOAD_BYTES_PER_UPDATE && (loaded = completed.poll()) != null) {
+            boolean retained = false;
+            try {
+                retained = upload(loaded.image, loaded.texture);
+                uploaded += loaded.image.getByteSize();
+            } finally {
+                if (!retained) {
+                    loaded.image.free();
+                }
+            }
+        }
+
+        streamer.setFixedBytes(atlases.size() * TextureAtlas.BYTE_SIZE);
+        streamer.update();
+    }
+
+    /**
+     * Create the 1x1 white texture shown until textures are loaded.
+     */
+    private void createFallbackTexture() {
+        ByteBuffer white = BufferUtils.createByteBuffer(TextureImage.PIXEL_BYTES);
+        white.put((byte) 0xFF).put((byte) 0xFF).put((byte) 0xFF).put((byte) 0xFF).flip();
+
+        fallbackTexture = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, fallbackTexture);
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, 1, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, white);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        for (Texture texture : textures.values()) {
+            texture.setFallback(fallbackTexture);
+        }
+    }
+
+    /**
+     * Upload an image into an atlas, or stream it if it is too large for one.
+     *
+     * @param image The decoded image
+     * @param texture Texture handle to update
+     * @return true if the streamer took ownership of the image
+     */
+    private boolean upload(TextureImage image, Texture texture) {
+        if (TextureAtlas.accepts(image)) {
+            for (TextureAtlas atlas : atlases) {
+                if (atlas.add(image, texture)) {
+                    return false;
+                }
+            }
+
+            TextureAtlas atlas = new TextureAtlas();
+            atlases.add(atlas);
+            if (atlas.add(image, texture)) {
+                return false;
+            }
+        }
+
+        streamer.add(texture, image);
+        return true;
+    }
+
+    /**
+     * Get the streamer managing the residency of large textures. Renderers
+     * report the on-screen size of the textures they draw to it.
+     *
+     * @return Texture streamer
+     */
+    public TextureStreamer getStreamer() {
+        return streamer;
+    }
+
+    /**
+     * Get a requested texture.
+     *
+     * @param name Texture name
+     * @return Texture handle, or null if it was never requested
+     */
+    public Texture getTexture(String name) {
+        return textures.get(name);
+    }
+
+    /**
+     * Get the number of atlases in use.
+     *
+     * @return Atlas count
+     */
+    public int getAtlasCount() {
+        return atlases.size();
+    }
+
+    /**
+     * Whether images are still being decoded or waiting for upload.
+     *
+     * @return true if loading is in progress
+     */
+    public boolean isLoading() {
+        for (Texture texture : textures.values()) {
+            if (!texture.isLoaded() && !texture.isFailed()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop the workers and delete all textures. Must be called on the render
+     * thread.
+     */
+    public void cleanup() {
+        workers.shutdownNow();
+
+        LoadedImage loaded;
+        while ((loaded = completed.poll()) != null) {
+            loaded.image.free();
+        }
+
+        for (TextureAtlas atlas : atlases) {
+            atlas.cleanup();
+        }
+        atlases.clear();
+        streamer.cleanup();
+        if (fallbackTexture != 0) {
+            glDeleteTextures(fallbackTexture);
+            fallbackTexture = 0;
+        }
+    }
+
+    /**
+     * A decoded image and the texture it belongs to.
+     */
+    private static class LoadedImage {
+        final Texture texture;
+        final TextureImage image;
+
+        LoadedImage(Texture texture, TextureImage image) {
+            this.texture = texture;
+            this.image = image;
+        }
+    }
+}
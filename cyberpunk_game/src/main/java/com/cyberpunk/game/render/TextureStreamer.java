@@ -0,0 +1,276 @@
+package com.cyberpunk.game.render;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+
+import com.cyberpunk.game.util.PerformanceOptimizer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps only the mip levels of large textures that are needed on the GPU.
+ *
+ * Every streamed texture keeps its full decoded mip chain in system memory.
+ * Renderers report each frame how large a texture appears on screen, which
+ * gives the finest level worth keeping. Once per frame the streamer fits the
+ * wanted levels into a video memory budget derived from the texture quality,
+ * demoting the least recently needed textures first, and re-uploads
+ * textures whose resident level changed. Textures not requested for a while
+ * drop to their small mip tail.
+ */
+public class TextureStreamer {
+
+    // Video memory budget at texture size multiplier 1.0
+    private static final long BASE_BUDGET_BYTES = 128L * 1024 * 1024;
+
+    // Bytes uploaded per update when promoting textures
+    private static final long UPLOAD_BYTES_PER_UPDATE = 8L * 1024 * 1024;
+
+    // Frames without a request before a texture drops to its mip tail
+    private static final long IDLE_FRAMES = 300;
+
+    // Size of the mip tail that always stays resident
+    private static final int TAIL_SIZE = 32;
+
+    // Quality settings
+    private final PerformanceOptimizer performanceOptimizer;
+
+    // Streamed textures
+    private final List<StreamedTexture> streamed;
+    private final List<StreamedTexture> byRecency;
+
+    // Statistics
+    private long frame;
+    private long residentBytes;
+    private long fixedBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param performanceOptimizer Performance optimizer holding the texture quality
+     */
+    public TextureStreamer(PerformanceOptimizer performanceOptimizer) {
+        this.performanceOptimizer = performanceOptimizer;
+        streamed = new ArrayList<>();
+        byRecency = new ArrayList<>();
+    }
+
+    /**
+     * Start streaming a texture. The streamer takes ownership of the image.
+     * Must be called on the render thread.
+     *
+     * @param texture Texture handle
+     * @param image Decoded image with its mip chain
+     */
+    void add(Texture texture, TextureImage image) {
+        StreamedTexture entry = new StreamedTexture(texture, image);
+        entry.lastUsedFrame = frame;
+        streamed.add(entry);
+
+        // Start with the mip tail; the next update promotes it if there is room
+        setResidentLevel(entry, entry.tailLevel);
+    }
+
+    /**
+     * Report that a texture is drawn this frame.
+     *
+     * @param texture Texture handle
+     * @param screenSize Size of the textured surface on screen in pixels
+     *                   (see Camera.getScreenSize)
+     */
+    public void request(Texture texture, float screenSize) {
+        StreamedTexture entry = texture.getStreamed();
+        if (entry == null) {
+            return;
+        }
+
+        // Finest level with at least one texel per pixel
+        int largest = Math.max(entry.image.getWidth(), entry.image.getHeight());
+        int level = 0;
+        while (level < entry.tailLevel && (largest >> (level + 1)) >= screenSize) {
+            level++;
+        }
+
+        entry.wantedLevel = Math.min(entry.wantedLevel, level);
+        entry.lastUsedFrame = frame;
+    }
+
+    /**
+     * Set the video memory used by textures that are not streamed, such as
+     * atlases; it is taken out of the budget.
+     *
+     * @param bytes Size in bytes
+     */
+    void setFixedBytes(long bytes) {
+        fixedBytes = bytes;
+    }
+
+    /**
+     * Fit the requested levels into the budget and upload changes. Must be
+     * called on the render thread once per frame.
+     */
+    public void update() {
+        frame++;
+        float sizeMultiplier = performanceOptimizer.getTextureSizeMultiplier();
+        int qualityBias = sizeMultiplier < 1.0f ? Math.round((float) (Math.log(1.0f / sizeMultiplier) / Math.log(2))) : 0;
+
+        // Wanted level of every texture; idle ones only need their tail
+        for (StreamedTexture entry : streamed) {
+            if (frame - entry.lastUsedFrame > IDLE_FRAMES) {
+                entry.targetLevel = entry.tailLevel;
+            } else {
+                entry.targetLevel = Math.min(entry.tailLevel, entry.wantedLevel + qualityBias);
+            }
+        }
+
+        // Grant the budget to the most recently needed textures first and
+        // demote the rest until they fit
+        byRecency.clear();
+        byRecency.addAll(streamed);
+        byRecency.sort(Comparator.comparingLong((StreamedTexture entry) -> entry.lastUsedFrame).reversed());
+
+        long available = getBudgetBytes() - fixedBytes;
+        for (StreamedTexture entry : streamed) {
+            available -= entry.image.getByteSize(entry.tailLevel);
+        }
+        for (StreamedTexture entry : byRecency) {
+            long tailBytes = entry.image.getByteSize(entry.tailLevel);
+            while (entry.targetLevel < entry.tailLevel
+                    && entry.image.getByteSize(entry.targetLevel) - tailBytes > available) {
+                entry.targetLevel++;
+            }
+            available -= entry.image.getByteSize(entry.targetLevel) - tailBytes;
+        }
+
+        // Demotions free memory and upload little, so apply all of them;
+        // promotions are limited per frame, most recently needed first
+        for (StreamedTexture entry : streamed) {
+            if (entry.targetLevel > entry.residentLevel) {
+                setResidentLevel(entry, entry.targetLevel);
+            }
+        }
+        long uploaded = 0;
+        for (StreamedTexture entry : byRecency) {
+            if (uploaded >= UPLOAD_BYTES_PER_UPDATE) {
+                break;
+            }
+            if (entry.targetLevel < entry.residentLevel) {
+                uploaded += entry.image.getByteSize(entry.targetLevel);
+                setResidentLevel(entry, entry.targetLevel);
+            }
+        }
+
+        // Requests for the next frame
+        for (StreamedTexture entry : streamed) {
+            entry.wantedLevel = entry.tailLevel;
+        }
+    }
+
+    /**
+     * Replace the GPU copy of a texture with its mip chain from a level down.
+     *
+     * @param entry Streamed texture
+     * @param level First resident level
+     */
+    private void setResidentLevel(StreamedTexture entry, int level) {
+        TextureImage image = entry.image;
+        int id = glGenTextures();
+        glBindTexture(GL_TEXTURE_2D, id);
+        for (int source = level; source < image.getLevelCount(); source++) {
+            glTexImage2D(GL_TEXTURE_2D, source - level, GL_RGBA8, image.getLevelWidth(source), image.getLevelHeight(source), 0,
+                GL_RGBA, GL_UNSIGNED_BYTE, image.getLevel(source));
+        }
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, image.getLevelCount() - 1 - level);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT);
+        glBindTexture(GL_TEXTURE_2D, 0);
+
+        if (entry.glId != 0) {
+            glDeleteTextures(entry.glId);
+            residentBytes -= image.getByteSize(entry.residentLevel);
+        }
+        entry.glId = id;
+        entry.residentLevel = level;
+        residentBytes += image.getByteSize(level);
+
+        entry.texture.setImage(id, 0.0f, 0.0f, 1.0f, 1.0f, image.getWidth(), image.getHeight());
+    }
+
+    /**
+     * Get the video memory budget for the current texture quality.
+     *
+     * @return Budget in bytes
+     */
+    public long getBudgetBytes() {
+        return (long) (BASE_BUDGET_BYTES * performanceOptimizer.getTextureSizeMultiplier());
+    }
+
+    /**
+     * Get the video memory used by streamed textures.
+     *
+     * @return Size in bytes
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Get the number of streamed textures.
+     *
+     * @return Texture count
+     */
+    public int getTextureCount() {
+        return streamed.size();
+    }
+
+    /**
+     * Delete the GPU copies and free the system memory copies. Must be called
+     * on the render thread.
+     */
+    public void cleanup() {
+        for (StreamedTexture entry : streamed) {
+            if (entry.glId != 0) {
+                glDeleteTextures(entry.glId);
+            }
+            entry.image.free();
+            entry.texture.setStreamed(null);
+        }
+        streamed.clear();
+        byRecency.clear();
+        residentBytes = 0;
+    }
+
+    /**
+     * A streamed texture and its residency.
+     */
+    static class StreamedTexture {
+        final Texture texture;
+        final TextureImage image;
+        final int tailLevel;
+        int glId;
+        int residentLevel;
+        int wantedLevel;
+        int targetLevel;
+        long lastUsedFrame;
+
+        StreamedTexture(Texture texture, TextureImage image) {
+            this.texture = texture;
+            this.image = image;
+
+            // First level no larger than the tail size
+            int level = 0;
+            while (level < image.getLevelCount() - 1
+                    && Math.max(image.getLevelWidth(level), image.getLevelHeight(level)) > TAIL_SIZE) {
+                level++;
+            }
+            tailLevel = level;
+            residentLevel = level;
+            wantedLevel = level;
+            texture.setStreamed(this);
+        }
+    }
+}
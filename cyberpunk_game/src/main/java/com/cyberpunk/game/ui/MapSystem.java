@@ -7,6 +7,7 @@ import org.joml.Vector2f;
 import com.cyberpunk.game.character.Player;
 import com.cyberpunk.game.city.CityGenerator;
 import com.cyberpunk.game.city.BuildingData;
+import com.cyberpunk.game.city.RoadNetwork;
 
 import java.util.List;
 import java.util.ArrayList;
@@ -289,34 +290,30 @@ public class MapSystem {
      * @param scale Map scale
      */
     private void renderRoads(float centerX, float centerY, Vector3f playerPos, float scale) {
-        // Get roads from city generator
-        // This would use actual road data from the city generator
-        // For now, just draw a simple grid
+        RoadNetwork roadNetwork = cityGenerator.getRoadNetwork();
         
         GL11.glColor4f(0.5f, 0.5f, 0.5f, 0.8f); // Gray
-        GL11.glLineWidth(2.0f);
         
-        // Draw horizontal roads
-        GL11.glBegin(GL11.GL_LINES);
-        for (int i = -5; i <= 5; i++) {
-            float roadZ = i * 100; // Roads every 100 units
-            float mapY = centerY + (roadZ - playerPos.z) * scale;
+        // Draw each road segment once (edges come in both directions)
+        for (int pass = 0; pass < 2; pass++) {
+            byte speedClass = pass == 0 ? RoadNetwork.SPEED_CLASS_STREET : RoadNetwork.SPEED_CLASS_ARTERIAL;
+            GL11.glLineWidth(speedClass == RoadNetwork.SPEED_CLASS_ARTERIAL ? 3.0f : 2.0f);
             
-            GL11.glVertex2f(centerX - 1000 * scale, mapY);
-            GL11.glVertex2f(centerX + 1000 * scale, mapY);
-        }
-        GL11.glEnd();
-        
-        // Draw vertical roads
-        GL11.glBegin(GL11.GL_LINES);
-        for (int i = -5; i <= 5; i++) {
-            float roadX = i * 100; // Roads every 100 units
-            float mapX = centerX + (roadX - playerPos.x) * scale;
-            
-            GL11.glVertex2f(mapX, centerY - 1000 * scale);
-            GL11.glVertex2f(mapX, centerY + 1000 * scale);
+            GL11.glBegin(GL11.GL_LINES);
+            for (int e = 0; e < roadNetwork.getEdgeCount(); e++) {
+                int source = roadNetwork.getEdgeSource(e);
+                int target = roadNetwork.getEdgeTarget(e);
+                if (source > target || roadNetwork.getEdgeSpeedClass(e) != speedClass) {
+                    continue;
+                }
+                
+                GL11.glVertex2f(centerX + (roadNetwork.getNodeX(source) - playerPos.x) * scale,
+                                centerY + (roadNetwork.getNodeZ(source) - playerPos.z) * scale);
+                GL11.glVertex2f(centerX + (roadNetwork.getNodeX(target) - playerPos.x) * scale,
+                                centerY + (roadNetwork.getNodeZ(target) - playerPos.z) * scale);
+            }
+            GL11.glEnd();
         }
-        GL11.glEnd();
         
         GL11.glLineWidth(1.0f);
     }
@@ -27,6 +27,10 @@ public class PerformanceOptimizer {
     private boolean enableParticles;
     private int textureQuality;
     private int modelQuality;
+    private boolean enableGpuCulling;
+    private boolean forceGpuCulling;
+    private boolean enableDynamicResolution;
+    private int targetFrameRate;
     
     // Vertex Array Objects for batching
     private List<Integer> vaos;
@@ -47,6 +51,9 @@ public class PerformanceOptimizer {
         enableParticles = true;
         textureQuality = 2; // 0-2, 0 = low, 1 = medium, 2 = high
         modelQuality = 2; // 0-2, 0 = low, 1 = medium, 2 = high
+        enableGpuCulling = true; // Used only where OpenGL 4.3 is available
+        enableDynamicResolution = true;
+        targetFrameRate = 60;
         
         vaos = new ArrayList<>();
         vbos = new ArrayList<>();
@@ -205,6 +212,43 @@ public class PerformanceOptimizer {
         modelQuality = Math.max(0, Math.min(2, quality));
     }
     
+    /**
+     * Set GPU-driven culling of large cities.
+     * 
+     * @param enable Whether to cull on the GPU when supported
+     */
+    public void setEnableGpuCulling(boolean enable) {
+        enableGpuCulling = enable;
+    }
+    
+    /**
+     * Set GPU-driven culling of cities of any size, e.g. to test that path
+     * with the generated city, which is below the size it is normally used from.
+     * 
+     * @param force Whether to cull on the GPU when supported and enabled, whatever the building count
+     */
+    public void setForceGpuCulling(boolean force) {
+        forceGpuCulling = force;
+    }
+    
+    /**
+     * Set dynamic resolution scaling of the 3D scene.
+     * 
+     * @param enable Whether to lower the scene resolution to hold the target frame rate
+     */
+    public void setEnableDynamicResolution(boolean enable) {
+        enableDynamicResolution = enable;
+    }
+    
+    /**
+     * Set the frame rate dynamic resolution aims for.
+     * 
+     * @param frameRate Target frames per second (30-240)
+     */
+    public void setTargetFrameRate(int frameRate) {
+        targetFrameRate = Math.max(30, Math.min(240, frameRate));
+    }
+    
     /**
      * Get render distance.
      * 
@@ -232,6 +276,42 @@ public class PerformanceOptimizer {
         return enableReflections;
     }
     
+    /**
+     * Check if GPU-driven culling is enabled.
+     * 
+     * @return true if large cities may be culled on the GPU
+     */
+    public boolean isEnableGpuCulling() {
+        return enableGpuCulling;
+    }
+    
+    /**
+     * Check if GPU-driven culling is used for cities of any size.
+     * 
+     * @return true if the building count is ignored
+     */
+    public boolean isForceGpuCulling() {
+        return forceGpuCulling;
+    }
+    
+    /**
+     * Check if dynamic resolution is enabled.
+     * 
+     * @return true if the scene resolution follows the GPU time
+     */
+    public boolean isEnableDynamicResolution() {
+        return enableDynamicResolution;
+    }
+    
+    /**
+     * Get the frame rate dynamic resolution aims for.
+     * 
+     * @return Target frames per second
+     */
+    public int getTargetFrameRate() {
+        return targetFrameRate;
+    }
+    
     /**
      * Check if particles are enabled.
      * 
@@ -271,6 +351,7 @@ public class PerformanceOptimizer {
         enableParticles = true;
         textureQuality = 1;
         modelQuality = 1;
+        enableDynamicResolution = true;
     }
     
     /**
@@ -283,6 +364,7 @@ public class PerformanceOptimizer {
         enableParticles = false;
         textureQuality = 0;
         modelQuality = 0;
+        enableDynamicResolution = true;
     }
     
     /**
@@ -295,6 +377,7 @@ public class PerformanceOptimizer {
         enableParticles = true;
         textureQuality = 1;
         modelQuality = 1;
+        enableDynamicResolution = true;
     }
     
     /**
@@ -307,6 +390,7 @@ public class PerformanceOptimizer {
         enableParticles = true;
         textureQuality = 2;
         modelQuality = 2;
+        enableDynamicResolution = true;
     }
     
     /**
@@ -319,6 +403,7 @@ public class PerformanceOptimizer {
         enableParticles = true;
         textureQuality = 2;
         modelQuality = 2;
+        enableDynamicResolution = false;
     }
     
     /**
@@ -361,6 +446,73 @@ public class PerformanceOptimizer {
         }
     }
     
+    /**
+     * Get the number of particles that may be alive at once, based on render
+     * distance.
+     * 
+     * @return Particle budget, or 0 if particles are disabled
+     */
+    public int getParticleBudget() {
+        if (!enableParticles) {
+            return 0;
+        }
+        switch (renderDistance) {
+            case 0:
+                return 4096;
+            case 1:
+                return 16384;
+            case 2:
+                return 32768;
+            case 3:
+                return 65536;
+            case 4:
+                return 131072;
+            default:
+                return 32768;
+        }
+    }
+    
+    /**
+     * Get the resolution of each shadow cascade based on texture quality.
+     * 
+     * @return Shadow map size in texels
+     */
+    public int getShadowMapSize() {
+        switch (textureQuality) {
+            case 0:
+                return 1024;
+            case 1:
+                return 1536;
+            case 2:
+                return 2048;
+            default:
+                return 1536;
+        }
+    }
+    
+    /**
+     * Get the number of shadow cascades based on render distance.
+     * 
+     * @return Cascade count, or 0 if shadows are disabled
+     */
+    public int getShadowCascadeCount() {
+        if (!enableShadows) {
+            return 0;
+        }
+        switch (renderDistance) {
+            case 0:
+            case 1:
+                return 2;
+            case 2:
+            case 3:
+                return 3;
+            case 4:
+                return 4;
+            default:
+                return 3;
+        }
+    }
+    
     /**
      * Get the model detail multiplier based on quality.
      * 
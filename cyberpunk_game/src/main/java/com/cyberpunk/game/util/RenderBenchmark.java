@@ -0,0 +1,609 @@
+package com.cyberpunk.game.util;
+
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL15.glDeleteQueries;
+import static org.lwjgl.opengl.GL15.glGenQueries;
+import static org.lwjgl.opengl.GL15.GL_QUERY_RESULT;
+import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL33.GL_TIMESTAMP;
+import static org.lwjgl.opengl.GL33.glGetQueryObjectui64;
+import static org.lwjgl.opengl.GL33.glQueryCounter;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+import com.cyberpunk.game.Renderer;
+import com.cyberpunk.game.city.CityGenerator;
+import com.cyberpunk.game.gameplay.CombatSystem;
+import com.cyberpunk.game.render.CrowdAppearance;
+import com.cyberpunk.game.render.CrowdRenderer;
+import com.cyberpunk.game.render.RenderStats;
+import org.joml.Vector3f;
+import org.lwjgl.glfw.GLFWErrorCallback;
+import org.lwjgl.opengl.GL;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Offscreen rendering benchmark for catching performance regressions on
+ * machines without a GPU.
+ *
+ * A city is generated from a fixed seed and rendered into a framebuffer
+ * object from a scripted set of camera tracks, one after another, for a
+ * given number of frames. Each frame is finished before the next starts,
+ * so the CPU time of submitting it and the GPU time between two timestamp
+ * queries are measured separately. Draw calls, triangles and both times
+ * are then written as JSON, per track and for the whole run.
+ *
+ * A crowd of NPCs with random appearances fills the street ahead of the
+ * crowd track, so that track measures instanced crowd rendering with the
+ * whole crowd in view at high quality. The number of NPCs drawn per frame
+ * is reported with the other results.
+ *
+ * Along the firefight track, scripted shots cross the street every frame,
+ * so their tracers and impacts are streamed to the GPU. The vertices
+ * written to streaming buffers per frame and the rate they are written at,
+ * in vertices per millisecond, are reported for every track.
+ *
+ * The window is never shown. Without a display, GLFW's null platform is
+ * used with an EGL context, which Mesa creates surfaceless on llvmpipe.
+ *
+ * Options: --frames N, --warmup N, --seed N, --width N, --height N,
+ * --npcs N (default 10000), --quality low|medium|high|ultra, --output FILE
+ * (default standard output), --headless to use the null platform even
+ * when a display is present and --gpu-culling to cull the buildings on the
+ * GPU although the city is smaller than the size that path is used from.
+ * Whether the GPU path was used is reported with the results.
+ */
+public class RenderBenchmark {
+
+    // Scripted camera tracks: start position and heading, end position and
+    // heading; headings and pitch in radians; shots fired per frame
+    private static final Track[] TRACKS = {
+        new Track("downtown-street", 0, 1.7f, -240, 0, 0, 240, 0, 0, 0),
+        new Track("neon-plaza-street", 260, 1.7f, -240, 0, 260, 240, 0, 0, 0),
+        new Track("sprawl-turn", -375, 1.7f, 375, 0, -375, 375, (float) (Math.PI * 2), 0, 0),
+        new Track("rooftops", -400, 80, -400, (float) (Math.PI / 4), 100, 100, (float) (Math.PI / 4), -0.25f, 0),
+        new Track("overview", 0, 400, -700, 0, 0, -700, 0, -0.5f, 0),
+        new Track("crowd-street", 0, 6, -215, 0, 0, -185, 0, -0.12f, 0),
+        new Track("firefight", 260, 1.7f, -60, 0, 260, -40, 0, 0, 24)
+    };
+
+    // Area of the crowd: minimum X and Z, maximum X and Z, ahead of the
+    // crowd track
+    private static final float[] CROWD_AREA = {-10, -160, 10, 80};
+
+    // Area the shots of the firefight track cross: minimum X and Z, maximum
+    // X and Z, ahead of the track
+    private static final float[] FIREFIGHT_AREA = {250, -20, 270, 40};
+
+    // Simulated time between frames, for the combat effects
+    private static final float FRAME_TIME = 1.0f / 60.0f;
+
+    // Settings
+    private int frames = 600;
+    private int warmup = 60;
+    private long seed = 1337L;
+    private int width = 1280;
+    private int height = 720;
+    private int npcs = 10000;
+    private String quality = "high";
+    private String output;
+    private boolean headless;
+    private boolean gpuCulling;
+
+    // Framebuffer every frame is rendered into
+    private int framebuffer;
+
+    // Shots of the firefight track, placed from the seed
+    private CombatSystem combatSystem;
+    private Random shotRandom;
+
+    // Results per measured frame
+    private int[] frameTrack;
+    private int[] drawCalls;
+    private long[] triangles;
+    private float[] cpuTimes;
+    private float[] gpuTimes;
+    private int[] visibleNpcs;
+    private long[] streamedVertices;
+    private float[] streamTimes;
+    private String glRenderer;
+    private String glVersion;
+    private boolean gpuCulled;
+
+    /**
+     * Entry point of the benchmark.
+     *
+     * @param args Command line options
+     */
+    public static void main(String[] args) {
+        RenderBenchmark benchmark = new RenderBenchmark();
+        try {
+            benchmark.parseArguments(args);
+            benchmark.run();
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read the command line options.
+     *
+     * @param args Command line options
+     */
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (option.equals("--headless")) {
+                headless = true;
+                continue;
+            }
+            if (option.equals("--gpu-culling")) {
+                gpuCulling = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            switch (option) {
+                case "--frames":
+                    frames = Math.max(TRACKS.length, Integer.parseInt(value));
+                    break;
+                case "--warmup":
+                    warmup = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "--seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "--width":
+                    width = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--height":
+                    height = Math.max(1, Integer.parseInt(value));
+                    break;
+                case "--npcs":
+                    npcs = Math.max(0, Integer.parseInt(value));
+                    break;
+                case "--quality":
+                    quality = value;
+                    break;
+                case "--output":
+                    output = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+    }
+
+    /**
+     * Create the context, render the tracks and write the results.
+     *
+     * @throws IOException If the results cannot be written
+     */
+    private void run() throws IOException {
+        GLFWErrorCallback.createPrint(System.err).set();
+        if (headless || System.getenv("DISPLAY") == null && System.getenv("WAYLAND_DISPLAY") == null) {
+            glfwInitHint(GLFW_PLATFORM, GLFW_PLATFORM_NULL);
+            headless = true;
+        }
+        if (!glfwInit()) {
+            throw new IllegalStateException("Unable to initialize GLFW");
+        }
+
+        long window = NULL;
+        try {
+            glfwDefaultWindowHints();
+            glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+            if (headless) {
+                glfwWindowHint(GLFW_CONTEXT_CREATION_API, GLFW_EGL_CONTEXT_API);
+            }
+            window = glfwCreateWindow(width, height, "Render Benchmark", NULL, NULL);
+            if (window == NULL) {
+                throw new IllegalStateException("Failed to create the benchmark context");
+            }
+            glfwMakeContextCurrent(window);
+            glfwSwapInterval(0);
+            GL.createCapabilities();
+            glRenderer = glGetString(GL_RENDERER);
+            glVersion = glGetString(GL_VERSION);
+
+            renderFrames();
+        } finally {
+            if (window != NULL) {
+                glfwDestroyWindow(window);
+            }
+            glfwTerminate();
+            glfwSetErrorCallback(null).free();
+        }
+
+        writeResults();
+    }
+
+    /**
+     * Render the warm-up and measured frames into a framebuffer object.
+     */
+    private void renderFrames() {
+        int colorBuffer = createRenderbuffer(GL_RGBA8);
+        int depthBuffer = createRenderbuffer(GL_DEPTH_COMPONENT24);
+        framebuffer = glGenFramebuffers();
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_RENDERBUFFER, colorBuffer);
+        glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthBuffer);
+        if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+            throw new IllegalStateException("Benchmark framebuffer is incomplete");
+        }
+
+        int[] queries = new int[2];
+        glGenQueries(queries);
+        Renderer renderer = new Renderer();
+        try {
+            // Fixed quality at a fixed resolution, so runs are comparable
+            PerformanceOptimizer performanceOptimizer = renderer.getPerformanceOptimizer();
+            applyQuality(performanceOptimizer);
+            performanceOptimizer.setEnableDynamicResolution(false);
+            performanceOptimizer.setForceGpuCulling(gpuCulling);
+            renderer.setViewport(width, height);
+
+            CityGenerator city = new CityGenerator(seed);
+            city.generateBuildings();
+            renderer.setCity(city);
+            gpuCulled = renderer.isGpuCulling();
+            if (gpuCulling && !gpuCulled) {
+                System.err.println("GPU culling requested but OpenGL 4.3 is not available, culling on the CPU");
+            }
+            addCrowd(renderer.getCrowdRenderer());
+            combatSystem = new CombatSystem();
+            shotRandom = new Random(seed);
+            renderer.setCombatSystem(combatSystem);
+
+            frameTrack = new int[frames];
+            drawCalls = new int[frames];
+            triangles = new long[frames];
+            cpuTimes = new float[frames];
+            gpuTimes = new float[frames];
+            visibleNpcs = new int[frames];
+            streamedVertices = new long[frames];
+            streamTimes = new float[frames];
+
+            // Warm up on the first track, then measure every track in turn
+            for (int i = 0; i < warmup; i++) {
+                renderFrame(renderer, TRACKS[0], (float) i / Math.max(1, warmup), queries, -1);
+            }
+            for (int i = 0; i < frames; i++) {
+                int track = i * TRACKS.length / frames;
+                int first = track * frames / TRACKS.length;
+                int count = (track + 1) * frames / TRACKS.length - first;
+                float t = count > 1 ? (float) (i - first) / (count - 1) : 0.0f;
+                frameTrack[i] = track;
+                renderFrame(renderer, TRACKS[track], t, queries, i);
+            }
+        } finally {
+            renderer.cleanup();
+            glDeleteQueries(queries);
+            glBindFramebuffer(GL_FRAMEBUFFER, 0);
+            glDeleteFramebuffers(framebuffer);
+            glDeleteRenderbuffers(colorBuffer);
+            glDeleteRenderbuffers(depthBuffer);
+        }
+    }
+
+    /**
+     * Render one frame and wait for it to finish.
+     *
+     * @param renderer The renderer
+     * @param track Camera track
+     * @param t Position along the track, 0 to 1
+     * @param queries Timestamp queries before and after the frame
+     * @param frame Index of the measured frame, or -1 during warm-up
+     */
+    private void renderFrame(Renderer renderer, Track track, float t, int[] queries, int frame) {
+        // Bound before and checked after every frame, so no frame is
+        // measured against the default framebuffer
+        glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+        glViewport(0, 0, width, height);
+        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
+        fireShots(track.shots);
+
+        glQueryCounter(queries[0], GL_TIMESTAMP);
+        renderer.renderView(
+            track.startX + (track.endX - track.startX) * t,
+            track.y,
+            track.startZ + (track.endZ - track.startZ) * t,
+            track.startRotation + (track.endRotation - track.startRotation) * t,
+            track.pitch);
+        glQueryCounter(queries[1], GL_TIMESTAMP);
+        glFinish();
+        if (glGetInteger(GL_FRAMEBUFFER_BINDING) != framebuffer) {
+            throw new IllegalStateException("The renderer left the benchmark framebuffer during the frame");
+        }
+
+        if (frame >= 0) {
+            long start = glGetQueryObjectui64(queries[0], GL_QUERY_RESULT);
+            long end = glGetQueryObjectui64(queries[1], GL_QUERY_RESULT);
+            drawCalls[frame] = RenderStats.getDrawCalls();
+            triangles[frame] = RenderStats.getTriangles();
+            cpuTimes[frame] = RenderStats.getCpuFrameTime();
+            gpuTimes[frame] = (end - start) / 1_000_000.0f;
+            visibleNpcs[frame] = renderer.getCrowdRenderer().getVisibleCount();
+            streamedVertices[frame] = RenderStats.getStreamedVertices();
+            streamTimes[frame] = RenderStats.getStreamTime();
+        }
+    }
+
+    /**
+     * Advance the combat effects by one frame and fire new shots across the
+     * firefight area, each landing at a random height.
+     *
+     * @param shots Shots to fire
+     */
+    private void fireShots(int shots) {
+        combatSystem.update(FRAME_TIME);
+        Vector3f start = new Vector3f();
+        Vector3f end = new Vector3f();
+        for (int i = 0; i < shots; i++) {
+            start.set(
+                FIREFIGHT_AREA[0] + shotRandom.nextFloat() * (FIREFIGHT_AREA[2] - FIREFIGHT_AREA[0]),
+                1.5f,
+                FIREFIGHT_AREA[1] + shotRandom.nextFloat() * (FIREFIGHT_AREA[3] - FIREFIGHT_AREA[1]));
+            end.set(
+                FIREFIGHT_AREA[0] + shotRandom.nextFloat() * (FIREFIGHT_AREA[2] - FIREFIGHT_AREA[0]),
+                shotRandom.nextFloat() * 4.0f,
+                FIREFIGHT_AREA[1] + shotRandom.nextFloat() * (FIREFIGHT_AREA[3] - FIREFIGHT_AREA[1]));
+            combatSystem.addShot(start, end);
+        }
+    }
+
+    /**
+     * Add the crowd, placed and dressed from the seed. It stays in the
+     * renderer for every frame.
+     *
+     * @param crowdRenderer Crowd renderer of the renderer
+     */
+    private void addCrowd(CrowdRenderer crowdRenderer) {
+        Random random = new Random(seed);
+        CrowdAppearance appearance = new CrowdAppearance();
+        crowdRenderer.clear();
+        for (int i = 0; i < npcs; i++) {
+            float x = CROWD_AREA[0] + random.nextFloat() * (CROWD_AREA[2] - CROWD_AREA[0]);
+            float z = CROWD_AREA[1] + random.nextFloat() * (CROWD_AREA[3] - CROWD_AREA[1]);
+            appearance.randomize(random, 0.3f);
+            crowdRenderer.add(x, 0, z, random.nextFloat() * (float) (Math.PI * 2), appearance);
+        }
+    }
+
+    /**
+     * Create a renderbuffer at the benchmark resolution.
+     *
+     * @param format Internal format
+     * @return Renderbuffer ID
+     */
+    private int createRenderbuffer(int format) {
+        int renderbuffer = glGenRenderbuffers();
+        glBindRenderbuffer(GL_RENDERBUFFER, renderbuffer);
+        glRenderbufferStorage(GL_RENDERBUFFER, format, width, height);
+        glBindRenderbuffer(GL_RENDERBUFFER, 0);
+        return renderbuffer;
+    }
+
+    /**
+     * Apply the quality preset named on the command line.
+     *
+     * @param performanceOptimizer Performance optimizer of the renderer
+     */
+    private void applyQuality(PerformanceOptimizer performanceOptimizer) {
+        switch (quality) {
+            case "low":
+                performanceOptimizer.applyLowSettings();
+                break;
+            case "medium":
+                performanceOptimizer.applyMediumSettings();
+                break;
+            case "high":
+                performanceOptimizer.applyHighSettings();
+                break;
+            case "ultra":
+                performanceOptimizer.applyUltraSettings();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown quality " + quality);
+        }
+    }
+
+    /**
+     * Write the results as JSON to the output file or standard output.
+     *
+     * @throws IOException If the output file cannot be written
+     */
+    private void writeResults() throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"seed\": ").append(seed).append(",\n");
+        json.append("  \"width\": ").append(width).append(",\n");
+        json.append("  \"height\": ").append(height).append(",\n");
+        json.append("  \"npcs\": ").append(npcs).append(",\n");
+        json.append("  \"quality\": ").append(quote(quality)).append(",\n");
+        json.append("  \"frames\": ").append(frames).append(",\n");
+        json.append("  \"warmupFrames\": ").append(warmup).append(",\n");
+        json.append("  \"headless\": ").append(headless).append(",\n");
+        json.append("  \"gpuCulling\": ").append(gpuCulled).append(",\n");
+        json.append("  \"glRenderer\": ").append(quote(glRenderer)).append(",\n");
+        json.append("  \"glVersion\": ").append(quote(glVersion)).append(",\n");
+        json.append("  \"total\": ");
+        appendSummary(json, -1);
+        json.append(",\n  \"tracks\": [\n");
+        for (int track = 0; track < TRACKS.length; track++) {
+            json.append("    ");
+            appendSummary(json, track);
+            json.append(track + 1 < TRACKS.length ? ",\n" : "\n");
+        }
+        json.append("  ]\n}\n");
+
+        if (output == null) {
+            System.out.print(json);
+        } else {
+            try (FileWriter writer = new FileWriter(output)) {
+                writer.write(json.toString());
+            }
+        }
+    }
+
+    /**
+     * Append the statistics of a track, or of all frames, as a JSON object.
+     *
+     * @param json Output
+     * @param track Track index, or -1 for all frames
+     */
+    private void appendSummary(StringBuilder json, int track) {
+        int count = 0;
+        long drawCallSum = 0;
+        long triangleSum = 0;
+        long visibleNpcSum = 0;
+        long streamedVertexSum = 0;
+        float streamTimeSum = 0.0f;
+        float[] cpu = new float[frames];
+        float[] gpu = new float[frames];
+        for (int i = 0; i < frames; i++) {
+            if (track >= 0 && frameTrack[i] != track) {
+                continue;
+            }
+            drawCallSum += drawCalls[i];
+            triangleSum += triangles[i];
+            visibleNpcSum += visibleNpcs[i];
+            streamedVertexSum += streamedVertices[i];
+            streamTimeSum += streamTimes[i];
+            cpu[count] = cpuTimes[i];
+            gpu[count] = gpuTimes[i];
+            count++;
+        }
+
+        json.append('{');
+        if (track >= 0) {
+            json.append("\"name\": ").append(quote(TRACKS[track].name)).append(", ");
+        }
+        json.append("\"frames\": ").append(count);
+        json.append(", \"drawCalls\": ").append(format(count > 0 ? (float) drawCallSum / count : 0.0f));
+        json.append(", \"triangles\": ").append(format(count > 0 ? (float) triangleSum / count : 0.0f));
+        json.append(", \"visibleNpcs\": ").append(format(count > 0 ? (float) visibleNpcSum / count : 0.0f));
+        json.append(", \"streamedVertices\": ").append(format(count > 0 ? (float) streamedVertexSum / count : 0.0f));
+        json.append(", \"streamThroughput\": ")
+            .append(format(streamTimeSum > 0.0f ? streamedVertexSum / streamTimeSum : 0.0f));
+        json.append(", \"cpuFrameTime\": ");
+        appendTimes(json, cpu, count);
+        json.append(", \"gpuFrameTime\": ");
+        appendTimes(json, gpu, count);
+        json.append('}');
+    }
+
+    /**
+     * Append the mean, median, 95th percentile and maximum of frame times,
+     * in milliseconds, as a JSON object.
+     *
+     * @param json Output
+     * @param times Frame times; the first count are sorted in place
+     * @param count Number of frame times
+     */
+    private static void appendTimes(StringBuilder json, float[] times, int count) {
+        Arrays.sort(times, 0, count);
+        float sum = 0.0f;
+        for (int i = 0; i < count; i++) {
+            sum += times[i];
+        }
+        json.append("{\"mean\": ").append(format(count > 0 ? sum / count : 0.0f));
+        json.append(", \"median\": ").append(format(percentile(times, count, 0.5f)));
+        json.append(", \"p95\": ").append(format(percentile(times, count, 0.95f)));
+        json.append(", \"max\": ").append(format(count > 0 ? times[count - 1] : 0.0f));
+        json.append('}');
+    }
+
+    /**
+     * Get a percentile of sorted values by the nearest rank.
+     *
+     * @param sorted Sorted values
+     * @param count Number of values
+     * @param fraction Percentile as a fraction
+     * @return The percentile, or 0 without values
+     */
+    private static float percentile(float[] sorted, int count, float fraction) {
+        if (count == 0) {
+            return 0.0f;
+        }
+        int rank = (int) Math.ceil(fraction * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, rank))];
+    }
+
+    /**
+     * Format a number for JSON with three decimals.
+     *
+     * @param value Value
+     * @return Formatted value
+     */
+    private static String format(float value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Quote a string for JSON.
+     *
+     * @param value Value, or null
+     * @return Quoted string, or null
+     */
+    private static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Scripted camera track, interpolated linearly from start to end.
+     */
+    private static class Track {
+
+        private final String name;
+        private final float startX;
+        private final float y;
+        private final float startZ;
+        private final float startRotation;
+        private final float endX;
+        private final float endZ;
+        private final float endRotation;
+        private final float pitch;
+        private final int shots;
+
+        /**
+         * Constructor.
+         *
+         * @param name Track name in the results
+         * @param startX Start X position
+         * @param y Height
+         * @param startZ Start Z position
+         * @param startRotation Start heading around the Y axis
+         * @param endX End X position
+         * @param endZ End Z position
+         * @param endRotation End heading around the Y axis
+         * @param pitch Rotation above the horizon
+         * @param shots Shots fired per frame across the firefight area
+         */
+        Track(String name, float startX, float y, float startZ, float startRotation,
+              float endX, float endZ, float endRotation, float pitch, int shots) {
+            this.name = name;
+            this.startX = startX;
+            this.y = y;
+            this.startZ = startZ;
+            this.startRotation = startRotation;
+            this.endX = endX;
+            this.endZ = endZ;
+            this.endRotation = endRotation;
+            this.pitch = pitch;
+            this.shots = shots;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.cyberpunk.game.city;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for InteriorCache: LRU eviction, pinning and metrics.
+ */
+class InteriorCacheTest {
+
+    private static final long WORLD_SEED = 12345L;
+
+    /**
+     * Create a small apartment block at a ground position.
+     */
+    private static BuildingData createBuilding(float x, float z) {
+        BuildingData building = new BuildingData();
+        building.setPosition(x, 0, z);
+        building.setType(BuildingData.Type.APARTMENT);
+        building.setWidth(20);
+        building.setDepth(20);
+        building.setHeight(12);
+        building.setNumFloors(3);
+        return building;
+    }
+
+    private static int getId(BuildingData building) {
+        return BuildingInteriorGenerator.getBuildingId(building);
+    }
+
+    @Test
+    void hitsReturnTheCachedInterior() {
+        InteriorCache cache = new InteriorCache(new BuildingInteriorGenerator(WORLD_SEED), 2);
+        BuildingData building = createBuilding(0, 0);
+
+        BuildingInterior first = cache.getInterior(building);
+        BuildingInterior second = cache.getInterior(building);
+
+        assertSame(first, second);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(0.5f, cache.getHitRate(), 1e-6f);
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        InteriorCache cache = new InteriorCache(new BuildingInteriorGenerator(WORLD_SEED), 2);
+        BuildingData a = createBuilding(0, 0);
+        BuildingData b = createBuilding(100, 0);
+        BuildingData c = createBuilding(200, 0);
+
+        cache.getInterior(a);
+        cache.getInterior(b);
+        cache.getInterior(a); // b is now least recently used
+        cache.getInterior(c);
+
+        assertEquals(2, cache.getSize());
+        assertTrue(cache.contains(getId(a)));
+        assertFalse(cache.contains(getId(b)));
+        assertTrue(cache.contains(getId(c)));
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void pinsInteriorsThePlayerIsInside() {
+        InteriorCache cache = new InteriorCache(new BuildingInteriorGenerator(WORLD_SEED), 1);
+        BuildingData home = createBuilding(0, 0);
+        BuildingData other = createBuilding(100, 0);
+        BuildingData third = createBuilding(200, 0);
+
+        BuildingInterior interior = cache.enterBuilding(home);
+        cache.getInterior(other);
+        cache.getInterior(third);
+
+        // The entered interior survives even though it is least recently used
+        assertTrue(cache.contains(getId(home)));
+        assertSame(interior, cache.getInterior(home));
+
+        // Once left it is evicted like any other
+        cache.exitBuilding(home);
+        cache.getInterior(other);
+        assertFalse(cache.contains(getId(home)));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void tracksEstimatedMemory() {
+        InteriorCache cache = new InteriorCache(new BuildingInteriorGenerator(WORLD_SEED), 2);
+        BuildingInterior a = cache.getInterior(createBuilding(0, 0));
+        BuildingInterior b = cache.getInterior(createBuilding(100, 0));
+
+        assertEquals(InteriorCache.estimateMemory(a) + InteriorCache.estimateMemory(b), cache.getMemoryBytes());
+
+        cache.getInterior(createBuilding(200, 0));
+        BuildingInterior c = cache.getInterior(createBuilding(200, 0));
+        assertEquals(InteriorCache.estimateMemory(b) + InteriorCache.estimateMemory(c), cache.getMemoryBytes());
+
+        cache.clear();
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getMemoryBytes());
+    }
+
+    @Test
+    void clearKeepsActiveInteriors() {
+        InteriorCache cache = new InteriorCache(new BuildingInteriorGenerator(WORLD_SEED), 4);
+        BuildingData home = createBuilding(0, 0);
+        BuildingInterior interior = cache.enterBuilding(home);
+        cache.getInterior(createBuilding(100, 0));
+
+        cache.clear();
+
+        assertEquals(1, cache.getSize());
+        assertEquals(InteriorCache.estimateMemory(interior), cache.getMemoryBytes());
+        assertSame(interior, cache.getInterior(home));
+    }
+
+    @Test
+    void regeneratesEvictedInteriorsIdentically() {
+        InteriorCache cache = new InteriorCache(new BuildingInteriorGenerator(WORLD_SEED), 1);
+        BuildingData a = createBuilding(0, 0);
+
+        BuildingInterior first = cache.getInterior(a);
+        cache.getInterior(createBuilding(100, 0));
+        BuildingInterior second = cache.getInterior(a);
+
+        assertNotSame(first, second);
+        assertEquals(first.getRooms().size(), second.getRooms().size());
+        assertEquals(first.getFurniture().size(), second.getFurniture().size());
+        for (int i = 0; i < first.getFurniture().size(); i++) {
+            assertEquals(first.getFurniture().get(i).getX(), second.getFurniture().get(i).getX(), 0.0f);
+            assertEquals(first.getFurniture().get(i).getZ(), second.getFurniture().get(i).getZ(), 0.0f);
+        }
+    }
+
+    @Test
+    void keepsRoomGraphOfCachedInteriors() {
+        InteriorCache cache = new InteriorCache(new BuildingInteriorGenerator(WORLD_SEED), 2);
+        BuildingData building = createBuilding(0, 0);
+
+        assertNull(cache.getVisibility(building));
+
+        BuildingInterior interior = cache.getInterior(building);
+        InteriorVisibility visibility = cache.getVisibility(building);
+        assertNotNull(visibility);
+        assertSame(visibility, cache.getVisibility(building));
+        assertEquals(interior.getRooms().size(), visibility.getRoomCount());
+    }
+
+    @Test
+    void recordingMovedFurnitureRebuildsRoomGraph() {
+        InteriorCache cache = new InteriorCache(new BuildingInteriorGenerator(WORLD_SEED), 2);
+        InteriorDeltaStore deltas = new InteriorDeltaStore(WORLD_SEED);
+        cache.setDeltaStore(deltas);
+        BuildingData building = createBuilding(0, 0);
+
+        BuildingInterior interior = cache.getInterior(building);
+        assertFalse(interior.getFurniture().isEmpty(), "the test building should be furnished");
+        InteriorVisibility before = cache.getVisibility(building);
+
+        Furniture piece = interior.getFurniture().get(0);
+        piece.setPosition(piece.getX() + 1, piece.getY(), piece.getZ());
+        cache.recordMoved(building, piece);
+
+        assertNotSame(before, cache.getVisibility(building));
+        assertEquals(1, deltas.getChangedBuildingCount());
+    }
+}
@@ -0,0 +1,154 @@
+package com.cyberpunk.game.city;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Tests for InteriorDeltaStore: recording changes and the save round trip.
+ */
+class InteriorDeltaStoreTest {
+
+    private static final long WORLD_SEED = 12345L;
+
+    /**
+     * Create a small apartment block.
+     */
+    private static BuildingData createBuilding() {
+        BuildingData building = new BuildingData();
+        building.setPosition(40, 0, -60);
+        building.setType(BuildingData.Type.APARTMENT);
+        building.setWidth(20);
+        building.setDepth(20);
+        building.setHeight(12);
+        building.setNumFloors(3);
+        return building;
+    }
+
+    /**
+     * Generate an interior and register it with a store.
+     */
+    private static BuildingInterior generate(InteriorDeltaStore store, BuildingData building) {
+        BuildingInterior interior = new BuildingInteriorGenerator(WORLD_SEED).generateInterior(building);
+        store.apply(interior);
+        return interior;
+    }
+
+    private static byte[] save(InteriorDeltaStore store) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            store.write(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void load(InteriorDeltaStore store, byte[] save) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(save))) {
+            store.read(in);
+        }
+    }
+
+    @Test
+    void roundTripRestoresChanges() throws IOException {
+        BuildingData building = createBuilding();
+        InteriorDeltaStore store = new InteriorDeltaStore(WORLD_SEED);
+        BuildingInterior interior = generate(store, building);
+        int generatedCount = interior.getFurniture().size();
+        assertTrue(generatedCount >= 3, "the test building should be furnished");
+
+        Furniture moved = interior.getFurniture().get(0);
+        Furniture destroyed = interior.getFurniture().get(1);
+        Furniture looted = interior.getFurniture().get(2);
+        moved.setPosition(1.5f, 2.5f, 3.5f);
+        store.recordMoved(interior, moved);
+        store.recordDestroyed(interior, destroyed);
+        store.recordLooted(interior, looted);
+
+        assertEquals(generatedCount - 1, interior.getFurniture().size());
+        assertTrue(store.isLooted(interior, looted));
+        assertFalse(store.isLooted(interior, moved));
+
+        // Load into a fresh store and regenerate the interior
+        InteriorDeltaStore loaded = new InteriorDeltaStore(WORLD_SEED);
+        load(loaded, save(store));
+        assertEquals(1, loaded.getChangedBuildingCount());
+
+        BuildingInterior regenerated = generate(loaded, building);
+        assertEquals(generatedCount - 1, regenerated.getFurniture().size());
+
+        Furniture restored = regenerated.getFurniture().get(0);
+        assertEquals(1.5f, restored.getX(), 0.0f);
+        assertEquals(2.5f, restored.getY(), 0.0f);
+        assertEquals(3.5f, restored.getZ(), 0.0f);
+
+        // The destroyed piece was second, so the looted one moved up
+        assertTrue(loaded.isLooted(regenerated, regenerated.getFurniture().get(1)));
+        assertFalse(loaded.isLooted(regenerated, restored));
+    }
+
+    @Test
+    void applyIsIdempotent() {
+        BuildingData building = createBuilding();
+        InteriorDeltaStore store = new InteriorDeltaStore(WORLD_SEED);
+        BuildingInterior interior = generate(store, building);
+        int generatedCount = interior.getFurniture().size();
+
+        store.recordDestroyed(interior, interior.getFurniture().get(0));
+        store.apply(interior);
+
+        assertEquals(generatedCount - 1, interior.getFurniture().size());
+    }
+
+    @Test
+    void ignoresUnregisteredInteriors() {
+        InteriorDeltaStore store = new InteriorDeltaStore(WORLD_SEED);
+        BuildingInterior interior = new BuildingInteriorGenerator(WORLD_SEED).generateInterior(createBuilding());
+        assertFalse(interior.getFurniture().isEmpty(), "the test building should be furnished");
+
+        store.recordLooted(interior, interior.getFurniture().get(0));
+
+        assertEquals(0, store.getChangedBuildingCount());
+    }
+
+    @Test
+    void rejectsSaveFromAnotherWorld() throws IOException {
+        InteriorDeltaStore store = new InteriorDeltaStore(WORLD_SEED);
+        BuildingInterior interior = generate(store, createBuilding());
+        store.recordLooted(interior, interior.getFurniture().get(0));
+        byte[] save = save(store);
+
+        InteriorDeltaStore other = new InteriorDeltaStore(WORLD_SEED + 1);
+        assertThrows(IOException.class, () -> load(other, save));
+        assertEquals(0, other.getChangedBuildingCount());
+    }
+
+    @Test
+    void rejectsOtherData() {
+        InteriorDeltaStore store = new InteriorDeltaStore(WORLD_SEED);
+
+        assertThrows(IOException.class, () -> load(store, new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+    }
+
+    @Test
+    void failedReadKeepsDeltas() throws IOException {
+        InteriorDeltaStore store = new InteriorDeltaStore(WORLD_SEED);
+        BuildingInterior interior = generate(store, createBuilding());
+        store.recordLooted(interior, interior.getFurniture().get(0));
+        byte[] save = save(store);
+
+        // Cut off in the middle of the building list
+        byte[] truncated = new byte[save.length - 2];
+        System.arraycopy(save, 0, truncated, 0, truncated.length);
+        InteriorDeltaStore loaded = new InteriorDeltaStore(WORLD_SEED);
+        load(loaded, save);
+        assertThrows(IOException.class, () -> load(loaded, truncated));
+
+        assertEquals(1, loaded.getChangedBuildingCount());
+    }
+}
@@ -0,0 +1,231 @@
+package com.cyberpunk.game.city;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for RoadNetwork: the CSR graph built from road segments and A* routing.
+ */
+class RoadNetworkTest {
+
+    /**
+     * Build a 3x3 grid of intersections 100 m apart. The middle road of each
+     * direction is an arterial, the others are streets.
+     */
+    private static List<Road> createGrid() {
+        List<Road> roads = new ArrayList<>();
+        for (int i = -1; i <= 1; i++) {
+            float width = i == 0 ? 15 : 10;
+
+            Road horizontal = new Road();
+            horizontal.setStart(-100, 0, i * 100);
+            horizontal.setEnd(100, 0, i * 100);
+            horizontal.setWidth(width);
+            roads.add(horizontal);
+
+            Road vertical = new Road();
+            vertical.setStart(i * 100, 0, -100);
+            vertical.setEnd(i * 100, 0, 100);
+            vertical.setWidth(width);
+            roads.add(vertical);
+        }
+        return roads;
+    }
+
+    /**
+     * Create a single road.
+     */
+    private static Road createRoad(float startX, float startZ, float endX, float endZ, float width) {
+        Road road = new Road();
+        road.setStart(startX, 0, startZ);
+        road.setEnd(endX, 0, endZ);
+        road.setWidth(width);
+        return road;
+    }
+
+    @Test
+    void splitsRoadsAtIntersections() {
+        RoadNetwork network = RoadNetwork.fromRoads(createGrid());
+
+        // 9 intersections, 12 segments of 100 m, two directed edges each
+        assertEquals(9, network.getNodeCount());
+        assertEquals(24, network.getEdgeCount());
+        for (int e = 0; e < network.getEdgeCount(); e++) {
+            assertEquals(100.0f, network.getEdgeLength(e), 1e-3f);
+        }
+    }
+
+    @Test
+    void storesEdgesInCompressedSparseRows() {
+        RoadNetwork network = RoadNetwork.fromRoads(createGrid());
+
+        int expectedStart = 0;
+        for (int n = 0; n < network.getNodeCount(); n++) {
+            assertEquals(expectedStart, network.getEdgeStart(n), "edge ranges must be contiguous");
+            for (int e = network.getEdgeStart(n); e < network.getEdgeEnd(n); e++) {
+                assertEquals(n, network.getEdgeSource(e));
+                assertNotEquals(n, network.getEdgeTarget(e));
+
+                // Every edge has a reverse edge of the same length
+                int reverse = network.findEdge(network.getEdgeTarget(e), n);
+                assertTrue(reverse >= 0, "missing reverse edge");
+                assertEquals(network.getEdgeLength(e), network.getEdgeLength(reverse), 0.0f);
+            }
+            expectedStart = network.getEdgeEnd(n);
+        }
+        assertEquals(network.getEdgeCount(), expectedStart);
+    }
+
+    @Test
+    void nodeDegreesMatchGrid() {
+        RoadNetwork network = RoadNetwork.fromRoads(createGrid());
+
+        for (int n = 0; n < network.getNodeCount(); n++) {
+            boolean middleX = network.getNodeX(n) == 0.0f;
+            boolean middleZ = network.getNodeZ(n) == 0.0f;
+            int expected = middleX && middleZ ? 4 : middleX || middleZ ? 3 : 2;
+            assertEquals(expected, network.getEdgeEnd(n) - network.getEdgeStart(n),
+                "degree of node at " + network.getNodeX(n) + ", " + network.getNodeZ(n));
+        }
+    }
+
+    @Test
+    void classifiesEdgesByRoadWidth() {
+        RoadNetwork network = RoadNetwork.fromRoads(createGrid());
+
+        for (int e = 0; e < network.getEdgeCount(); e++) {
+            if (network.getEdgeWidth(e) >= 15.0f) {
+                assertEquals(RoadNetwork.SPEED_CLASS_ARTERIAL, network.getEdgeSpeedClass(e));
+                assertEquals(2, network.getEdgeLanes(e));
+                assertEquals(22.2f, network.getEdgeSpeedLimit(e), 1e-3f);
+            } else {
+                assertEquals(RoadNetwork.SPEED_CLASS_STREET, network.getEdgeSpeedClass(e));
+                assertEquals(1, network.getEdgeLanes(e));
+                assertEquals(13.9f, network.getEdgeSpeedLimit(e), 1e-3f);
+            }
+            assertEquals(network.getEdgeLength(e) / network.getEdgeSpeedLimit(e),
+                network.getEdgeTravelTime(e), 1e-4f);
+        }
+    }
+
+    @Test
+    void findsNearestNode() {
+        RoadNetwork network = RoadNetwork.fromRoads(createGrid());
+
+        int node = network.findNearestNode(90, -80);
+        assertEquals(100.0f, network.getNodeX(node), 0.0f);
+        assertEquals(-100.0f, network.getNodeZ(node), 0.0f);
+
+        node = network.findNearestNode(10, 5);
+        assertEquals(0.0f, network.getNodeX(node), 0.0f);
+        assertEquals(0.0f, network.getNodeZ(node), 0.0f);
+
+        assertEquals(-1, RoadNetwork.fromRoads(new ArrayList<>()).findNearestNode(0, 0));
+    }
+
+    @Test
+    void routesMatchShortestTravelTime() {
+        RoadNetwork network = RoadNetwork.fromRoads(createGrid());
+
+        for (int start = 0; start < network.getNodeCount(); start++) {
+            float[] shortest = dijkstra(network, start);
+            for (int goal = 0; goal < network.getNodeCount(); goal++) {
+                int[] route = network.findRoute(start, goal);
+                assertEquals(start, route[0]);
+                assertEquals(goal, route[route.length - 1]);
+
+                float cost = 0.0f;
+                for (int i = 0; i + 1 < route.length; i++) {
+                    int edge = network.findEdge(route[i], route[i + 1]);
+                    assertTrue(edge >= 0, "route uses a missing edge");
+                    cost += network.getEdgeTravelTime(edge);
+                }
+                assertEquals(shortest[goal], cost, 1e-3f, "route " + start + " -> " + goal);
+            }
+        }
+    }
+
+    @Test
+    void prefersArterialRoads() {
+        RoadNetwork network = RoadNetwork.fromRoads(createGrid());
+
+        // Corner to opposite corner: the arterials through the centre are faster
+        int start = network.findNearestNode(-100, -100);
+        int goal = network.findNearestNode(100, 100);
+        int centre = network.findNearestNode(0, 0);
+
+        int[] route = network.findRoute(start, goal);
+        assertEquals(5, route.length);
+        assertTrue(Arrays.stream(route).anyMatch(node -> node == centre), "route should pass the centre");
+    }
+
+    @Test
+    void routeToSelfIsSingleNode() {
+        RoadNetwork network = RoadNetwork.fromRoads(createGrid());
+
+        assertArrayEquals(new int[] {4}, network.findRoute(4, 4));
+    }
+
+    @Test
+    void unreachableOrInvalidNodesGiveEmptyRoute() {
+        List<Road> roads = new ArrayList<>();
+        roads.add(createRoad(0, 0, 100, 0, 10));
+        roads.add(createRoad(0, 500, 100, 500, 10));
+        RoadNetwork network = RoadNetwork.fromRoads(roads);
+
+        assertEquals(4, network.getNodeCount());
+        int start = network.findNearestNode(0, 0);
+        int goal = network.findNearestNode(100, 500);
+        assertEquals(0, network.findRoute(start, goal).length);
+
+        assertEquals(0, network.findRoute(-1, goal).length);
+        assertEquals(0, network.findRoute(start, network.getNodeCount()).length);
+    }
+
+    @Test
+    void mergesSharedRoadEnds() {
+        List<Road> roads = new ArrayList<>();
+        roads.add(createRoad(0, 0, 100, 0, 10));
+        roads.add(createRoad(100, 0, 100, 100, 10));
+        RoadNetwork network = RoadNetwork.fromRoads(roads);
+
+        assertEquals(3, network.getNodeCount());
+        assertEquals(4, network.getEdgeCount());
+
+        int corner = network.findNearestNode(100, 0);
+        assertEquals(2, network.getEdgeEnd(corner) - network.getEdgeStart(corner));
+        assertEquals(1, network.getEdgeRoad(network.findEdge(corner, network.findNearestNode(100, 100))));
+    }
+
+    /**
+     * Reference shortest travel times from a node, by brute-force Dijkstra.
+     */
+    private static float[] dijkstra(RoadNetwork network, int start) {
+        int n = network.getNodeCount();
+        float[] cost = new float[n];
+        boolean[] done = new boolean[n];
+        Arrays.fill(cost, Float.MAX_VALUE);
+        cost[start] = 0.0f;
+
+        for (int step = 0; step < n; step++) {
+            int node = -1;
+            for (int i = 0; i < n; i++) {
+                if (!done[i] && (node == -1 || cost[i] < cost[node])) {
+                    node = i;
+                }
+            }
+            done[node] = true;
+            for (int e = network.getEdgeStart(node); e < network.getEdgeEnd(node); e++) {
+                int target = network.getEdgeTarget(e);
+                cost[target] = Math.min(cost[target], cost[node] + network.getEdgeTravelTime(e));
+            }
+        }
+
+        return cost;
+    }
+}
@@ -0,0 +1,137 @@
+package com.cyberpunk.game.render;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the CPU side of ClusteredLights: binning lights into clusters.
+ * The camera sits at the origin looking down +Z with the default projection.
+ */
+class ClusteredLightsTest {
+
+    // Cluster of a small light 20 m straight ahead
+    private static final int CENTRE_X = 8;
+    private static final int CENTRE_Y = 4;
+    private static final int CENTRE_SLICE = 10;
+
+    /**
+     * Add white lights and assign them to clusters.
+     *
+     * @param positions X, Y, Z and radius of each light
+     */
+    private static ClusteredLights assign(float[]... positions) {
+        ClusteredLights lights = new ClusteredLights();
+        for (float[] light : positions) {
+            lights.addLight(light[0], light[1], light[2], light[3], 1, 1, 1);
+        }
+        lights.assign(new Camera());
+        return lights;
+    }
+
+    /**
+     * Count the clusters containing any light.
+     */
+    private static int countLitClusters(ClusteredLights lights) {
+        int lit = 0;
+        for (int slice = 0; slice < ClusteredLights.SLICES; slice++) {
+            for (int y = 0; y < ClusteredLights.TILES_Y; y++) {
+                for (int x = 0; x < ClusteredLights.TILES_X; x++) {
+                    if (lights.getClusterLightCount(x, y, slice) > 0) {
+                        lit++;
+                    }
+                }
+            }
+        }
+        return lit;
+    }
+
+    @Test
+    void binsLightInItsCluster() {
+        ClusteredLights lights = assign(new float[] {0, 0, 20, 1});
+
+        assertEquals(1, lights.getClusterLightCount(CENTRE_X, CENTRE_Y, CENTRE_SLICE));
+        assertEquals(0, lights.getClusterLight(CENTRE_X, CENTRE_Y, CENTRE_SLICE, 0));
+        assertEquals(0, lights.getClusterLightCount(CENTRE_X, CENTRE_Y, 0));
+        assertEquals(0, lights.getClusterLightCount(0, 0, CENTRE_SLICE));
+        assertEquals(1, lights.getMaxClusterLights());
+
+        lights.cleanup();
+    }
+
+    @Test
+    void largeLightCoversMoreClusters() {
+        ClusteredLights small = assign(new float[] {0, 0, 20, 1});
+        ClusteredLights large = assign(new float[] {0, 0, 20, 10});
+
+        assertTrue(countLitClusters(large) > countLitClusters(small));
+        assertEquals(1, large.getClusterLightCount(CENTRE_X, CENTRE_Y, CENTRE_SLICE));
+
+        small.cleanup();
+        large.cleanup();
+    }
+
+    @Test
+    void skipsLightsOutOfView() {
+        ClusteredLights lights = assign(
+            new float[] {0, 0, -20, 1},   // Behind the camera
+            new float[] {0, 0, 1100, 1},  // Beyond the far plane
+            new float[] {0, 500, 20, 1},  // Above the view
+            new float[] {-500, 0, 20, 1}  // Beside the view
+        );
+
+        assertEquals(4, lights.getLightCount());
+        assertEquals(0, countLitClusters(lights));
+        assertEquals(0, lights.getMaxClusterLights());
+
+        lights.cleanup();
+    }
+
+    @Test
+    void keepsLightsInAddOrder() {
+        ClusteredLights lights = assign(
+            new float[] {0, 0, 20, 1},
+            new float[] {0, 500, 20, 1},
+            new float[] {0, 0, 21, 1},
+            new float[] {0, 0, 20.5f, 1}
+        );
+
+        assertEquals(3, lights.getClusterLightCount(CENTRE_X, CENTRE_Y, CENTRE_SLICE));
+        assertEquals(0, lights.getClusterLight(CENTRE_X, CENTRE_Y, CENTRE_SLICE, 0));
+        assertEquals(2, lights.getClusterLight(CENTRE_X, CENTRE_Y, CENTRE_SLICE, 1));
+        assertEquals(3, lights.getClusterLight(CENTRE_X, CENTRE_Y, CENTRE_SLICE, 2));
+
+        lights.cleanup();
+    }
+
+    @Test
+    void capsLightsPerCluster() {
+        float[][] positions = new float[ClusteredLights.MAX_LIGHTS_PER_CLUSTER + 10][];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = new float[] {0, 0, 20, 1};
+        }
+        ClusteredLights lights = assign(positions);
+
+        assertEquals(ClusteredLights.MAX_LIGHTS_PER_CLUSTER,
+            lights.getClusterLightCount(CENTRE_X, CENTRE_Y, CENTRE_SLICE));
+        assertEquals(ClusteredLights.MAX_LIGHTS_PER_CLUSTER, lights.getMaxClusterLights());
+
+        // The first lights added are the ones kept
+        assertEquals(ClusteredLights.MAX_LIGHTS_PER_CLUSTER - 1,
+            lights.getClusterLight(CENTRE_X, CENTRE_Y, CENTRE_SLICE, ClusteredLights.MAX_LIGHTS_PER_CLUSTER - 1));
+
+        lights.cleanup();
+    }
+
+    @Test
+    void clearRemovesLights() {
+        ClusteredLights lights = assign(new float[] {0, 0, 20, 1});
+        lights.clear();
+        lights.assign(new Camera());
+
+        assertEquals(0, lights.getLightCount());
+        assertEquals(0, lights.getClusterLightCount(CENTRE_X, CENTRE_Y, CENTRE_SLICE));
+
+        lights.cleanup();
+    }
+}
@@ -0,0 +1,117 @@
+package com.cyberpunk.game.render;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for OcclusionBuffer. The camera sits at the origin looking down +Z
+ * with the default projection.
+ */
+class OcclusionBufferTest {
+
+    // A wall across the whole view 10 m ahead
+    private static final float[] WALL = {-50, -50, 10, 50, 50, 11};
+
+    /**
+     * Start a frame, add occluders and rasterize them.
+     */
+    private static OcclusionBuffer draw(float[]... occluders) {
+        OcclusionBuffer buffer = new OcclusionBuffer();
+        buffer.begin(new Camera());
+        for (float[] occluder : occluders) {
+            buffer.addOccluder(occluder, 0);
+        }
+        buffer.rasterize();
+        return buffer;
+    }
+
+    @Test
+    void hidesBoxBehindWall() {
+        OcclusionBuffer buffer = draw(WALL);
+
+        assertTrue(buffer.isOccluded(new float[] {-1, -1, 30, 1, 1, 32}, 0));
+        assertTrue(buffer.isOccluded(new float[] {5, -3, 100, 8, 3, 110}, 0));
+
+        buffer.cleanup();
+    }
+
+    @Test
+    void showsBoxInFrontOfWall() {
+        OcclusionBuffer buffer = draw(WALL);
+
+        assertFalse(buffer.isOccluded(new float[] {-1, -1, 4, 1, 1, 6}, 0));
+
+        buffer.cleanup();
+    }
+
+    @Test
+    void showsBoxWiderThanOccluder() {
+        OcclusionBuffer buffer = draw(new float[] {-0.5f, -0.5f, 10, 0.5f, 0.5f, 11});
+
+        assertTrue(buffer.isOccluded(new float[] {-0.5f, -0.5f, 40, 0.5f, 0.5f, 41}, 0));
+        assertFalse(buffer.isOccluded(new float[] {-5, -5, 40, 5, 5, 41}, 0));
+
+        buffer.cleanup();
+    }
+
+    @Test
+    void showsEverythingWithoutOccluders() {
+        OcclusionBuffer buffer = draw();
+
+        assertEquals(0, buffer.getTriangleCount());
+        assertFalse(buffer.isOccluded(new float[] {-1, -1, 30, 1, 1, 32}, 0));
+
+        buffer.cleanup();
+    }
+
+    @Test
+    void showsBoxReachingBehindCamera() {
+        OcclusionBuffer buffer = draw(WALL);
+
+        assertFalse(buffer.isOccluded(new float[] {-1, -1, -5, 1, 1, 40}, 0));
+
+        buffer.cleanup();
+    }
+
+    @Test
+    void keepsOnlyFacesTowardsCamera() {
+        OcclusionBuffer buffer = draw(WALL);
+
+        // Only the -Z face is turned towards the camera
+        assertEquals(2, buffer.getTriangleCount());
+
+        buffer.cleanup();
+    }
+
+    @Test
+    void readsBoundsAtOffset() {
+        OcclusionBuffer buffer = new OcclusionBuffer();
+        buffer.begin(new Camera());
+        float[] bounds = new float[12];
+        System.arraycopy(WALL, 0, bounds, 6, 6);
+        buffer.addOccluder(bounds, 6);
+        buffer.rasterize();
+
+        float[] boxes = {-1, -1, 4, 1, 1, 6, -1, -1, 30, 1, 1, 32};
+        assertFalse(buffer.isOccluded(boxes, 0));
+        assertTrue(buffer.isOccluded(boxes, 6));
+
+        buffer.cleanup();
+    }
+
+    @Test
+    void beginClearsPreviousFrame() {
+        OcclusionBuffer buffer = draw(WALL);
+        float[] box = {-1, -1, 30, 1, 1, 32};
+        assertTrue(buffer.isOccluded(box, 0));
+
+        buffer.begin(new Camera());
+        buffer.rasterize();
+
+        assertEquals(0, buffer.getTriangleCount());
+        assertFalse(buffer.isOccluded(box, 0));
+
+        buffer.cleanup();
+    }
+}
@@ -0,0 +1,148 @@
+package com.cyberpunk.game.render;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for RenderQueue key ordering and its radix sort. Packets use no
+ * shader and texture 0, so executing them makes no GL calls.
+ */
+class RenderQueueTest {
+
+    /**
+     * Submit a packet that records its name when drawn.
+     */
+    private static void submit(RenderQueue queue, List<String> drawn, int pass, float depth, String name) {
+        queue.submit(pass, null, 0, depth, () -> drawn.add(name));
+    }
+
+    @Test
+    void drawsOpaqueFrontToBack() {
+        RenderQueue queue = new RenderQueue();
+        List<String> drawn = new ArrayList<>();
+        queue.begin(null);
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 30, "far");
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 10, "near");
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 20, "middle");
+
+        queue.execute();
+
+        assertEquals(List.of("near", "middle", "far"), drawn);
+    }
+
+    @Test
+    void drawsTransparentBackToFront() {
+        RenderQueue queue = new RenderQueue();
+        List<String> drawn = new ArrayList<>();
+        queue.begin(null);
+        submit(queue, drawn, RenderQueue.PASS_TRANSPARENT, 10, "near");
+        submit(queue, drawn, RenderQueue.PASS_TRANSPARENT, 30, "far");
+        submit(queue, drawn, RenderQueue.PASS_TRANSPARENT, 20, "middle");
+
+        queue.execute();
+
+        assertEquals(List.of("far", "middle", "near"), drawn);
+    }
+
+    @Test
+    void drawsPassesInOrder() {
+        RenderQueue queue = new RenderQueue();
+        List<String> drawn = new ArrayList<>();
+        queue.begin(null);
+        submit(queue, drawn, RenderQueue.PASS_UI, 0, "ui");
+        submit(queue, drawn, RenderQueue.PASS_TRANSPARENT, 500, "transparent");
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 900, "opaque");
+
+        queue.execute();
+
+        assertEquals(List.of("opaque", "transparent", "ui"), drawn);
+    }
+
+    @Test
+    void keepsSubmissionOrderForUiAndEqualKeys() {
+        RenderQueue queue = new RenderQueue();
+        List<String> drawn = new ArrayList<>();
+        queue.begin(null);
+        submit(queue, drawn, RenderQueue.PASS_UI, 50, "ui1");
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 10, "opaque1");
+        submit(queue, drawn, RenderQueue.PASS_UI, 10, "ui2");
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 10, "opaque2");
+        submit(queue, drawn, RenderQueue.PASS_UI, 30, "ui3");
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 10, "opaque3");
+
+        queue.execute();
+
+        assertEquals(List.of("opaque1", "opaque2", "opaque3", "ui1", "ui2", "ui3"), drawn);
+    }
+
+    @Test
+    void sortsMoreThanInitialCapacity() {
+        RenderQueue queue = new RenderQueue();
+        List<Integer> drawn = new ArrayList<>();
+        int count = 600;
+        queue.begin(null);
+        for (int i = 0; i < count; i++) {
+            // Every depth once, in a scrambled order
+            int rank = (i * 37) % count;
+            queue.submit(RenderQueue.PASS_OPAQUE, null, 0, rank * 0.5f, () -> drawn.add(rank));
+        }
+        assertEquals(count, queue.getPacketCount());
+
+        queue.execute();
+
+        assertEquals(count, drawn.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (int) drawn.get(i));
+        }
+    }
+
+    @Test
+    void clearsAfterExecute() {
+        RenderQueue queue = new RenderQueue();
+        List<String> drawn = new ArrayList<>();
+        queue.begin(null);
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 10, "first");
+        queue.execute();
+        assertEquals(0, queue.getPacketCount());
+
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, 10, "second");
+        queue.execute();
+
+        assertEquals(List.of("first", "second"), drawn);
+    }
+
+    @Test
+    void measuresDepthFromCamera() {
+        RenderQueue queue = new RenderQueue();
+        queue.begin(null);
+        assertEquals(0.0f, queue.getDepth(3, 4, 0), 0.0f);
+
+        Camera camera = new Camera();
+        camera.setPosition(3, 4, 0);
+        camera.setFarPlane(500);
+        queue.begin(camera);
+
+        assertEquals(5.0f, queue.getDepth(0, 0, 0), 1e-5f);
+        assertEquals(500.0f, queue.getFarDepth(), 0.0f);
+    }
+
+    @Test
+    void farDepthSortsLast() {
+        Camera camera = new Camera();
+        RenderQueue queue = new RenderQueue();
+        List<String> drawn = new ArrayList<>();
+        queue.begin(camera);
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, queue.getFarDepth(), "ground");
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, queue.getFarDepth() * 0.99f, "distant");
+        submit(queue, drawn, RenderQueue.PASS_OPAQUE, queue.getFarDepth() * 2.0f, "beyond");
+
+        queue.execute();
+
+        // Depths past the far plane clamp to it and keep submission order
+        assertEquals(List.of("distant", "ground", "beyond"), drawn);
+    }
+}